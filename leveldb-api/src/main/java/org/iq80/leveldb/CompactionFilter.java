@@ -0,0 +1,63 @@
+package org.iq80.leveldb;
+
+/**
+ * Inspects every value written by a flush or a compaction and decides
+ * whether to keep it, remove it or replace its value. This allows expiring
+ * or rewriting data without issuing deletes through the write path.
+ * <p>
+ * Filters are called from the background compaction thread, never
+ * concurrently, and only for values: deletions are not passed to the filter.
+ * A removed entry is turned into a deletion unless the compaction can prove
+ * no older version of the key exists below it, so removed keys never
+ * resurface.
+ */
+public interface CompactionFilter {
+
+    String name();
+
+    /**
+     * @param level the level the entry is being written to, 0 for flushes
+     * @param key   the user key
+     * @param value the current value
+     */
+    Decision filter(int level, byte[] key, byte[] value);
+
+    final class Decision {
+        private static final Decision KEEP = new Decision(false, null);
+        private static final Decision REMOVE = new Decision(true, null);
+
+        private final boolean remove;
+        private final byte[] newValue;
+
+        private Decision(boolean remove, byte[] newValue) {
+            this.remove = remove;
+            this.newValue = newValue;
+        }
+
+        public static Decision keep() {
+            return KEEP;
+        }
+
+        public static Decision remove() {
+            return REMOVE;
+        }
+
+        public static Decision changeValue(byte[] newValue) {
+            if (newValue == null) {
+                throw new NullPointerException("newValue is null");
+            }
+            return new Decision(false, newValue);
+        }
+
+        public boolean isRemove() {
+            return remove;
+        }
+
+        /**
+         * The replacement value, or null if the value is kept as is.
+         */
+        public byte[] getNewValue() {
+            return newValue;
+        }
+    }
+}
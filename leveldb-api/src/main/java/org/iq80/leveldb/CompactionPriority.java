@@ -0,0 +1,25 @@
+package org.iq80.leveldb;
+
+/**
+ * How leveled compaction chooses the file of a level that is merged into
+ * the next level.
+ */
+public enum CompactionPriority {
+    /**
+     * Take the files of a level in key order, continuing after the last
+     * file compacted in that level.
+     */
+    ROUND_ROBIN,
+    /**
+     * Take the file whose overlapping bytes in the next level are smallest
+     * relative to its own size, which rewrites the least data per byte
+     * moved down.
+     */
+    MIN_OVERLAPPING_RATIO,
+    /**
+     * Take the file with the highest share of deletion markers, so deleted
+     * data is purged before it slows down scans. Falls back to round robin
+     * when no file of the level contains deletions.
+     */
+    TOMBSTONE_DENSITY
+}
@@ -0,0 +1,24 @@
+package org.iq80.leveldb;
+
+/**
+ * How background compactions choose which files to merge.
+ */
+public enum CompactionStyle {
+    /**
+     * Classic leveled compaction: each level is a single sorted run roughly
+     * ten times the size of the one above it.
+     */
+    LEVEL,
+    /**
+     * Size-tiered compaction: sorted runs of similar size are merged
+     * together, trading read and space amplification for lower write
+     * amplification.
+     */
+    UNIVERSAL,
+    /**
+     * All files stay in level 0 and are never merged. The oldest files are
+     * dropped once the total size or the file age exceeds its limit, which
+     * suits append-only data that expires.
+     */
+    FIFO
+}
@@ -5,7 +5,9 @@ package org.iq80.leveldb;
  */
 public enum CompressionType {
     NONE(0x00),
-    SNAPPY(0x01);
+    SNAPPY(0x01),
+    LZ4(0x04),
+    ZSTD(0x07);
     private final int persistentId;
 
     CompressionType(int persistentId) {
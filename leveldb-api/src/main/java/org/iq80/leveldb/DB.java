@@ -2,6 +2,7 @@ package org.iq80.leveldb;
 
 import java.io.Closeable;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
@@ -20,6 +21,16 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
 
     void delete(byte[] key) throws DBException;
 
+    /**
+     * Deletes every key in the range [begin, end) with a single range
+     * tombstone instead of one deletion per key. Tables that end up fully
+     * covered by the tombstone are dropped by compaction without being
+     * rewritten.
+     *
+     * @throws IllegalArgumentException if begin is not before end
+     */
+    void deleteRange(byte[] begin, byte[] end) throws DBException;
+
     void write(WriteBatch updates) throws DBException;
 
     WriteBatch createWriteBatch();
@@ -36,14 +47,38 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
      */
     Snapshot delete(byte[] key, WriteOptions options) throws DBException;
 
+    /**
+     * @return null if options.isSnapshot()==false otherwise returns a snapshot
+     * of the DB after this operation.
+     */
+    Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options) throws DBException;
+
     /**
      * @return null if options.isSnapshot()==false otherwise returns a snapshot
      * of the DB after this operation.
      */
     Snapshot write(WriteBatch updates, WriteOptions options) throws DBException;
 
+    /**
+     * Applies the batch without waiting for the log to be forced to disk.
+     * The returned future completes once the record is durable; fsyncs for
+     * concurrent asynchronous writes are coalesced by a background thread
+     * over {@link Options#walSyncWindowMicros(long)}. The sync flag of the
+     * options is ignored. If the options disable the write-ahead log there
+     * is nothing to sync and the future completes immediately.
+     */
+    CompletableFuture<Void> writeAsync(WriteBatch updates, WriteOptions options) throws DBException;
+
     Snapshot getSnapshot();
 
+    /**
+     * Writes any write-ahead log records buffered because of
+     * {@link Options#manualWalFlush(boolean)} to the log file.
+     *
+     * @param sync if true the log file is also forced to disk
+     */
+    void flushWal(boolean sync) throws DBException;
+
     long[] getApproximateSizes(Range... ranges);
 
     String getProperty(String name);
@@ -13,12 +13,49 @@ public class Options {
     private int blockRestartInterval = 16;
     private int blockSize = 4 * 1024;
     private CompressionType compressionType = CompressionType.SNAPPY;
+    private CompressionType[] compressionPerLevel;
+    private CompressionType bottommostCompression;
+    private int compressionDictionarySize;
+    private int indexPartitionSize;
+    private double dataBlockHashRatio;
+    private TableFormat tableFormat = TableFormat.BLOCK_BASED;
+    private boolean blockAlign;
     private boolean verifyChecksums = true;
     private boolean paranoidChecks;
     private DBComparator comparator;
     private Logger logger;
     private long cacheSize;
 
+    private int level0SlowdownWritesTrigger = 8;
+    private int level0StopWritesTrigger = 12;
+    private long softPendingCompactionBytesLimit = 64L << 30;
+    private long hardPendingCompactionBytesLimit = 256L << 30;
+    private long delayedWriteRate = 16 << 20;
+
+    private boolean manualWalFlush;
+    private long walSyncWindowMicros = 1000;
+    private int recycleLogFileNum;
+    private boolean walPreallocate;
+    private CompressionType walCompression = CompressionType.NONE;
+
+    private CompactionStyle compactionStyle = CompactionStyle.LEVEL;
+    private CompactionPriority compactionPriority = CompactionPriority.ROUND_ROBIN;
+    private int universalSizeRatio = 1;
+    private int universalMaxSortedRuns = 4;
+
+    private long maxBytesForLevelBase = 10 << 20;
+    private double maxBytesForLevelMultiplier = 10;
+    private boolean levelCompactionDynamicLevelBytes;
+    private long targetFileSizeBase = 2 << 20;
+    private int targetFileSizeMultiplier = 1;
+
+    private long fifoMaxTableFilesSize = 1L << 30;
+    private long fifoTtlSeconds;
+
+    private CompactionFilter compactionFilter;
+    private RateLimiter rateLimiter;
+    private int compressionThreads;
+
     static void checkArgNotNull(Object value, String name) {
         if (value == null) {
             throw new IllegalArgumentException("The " + name + " argument cannot be null");
@@ -89,6 +126,114 @@ public class Options {
         return this;
     }
 
+    public CompressionType[] compressionPerLevel() {
+        return compressionPerLevel;
+    }
+
+    /**
+     * Compression for the tables written to each level, indexed by level.
+     * Levels past the end of the array use its last entry. When null every
+     * level uses {@link #compressionType()}. Memtable flushes use the entry
+     * for level 0.
+     */
+    public Options compressionPerLevel(CompressionType... compressionPerLevel) {
+        if (compressionPerLevel != null) {
+            for (CompressionType compressionType : compressionPerLevel) {
+                checkArgNotNull(compressionType, "compressionPerLevel element");
+            }
+            compressionPerLevel = compressionPerLevel.length == 0 ? null : compressionPerLevel.clone();
+        }
+        this.compressionPerLevel = compressionPerLevel;
+        return this;
+    }
+
+    public CompressionType bottommostCompression() {
+        return bottommostCompression;
+    }
+
+    /**
+     * Compression for compaction outputs with no data in any deeper level,
+     * overriding {@link #compressionPerLevel()}. Null disables the override.
+     */
+    public Options bottommostCompression(CompressionType bottommostCompression) {
+        this.bottommostCompression = bottommostCompression;
+        return this;
+    }
+
+    public int compressionDictionarySize() {
+        return compressionDictionarySize;
+    }
+
+    /**
+     * Maximum size of a dictionary trained from the data blocks of each
+     * bottommost compaction output and stored in the table, so that small
+     * blocks of similar records compress well. Only used with compression
+     * types that support dictionaries (ZSTD). Zero (the default) disables it.
+     */
+    public Options compressionDictionarySize(int compressionDictionarySize) {
+        this.compressionDictionarySize = compressionDictionarySize;
+        return this;
+    }
+
+    public int indexPartitionSize() {
+        return indexPartitionSize;
+    }
+
+    /**
+     * Target size of an index partition. When positive, the index of a
+     * table that outgrows one partition is split into partitions loaded on
+     * demand, found through a small top-level index. Zero (the default)
+     * keeps a single index block.
+     */
+    public Options indexPartitionSize(int indexPartitionSize) {
+        this.indexPartitionSize = indexPartitionSize;
+        return this;
+    }
+
+    public double dataBlockHashRatio() {
+        return dataBlockHashRatio;
+    }
+
+    /**
+     * Average number of user keys per bucket of the hash index appended to
+     * each data block, so that point lookups can go straight to the restart
+     * interval holding the key (0.75 is a good value). Only used with the
+     * default bytewise comparator. Zero (the default) disables the hash index.
+     */
+    public Options dataBlockHashRatio(double dataBlockHashRatio) {
+        this.dataBlockHashRatio = dataBlockHashRatio;
+        return this;
+    }
+
+    public TableFormat tableFormat() {
+        return tableFormat;
+    }
+
+    /**
+     * Layout of the table files written by flushes and compactions.
+     */
+    public Options tableFormat(TableFormat tableFormat) {
+        checkArgNotNull(tableFormat, "tableFormat");
+        this.tableFormat = tableFormat;
+        return this;
+    }
+
+    public boolean blockAlign() {
+        return blockAlign;
+    }
+
+    /**
+     * Start data blocks of block-based tables on 4KB page boundaries, so that
+     * a block no larger than a page is read from a single page. Blocks are cut
+     * before they grow past the block size, and padding is only inserted when
+     * it is small (at most 1/8 of a page). Files written with this option are
+     * readable by readers that do not know about it.
+     */
+    public Options blockAlign(boolean blockAlign) {
+        this.blockAlign = blockAlign;
+        return this;
+    }
+
     public boolean verifyChecksums() {
         return verifyChecksums;
     }
@@ -133,4 +278,327 @@ public class Options {
         this.paranoidChecks = paranoidChecks;
         return this;
     }
+
+    public int level0SlowdownWritesTrigger() {
+        return level0SlowdownWritesTrigger;
+    }
+
+    /**
+     * Soft limit on number of level-0 files. Writes are throttled to
+     * {@link #delayedWriteRate()} once this many files exist.
+     */
+    public Options level0SlowdownWritesTrigger(int level0SlowdownWritesTrigger) {
+        this.level0SlowdownWritesTrigger = level0SlowdownWritesTrigger;
+        return this;
+    }
+
+    public int level0StopWritesTrigger() {
+        return level0StopWritesTrigger;
+    }
+
+    /**
+     * Maximum number of level-0 files. Writes stop at this point until
+     * compaction catches up.
+     */
+    public Options level0StopWritesTrigger(int level0StopWritesTrigger) {
+        this.level0StopWritesTrigger = level0StopWritesTrigger;
+        return this;
+    }
+
+    public long softPendingCompactionBytesLimit() {
+        return softPendingCompactionBytesLimit;
+    }
+
+    /**
+     * Writes are throttled once the estimated number of bytes compaction
+     * needs to rewrite exceeds this limit. Zero disables the check.
+     */
+    public Options softPendingCompactionBytesLimit(long softPendingCompactionBytesLimit) {
+        this.softPendingCompactionBytesLimit = softPendingCompactionBytesLimit;
+        return this;
+    }
+
+    public long hardPendingCompactionBytesLimit() {
+        return hardPendingCompactionBytesLimit;
+    }
+
+    /**
+     * Writes stop once the estimated number of bytes compaction needs to
+     * rewrite exceeds this limit. Zero disables the check.
+     */
+    public Options hardPendingCompactionBytesLimit(long hardPendingCompactionBytesLimit) {
+        this.hardPendingCompactionBytesLimit = hardPendingCompactionBytesLimit;
+        return this;
+    }
+
+    public long delayedWriteRate() {
+        return delayedWriteRate;
+    }
+
+    /**
+     * Write rate in bytes per second applied when writes start to be
+     * throttled. The rate is lowered further as the stop triggers get closer.
+     */
+    public Options delayedWriteRate(long delayedWriteRate) {
+        this.delayedWriteRate = delayedWriteRate;
+        return this;
+    }
+
+    public boolean manualWalFlush() {
+        return manualWalFlush;
+    }
+
+    /**
+     * Buffer write-ahead log records in memory instead of writing each one
+     * as it arrives. The buffer is written out when it fills, on a sync
+     * write, on {@link DB#flushWal(boolean)} and when the log is closed.
+     * Buffered records are lost if the process crashes.
+     */
+    public Options manualWalFlush(boolean manualWalFlush) {
+        this.manualWalFlush = manualWalFlush;
+        return this;
+    }
+
+    public long walSyncWindowMicros() {
+        return walSyncWindowMicros;
+    }
+
+    /**
+     * How long the background syncer waits for more asynchronous writes
+     * before forcing the log to disk. A longer window means fewer fsyncs
+     * but a higher latency for {@link DB#writeAsync(WriteBatch, WriteOptions)}.
+     */
+    public Options walSyncWindowMicros(long walSyncWindowMicros) {
+        this.walSyncWindowMicros = walSyncWindowMicros;
+        return this;
+    }
+
+    public int recycleLogFileNum() {
+        return recycleLogFileNum;
+    }
+
+    /**
+     * Number of obsolete write-ahead log files kept around to be renamed
+     * and overwritten instead of creating a new file on every memtable
+     * switch. Logs are written in a record format that carries the log
+     * number, so the stale tail of a reused file is ignored on recovery.
+     * Zero disables recycling.
+     */
+    public Options recycleLogFileNum(int recycleLogFileNum) {
+        this.recycleLogFileNum = recycleLogFileNum;
+        return this;
+    }
+
+    public boolean walPreallocate() {
+        return walPreallocate;
+    }
+
+    /**
+     * Allocate the space for the next write-ahead log up front, sized to the
+     * write buffer plus ten percent, so appends do not have to extend the
+     * file. The file is zero filled in the background while the current log
+     * is in use; a switch that finds it not yet ready, and the log opened
+     * with the database, are not preallocated.
+     */
+    public Options walPreallocate(boolean walPreallocate) {
+        this.walPreallocate = walPreallocate;
+        return this;
+    }
+
+    public CompressionType walCompression() {
+        return walCompression;
+    }
+
+    /**
+     * Compress each write-ahead log record before it is split into log
+     * chunks. Records that do not get smaller are written uncompressed.
+     */
+    public Options walCompression(CompressionType walCompression) {
+        checkArgNotNull(walCompression, "walCompression");
+        this.walCompression = walCompression;
+        return this;
+    }
+
+    public CompactionStyle compactionStyle() {
+        return compactionStyle;
+    }
+
+    public Options compactionStyle(CompactionStyle compactionStyle) {
+        checkArgNotNull(compactionStyle, "compactionStyle");
+        this.compactionStyle = compactionStyle;
+        return this;
+    }
+
+    public CompactionPriority compactionPriority() {
+        return compactionPriority;
+    }
+
+    /**
+     * With {@link CompactionStyle#LEVEL}, how the file of a level that is
+     * merged into the next level is chosen.
+     */
+    public Options compactionPriority(CompactionPriority compactionPriority) {
+        checkArgNotNull(compactionPriority, "compactionPriority");
+        this.compactionPriority = compactionPriority;
+        return this;
+    }
+
+    public int universalSizeRatio() {
+        return universalSizeRatio;
+    }
+
+    /**
+     * Universal compaction keeps adding the next older sorted run to a
+     * merge while it is at most this many percent larger than the runs
+     * picked so far.
+     */
+    public Options universalSizeRatio(int universalSizeRatio) {
+        this.universalSizeRatio = universalSizeRatio;
+        return this;
+    }
+
+    public int universalMaxSortedRuns() {
+        return universalMaxSortedRuns;
+    }
+
+    /**
+     * Universal compaction starts once the database has this many sorted
+     * runs (level-0 files plus non-empty levels). This bounds the number of
+     * runs a read has to look at.
+     */
+    public Options universalMaxSortedRuns(int universalMaxSortedRuns) {
+        this.universalMaxSortedRuns = universalMaxSortedRuns;
+        return this;
+    }
+
+    public long maxBytesForLevelBase() {
+        return maxBytesForLevelBase;
+    }
+
+    /**
+     * Target size of level 1. Each deeper level is
+     * {@link #maxBytesForLevelMultiplier()} times larger.
+     */
+    public Options maxBytesForLevelBase(long maxBytesForLevelBase) {
+        this.maxBytesForLevelBase = maxBytesForLevelBase;
+        return this;
+    }
+
+    public double maxBytesForLevelMultiplier() {
+        return maxBytesForLevelMultiplier;
+    }
+
+    public Options maxBytesForLevelMultiplier(double maxBytesForLevelMultiplier) {
+        this.maxBytesForLevelMultiplier = maxBytesForLevelMultiplier;
+        return this;
+    }
+
+    public boolean levelCompactionDynamicLevelBytes() {
+        return levelCompactionDynamicLevelBytes;
+    }
+
+    /**
+     * Once the last level holds data, derive the target size of every other
+     * level from the actual size of the last level divided by the multiplier,
+     * instead of growing upwards from {@link #maxBytesForLevelBase()}.
+     * Targets never drop below the base size.
+     */
+    public Options levelCompactionDynamicLevelBytes(boolean levelCompactionDynamicLevelBytes) {
+        this.levelCompactionDynamicLevelBytes = levelCompactionDynamicLevelBytes;
+        return this;
+    }
+
+    public long targetFileSizeBase() {
+        return targetFileSizeBase;
+    }
+
+    /**
+     * Target size of files written to level 1 (and level 0 by compactions).
+     */
+    public Options targetFileSizeBase(long targetFileSizeBase) {
+        this.targetFileSizeBase = targetFileSizeBase;
+        return this;
+    }
+
+    public int targetFileSizeMultiplier() {
+        return targetFileSizeMultiplier;
+    }
+
+    /**
+     * Each level below level 1 writes files this many times larger than the
+     * level above it.
+     */
+    public Options targetFileSizeMultiplier(int targetFileSizeMultiplier) {
+        this.targetFileSizeMultiplier = targetFileSizeMultiplier;
+        return this;
+    }
+
+    public long fifoMaxTableFilesSize() {
+        return fifoMaxTableFilesSize;
+    }
+
+    /**
+     * With {@link CompactionStyle#FIFO}, the oldest files are dropped once
+     * all table files together are larger than this.
+     */
+    public Options fifoMaxTableFilesSize(long fifoMaxTableFilesSize) {
+        this.fifoMaxTableFilesSize = fifoMaxTableFilesSize;
+        return this;
+    }
+
+    public long fifoTtlSeconds() {
+        return fifoTtlSeconds;
+    }
+
+    /**
+     * With {@link CompactionStyle#FIFO}, files created more than this many
+     * seconds ago are dropped. Zero disables age based expiry.
+     */
+    public Options fifoTtlSeconds(long fifoTtlSeconds) {
+        this.fifoTtlSeconds = fifoTtlSeconds;
+        return this;
+    }
+
+    public CompactionFilter compactionFilter() {
+        return compactionFilter;
+    }
+
+    /**
+     * Called for every value written by flushes and compactions, see
+     * {@link CompactionFilter}. Null (the default) keeps everything.
+     */
+    public Options compactionFilter(CompactionFilter compactionFilter) {
+        this.compactionFilter = compactionFilter;
+        return this;
+    }
+
+    public RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Limits the bytes written by flushes and compactions and read by
+     * compactions. Flushes have priority over compactions. Null (the
+     * default) does not limit background I/O.
+     */
+    public Options rateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    public int compressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Number of threads that compress and checksum the data blocks of
+     * flushes and compactions while the background thread keeps building
+     * blocks; a separate thread writes the blocks in order. The files are
+     * identical to the ones written without threads. Zero (the default)
+     * does everything on the background thread.
+     */
+    public Options compressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+        return this;
+    }
 }
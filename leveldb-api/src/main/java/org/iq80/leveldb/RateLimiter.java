@@ -0,0 +1,42 @@
+package org.iq80.leveldb;
+
+/**
+ * Limits the disk bandwidth used by background work. Flushes and
+ * compactions ask for permission before every table block they write and
+ * for the data they read from their input tables, so a large compaction no
+ * longer saturates the disk and slows down foreground reads.
+ * <p>
+ * One limiter may be shared by several databases to cap their combined
+ * background I/O. Implementations must be thread safe.
+ */
+public interface RateLimiter {
+
+    /**
+     * Blocks until {@code bytes} may be read or written. Requests larger than
+     * one refill period are granted in several steps.
+     */
+    void request(long bytes, IoPriority priority);
+
+    long getBytesPerSecond();
+
+    /**
+     * Changes the limit, effective from the next refill.
+     */
+    void setBytesPerSecond(long bytesPerSecond);
+
+    /**
+     * Total number of bytes granted so far.
+     */
+    long getTotalBytesThrough();
+
+    enum IoPriority {
+        /**
+         * Compactions, which can always be postponed.
+         */
+        LOW,
+        /**
+         * Memtable flushes, writers stall until they finish.
+         */
+        HIGH
+    }
+}
@@ -0,0 +1,19 @@
+package org.iq80.leveldb;
+
+/**
+ * Layout of newly written table files. Existing files are always read in
+ * the format they were written in, so the option can be changed at any time.
+ */
+public enum TableFormat {
+    /**
+     * Prefix compressed, optionally compressed blocks found through an index.
+     */
+    BLOCK_BASED,
+
+    /**
+     * Uncompressed records without block boundaries, loaded into memory as a
+     * whole and found through a hash index and a sparse offset index. Meant
+     * for data sets that fit in memory.
+     */
+    PLAIN
+}
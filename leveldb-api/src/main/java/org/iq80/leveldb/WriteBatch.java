@@ -9,4 +9,10 @@ public interface WriteBatch extends Closeable {
     WriteBatch put(byte[] key, byte[] value);
 
     WriteBatch delete(byte[] key);
+
+    /**
+     * Deletes every key in the range [begin, end). A range whose begin is
+     * not before its end is empty and deletes nothing.
+     */
+    WriteBatch deleteRange(byte[] begin, byte[] end);
 }
@@ -6,6 +6,7 @@ package org.iq80.leveldb;
 public class WriteOptions {
     private boolean sync;
     private boolean snapshot;
+    private boolean disableWAL;
 
     public boolean sync() {
         return sync;
@@ -24,4 +25,19 @@ public class WriteOptions {
         this.snapshot = snapshot;
         return this;
     }
+
+    public boolean disableWAL() {
+        return disableWAL;
+    }
+
+    /**
+     * Skip the write-ahead log for this write. The update only becomes
+     * durable once the memtable holding it is flushed to a table file
+     * (which also happens on a clean close), so it is lost if the process
+     * crashes before that.
+     */
+    public WriteOptions disableWAL(boolean disableWAL) {
+        this.disableWAL = disableWAL;
+        return this;
+    }
 }
@@ -29,6 +29,7 @@ import org.iq80.leveldb.slice.SliceOutput;
 import org.iq80.leveldb.slice.Slices;
 import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.FileUtils;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.PureJavaCrc32C;
 import org.iq80.leveldb.util.Snappy;
 
@@ -37,6 +38,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -51,6 +53,9 @@ public class DbBenchmark {
     private final Integer writeBufferSize;
     private final File databaseDir;
     private final double compressionRatio;
+    private final double dataBlockHashRatio;
+    private final TableFormat tableFormat;
+    private final boolean blockAlign;
     private long startTime;
 
     enum Order {
@@ -94,6 +99,9 @@ public class DbBenchmark {
         valueSize = (Integer) flags.get(Flag.value_size);
         writeBufferSize = (Integer) flags.get(Flag.write_buffer_size);
         compressionRatio = (Double) flags.get(Flag.compression_ratio);
+        dataBlockHashRatio = (Double) flags.get(Flag.data_block_hash_ratio);
+        tableFormat = (TableFormat) flags.get(Flag.table_format);
+        blockAlign = (Boolean) flags.get(Flag.block_align);
         useExisting = (Boolean) flags.get(Flag.use_existing_db);
         heapCounter = 0;
         bytes = 0;
@@ -152,7 +160,9 @@ public class DbBenchmark {
             } else if (benchmark.equals("compact")) {
                 compact();
             } else if (benchmark.equals("crc32c")) {
-                crc32c(4096, "(4k per op)");
+                crc32c(Crc32C.newChecksum(), 4096, "(4k per op, " + Crc32C.implementation() + ")");
+            } else if (benchmark.equals("crc32c-purejava")) {
+                crc32c(new PureJavaCrc32C(), 4096, "(4k per op)");
             } else if (benchmark.equals("acquireload")) {
                 acquireLoad();
             } else if (benchmark.equals("snappycomp")) {
@@ -262,6 +272,9 @@ public class DbBenchmark {
         if (writeBufferSize != null) {
             options.writeBufferSize(writeBufferSize);
         }
+        options.dataBlockHashRatio(dataBlockHashRatio);
+        options.tableFormat(tableFormat);
+        options.blockAlign(blockAlign);
         db = factory.open(databaseDir, options);
     }
 
@@ -432,7 +445,7 @@ public class DbBenchmark {
         }*/
     }
 
-    private void crc32c(int blockSize, String message) {
+    private void crc32c(Checksum checksum, int blockSize, String message) {
         // Checksum about 500MB of data total
         byte[] data = new byte[blockSize];
         for (int i = 0; i < data.length; i++) {
@@ -443,9 +456,9 @@ public class DbBenchmark {
         long bytes = 0;
         int crc = 0;
         while (bytes < 1000 * 1048576) {
-            PureJavaCrc32C checksum = new PureJavaCrc32C();
+            checksum.reset();
             checksum.update(data, 0, blockSize);
-            crc = checksum.getMaskedValue();
+            crc = Crc32C.getMaskedValue(checksum);
             finishedSingleOp();
             bytes += blockSize;
         }
@@ -591,6 +604,7 @@ public class DbBenchmark {
         //      readrandom    -- read N times in random order
         //      readhot       -- read N times in random order from 1% section of DB
         //      crc32c        -- repeated crc32c of 4K of data
+        //      crc32c-purejava -- crc32c with the pure java implementation, to compare with crc32c
         //      acquireload   -- load N*1000 times
         //   Meta operations:
         //      compact     -- Compact the entire DB
@@ -614,6 +628,7 @@ public class DbBenchmark {
                 // "readreverse",
                 "fill100K",
                 // "crc32c",
+                // "crc32c-purejava",
                 "snappycomp",
                 "unsnap-array",
                 "unsnap-direct"
@@ -634,6 +649,32 @@ public class DbBenchmark {
             }
         },
 
+        // User keys per bucket of the data block hash index, 0 disables it.
+        // Compare readrandom with 0 and 0.75 to see the cost of point lookups
+        data_block_hash_ratio(0d) {
+            @Override
+            public Object parseValue(String value) {
+                return Double.parseDouble(value);
+            }
+        },
+
+        // Format of the table files, block_based or plain
+        table_format(TableFormat.BLOCK_BASED) {
+            @Override
+            public Object parseValue(String value) {
+                return TableFormat.valueOf(value.toUpperCase(Locale.ROOT));
+            }
+        },
+
+        // Start data blocks on page boundaries when the padding is small.
+        // Best combined with --compression_ratio=1 and the mmap reader
+        block_align(false) {
+            @Override
+            public Object parseValue(String value) {
+                return Boolean.parseBoolean(value);
+            }
+        },
+
         // Print histogram of operation timings
         histogram(false) {
             @Override
@@ -1,27 +1,37 @@
 package org.iq80.leveldb.impl;
 
+import com.google.common.collect.ImmutableList;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.table.UserComparator;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
-import static org.iq80.leveldb.impl.VersionSet.MAX_GRAND_PARENT_OVERLAP_BYTES;
 
 // A Compaction encapsulates information about a compaction.
 public class Compaction {
     private final Version inputVersion;
     private final int level;
+    private final int outputLevel;
 
-    // Each compaction reads inputs from "level" and "level+1"
+    // A leveled compaction reads inputs from "level" and "level+1", other
+    // compaction styles may read whole sorted runs from several levels
     private final List<FileMetaData> levelInputs;
     private final List<FileMetaData> levelUpInputs;
     private final List<FileMetaData> grandparents;
+    private final int[] inputLevels;
     private final List<FileMetaData>[] inputs;
 
     private final long maxOutputFileSize;
+    private final long maxGrandParentOverlapBytes;
+    // Inputs are only dropped, nothing is read or written
+    private final boolean deletionCompaction;
     private final VersionEdit edit = new VersionEdit();
+    // Inputs fully covered by a range deletion, they are deleted without being read
+    private final Set<Long> droppedInputs = new HashSet<>();
 
     // State used to check for number of of overlapping grandparent files
     // (parent == level_ + 1, grandparent == level_ + 2)
@@ -46,17 +56,58 @@ public class Compaction {
     public Compaction(Version inputVersion, int level, List<FileMetaData> levelInputs, List<FileMetaData> levelUpInputs, List<FileMetaData> grandparents) {
         this.inputVersion = inputVersion;
         this.level = level;
+        this.outputLevel = level + 1;
         this.levelInputs = levelInputs;
         this.levelUpInputs = levelUpInputs;
         this.grandparents = grandparents;
-        this.maxOutputFileSize = VersionSet.maxFileSizeForLevel(level);
+        this.maxOutputFileSize = inputVersion.getVersionSet().maxFileSizeForLevel(outputLevel);
+        this.maxGrandParentOverlapBytes = inputVersion.getVersionSet().maxGrandParentOverlapBytes(outputLevel);
+        this.inputLevels = new int[]{level, level + 1};
         this.inputs = new List[]{levelInputs, levelUpInputs};
+        this.deletionCompaction = false;
+    }
+
+    /**
+     * 合并多个level的输入文件, 输出到outputLevel
+     *
+     * @param inputLevels 输入文件所在的level, 升序
+     * @param inputs      每个level的输入文件, 与inputLevels一一对应
+     */
+    public Compaction(Version inputVersion, int[] inputLevels, List<FileMetaData>[] inputs, int outputLevel) {
+        this(inputVersion, inputLevels, inputs, outputLevel, false);
+    }
+
+    /**
+     * @param deletionCompaction 为true时只删除输入文件, 不做合并, 例如FIFO策略淘汰过期文件
+     */
+    public Compaction(Version inputVersion, int[] inputLevels, List<FileMetaData>[] inputs, int outputLevel, boolean deletionCompaction) {
+        checkArgument(inputLevels.length > 0 && inputLevels.length == inputs.length, "inputLevels and inputs do not match");
+        checkArgument(outputLevel >= inputLevels[inputLevels.length - 1], "outputLevel %s is above input level %s", outputLevel, inputLevels[inputLevels.length - 1]);
+        this.inputVersion = inputVersion;
+        this.level = inputLevels[0];
+        this.outputLevel = outputLevel;
+        this.inputLevels = inputLevels.clone();
+        this.inputs = inputs.clone();
+        this.levelInputs = inputs[0];
+        this.levelUpInputs = inputs.length > 1 ? inputs[1] : ImmutableList.<FileMetaData>of();
+        this.grandparents = null;
+        this.maxOutputFileSize = inputVersion.getVersionSet().maxFileSizeForLevel(outputLevel);
+        this.maxGrandParentOverlapBytes = inputVersion.getVersionSet().maxGrandParentOverlapBytes(outputLevel);
+        this.deletionCompaction = deletionCompaction;
     }
 
     public int getLevel() {
         return level;
     }
 
+    public int getOutputLevel() {
+        return outputLevel;
+    }
+
+    public boolean isDeletionCompaction() {
+        return deletionCompaction;
+    }
+
     public List<FileMetaData> getLevelInputs() {
         return levelInputs;
     }
@@ -90,37 +141,56 @@ public class Compaction {
         // Avoid a move if there is lots of overlapping grandparent data.
         // Otherwise, the move could create a parent file that will require
         // a very expensive merge later on.
-        return (levelInputs.size() == 1 &&
+        return (inputs.length == 2 &&
+                outputLevel == level + 1 &&
+                levelInputs.size() == 1 &&
                 levelUpInputs.isEmpty() &&
-                totalFileSize(grandparents) <= MAX_GRAND_PARENT_OVERLAP_BYTES);
+                totalFileSize(grandparents) <= maxGrandParentOverlapBytes);
 
     }
 
     public static long totalFileSize(List<FileMetaData> files) {
         long sum = 0;
+        if (files == null) {
+            return sum;
+        }
         for (FileMetaData file : files) {
             sum += file.getFileSize();
         }
         return sum;
     }
 
+    /**
+     * 标记一个被范围删除完全覆盖的输入文件, 合并时不再读取它, 但仍会从版本中删除
+     */
+    public void dropInput(FileMetaData file) {
+        droppedInputs.add(file.getNumber());
+    }
+
+    public boolean isDroppedInput(FileMetaData file) {
+        return droppedInputs.contains(file.getNumber());
+    }
+
+    public int getDroppedInputCount() {
+        return droppedInputs.size();
+    }
+
     // Add all inputs to this compaction as delete operations to *edit.
     public void addInputDeletions(VersionEdit edit) {
-        for (FileMetaData input : levelInputs) {
-            edit.deleteFile(level, input.getNumber());
-        }
-        for (FileMetaData input : levelUpInputs) {
-            edit.deleteFile(level + 1, input.getNumber());
+        for (int which = 0; which < inputs.length; which++) {
+            for (FileMetaData input : inputs[which]) {
+                edit.deleteFile(inputLevels[which], input.getNumber());
+            }
         }
     }
 
     // Returns true if the information we have available guarantees that
-    // the compaction is producing data in "level+1" for which no data exists
-    // in levels greater than "level+1".
+    // the compaction is producing data in "outputLevel" for which no data exists
+    // in levels greater than "outputLevel".
     public boolean isBaseLevelForKey(Slice userKey) {
         // Maybe use binary search to find right entry instead of linear search?
         UserComparator userComparator = inputVersion.getInternalKeyComparator().getUserComparator();
-        for (int level = this.level + 2; level < NUM_LEVELS; level++) {
+        for (int level = this.outputLevel + 1; level < NUM_LEVELS; level++) {
             List<FileMetaData> files = inputVersion.getFiles(level);
             while (levelPointers[level] < files.size()) {
                 FileMetaData f = files.get(levelPointers[level]);
@@ -138,6 +208,30 @@ public class Compaction {
         return true;
     }
 
+    /**
+     * 更深的level中是否没有任何文件, 是则输出的是最底层的数据, 使用bottommost压缩
+     */
+    public boolean isBottommostLevel() {
+        for (int level = this.outputLevel + 1; level < NUM_LEVELS; level++) {
+            if (inputVersion.numberOfFilesInLevel(level) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 更深的level中是否没有与[smallestUserKey, largestUserKey]重叠的文件, 是则范围删除可以丢弃
+     */
+    public boolean isBaseLevelForRange(Slice smallestUserKey, Slice largestUserKey) {
+        for (int level = this.outputLevel + 1; level < NUM_LEVELS; level++) {
+            if (inputVersion.overlapInLevel(level, smallestUserKey, largestUserKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // Returns true iff we should stop building the current output
     // before processing "internal_key".
     public boolean shouldStopBefore(InternalKey internalKey) {
@@ -155,7 +249,7 @@ public class Compaction {
         }
         seenKey = true;
 
-        if (overlappedBytes > MAX_GRAND_PARENT_OVERLAP_BYTES) {
+        if (overlappedBytes > maxGrandParentOverlapBytes) {
             // Too much overlap for current output; start new output
             overlappedBytes = 0;
             return true;
@@ -167,4 +261,9 @@ public class Compaction {
     public List<FileMetaData>[] getInputs() {
         return inputs;
     }
+
+    // Return the level the ith list of getInputs() was read from.
+    public int getInputLevel(int which) {
+        return inputLevels[which];
+    }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.slice.Slice;
+
+/**
+ * compaction策略:
+ * >>> 1. 新版本生成时计算compaction分数、待合并字节数等信息
+ * >>> 2. 判断当前版本是否需要compaction
+ * >>> 3. 选出下一次compaction的输入文件
+ * >>> 4. 决定memTable落盘的level
+ * <p>
+ * 所有方法都在持有DB的mutex时调用
+ *
+ * @author yf
+ */
+public interface CompactionPicker {
+    /**
+     * 在版本生成时调用, 计算compactionScore、compactionLevel和pendingCompactionBytes
+     */
+    void finalizeVersion(Version version);
+
+    boolean needsCompaction(Version version);
+
+    /**
+     * 选出下一次compaction, 没有需要合并的文件时返回null
+     */
+    Compaction pickCompaction(VersionSet versionSet, Version current);
+
+    /**
+     * memTable落盘时选择写入的level
+     */
+    int pickLevelForMemTableOutput(Version base, Slice smallestUserKey, Slice largestUserKey);
+}
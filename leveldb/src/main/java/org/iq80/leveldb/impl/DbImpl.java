@@ -1,9 +1,11 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.iq80.leveldb.*;
+import org.iq80.leveldb.RateLimiter.IoPriority;
 import org.iq80.leveldb.impl.Filename.FileInfo;
 import org.iq80.leveldb.impl.Filename.FileType;
 import org.iq80.leveldb.impl.MemTable.MemTableIterator;
@@ -13,24 +15,32 @@ import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.SliceInput;
 import org.iq80.leveldb.slice.SliceOutput;
 import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.table.BlockPipeline;
 import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.table.CustomUserComparator;
-import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.TableFileBuilder;
+import org.iq80.leveldb.table.TableFormats;
+import org.iq80.leveldb.table.TableProperties;
 import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.Compressors;
 import org.iq80.leveldb.util.DbIterator;
 import org.iq80.leveldb.util.FileUtils;
 import org.iq80.leveldb.util.MergingIterator;
-import org.iq80.leveldb.util.Snappy;
 
 import java.io.*;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -40,6 +50,7 @@ import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.DbConstants.*;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
 import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
 import static org.iq80.leveldb.slice.Slices.readLengthPrefixedBytes;
 import static org.iq80.leveldb.slice.Slices.writeLengthPrefixedBytes;
@@ -73,6 +84,7 @@ public class DbImpl implements DB {
 
     private final AtomicBoolean shuttingDown = new AtomicBoolean();
     private final ReentrantLock mutex = new ReentrantLock();
+    private final SnapshotRegistry snapshotRegistry = new SnapshotRegistry();
     private final Condition backgroundCondition = mutex.newCondition();
 
     private final List<Long> pendingOutputs = new ArrayList<>();
@@ -82,17 +94,52 @@ public class DbImpl implements DB {
      */
     private LogWriter logWriter;
 
+    /**
+     * 等待复用的旧日志文件编号, 只有本实例以可回收格式写入的日志(编号不小于firstLogNumber)才会被复用
+     */
+    private final Deque<Long> recycledLogs = new ArrayDeque<>();
+    private long firstLogNumber;
+
     private MemTable memTable;
     private MemTable immutableMemTable;
 
+    /**
+     * 是否存在跳过了WAL(WriteOptions.disableWAL)的写入，若存在则关闭前需要将memTable落盘
+     */
+    private volatile boolean unloggedWrites;
+
     private final InternalKeyComparator internalKeyComparator;
 
     private volatile Throwable backgroundException;
     private final ExecutorService compactionExecutor;
+    private final BlockPipeline blockPipeline;
+
+    /**
+     * walPreallocate模式下在后台写满0的下一个日志文件:
+     * >>> 1. preparedLogNumber为临时文件的编号, 0表示没有在准备的文件, 编号放在pendingOutputs中防止被删除
+     * >>> 2. preparedLogReady表示文件已经写好, 切换日志时在锁内只需要改名
+     */
+    private final ExecutorService logPreparer;
+    private long preparedLogNumber;
+    private boolean preparedLogReady;
     private Future<?> backgroundCompaction;
 
     private ManualCompaction manualCompaction;
 
+    /**
+     * 写入限流控制器
+     */
+    private final WriteController writeController;
+
+    /**
+     * 异步写入的后台刷盘线程, 合并多个写入的fsync
+     */
+    private final WalSyncer walSyncer;
+
+    // bytes written by flushes and compactions, used to measure write amplification
+    private final AtomicLong bytesFlushed = new AtomicLong();
+    private final AtomicLong bytesCompacted = new AtomicLong();
+
     public DbImpl(Options options, File databaseDir) throws IOException {
         //入参校验
         requireNonNull(options, "options is null");
@@ -100,9 +147,24 @@ public class DbImpl implements DB {
 
         //修复db选项
         this.options = options;
-        if (this.options.compressionType() == CompressionType.SNAPPY && !Snappy.available()) {
+        if (!Compressors.available(this.options.compressionType())) {
             this.options.compressionType(CompressionType.NONE);
         }
+        if (!Compressors.available(this.options.walCompression())) {
+            this.options.walCompression(CompressionType.NONE);
+        }
+        if (this.options.compressionPerLevel() != null) {
+            CompressionType[] compressionPerLevel = this.options.compressionPerLevel().clone();
+            for (int level = 0; level < compressionPerLevel.length; level++) {
+                if (!Compressors.available(compressionPerLevel[level])) {
+                    compressionPerLevel[level] = CompressionType.NONE;
+                }
+            }
+            this.options.compressionPerLevel(compressionPerLevel);
+        }
+        if (this.options.bottommostCompression() != null && !Compressors.available(this.options.bottommostCompression())) {
+            this.options.bottommostCompression(CompressionType.NONE);
+        }
 
         this.databaseDir = databaseDir;
 
@@ -118,8 +180,20 @@ public class DbImpl implements DB {
         memTable = new MemTable(internalKeyComparator);
         immutableMemTable = null;
 
+        writeController = new WriteController(options);
+        walSyncer = new WalSyncer(options.walSyncWindowMicros(), TimeUnit.MICROSECONDS, new WalSyncer.SyncAction() {
+            @Override
+            public void sync() throws IOException {
+                syncWal();
+            }
+        });
+
         // compaction操作固定线程池
         compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory());
+        // 预先分配日志文件的线程
+        logPreparer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("leveldb-log-preparer-%s").setDaemon(true).build());
+        // flush和compaction输出数据块的压缩和写入流水线
+        blockPipeline = options.compressionThreads() > 0 ? new BlockPipeline(options.compressionThreads()) : null;
 
         // Reserve ten files or so for other uses and give the rest to TableCache.
         int tableCacheSize = options.maxOpenFiles() - 10;
@@ -143,7 +217,15 @@ public class DbImpl implements DB {
                 checkArgument(!options.errorIfExists(), "Database '%s' exists and the error if exists option is enabled", databaseDir);
             }
 
-            versionSet = new VersionSet(databaseDir, tableCache, internalKeyComparator);
+            CompactionPicker compactionPicker;
+            if (options.compactionStyle() == CompactionStyle.UNIVERSAL) {
+                compactionPicker = new UniversalCompactionPicker(options.universalSizeRatio(), options.universalMaxSortedRuns());
+            } else if (options.compactionStyle() == CompactionStyle.FIFO) {
+                compactionPicker = new FifoCompactionPicker(options.fifoMaxTableFilesSize(), options.fifoTtlSeconds(), TimeUnit.SECONDS);
+            } else {
+                compactionPicker = new LeveledCompactionPicker(options.compactionPriority());
+            }
+            versionSet = new VersionSet(databaseDir, tableCache, internalKeyComparator, options, compactionPicker);
 
             // load  (and recover) current version
             versionSet.recover();
@@ -173,7 +255,8 @@ public class DbImpl implements DB {
             // open transaction logWriter
             long logFileNumber = versionSet.getNextFileNumber();
             File txLogFile = new File(databaseDir, Filename.logFileName(logFileNumber));
-            this.logWriter = Logs.createLogWriter(txLogFile, logFileNumber);
+            this.firstLogNumber = logFileNumber;
+            this.logWriter = openLogWriter(txLogFile, logFileNumber, false);
 
             edit.setLogNumber(logWriter.getFileNumber());
             log.info("将事务日志文件从切换至:{}", txLogFile.getName());
@@ -183,6 +266,8 @@ public class DbImpl implements DB {
             // cleanup unused files
             deleteObsoleteFiles();
 
+            maybePrepareLog();
+
             //启动后代compaction任务
             maybeScheduleCompaction();
         } finally {
@@ -202,9 +287,80 @@ public class DbImpl implements DB {
                 .build();
     }
 
+    /**
+     * 打开事务日志，manualWalFlush模式下日志记录先缓存在内存中
+     *
+     * @param prepared 文件是后台写满0的预分配文件, 其它文件在锁内打开, 不做预分配
+     */
+    private LogWriter openLogWriter(File file, long fileNumber, boolean prepared) throws IOException {
+        long preallocateSize = prepared ? logPreallocateSize() : 0;
+        LogWriter writer = Logs.createLogWriter(file, fileNumber, options.recycleLogFileNum() > 0, prepared, preallocateSize, options.walCompression());
+        if (options.manualWalFlush()) {
+            writer = new BufferedLogWriter(writer, LogConstants.MANUAL_FLUSH_BUFFER_SIZE);
+        }
+        return writer;
+    }
+
+    private long logPreallocateSize() {
+        return options.writeBufferSize() + options.writeBufferSize() / 10;
+    }
+
+    /**
+     * 在后台准备下一个日志文件, 调用时持有锁:
+     * >>> 1. 有可复用的旧日志时不需要准备, 旧日志已经分配过空间
+     * >>> 2. 写0在锁外完成, 完成后在锁内标记为可用, 失败时删除文件, 下次切换日志后重试
+     */
+    private void maybePrepareLog() {
+        if (!options.walPreallocate() || preparedLogNumber != 0 || !recycledLogs.isEmpty() || shuttingDown.get()) {
+            return;
+        }
+        final long number = versionSet.getNextFileNumber();
+        final File file = new File(databaseDir, Filename.tempFileName(number));
+        final long size = logPreallocateSize();
+        pendingOutputs.add(number);
+        preparedLogNumber = number;
+        logPreparer.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean ready = false;
+                try {
+                    Logs.prepareLogFile(file, size);
+                    ready = true;
+                } catch (IOException e) {
+                    log.warn("预先分配日志文件{}失败", file.getName(), e);
+                    file.delete();
+                }
+                mutex.lock();
+                try {
+                    if (preparedLogNumber == number) {
+                        if (ready) {
+                            preparedLogReady = true;
+                        } else {
+                            pendingOutputs.remove(number);
+                            preparedLogNumber = 0;
+                        }
+                    }
+                } finally {
+                    mutex.unlock();
+                }
+            }
+        });
+    }
+
     @Override
     public void close() {
         log.info("DB执行close方法，准备退出.....");
+        if (shuttingDown.get()) {
+            return;
+        }
+
+        // Writes that skipped the log only live in the memtables, so persist
+        // them before shutting down.  Buffered log records are written out
+        // when the log is closed below.
+        if (unloggedWrites && backgroundException == null) {
+            flushMemTable();
+        }
+
         if (shuttingDown.getAndSet(true)) {
             return;
         }
@@ -219,16 +375,25 @@ public class DbImpl implements DB {
         }
 
         compactionExecutor.shutdown();
+        logPreparer.shutdown();
         try {
             compactionExecutor.awaitTermination(1, TimeUnit.DAYS);
+            logPreparer.awaitTermination(1, TimeUnit.DAYS);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        if (preparedLogNumber != 0) {
+            new File(databaseDir, Filename.tempFileName(preparedLogNumber)).delete();
+        }
+        if (blockPipeline != null) {
+            blockPipeline.close();
+        }
         try {
             log.info("VersionSet执行destroy方法");
             versionSet.destroy();
         } catch (IOException ignored) {
         }
+        walSyncer.close();
         try {
             logWriter.close();
         } catch (IOException ignored) {
@@ -240,9 +405,108 @@ public class DbImpl implements DB {
     @Override
     public String getProperty(String name) {
         checkBackgroundException();
+        if ("leveldb.stall-stats".equals(name)) {
+            return writeController.toString();
+        }
+        if ("leveldb.wal-sync-stats".equals(name)) {
+            return walSyncer.toString();
+        }
+        if ("leveldb.compaction-stats".equals(name)) {
+            return compactionStats();
+        }
+        if ("leveldb.aggregated-table-properties".equals(name)) {
+            return aggregatedTableProperties(-1).toString();
+        }
+        String levelPrefix = "leveldb.aggregated-table-properties-at-level";
+        if (name.startsWith(levelPrefix)) {
+            int level;
+            try {
+                level = Integer.parseInt(name.substring(levelPrefix.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return level < 0 || level >= NUM_LEVELS ? null : aggregatedTableProperties(level).toString();
+        }
         return null;
     }
 
+    /**
+     * 读写放大统计:
+     * >>> 1. 读放大为当前版本的有序段数量, 即点查最多访问的段数
+     * >>> 2. 写放大为flush和compaction写出的总字节数除以flush写出的字节数
+     */
+    private String compactionStats() {
+        int sortedRuns;
+        long pendingBytes;
+        mutex.lock();
+        try {
+            sortedRuns = versionSet.getCurrent().numberOfSortedRuns();
+            pendingBytes = versionSet.getCurrent().getPendingCompactionBytes();
+        } finally {
+            mutex.unlock();
+        }
+        long flushed = bytesFlushed.get();
+        long compacted = bytesCompacted.get();
+        double writeAmplification = flushed == 0 ? 0 : 1.0 * (flushed + compacted) / flushed;
+        return String.format("style=%s readAmplification=%d writeAmplification=%.2f bytesFlushed=%d bytesCompacted=%d pendingCompactionBytes=%d",
+                options.compactionStyle(), sortedRuns, writeAmplification, flushed, compacted, pendingBytes);
+    }
+
+    /**
+     * 当前版本中文件属性的汇总, level为-1时汇总所有level
+     */
+    private TableProperties aggregatedTableProperties(int level) {
+        Version current;
+        mutex.lock();
+        try {
+            current = versionSet.getCurrent();
+            current.retain();
+        } finally {
+            mutex.unlock();
+        }
+        try {
+            return level < 0 ? current.getAggregatedTableProperties() : current.getAggregatedTableProperties(level);
+        } finally {
+            current.release();
+        }
+    }
+
+    /**
+     * 在不持有锁时读取当前版本中还没有属性的文件(重新打开DB后的旧文件), 选择compaction时只使用已经缓存的属性
+     */
+    private void loadTableProperties() {
+        Version current;
+        mutex.lock();
+        try {
+            current = versionSet.getCurrent();
+            current.retain();
+        } finally {
+            mutex.unlock();
+        }
+        try {
+            for (int level = 0; level < current.numberOfLevels(); level++) {
+                for (FileMetaData file : current.getFiles(level)) {
+                    if (file.getTableProperties() == null) {
+                        current.getTableProperties(file);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // the file is scored once it can be read
+            log.warn("读取文件属性失败", e);
+        } finally {
+            current.release();
+        }
+    }
+
+    public WriteController getWriteController() {
+        return writeController;
+    }
+
+    public WalSyncer getWalSyncer() {
+        return walSyncer;
+    }
+
     /**
      * 清理非活跃文件,这里通过文件版本号进行判断,范围涉及四种的文件
      * >>>> log后缀
@@ -269,7 +533,13 @@ public class DbImpl implements DB {
             boolean keep = true;
             switch (fileInfo.getFileType()) {
                 case LOG:
-                    keep = ((number >= versionSet.getLogNumber()) || (number == versionSet.getPrevLogNumber()));
+                    keep = ((number >= versionSet.getLogNumber()) || (number == versionSet.getPrevLogNumber()) || recycledLogs.contains(number));
+                    if (!keep && number >= firstLogNumber && recycledLogs.size() < options.recycleLogFileNum()) {
+                        // keep the file around to be reused by the next log switch
+                        log.info("保留旧日志文件{}用于复用", file.getName());
+                        recycledLogs.add(number);
+                        keep = true;
+                    }
                     break;
                 case DESCRIPTOR:
                     // Keep my manifest file, and any newer incarnations'
@@ -306,7 +576,7 @@ public class DbImpl implements DB {
         mutex.lock();
         try {
             // force compaction
-            makeRoomForWrite(true);
+            makeRoomForWrite(true, 0);
 
             while (immutableMemTable != null) {
                 backgroundCondition.awaitUninterruptibly();
@@ -383,6 +653,9 @@ public class DbImpl implements DB {
 
     private void backgroundCall() throws IOException {
         log.info("后台线程启动compaction 开始....");
+        if (options.compactionPriority() == CompactionPriority.TOMBSTONE_DENSITY) {
+            loadTableProperties();
+        }
         mutex.lock();
         try {
             if (backgroundCompaction == null) {
@@ -436,12 +709,17 @@ public class DbImpl implements DB {
 
         if (compaction == null) {
             // no compaction
+        } else if (compaction.isDeletionCompaction()) {
+            // Drop the input files without rewriting anything
+            compaction.addInputDeletions(compaction.getEdit());
+            versionSet.logAndApply(compaction.getEdit());
+            deleteObsoleteFiles();
         } else if (manualCompaction == null && compaction.isTrivialMove()) {
             // Move file to next level
             checkState(compaction.getLevelInputs().size() == 1);
             FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
             compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
-            compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
+            compaction.getEdit().addFile(compaction.getOutputLevel(), fileMetaData);
             versionSet.logAndApply(compaction.getEdit());
             // logWriter
         } else {
@@ -485,7 +763,7 @@ public class DbImpl implements DB {
 
         try (FileInputStream fis = new FileInputStream(file); FileChannel channel = fis.getChannel()) {
             LogMonitor logMonitor = LogMonitors.logMonitor();
-            LogReader logReader = new LogReader(channel, logMonitor, true, 0);
+            LogReader logReader = new LogReader(channel, logMonitor, true, 0, fileNumber);
 
             // Read all the records and add to a memtable
             long maxSequence = 0;
@@ -507,7 +785,7 @@ public class DbImpl implements DB {
                 if (memTable == null) {
                     memTable = new MemTable(internalKeyComparator);
                 }
-                writeBatch.forEach(new InsertIntoHandler(memTable, sequenceBegin));
+                writeBatch.forEach(new InsertIntoHandler(memTable, internalKeyComparator.getUserComparator(), sequenceBegin));
 
                 // update the maxSequence
                 long lastSequence = sequenceBegin + updateSize - 1;
@@ -613,6 +891,20 @@ public class DbImpl implements DB {
         return writeInternal(new WriteBatchImpl().delete(key), options);
     }
 
+    @Override
+    public void deleteRange(byte[] begin, byte[] end) throws DBException {
+        deleteRange(begin, end, new WriteOptions());
+    }
+
+    @Override
+    public Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options) throws DBException {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        checkArgument(internalKeyComparator.getUserComparator().compare(Slices.wrappedBuffer(begin), Slices.wrappedBuffer(end)) < 0,
+                "begin must be before end");
+        return writeInternal(new WriteBatchImpl().deleteRange(begin, end), options);
+    }
+
     @Override
     public void write(WriteBatch updates) throws DBException {
         writeInternal((WriteBatchImpl) updates, new WriteOptions());
@@ -623,6 +915,44 @@ public class DbImpl implements DB {
         return writeInternal((WriteBatchImpl) updates, options);
     }
 
+    @Override
+    public CompletableFuture<Void> writeAsync(WriteBatch updates, WriteOptions options) throws DBException {
+        if (options.disableWAL()) {
+            writeInternal((WriteBatchImpl) updates, options);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // start the syncer before appending so a concurrent log switch
+        // knows it must force the old log before closing it
+        walSyncer.start();
+        WriteOptions writeOptions = new WriteOptions().sync(false).snapshot(false);
+        writeInternal((WriteBatchImpl) updates, writeOptions);
+        return walSyncer.register();
+    }
+
+    /**
+     * 强制将当前日志文件落盘, 由WalSyncer在后台线程调用
+     */
+    private void syncWal() throws IOException {
+        LogWriter writer;
+        mutex.lock();
+        try {
+            writer = logWriter;
+        } finally {
+            mutex.unlock();
+        }
+
+        // sync outside the mutex so writers are not blocked on disk latency
+        try {
+            writer.flush(true);
+        } catch (IllegalStateException e) {
+            // the log was switched while we were syncing, it has been forced before closing
+            if (!writer.isClosed()) {
+                throw e;
+            }
+        }
+    }
+
     public Snapshot writeInternal(WriteBatchImpl updates, WriteOptions options) throws DBException {
         checkBackgroundException();
         mutex.lock();
@@ -630,7 +960,7 @@ public class DbImpl implements DB {
             long sequenceEnd;
             if (updates.size() != 0) {
                 //step 1 : 为写入预留空间
-                makeRoomForWrite(false);
+                makeRoomForWrite(false, updates.getApproximateSize());
 
                 //step 2 : 计算新的sequence
                 long sequenceBegin = versionSet.getLastSequence() + 1;
@@ -638,22 +968,26 @@ public class DbImpl implements DB {
                 // Reserve this sequence in the version set
                 versionSet.setLastSequence(sequenceEnd);
 
-                //step 3 : 写入Log文件
-                Slice record = WriteBatchUtils.writeWriteBatch(updates, sequenceBegin);
-                try {
-                    logWriter.addRecord(record, options.sync());
-                } catch (IOException e) {
-                    throw Throwables.propagate(e);
+                //step 3 : 写入Log文件, disableWAL时跳过
+                if (options.disableWAL()) {
+                    unloggedWrites = true;
+                } else {
+                    Slice record = WriteBatchUtils.writeWriteBatch(updates, sequenceBegin);
+                    try {
+                        logWriter.addRecord(record, options.sync());
+                    } catch (IOException e) {
+                        throw Throwables.propagate(e);
+                    }
                 }
 
                 //step 4 : 更新 memtable
-                updates.forEach(new InsertIntoHandler(memTable, sequenceBegin));
+                updates.forEach(new InsertIntoHandler(memTable, internalKeyComparator.getUserComparator(), sequenceBegin));
             } else {
                 sequenceEnd = versionSet.getLastSequence();
             }
 
             if (options.snapshot()) {
-                return new SnapshotImpl(versionSet.getCurrent(), sequenceEnd);
+                return new SnapshotImpl(versionSet.getCurrent(), sequenceEnd, snapshotRegistry);
             } else {
                 return null;
             }
@@ -682,13 +1016,33 @@ public class DbImpl implements DB {
 
             // filter any entries not visible in our snapshot
             SnapshotImpl snapshot = getSnapshot(options);
-            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator());
+            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator(), rangeTombstones());
             return new SeekingIteratorAdapter(snapshotIterator);
         } finally {
             mutex.unlock();
         }
     }
 
+    /**
+     * 收集memTable, immutableMemTable和当前版本所有文件中的范围删除, 调用时需要持有锁.
+     * 新写出的文件带着属性块, 没有范围删除的文件不会被打开
+     */
+    private RangeTombstones rangeTombstones() {
+        checkState(mutex.isHeldByCurrentThread());
+        RangeTombstones rangeTombstones = new RangeTombstones(internalKeyComparator.getUserComparator());
+        rangeTombstones.addAll(memTable.getRangeTombstones());
+        if (immutableMemTable != null) {
+            rangeTombstones.addAll(immutableMemTable.getRangeTombstones());
+        }
+        Version current = versionSet.getCurrent();
+        for (int level = 0; level < current.numberOfLevels(); level++) {
+            for (FileMetaData file : current.getFiles(level)) {
+                rangeTombstones.addAll(current.getRangeTombstones(file));
+            }
+        }
+        return rangeTombstones;
+    }
+
     SeekingIterable<InternalKey, Slice> internalIterable() {
         return new SeekingIterable<InternalKey, Slice>() {
             @Override
@@ -718,7 +1072,20 @@ public class DbImpl implements DB {
         checkBackgroundException();
         mutex.lock();
         try {
-            return new SnapshotImpl(versionSet.getCurrent(), versionSet.getLastSequence());
+            return new SnapshotImpl(versionSet.getCurrent(), versionSet.getLastSequence(), snapshotRegistry);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    @Override
+    public void flushWal(boolean sync) throws DBException {
+        checkBackgroundException();
+        mutex.lock();
+        try {
+            logWriter.flush(sync);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
         } finally {
             mutex.unlock();
         }
@@ -735,25 +1102,34 @@ public class DbImpl implements DB {
         return snapshot;
     }
 
-    private void makeRoomForWrite(boolean force) {
+    private void makeRoomForWrite(boolean force, long writeBytes) {
         checkState(mutex.isHeldByCurrentThread());
         boolean allowDelay = !force;
         while (true) {
-            if (allowDelay && versionSet.numberOfFilesInLevel(0) > L0_SLOWDOWN_WRITES_TRIGGER) {
+            // FIFO keeps every file in level 0 on purpose, so its file count says nothing about compaction debt
+            int level0Files = options.compactionStyle() == CompactionStyle.FIFO ? 0 : versionSet.numberOfFilesInLevel(0);
+            writeController.updateState(level0Files, versionSet.estimatedPendingCompactionBytes());
+            if (allowDelay && writeController.isDelayed()) {
                 // We are getting close to hitting a hard limit on the number of
-                // L0 files.  Rather than delaying a single write by several
-                // seconds when we hit the hard limit, start delaying each
-                // individual write by 1ms to reduce latency variance.  Also,
-                // this delay hands over some CPU to the compaction thread in
-                // case it is sharing the same core as the writer.
-                try {
-                    mutex.unlock();
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException(e);
-                } finally {
-                    mutex.lock();
+                // L0 files or pending compaction bytes.  Rather than delaying a
+                // single write by several seconds when we hit the hard limit,
+                // throttle each write through a token bucket whose rate drops
+                // as we approach the limit.  Also, this delay hands over some
+                // CPU to the compaction thread in case it is sharing the same
+                // core as the writer.
+                long delayNanos = writeController.getDelayNanos(writeBytes);
+                if (delayNanos > 0) {
+                    WriteController.StallCause cause = writeController.getDelayCause();
+                    try {
+                        mutex.unlock();
+                        TimeUnit.NANOSECONDS.sleep(delayNanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    } finally {
+                        mutex.lock();
+                    }
+                    writeController.recordStall(cause, delayNanos);
                 }
 
                 // Do not delay a single write more than once
@@ -764,11 +1140,17 @@ public class DbImpl implements DB {
             } else if (immutableMemTable != null) {
                 // We have filled up the current memTable, but the previous
                 // one is still being compacted, so we wait.
+                long start = System.nanoTime();
                 backgroundCondition.awaitUninterruptibly();
-            } else if (versionSet.numberOfFilesInLevel(0) >= L0_STOP_WRITES_TRIGGER) {
-                // There are too many level-0 files.
-//                Log(options_.info_log, "waiting...\n");
+                writeController.recordStall(WriteController.StallCause.MEMTABLE_LIMIT, System.nanoTime() - start);
+            } else if (writeController.isStopped()) {
+                // There are too many level-0 files or too many bytes waiting
+                // to be compacted.
+                WriteController.StallCause cause = writeController.getStopCause();
+                maybeScheduleCompaction();
+                long start = System.nanoTime();
                 backgroundCondition.awaitUninterruptibly();
+                writeController.recordStall(cause, System.nanoTime() - start);
             } else {
                 // Attempt to switch to a new memtable and trigger compaction of old
                 checkState(versionSet.getPrevLogNumber() == 0);
@@ -776,17 +1158,46 @@ public class DbImpl implements DB {
                 // close the existing logWriter
                 try {
                     log.info("关闭当前日志文件:{}", logWriter.getFile().getName());
+                    if (walSyncer.isStarted()) {
+                        // asynchronous writers may still be waiting for records in this log
+                        logWriter.flush(true);
+                    }
                     logWriter.close();
                 } catch (IOException e) {
                     throw new RuntimeException("Unable to close logWriter file " + logWriter.getFile(), e);
                 }
 
-                // open a new logWriter
+                // open a new logWriter, reusing an obsolete log file when one is available
                 long logNumber = versionSet.getNextFileNumber();
                 try {
                     File targetFile = new File(databaseDir, Filename.logFileName(logNumber));
+                    Long recycledNumber = recycledLogs.poll();
+                    boolean prepared = false;
+                    if (recycledNumber == null && preparedLogReady) {
+                        // the zero filled file prepared in the background only has to be renamed
+                        File preparedFile = new File(databaseDir, Filename.tempFileName(preparedLogNumber));
+                        if (preparedFile.renameTo(targetFile)) {
+                            log.info("使用预先分配的文件{}作为新日志文件:{}", preparedFile.getName(), targetFile.getName());
+                            prepared = true;
+                        } else {
+                            log.warn("使用预先分配的文件{}失败, 删除后创建新文件", preparedFile.getName());
+                            preparedFile.delete();
+                        }
+                        pendingOutputs.remove(preparedLogNumber);
+                        preparedLogNumber = 0;
+                        preparedLogReady = false;
+                    } else if (recycledNumber != null) {
+                        File recycledFile = new File(databaseDir, Filename.logFileName(recycledNumber));
+                        if (recycledFile.renameTo(targetFile)) {
+                            log.info("复用旧日志文件{}作为新日志文件:{}", recycledFile.getName(), targetFile.getName());
+                        } else {
+                            log.warn("复用旧日志文件{}失败, 删除后创建新文件", recycledFile.getName());
+                            recycledFile.delete();
+                        }
+                    }
                     log.info("创建新日志文件:{}", targetFile.getName());
-                    this.logWriter = Logs.createLogWriter(targetFile, logNumber);
+                    this.logWriter = openLogWriter(targetFile, logNumber, prepared);
+                    maybePrepareLog();
                 } catch (IOException e) {
                     String errMsg = "Unable to open new logWriter file " + new File(databaseDir, Filename.logFileName(logNumber)).getAbsoluteFile();
                     throw new RuntimeException(errMsg, e);
@@ -896,9 +1307,10 @@ public class DbImpl implements DB {
             Slice minUserKey = fileMeta.getSmallest().getUserKey();
             Slice maxUserKey = fileMeta.getLargest().getUserKey();
             if (base != null) {
-                level = base.pickLevelForMemTableOutput(minUserKey, maxUserKey);
+                level = versionSet.getCompactionPicker().pickLevelForMemTableOutput(base, minUserKey, maxUserKey);
             }
             edit.addFile(level, fileMeta);
+            bytesFlushed.addAndGet(fileMeta.getFileSize());
         }
     }
 
@@ -910,30 +1322,57 @@ public class DbImpl implements DB {
      * @return sst表格文件的元数据
      * @throws IOException
      */
-    private FileMetaData dumpMemTableToSST(SeekingIterable<InternalKey, Slice> data, long fileNumber) throws IOException {
+    private FileMetaData dumpMemTableToSST(MemTable data, long fileNumber) throws IOException {
         File file = new File(databaseDir, Filename.tableFileName(fileNumber));
         log.info("dump memTable内容到{}中", file.getName());
         try {
             InternalKey smallest = null;
             InternalKey largest = null;
+            TableProperties properties;
+            long creationTime = System.currentTimeMillis();
+            // versions an open snapshot may still read are not filtered, as in compactions
+            long smallestSnapshot = snapshotRegistry.oldest(versionSet.getLastSequence());
             FileChannel channel = new FileOutputStream(file).getChannel();
             try {
                 //构建一个 tableBuilder
-                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator));
+                // writers may be stalled on this flush, so it goes ahead of compactions;
+                // the output level is only picked after the file is written, so flushes always use level 0's codec
+                TableFileBuilder tableBuilder = TableFormats.newBuilder(options, channel, new InternalUserComparator(internalKeyComparator), IoPriority.HIGH, blockPipeline,
+                        compressionTypeForLevel(0, false), 0);
 
                 //遍历memTable的键值对
                 for (Entry<InternalKey, Slice> entry : data) {
                     // update keys
                     InternalKey key = entry.getKey();
                     log.info("dump memTable >>>>>>> 处理键: {}", key);
+                    Slice value = entry.getValue();
+                    if (options.compactionFilter() != null && key.getValueType() == VALUE && key.getSequenceNumber() <= smallestSnapshot) {
+                        // older versions of the key may live in any level, so removals always leave a deletion
+                        Entry<InternalKey, Slice> filtered = applyCompactionFilter(key, value, 0, false);
+                        key = filtered.getKey();
+                        value = filtered.getValue();
+                    }
                     if (smallest == null) {
                         smallest = key;
                     }
                     largest = key;
 
-                    tableBuilder.add(key.encode(), entry.getValue());
+                    tableBuilder.add(key, value);
                 }
+
+                // range tombstones are written as they are, the file bounds are widened to cover them
+                for (RangeTombstone tombstone : data.getRangeTombstones()) {
+                    tableBuilder.addRangeTombstone(tombstone.getStartKey().encode(), tombstone.getEnd());
+                    if (smallest == null || internalKeyComparator.compare(tombstone.getStartKey(), smallest) < 0) {
+                        smallest = tombstone.getStartKey();
+                    }
+                    if (largest == null || internalKeyComparator.compare(tombstone.getEndKey(), largest) > 0) {
+                        largest = tombstone.getEndKey();
+                    }
+                }
+                tableBuilder.setCreationTime(creationTime);
                 tableBuilder.finish();
+                properties = tableBuilder.getProperties();
             } finally {
 
                 //强制刷新
@@ -947,10 +1386,12 @@ public class DbImpl implements DB {
             if (smallest == null) {
                 return null;
             }
-            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest);
+            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest, manifestCreationTime(creationTime));
+            // the properties are known here, so the new file never has to be read for them
+            fileMetaData.setTableProperties(properties);
 
             // verify table can be opened
-            tableCache.newIterator(fileMetaData);
+            tableCache.newIterator(fileMetaData).close();
 
             pendingOutputs.remove(fileNumber);
             return fileMetaData;
@@ -966,17 +1407,21 @@ public class DbImpl implements DB {
         checkArgument(compactionState.builder == null);
         checkArgument(compactionState.outfile == null);
 
-        compactionState.smallestSnapshot = versionSet.getLastSequence();
+        compactionState.lastSequence = versionSet.getLastSequence();
+        compactionState.snapshots = snapshotRegistry.sequences();
+        compactionState.smallestSnapshot = snapshotRegistry.oldest(compactionState.lastSequence);
 
         // Release mutex while we're actually doing the compaction work
         mutex.unlock();
+        MergingIterator iterator = null;
         try {
-            MergingIterator iterator = versionSet.makeInputIterator(compactionState.compaction);
+            prepareRangeTombstones(compactionState);
+            iterator = versionSet.makeInputIterator(compactionState.compaction);
 
             Slice currentUserKey = null;
             boolean hasCurrentUserKey = false;
 
-            long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+            long lastStripeForKey = -1;
             while (iterator.hasNext() && !shuttingDown.get()) {
                 // always give priority to compacting the current mem table
                 mutex.lock();
@@ -987,8 +1432,9 @@ public class DbImpl implements DB {
                 }
 
                 InternalKey key = iterator.peek().getKey();
-                if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
-                    finishCompactionOutputFile(compactionState);
+                if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null &&
+                        canSplitOutputBefore(compactionState, key)) {
+                    finishCompactionOutputFile(compactionState, key.getUserKey());
                 }
 
                 // Handle key/value, add to state, etc.
@@ -998,17 +1444,18 @@ public class DbImpl implements DB {
                     // do not hide error keys
                     currentUserKey = null;
                     hasCurrentUserKey = false;
-                    lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+                    lastStripeForKey = -1;
                 } else {
                     if (!hasCurrentUserKey || internalKeyComparator.getUserComparator().compare(key.getUserKey(), currentUserKey) != 0) {
                         // First occurrence of this user key
                         currentUserKey = key.getUserKey();
                         hasCurrentUserKey = true;
-                        lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+                        lastStripeForKey = -1;
                     }
 
-                    if (lastSequenceForKey <= compactionState.smallestSnapshot) {
-                        // Hidden by an newer entry for same user key
+                    long stripe = compactionState.stripeOf(key.getSequenceNumber());
+                    if (stripe == lastStripeForKey) {
+                        // Hidden by an newer entry for same user key that every snapshot seeing this one also sees
                         drop = true; // (A)
                     } else if (key.getValueType() == DELETION &&
                             key.getSequenceNumber() <= compactionState.smallestSnapshot &&
@@ -1021,9 +1468,28 @@ public class DbImpl implements DB {
                         //     few iterations of this loop (by rule (A) above).
                         // Therefore this deletion marker is obsolete and can be dropped.
                         drop = true;
+                    } else if (compactionState.rangeTombstones.maxCoveringSequence(key.getUserKey(), stripe) > key.getSequenceNumber()) {
+                        // deleted by a range deletion that every snapshot seeing this entry can see
+                        drop = true;
                     }
 
-                    lastSequenceForKey = key.getSequenceNumber();
+                    lastStripeForKey = stripe;
+                }
+
+                Slice value = iterator.peek().getValue();
+                chargeCompactionRead(compactionState, key.getUserKey().length() + SIZE_OF_LONG + value.length());
+                if (!drop && options.compactionFilter() != null &&
+                        key.getValueType() == VALUE &&
+                        key.getSequenceNumber() <= compactionState.smallestSnapshot) {
+                    Entry<InternalKey, Slice> filtered = applyCompactionFilter(key, value,
+                            compactionState.compaction.getOutputLevel(),
+                            compactionState.compaction.isBaseLevelForKey(key.getUserKey()));
+                    if (filtered == null) {
+                        drop = true;
+                    } else {
+                        key = filtered.getKey();
+                        value = filtered.getValue();
+                    }
                 }
 
                 if (!drop) {
@@ -1035,24 +1501,36 @@ public class DbImpl implements DB {
                         compactionState.currentSmallest = key;
                     }
                     compactionState.currentLargest = key;
-                    compactionState.builder.add(key.encode(), iterator.peek().getValue());
+                    compactionState.builder.add(key, value);
+                }
+                iterator.next();
 
-                    // Close output file if it is big enough
-                    if (compactionState.builder.getFileSize() >=
-                            compactionState.compaction.getMaxOutputFileSize()) {
-                        finishCompactionOutputFile(compactionState);
+                // Close output file if it is big enough
+                if (!drop && compactionState.builder.isFileSizeAtLeast(compactionState.compaction.getMaxOutputFileSize())) {
+                    if (!iterator.hasNext()) {
+                        finishCompactionOutputFile(compactionState, null);
+                    } else if (canSplitOutputBefore(compactionState, iterator.peek().getKey())) {
+                        finishCompactionOutputFile(compactionState, iterator.peek().getKey().getUserKey());
                     }
                 }
-                iterator.next();
             }
 
             if (shuttingDown.get()) {
                 throw new DatabaseShutdownException("DB shutdown during compaction");
             }
+            chargeCompactionRead(compactionState, 0);
+            if (compactionState.builder == null && hasRemainingRangeTombstones(compactionState)) {
+                // only range deletions are left, they still need a file to live in
+                openCompactionOutputFile(compactionState);
+            }
             if (compactionState.builder != null) {
-                finishCompactionOutputFile(compactionState);
+                finishCompactionOutputFile(compactionState, null);
             }
         } finally {
+            // the outputs are written, nothing refers to the input files any more
+            if (iterator != null) {
+                iterator.close();
+            }
             mutex.lock();
         }
 
@@ -1060,6 +1538,166 @@ public class DbImpl implements DB {
         installCompactionResults(compactionState);
     }
 
+    /**
+     * 向rateLimiter申请compaction读取输入的带宽, 按blockSize攒批申请, 避免每条数据都加锁
+     *
+     * @param bytes 本次读取的字节数, 为0时申请所有攒下的字节
+     */
+    private void chargeCompactionRead(CompactionState compactionState, long bytes) {
+        RateLimiter rateLimiter = options.rateLimiter();
+        if (rateLimiter == null) {
+            return;
+        }
+        compactionState.pendingReadBytes += bytes;
+        if (compactionState.pendingReadBytes >= options.blockSize() || (bytes == 0 && compactionState.pendingReadBytes > 0)) {
+            rateLimiter.request(compactionState.pendingReadBytes, IoPriority.LOW);
+            compactionState.pendingReadBytes = 0;
+        }
+    }
+
+    /**
+     * 处理输入文件中的范围删除:
+     * >>> 1. 被更新的输入中所有快照可见的范围删除完全覆盖的输入文件直接丢弃, 不再读取和重写
+     * >>> 2. 其余输入文件中的范围删除用于丢弃被覆盖的数据, 并在更深的level仍有重叠数据时写入输出文件
+     */
+    private void prepareRangeTombstones(CompactionState compactionState) {
+        Compaction compaction = compactionState.compaction;
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        List<FileMetaData>[] inputs = compaction.getInputs();
+        compactionState.rangeTombstones = new RangeTombstones(userComparator);
+
+        for (int which = 0; which < inputs.length; which++) {
+            for (FileMetaData file : inputs[which]) {
+                if (isCoveredByNewerInput(compactionState, which, file)) {
+                    log.info("level{}文件{}被范围删除完全覆盖, 直接丢弃", compaction.getInputLevel(which), file.getNumber());
+                    compaction.dropInput(file);
+                }
+            }
+        }
+
+        for (List<FileMetaData> files : inputs) {
+            for (FileMetaData file : files) {
+                if (compaction.isDroppedInput(file)) {
+                    continue;
+                }
+                List<RangeTombstone> tombstones = tableCache.getRangeTombstones(file);
+                compactionState.rangeTombstones.addAll(tombstones);
+                for (RangeTombstone tombstone : tombstones) {
+                    if (tombstone.getSequenceNumber() <= compactionState.smallestSnapshot &&
+                            compaction.isBaseLevelForRange(tombstone.getStart(), tombstone.getEnd())) {
+                        // nothing older is left below, the range deletion is obsolete
+                        continue;
+                    }
+                    compactionState.outputTombstones.add(tombstone);
+                }
+            }
+        }
+        Collections.sort(compactionState.outputTombstones, new Comparator<RangeTombstone>() {
+            @Override
+            public int compare(RangeTombstone o1, RangeTombstone o2) {
+                return userComparator.compare(o1.getStart(), o2.getStart());
+            }
+        });
+    }
+
+    /**
+     * 文件是否被更新的输入文件中所有快照可见的范围删除完全覆盖:
+     * 更低level的文件, 或者同在level0且编号更大的文件中的数据更新
+     */
+    private boolean isCoveredByNewerInput(CompactionState compactionState, int fileWhich, FileMetaData file) {
+        Compaction compaction = compactionState.compaction;
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        List<FileMetaData>[] inputs = compaction.getInputs();
+        int fileLevel = compaction.getInputLevel(fileWhich);
+        for (int which = 0; which < inputs.length; which++) {
+            int level = compaction.getInputLevel(which);
+            for (FileMetaData source : inputs[which]) {
+                boolean newer = level < fileLevel || (level == 0 && fileLevel == 0 && source.getNumber() > file.getNumber());
+                if (!newer) {
+                    continue;
+                }
+                for (RangeTombstone tombstone : tableCache.getRangeTombstones(source)) {
+                    if (tombstone.getSequenceNumber() <= compactionState.smallestSnapshot &&
+                            tombstone.covers(file.getSmallest().getUserKey(), file.getLargest().getUserKey(), userComparator)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 有范围删除需要写出时, 不在同一个userKey的多个版本之间切分输出文件, 保证切开的范围删除不会与相邻文件重叠
+     */
+    private boolean canSplitOutputBefore(CompactionState compactionState, InternalKey nextKey) {
+        return compactionState.outputTombstones.isEmpty() ||
+                compactionState.currentLargest == null ||
+                internalKeyComparator.getUserComparator().compare(compactionState.currentLargest.getUserKey(), nextKey.getUserKey()) != 0;
+    }
+
+    private boolean hasRemainingRangeTombstones(CompactionState compactionState) {
+        if (compactionState.rangeTombstonesFinished) {
+            return false;
+        }
+        for (RangeTombstone tombstone : compactionState.outputTombstones) {
+            if (tombstone.truncate(compactionState.rangeTombstoneLowerBound, null, internalKeyComparator.getUserComparator()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把范围删除截取到当前输出文件负责的[lowerBound, upperBound)区间写入, 并扩大文件的key范围
+     *
+     * @param upperBound 下一个输出文件的第一个userKey, 为null表示这是最后一个输出文件
+     */
+    private void addRangeTombstones(CompactionState compactionState, Slice upperBound) {
+        if (compactionState.rangeTombstonesFinished) {
+            return;
+        }
+        for (RangeTombstone tombstone : compactionState.outputTombstones) {
+            RangeTombstone truncated = tombstone.truncate(compactionState.rangeTombstoneLowerBound, upperBound, internalKeyComparator.getUserComparator());
+            if (truncated == null) {
+                continue;
+            }
+            compactionState.builder.addRangeTombstone(truncated.getStartKey().encode(), truncated.getEnd());
+            if (compactionState.currentSmallest == null || internalKeyComparator.compare(truncated.getStartKey(), compactionState.currentSmallest) < 0) {
+                compactionState.currentSmallest = truncated.getStartKey();
+            }
+            if (compactionState.currentLargest == null || internalKeyComparator.compare(truncated.getEndKey(), compactionState.currentLargest) > 0) {
+                compactionState.currentLargest = truncated.getEndKey();
+            }
+        }
+        compactionState.rangeTombstoneLowerBound = upperBound;
+        compactionState.rangeTombstonesFinished = upperBound == null;
+    }
+
+    /**
+     * 对一条数据执行options中的compactionFilter:
+     * >>> 1. 保留时原样返回, 替换时返回新的value
+     * >>> 2. 删除时, 如果更深的level没有这个key, 直接丢弃并返回null;
+     * 否则写入一个同sequence的删除标记, 避免更老的版本重新可见
+     *
+     * @param level     写入的level, flush时为0
+     * @param baseLevel 更深的level中是否一定没有这个key
+     */
+    private Entry<InternalKey, Slice> applyCompactionFilter(InternalKey key, Slice value, int level, boolean baseLevel) {
+        CompactionFilter.Decision decision = options.compactionFilter().filter(level, key.getUserKey().getBytes(), value.getBytes());
+        requireNonNull(decision, "compaction filter returned a null decision");
+        if (decision.isRemove()) {
+            if (baseLevel) {
+                return null;
+            }
+            return Maps.immutableEntry(new InternalKey(key.getUserKey(), key.getSequenceNumber(), DELETION), Slices.EMPTY_SLICE);
+        }
+        if (decision.getNewValue() != null) {
+            return Maps.immutableEntry(key, Slices.wrappedBuffer(decision.getNewValue()));
+        }
+        return Maps.immutableEntry(key, value);
+    }
+
     private void openCompactionOutputFile(CompactionState compactionState) throws FileNotFoundException {
         requireNonNull(compactionState, "compactionState is null");
         checkArgument(compactionState.builder == null, "compactionState builder is not null");
@@ -1075,13 +1713,48 @@ public class DbImpl implements DB {
 
             File file = new File(databaseDir, Filename.tableFileName(fileNumber));
             compactionState.outfile = new FileOutputStream(file).getChannel();
-            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator));
+            Compaction compaction = compactionState.compaction;
+            boolean bottommost = compaction.isBottommostLevel();
+            CompressionType compressionType = compressionTypeForLevel(compaction.getOutputLevel(), bottommost);
+            // the bottommost level holds most of the data and is rewritten least often, so it is worth training a dictionary
+            int dictionarySize = bottommost ? options.compressionDictionarySize() : 0;
+            compactionState.builder = TableFormats.newBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator), IoPriority.LOW, blockPipeline,
+                    compressionType, dictionarySize);
         } finally {
             mutex.unlock();
         }
     }
 
-    private void finishCompactionOutputFile(CompactionState compactionState) throws IOException {
+    /**
+     * 记录到MANIFEST中的文件创建时间:
+     * >>> 1. 只有FIFO compaction按ttl删除文件时才需要, 此时写入FILE_CREATION_TIME
+     * >>> 2. 其他情况返回0, 不写该tag, MANIFEST保持与原生leveldb和旧版本兼容; 创建时间仍然写入sst的属性块
+     */
+    private long manifestCreationTime(long creationTime) {
+        if (options.compactionStyle() == CompactionStyle.FIFO && options.fifoTtlSeconds() > 0) {
+            return creationTime;
+        }
+        return 0;
+    }
+
+    /**
+     * 写入指定level的sst文件使用的压缩类型:
+     * >>> 1. 最底层数据优先使用bottommostCompression
+     * >>> 2. 其次是compressionPerLevel中对应的项, 超出数组长度的level使用最后一项
+     * >>> 3. 都没有配置时使用compressionType
+     */
+    private CompressionType compressionTypeForLevel(int level, boolean bottommost) {
+        if (bottommost && options.bottommostCompression() != null) {
+            return options.bottommostCompression();
+        }
+        CompressionType[] compressionPerLevel = options.compressionPerLevel();
+        if (compressionPerLevel == null) {
+            return options.compressionType();
+        }
+        return compressionPerLevel[Math.min(level, compressionPerLevel.length - 1)];
+    }
+
+    private void finishCompactionOutputFile(CompactionState compactionState, Slice upperBound) throws IOException {
         requireNonNull(compactionState, "compactionState is null");
         checkArgument(compactionState.outfile != null);
         checkArgument(compactionState.builder != null);
@@ -1089,7 +1762,11 @@ public class DbImpl implements DB {
         long outputNumber = compactionState.currentFileNumber;
         checkArgument(outputNumber != 0);
 
+        addRangeTombstones(compactionState, upperBound);
+
         long currentEntries = compactionState.builder.getEntryCount();
+        long creationTime = System.currentTimeMillis();
+        compactionState.builder.setCreationTime(creationTime);
         compactionState.builder.finish();
 
         long currentBytes = compactionState.builder.getFileSize();
@@ -1099,7 +1776,9 @@ public class DbImpl implements DB {
         FileMetaData currentFileMetaData = new FileMetaData(compactionState.currentFileNumber,
                 compactionState.currentFileSize,
                 compactionState.currentSmallest,
-                compactionState.currentLargest);
+                compactionState.currentLargest,
+                manifestCreationTime(creationTime));
+        currentFileMetaData.setTableProperties(compactionState.builder.getProperties());
         compactionState.outputs.add(currentFileMetaData);
 
         compactionState.builder = null;
@@ -1110,7 +1789,7 @@ public class DbImpl implements DB {
 
         if (currentEntries > 0) {
             // Verify that the table is usable
-            tableCache.newIterator(outputNumber);
+            tableCache.newIterator(outputNumber).close();
         }
     }
 
@@ -1119,11 +1798,12 @@ public class DbImpl implements DB {
 
         // Add compaction outputs
         compact.compaction.addInputDeletions(compact.compaction.getEdit());
-        int level = compact.compaction.getLevel();
+        int level = compact.compaction.getOutputLevel();
         for (FileMetaData output : compact.outputs) {
-            compact.compaction.getEdit().addFile(level + 1, output);
+            compact.compaction.getEdit().addFile(level, output);
             pendingOutputs.remove(output.getNumber());
         }
+        bytesCompacted.addAndGet(compact.totalBytes);
 
         try {
             versionSet.logAndApply(compact.compaction.getEdit());
@@ -1175,10 +1855,23 @@ public class DbImpl implements DB {
         private final List<FileMetaData> outputs = new ArrayList<>();
 
         private long smallestSnapshot;
+        // Live snapshots in ascending order, and the newest sequence when the compaction started
+        private long[] snapshots;
+        private long lastSequence;
+
+        // Range deletions of the inputs that are read, and the ones that must be written out
+        private RangeTombstones rangeTombstones;
+        private final List<RangeTombstone> outputTombstones = new ArrayList<>();
+        // Range deletions below this user key are already written, null before the first output
+        private Slice rangeTombstoneLowerBound;
+        private boolean rangeTombstonesFinished;
+
+        // Input bytes read but not yet charged to the rate limiter
+        private long pendingReadBytes;
 
         // State kept for output being generated
         private FileChannel outfile;
-        private TableBuilder builder;
+        private TableFileBuilder builder;
 
         // Current file being generated
         private long currentFileNumber;
@@ -1192,6 +1885,19 @@ public class DbImpl implements DB {
             this.compaction = compaction;
         }
 
+        /**
+         * 条目所在的快照区间, 用能看到该条目的最老快照的sequence表示, 没有快照能看到时为lastSequence:
+         * >>> 1. 同一个user key在同一区间内只有最新的条目可见, 其余都可以丢弃
+         * >>> 2. 区间内最老的快照能看到的范围删除, 该区间的所有快照都能看到
+         */
+        private long stripeOf(long sequence) {
+            int index = Arrays.binarySearch(snapshots, sequence);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index < snapshots.length ? snapshots[index] : lastSequence;
+        }
+
         public Compaction getCompaction() {
             return compaction;
         }
@@ -1213,9 +1919,11 @@ public class DbImpl implements DB {
     private static class InsertIntoHandler implements Handler {
         private long sequence;
         private final MemTable memTable;
+        private final UserComparator userComparator;
 
-        public InsertIntoHandler(MemTable memTable, long sequenceBegin) {
+        public InsertIntoHandler(MemTable memTable, UserComparator userComparator, long sequenceBegin) {
             this.memTable = memTable;
+            this.userComparator = userComparator;
             this.sequence = sequenceBegin;
         }
 
@@ -1228,6 +1936,15 @@ public class DbImpl implements DB {
         public void delete(Slice key) {
             memTable.add(sequence++, DELETION, key, Slices.EMPTY_SLICE);
         }
+
+        @Override
+        public void deleteRange(Slice begin, Slice end) {
+            // a batch may hold an empty range, it covers nothing but still uses its sequence
+            if (userComparator.compare(begin, end) < 0) {
+                memTable.add(sequence, RANGE_DELETION, begin, end);
+            }
+            sequence++;
+        }
     }
 
     public static class DatabaseShutdownException extends DBException {
@@ -0,0 +1,109 @@
+package org.iq80.leveldb.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.iq80.leveldb.slice.Slice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * FIFO的compaction策略, 适用于只追加且会过期的数据:
+ * >>> 1. memTable总是落盘到level0, 文件之间从不合并
+ * >>> 2. level0文件总大小超过maxTableFilesSize时, 从最老的文件开始删除直到回到限制以内
+ * >>> 3. 配置了ttl时, 创建时间早于ttl的文件直接删除, 创建时间未知(旧版本MANIFEST)的文件不按时间删除
+ * <p>
+ * 删除文件只需要写一条VersionEdit, 没有数据重写, 写放大接近1;
+ * 过期检查在生成新版本和调度compaction时进行, 空闲的DB要等到下一次写入落盘才会回收过期文件
+ *
+ * @author yf
+ */
+@Slf4j
+public class FifoCompactionPicker implements CompactionPicker {
+    private final long maxTableFilesSize;
+    private final long ttlMillis;
+
+    /**
+     * @param maxTableFilesSize level0文件总大小上限
+     * @param ttl               文件存活时间, 0表示不按时间删除
+     */
+    public FifoCompactionPicker(long maxTableFilesSize, long ttl, TimeUnit unit) {
+        checkArgument(maxTableFilesSize > 0, "maxTableFilesSize must be positive");
+        checkArgument(ttl >= 0, "ttl is negative");
+        this.maxTableFilesSize = maxTableFilesSize;
+        this.ttlMillis = unit.toMillis(ttl);
+    }
+
+    @Override
+    public void finalizeVersion(Version version) {
+        long totalBytes = Compaction.totalFileSize(version.getFiles(0));
+        version.setCompactionLevel(0);
+        version.setCompactionScore(1.0 * totalBytes / maxTableFilesSize);
+        // dropping files rewrites nothing
+        version.setPendingCompactionBytes(0);
+        List<FileMetaData> files = version.getFiles(0);
+        version.setOldestFileCreationTime(files.isEmpty() ? 0 : Collections.max(files, Level0.NEWEST_FIRST).getCreationTime());
+    }
+
+    /**
+     * 读取时在锁内调用, 只比较生成版本时记下的最老文件创建时间
+     */
+    @Override
+    public boolean needsCompaction(Version version) {
+        long oldest = version.getOldestFileCreationTime();
+        return version.getCompactionScore() > 1 || (ttlMillis > 0 && oldest != 0 && System.currentTimeMillis() - oldest >= ttlMillis);
+    }
+
+    @Override
+    public Compaction pickCompaction(VersionSet versionSet, Version current) {
+        List<FileMetaData> files = oldestFirst(current);
+        List<FileMetaData> deletions = expiredFiles(current, System.currentTimeMillis());
+
+        long totalBytes = Compaction.totalFileSize(files);
+        for (FileMetaData file : deletions) {
+            totalBytes -= file.getFileSize();
+        }
+        // then drop the oldest files until the rest fits under the size limit
+        for (int i = deletions.size(); i < files.size() && totalBytes > maxTableFilesSize; i++) {
+            deletions.add(files.get(i));
+            totalBytes -= files.get(i).getFileSize();
+        }
+
+        if (deletions.isEmpty()) {
+            return null;
+        }
+        log.info("FIFO compaction删除{}个最老的level0文件, 剩余{}字节", deletions.size(), totalBytes);
+        return new Compaction(current, new int[]{0}, new List[]{deletions}, 0, true);
+    }
+
+    @Override
+    public int pickLevelForMemTableOutput(Version base, Slice smallestUserKey, Slice largestUserKey) {
+        return 0;
+    }
+
+    /**
+     * 创建时间超过ttl的文件, 按从老到新排列; 文件编号越小越老, 所以一旦遇到未过期的文件就可以停止
+     */
+    private List<FileMetaData> expiredFiles(Version version, long now) {
+        List<FileMetaData> expired = new ArrayList<>();
+        if (ttlMillis == 0) {
+            return expired;
+        }
+        for (FileMetaData file : oldestFirst(version)) {
+            if (file.getCreationTime() == 0 || now - file.getCreationTime() < ttlMillis) {
+                break;
+            }
+            expired.add(file);
+        }
+        return expired;
+    }
+
+    private static List<FileMetaData> oldestFirst(Version version) {
+        List<FileMetaData> files = new ArrayList<>(version.getFiles(0));
+        Collections.sort(files, Collections.reverseOrder(Level0.NEWEST_FIRST));
+        return files;
+    }
+}
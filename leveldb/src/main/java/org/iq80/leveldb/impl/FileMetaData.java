@@ -2,13 +2,14 @@ package org.iq80.leveldb.impl;
 
 import lombok.Getter;
 import lombok.ToString;
+import org.iq80.leveldb.table.TableProperties;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author xxx
  */
-@ToString
+@ToString(exclude = "tableProperties")
 public class FileMetaData {
     /**
      * 文件编号
@@ -34,16 +35,32 @@ public class FileMetaData {
     @Getter
     private final InternalKey largest;
 
+    /**
+     * 文件创建时间(毫秒), 0表示未知
+     */
+    @Getter
+    private final long creationTime;
+
     /**
      * Seeks allowed until compaction
      */
     private final AtomicInteger allowedSeeks = new AtomicInteger(1 << 30);
 
+    /**
+     * 文件属性块中的统计信息, 第一次需要时从table读取, 之后缓存在这里
+     */
+    private volatile TableProperties tableProperties;
+
     public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest) {
+        this(number, fileSize, smallest, largest, 0);
+    }
+
+    public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest, long creationTime) {
         this.number = number;
         this.fileSize = fileSize;
         this.smallest = smallest;
         this.largest = largest;
+        this.creationTime = creationTime;
     }
 
     public int getAllowedSeeks() {
@@ -57,4 +74,12 @@ public class FileMetaData {
     public void decrementAllowedSeeks() {
         allowedSeeks.getAndDecrement();
     }
+
+    public TableProperties getTableProperties() {
+        return tableProperties;
+    }
+
+    public void setTableProperties(TableProperties tableProperties) {
+        this.tableProperties = tableProperties;
+    }
 }
\ No newline at end of file
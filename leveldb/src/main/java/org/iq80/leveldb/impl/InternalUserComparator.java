@@ -33,6 +33,11 @@ public class InternalUserComparator
         this.internalKeyComparator = internalKeyComparator;
     }
 
+    public InternalKeyComparator getInternalKeyComparator()
+    {
+        return internalKeyComparator;
+    }
+
     @Override
     public int compare(Slice left, Slice right)
     {
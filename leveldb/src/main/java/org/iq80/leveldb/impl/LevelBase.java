@@ -3,7 +3,6 @@ package org.iq80.leveldb.impl;
 import lombok.Getter;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.table.UserComparator;
-import org.iq80.leveldb.util.InternalTableIterator;
 
 import java.util.List;
 import java.util.Map;
@@ -47,21 +46,27 @@ public class LevelBase {
         this.files = files;
     }
 
+    /**
+     * 在单个文件中查找key, 同时考虑文件内的范围删除:
+     * >>> 1. 点数据比覆盖它的范围删除新时以点数据为准
+     * >>> 2. 范围删除更新或文件中没有该key的点数据时返回已删除, 更老的文件中的数据不会比它新
+     */
     protected LookupResult searchInFile(FileMetaData fileMetaData, LookupKey key) {
-        // open the iterator
-        InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
+        long rangeDeletionSequence = RangeTombstones.maxCoveringSequence(tableCache.getRangeTombstones(fileMetaData),
+                key.getUserKey(),
+                key.getInternalKey().getSequenceNumber(),
+                internalKeyComparator.getUserComparator());
 
-        // seek to the key
-        iterator.seek(key.getInternalKey());
+        // seek to the key, the hash index of the data block may already tell that the key is absent
+        Map.Entry<InternalKey, Slice> entry = tableCache.seekForGet(fileMetaData, key);
 
-        if (iterator.hasNext()) {
+        if (entry != null) {
             // parse the key in the block
-            Map.Entry<InternalKey, Slice> entry = iterator.next();
             InternalKey internalKey = entry.getKey();
             checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
 
             // if this is a value key (not a delete) and the keys match, return the value
-            if (key.getUserKey().equals(internalKey.getUserKey())) {
+            if (key.getUserKey().equals(internalKey.getUserKey()) && internalKey.getSequenceNumber() > rangeDeletionSequence) {
                 if (internalKey.getValueType() == ValueType.DELETION) {
                     return LookupResult.deleted(key);
                 } else if (internalKey.getValueType() == VALUE) {
@@ -69,6 +74,9 @@ public class LevelBase {
                 }
             }
         }
+        if (rangeDeletionSequence > 0) {
+            return LookupResult.deleted(key);
+        }
         return null;
     }
 
@@ -0,0 +1,102 @@
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.CompactionPriority;
+import org.iq80.leveldb.slice.Slice;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.VersionSet.L0_COMPACTION_TRIGGER;
+
+/**
+ * leveldb默认的分层compaction策略:
+ * >>> 1. level0按文件数打分, 其余level按实际大小与目标大小的比值打分, 目标大小由VersionSet按配置计算
+ * >>> 2. 分数最高的level与下一层重叠的文件合并, 同层按compactionPriority选择文件, 默认按compactPointer轮转
+ * >>> 3. 没有超过阈值的level时, 处理由seek统计触发的compaction
+ *
+ * @author yf
+ */
+public class LeveledCompactionPicker implements CompactionPicker {
+    private final CompactionPriority compactionPriority;
+
+    public LeveledCompactionPicker() {
+        this(CompactionPriority.ROUND_ROBIN);
+    }
+
+    public LeveledCompactionPicker(CompactionPriority compactionPriority) {
+        this.compactionPriority = requireNonNull(compactionPriority, "compactionPriority is null");
+    }
+
+    @Override
+    public void finalizeVersion(Version version) {
+        // Precomputed best level for next compaction
+        int bestLevel = -1;
+        double bestScore = -1;
+
+        for (int level = 0; level < version.numberOfLevels() - 1; level++) {
+            double score;
+            if (level == 0) {
+                // We treat level-0 specially by bounding the number of files
+                // instead of number of bytes for two reasons:
+                //
+                // (1) With larger write-buffer sizes, it is nice not to do too
+                // many level-0 compactions.
+                //
+                // (2) The files in level-0 are merged on every read and
+                // therefore we wish to avoid too many files when the individual
+                // file size is small (perhaps because of a small write-buffer
+                // setting, or very high compression ratios, or lots of
+                // overwrites/deletions).
+                score = 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
+            } else {
+                // Compute the ratio of current size to size limit.
+                long levelBytes = 0;
+                for (FileMetaData fileMetaData : version.getFiles(level)) {
+                    levelBytes += fileMetaData.getFileSize();
+                }
+                score = 1.0 * levelBytes / version.getMaxBytesForLevel(level);
+            }
+
+            if (score > bestScore) {
+                bestLevel = level;
+                bestScore = score;
+            }
+        }
+
+        version.setCompactionLevel(bestLevel);
+        version.setCompactionScore(bestScore);
+        version.setPendingCompactionBytes(estimatePendingCompactionBytes(version));
+    }
+
+    /**
+     * 估算指定版本还需要compaction重写的字节数: level0超过触发文件数时计入整层大小,
+     * 其余level计入超出目标大小的部分
+     */
+    private static long estimatePendingCompactionBytes(Version version) {
+        long pendingBytes = 0;
+        if (version.numberOfFilesInLevel(0) >= L0_COMPACTION_TRIGGER) {
+            pendingBytes += Compaction.totalFileSize(version.getFiles(0));
+        }
+        for (int level = 1; level < version.numberOfLevels() - 1; level++) {
+            long levelBytes = Compaction.totalFileSize(version.getFiles(level));
+            double maxBytes = version.getMaxBytesForLevel(level);
+            if (levelBytes > maxBytes) {
+                pendingBytes += (long) (levelBytes - maxBytes);
+            }
+        }
+        return pendingBytes;
+    }
+
+    @Override
+    public boolean needsCompaction(Version version) {
+        return version.getCompactionScore() >= 1 || version.getFileToCompact() != null;
+    }
+
+    @Override
+    public Compaction pickCompaction(VersionSet versionSet, Version current) {
+        return versionSet.pickLevelCompaction(compactionPriority);
+    }
+
+    @Override
+    public int pickLevelForMemTableOutput(Version base, Slice smallestUserKey, Slice largestUserKey) {
+        return base.pickLevelForMemTableOutput(smallestUserKey, largestUserKey);
+    }
+}
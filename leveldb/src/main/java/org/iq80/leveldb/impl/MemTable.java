@@ -6,6 +6,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.util.InternalIterator;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -18,15 +20,22 @@ import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
  */
 @Slf4j
 public class MemTable implements SeekingIterable<InternalKey, Slice> {
+    private final InternalKeyComparator internalKeyComparator;
     private final ConcurrentSkipListMap<InternalKey, Slice> table;
+    /**
+     * 范围删除标记, key为(start, sequence, RANGE_DELETION), value为end, 不参与普通数据的遍历
+     */
+    private final ConcurrentSkipListMap<InternalKey, Slice> rangeTombstones;
     private final AtomicLong approximateMemoryUsage = new AtomicLong();
 
     public MemTable(InternalKeyComparator internalKeyComparator) {
+        this.internalKeyComparator = internalKeyComparator;
         table = new ConcurrentSkipListMap<>(internalKeyComparator);
+        rangeTombstones = new ConcurrentSkipListMap<>(internalKeyComparator);
     }
 
     public boolean isEmpty() {
-        return table.isEmpty();
+        return table.isEmpty() && rangeTombstones.isEmpty();
     }
 
     public long approximateMemoryUsage() {
@@ -39,7 +48,11 @@ public class MemTable implements SeekingIterable<InternalKey, Slice> {
         requireNonNull(valueType, "valueType is null");
 
         InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
-        table.put(internalKey, value);
+        if (valueType == ValueType.RANGE_DELETION) {
+            rangeTombstones.put(internalKey, value);
+        } else {
+            table.put(internalKey, value);
+        }
 
         //缓冲区大小记录
         approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
@@ -49,12 +62,21 @@ public class MemTable implements SeekingIterable<InternalKey, Slice> {
         requireNonNull(key, "key is null");
 
         InternalKey internalKey = key.getInternalKey();
+        long rangeDeletionSequence = maxCoveringTombstoneSequence(key.getUserKey(), internalKey.getSequenceNumber());
         Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
-        if (entry == null) {
+        if (entry == null || !entry.getKey().getUserKey().equals(key.getUserKey())) {
+            if (rangeDeletionSequence > 0) {
+                log.info("memTable 查找{} 返回RangeDeleted", key.toString());
+                return LookupResult.deleted(key);
+            }
             log.info("memTable 查找{} 返回null", key.toString());
             return null;
         }
         InternalKey entryKey = entry.getKey();
+        if (rangeDeletionSequence > entryKey.getSequenceNumber()) {
+            log.info("memTable 查找{} 返回RangeDeleted", key.toString());
+            return LookupResult.deleted(key);
+        }
         if (entryKey.getUserKey().equals(key.getUserKey())) {
             if (entryKey.getValueType() == ValueType.DELETION) {
                 log.info("memTable 查找{} 返回Deleted", key.toString());
@@ -67,6 +89,30 @@ public class MemTable implements SeekingIterable<InternalKey, Slice> {
         return null;
     }
 
+    /**
+     * 覆盖userKey且sequence不大于snapshot的范围删除中最大的sequence, 没有时返回0
+     */
+    public long maxCoveringTombstoneSequence(Slice userKey, long snapshot) {
+        if (rangeTombstones.isEmpty()) {
+            return 0;
+        }
+        // only tombstones starting at or before the key can cover it
+        InternalKey upperBound = new InternalKey(userKey, 0, ValueType.RANGE_DELETION);
+        List<RangeTombstone> candidates = new ArrayList<>();
+        for (Entry<InternalKey, Slice> entry : rangeTombstones.headMap(upperBound, true).entrySet()) {
+            candidates.add(new RangeTombstone(entry.getKey(), entry.getValue()));
+        }
+        return RangeTombstones.maxCoveringSequence(candidates, userKey, snapshot, internalKeyComparator.getUserComparator());
+    }
+
+    public List<RangeTombstone> getRangeTombstones() {
+        List<RangeTombstone> result = new ArrayList<>(rangeTombstones.size());
+        for (Entry<InternalKey, Slice> entry : rangeTombstones.entrySet()) {
+            result.add(new RangeTombstone(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
     @Override
     public MemTableIterator iterator() {
         return new MemTableIterator();
@@ -110,5 +156,9 @@ public class MemTable implements SeekingIterable<InternalKey, Slice> {
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void close() {
+        }
     }
 }
@@ -0,0 +1,81 @@
+package org.iq80.leveldb.impl;
+
+import lombok.Getter;
+import org.iq80.leveldb.slice.Slice;
+
+import java.util.Comparator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+
+/**
+ * 范围删除标记, 删除[start, end)之间所有sequence小于它的数据
+ * <p>
+ * 在sst中以(start, sequence, RANGE_DELETION)编码后的InternalKey为key, end为value存放在meta block中
+ *
+ * @author yf
+ */
+public class RangeTombstone {
+    @Getter
+    private final Slice start;
+    @Getter
+    private final Slice end;
+    @Getter
+    private final long sequenceNumber;
+
+    public RangeTombstone(Slice start, Slice end, long sequenceNumber) {
+        this.start = requireNonNull(start, "start is null");
+        this.end = requireNonNull(end, "end is null");
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public RangeTombstone(InternalKey startKey, Slice end) {
+        this(startKey.getUserKey(), end, startKey.getSequenceNumber());
+    }
+
+    public boolean covers(Slice userKey, Comparator<Slice> userComparator) {
+        return userComparator.compare(start, userKey) <= 0 && userComparator.compare(userKey, end) < 0;
+    }
+
+    /**
+     * 是否覆盖整个[smallest, largest]闭区间
+     */
+    public boolean covers(Slice smallest, Slice largest, Comparator<Slice> userComparator) {
+        return userComparator.compare(start, smallest) <= 0 && userComparator.compare(largest, end) < 0;
+    }
+
+    public boolean overlaps(Slice smallest, Slice largest, Comparator<Slice> userComparator) {
+        return userComparator.compare(start, largest) <= 0 && userComparator.compare(smallest, end) < 0;
+    }
+
+    /**
+     * 截取与[lower, upper)的交集, 没有交集时返回null, lower/upper为null表示不限
+     */
+    public RangeTombstone truncate(Slice lower, Slice upper, Comparator<Slice> userComparator) {
+        Slice truncatedStart = lower != null && userComparator.compare(start, lower) < 0 ? lower : start;
+        Slice truncatedEnd = upper != null && userComparator.compare(upper, end) < 0 ? upper : end;
+        if (userComparator.compare(truncatedStart, truncatedEnd) >= 0) {
+            return null;
+        }
+        return new RangeTombstone(truncatedStart, truncatedEnd, sequenceNumber);
+    }
+
+    public InternalKey getStartKey() {
+        return new InternalKey(start, sequenceNumber, ValueType.RANGE_DELETION);
+    }
+
+    /**
+     * end是开区间, 用最大的sequence构造一个排在end所有数据之前的key作为文件的上界
+     */
+    public InternalKey getEndKey() {
+        return new InternalKey(end, MAX_SEQUENCE_NUMBER, ValueType.RANGE_DELETION);
+    }
+
+    @Override
+    public String toString() {
+        return "RangeTombstone{start=" + start.toString(UTF_8) +
+                ", end=" + end.toString(UTF_8) +
+                ", sequenceNumber=" + sequenceNumber + '}';
+    }
+}
@@ -0,0 +1,67 @@
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.slice.Slice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 一组范围删除标记, 用于判断某个key的某个版本是否已被范围删除
+ * <p>
+ * 范围删除主要用于整段数据下线, 数量通常很少, 这里直接线性查找
+ *
+ * @author yf
+ */
+public class RangeTombstones implements Iterable<RangeTombstone> {
+    private final Comparator<Slice> userComparator;
+    private final List<RangeTombstone> tombstones = new ArrayList<>();
+
+    public RangeTombstones(Comparator<Slice> userComparator) {
+        this.userComparator = requireNonNull(userComparator, "userComparator is null");
+    }
+
+    public void addAll(Collection<RangeTombstone> rangeTombstones) {
+        tombstones.addAll(rangeTombstones);
+    }
+
+    public boolean isEmpty() {
+        return tombstones.isEmpty();
+    }
+
+    /**
+     * 覆盖userKey且对snapshot可见的范围删除中最大的sequence, 没有时返回0
+     */
+    public long maxCoveringSequence(Slice userKey, long snapshot) {
+        return maxCoveringSequence(tombstones, userKey, snapshot, userComparator);
+    }
+
+    /**
+     * key对应的数据是否被一个更新且对snapshot可见的范围删除覆盖
+     */
+    public boolean isCovered(InternalKey key, long snapshot) {
+        return maxCoveringSequence(key.getUserKey(), snapshot) > key.getSequenceNumber();
+    }
+
+    @Override
+    public Iterator<RangeTombstone> iterator() {
+        return ImmutableList.copyOf(tombstones).iterator();
+    }
+
+    static long maxCoveringSequence(Iterable<RangeTombstone> tombstones, Slice userKey, long snapshot, Comparator<Slice> userComparator) {
+        long result = 0;
+        for (RangeTombstone tombstone : tombstones) {
+            if (tombstone.getSequenceNumber() <= snapshot &&
+                    tombstone.getSequenceNumber() > result &&
+                    tombstone.covers(userKey, userComparator)) {
+                result = tombstone.getSequenceNumber();
+            }
+        }
+        return result;
+    }
+}
@@ -85,7 +85,13 @@ public class SeekingIteratorAdapter
 
     private DbEntry adapt(Entry<Slice, Slice> entry)
     {
-        return new DbEntry(entry.getKey(), entry.getValue());
+        // entries outlive the iterator, so slices that point into a mapped table file are copied
+        return new DbEntry(heapCopy(entry.getKey()), heapCopy(entry.getValue()));
+    }
+
+    private static Slice heapCopy(Slice slice)
+    {
+        return slice.hasRawArray() ? slice : slice.copySlice();
     }
 
     //
@@ -27,12 +27,25 @@ public class SnapshotImpl
     private final AtomicBoolean closed = new AtomicBoolean();
     private final Version version;
     private final long lastSequence;
+    private final SnapshotRegistry registry;
 
     SnapshotImpl(Version version, long lastSequence)
+    {
+        this(version, lastSequence, null);
+    }
+
+    /**
+     * @param registry 登记快照的注册表, compaction据此保留快照可见的版本; 为null时不登记, 只用于短暂的读取
+     */
+    SnapshotImpl(Version version, long lastSequence, SnapshotRegistry registry)
     {
         this.version = version;
         this.lastSequence = lastSequence;
+        this.registry = registry;
         this.version.retain();
+        if (registry != null) {
+            registry.register(lastSequence);
+        }
     }
 
     @Override
@@ -42,6 +55,9 @@ public class SnapshotImpl
         // but we don't want the version reference count going bad.
         if (closed.compareAndSet(false, true)) {
             this.version.release();
+            if (registry != null) {
+                registry.release(lastSequence);
+            }
         }
     }
 
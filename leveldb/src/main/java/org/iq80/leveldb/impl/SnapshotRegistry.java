@@ -0,0 +1,51 @@
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.TreeMultiset;
+import com.google.common.primitives.Longs;
+
+/**
+ * 记录所有未关闭快照的sequence, 按从小到大排列:
+ * >>> 1. getSnapshot或写入时要求返回快照时登记, 快照关闭时移除
+ * >>> 2. 同一个sequence可能对应多个快照, 全部关闭后才移除
+ * >>> 3. compaction开始时取一份有序列表, 只为每个快照保留它能看到的那个版本
+ *
+ * @author yf
+ */
+public class SnapshotRegistry {
+    private final TreeMultiset<Long> sequences = TreeMultiset.create();
+
+    public synchronized void register(long sequence) {
+        sequences.add(sequence);
+    }
+
+    public synchronized void release(long sequence) {
+        sequences.remove(sequence);
+    }
+
+    public synchronized boolean isEmpty() {
+        return sequences.isEmpty();
+    }
+
+    public synchronized int size() {
+        return sequences.size();
+    }
+
+    /**
+     * 最老快照的sequence, 没有快照时返回defaultSequence
+     */
+    public synchronized long oldest(long defaultSequence) {
+        return sequences.isEmpty() ? defaultSequence : sequences.firstEntry().getElement();
+    }
+
+    /**
+     * 去重后的快照sequence, 升序
+     */
+    public synchronized long[] sequences() {
+        return Longs.toArray(sequences.elementSet());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SnapshotRegistry" + sequences;
+    }
+}
@@ -31,17 +31,25 @@ public final class SnapshotSeekingIterator
     private final DbIterator iterator;
     private final SnapshotImpl snapshot;
     private final Comparator<Slice> userComparator;
+    private final RangeTombstones rangeTombstones;
 
     public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator)
+    {
+        this(iterator, snapshot, userComparator, new RangeTombstones(userComparator));
+    }
+
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, RangeTombstones rangeTombstones)
     {
         this.iterator = iterator;
         this.snapshot = snapshot;
         this.userComparator = userComparator;
+        this.rangeTombstones = rangeTombstones;
         this.snapshot.getVersion().retain();
     }
 
     public void close()
     {
+        iterator.close();
         this.snapshot.getVersion().release();
     }
 
@@ -98,7 +106,11 @@ public final class SnapshotSeekingIterator
             else if (internalKey.getValueType() == ValueType.VALUE) {
                 // is this value masked by a prior deletion record?
                 if (deletedKey == null || userComparator.compare(internalKey.getUserKey(), deletedKey) > 0) {
-                    return;
+                    // a visible range deletion newer than this value hides it and all older versions
+                    if (!rangeTombstones.isCovered(internalKey, snapshot.getLastSequence())) {
+                        return;
+                    }
+                    deletedKey = internalKey.getUserKey();
                 }
             }
             iterator.next();
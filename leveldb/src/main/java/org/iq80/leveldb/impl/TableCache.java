@@ -1,18 +1,25 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.cache.*;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import org.iq80.leveldb.slice.Slice;
-import org.iq80.leveldb.table.FileChannelTable;
-import org.iq80.leveldb.table.MMapTable;
+import org.iq80.leveldb.table.Block;
+import org.iq80.leveldb.table.BlockEntry;
+import org.iq80.leveldb.table.BlockIterator;
 import org.iq80.leveldb.table.Table;
+import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.TableFormats;
+import org.iq80.leveldb.table.TableProperties;
 import org.iq80.leveldb.table.UserComparator;
-import org.iq80.leveldb.util.Finalizer;
 import org.iq80.leveldb.util.InternalTableIterator;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import static java.util.Objects.requireNonNull;
@@ -24,7 +31,6 @@ import static java.util.Objects.requireNonNull;
  */
 public class TableCache {
     private final LoadingCache<Long, TableAndFile> cache;
-    private final Finalizer<Table> finalizer = new Finalizer<>(1);
 
     public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums) {
         requireNonNull(databaseDir, "databaseName is null");
@@ -34,8 +40,8 @@ public class TableCache {
                 .removalListener(new RemovalListener<Long, TableAndFile>() {
                     @Override
                     public void onRemoval(RemovalNotification<Long, TableAndFile> notification) {
-                        Table table = notification.getValue().getTable();
-                        finalizer.addCleanup(table, table.closer());
+                        // the file is closed once the iterators and lookups still using it are done
+                        notification.getValue().getTable().release();
                     }
                 })
                 .build(new CacheLoader<Long, TableAndFile>() {
@@ -50,18 +56,77 @@ public class TableCache {
         return newIterator(file.getNumber());
     }
 
+    /**
+     * 返回的迭代器持有文件的引用, 用完后需要调用{@link InternalTableIterator#close()}
+     */
     public InternalTableIterator newIterator(long number) {
-        return new InternalTableIterator(getTable(number).iterator());
+        Table table = acquireTable(number);
+        try {
+            return new InternalTableIterator(table.iterator(), table);
+        } catch (RuntimeException e) {
+            table.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 点查文件, 返回第一个不小于key的条目, 可以确定文件中没有该user key时返回null
+     */
+    public Map.Entry<InternalKey, Slice> seekForGet(FileMetaData file, LookupKey key) {
+        Table table = acquireTable(file.getNumber());
+        try {
+            Map.Entry<Slice, Slice> entry = table.seekForGet(key.getInternalKey().encode(), key.getUserKey());
+            if (entry == null) {
+                return null;
+            }
+            // the value may be a view of the mapped file, which is unmapped once the table is evicted and released
+            Slice value = entry.getValue();
+            return Maps.immutableEntry(new InternalKey(entry.getKey()), value.hasRawArray() ? value : value.copySlice());
+        } finally {
+            table.release();
+        }
     }
 
     public long getApproximateOffsetOf(FileMetaData file, Slice key) {
-        return getTable(file.getNumber()).getApproximateOffsetOf(key);
+        Table table = acquireTable(file.getNumber());
+        try {
+            return table.getApproximateOffsetOf(key);
+        } finally {
+            table.release();
+        }
+    }
+
+    /**
+     * 文件中的范围删除标记, 打开文件时读取一次并随table一起缓存
+     */
+    public List<RangeTombstone> getRangeTombstones(FileMetaData file) {
+        return getTableAndFile(file.getNumber()).getRangeTombstones();
+    }
+
+    /**
+     * 文件的属性块, 打开文件时读取一次并随table一起缓存
+     */
+    public TableProperties getTableProperties(FileMetaData file) {
+        return getTableAndFile(file.getNumber()).getProperties();
     }
 
-    private Table getTable(long number) {
-        Table table;
+    /**
+     * 取得文件的table并增加一个引用, 调用方用完后调用{@link Table#release()}
+     */
+    private Table acquireTable(long number) {
+        while (true) {
+            Table table = getTableAndFile(number).getTable();
+            // the table may have been evicted and closed since it was looked up, the next lookup reopens it
+            if (table.retain()) {
+                return table;
+            }
+        }
+    }
+
+    private TableAndFile getTableAndFile(long number) {
+        TableAndFile tableAndFile;
         try {
-            table = cache.get(number).getTable();
+            tableAndFile = cache.get(number);
         } catch (ExecutionException e) {
             Throwable cause = e;
             if (e.getCause() != null) {
@@ -69,12 +134,11 @@ public class TableCache {
             }
             throw new RuntimeException("Could not open table " + number, cause);
         }
-        return table;
+        return tableAndFile;
     }
 
     public void close() {
         cache.invalidateAll();
-        finalizer.destroy();
     }
 
     public void evict(long number) {
@@ -83,6 +147,8 @@ public class TableCache {
 
     private static final class TableAndFile {
         private final Table table;
+        private final List<RangeTombstone> rangeTombstones;
+        private final TableProperties properties;
 
         /**
          * 根据文件编号和目录返回 ${fileNumber}.sst为存储介质的数据表格
@@ -98,16 +164,37 @@ public class TableCache {
             File tableFile = new File(databaseDir, tableFileName);
             try (FileInputStream fis = new FileInputStream(tableFile);
                  FileChannel fileChannel = fis.getChannel()) {
-                if (Iq80DBFactory.USE_MMAP) {
-                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyCheckSums);
-                } else {
-                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyCheckSums);
-                }
+                table = TableFormats.openTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyCheckSums, Iq80DBFactory.USE_MMAP);
+                rangeTombstones = readRangeTombstones(table);
+                properties = table.getProperties();
+            }
+        }
+
+        private static List<RangeTombstone> readRangeTombstones(Table table) throws IOException {
+            Block block = table.getMetaBlock(TableBuilder.RANGE_DELETION_BLOCK);
+            if (block == null) {
+                return ImmutableList.of();
+            }
+            ImmutableList.Builder<RangeTombstone> tombstones = ImmutableList.builder();
+            BlockIterator iterator = block.iterator();
+            while (iterator.hasNext()) {
+                BlockEntry entry = iterator.next();
+                // copy the slices, the block may be backed by a mapped buffer
+                tombstones.add(new RangeTombstone(new InternalKey(entry.getKey().copySlice()), entry.getValue().copySlice()));
             }
+            return tombstones.build();
         }
 
         public Table getTable() {
             return table;
         }
+
+        public List<RangeTombstone> getRangeTombstones() {
+            return rangeTombstones;
+        }
+
+        public TableProperties getProperties() {
+            return properties;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.RateLimiter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 令牌桶实现的RateLimiter:
+ * >>> 1. 每个refill周期向桶中补充bytesPerSecond * 周期长度的令牌, 桶的容量也是这么多, 空闲时不会积攒突发额度
+ * >>> 2. 令牌不足时请求按优先级排队, 补充令牌后先满足HIGH队列, 再满足LOW队列
+ * >>> 3. 为了不让compaction饿死, 每次补充有1/fairness的概率先满足LOW队列
+ * >>> 4. 超过一个周期额度的请求拆成多次申请, 避免一个大请求独占整个周期
+ * <p>
+ * bytesPerSecond可以在运行时调整, 从下一次补充开始生效
+ *
+ * @author yf
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+    public static final long DEFAULT_REFILL_PERIOD_MICROS = 100_000;
+    public static final int DEFAULT_FAIRNESS = 10;
+
+    private final long refillPeriodNanos;
+    private final int fairness;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition refilled = lock.newCondition();
+    private final Deque<Request> lowQueue = new ArrayDeque<>();
+    private final Deque<Request> highQueue = new ArrayDeque<>();
+    private final Random random = new Random();
+
+    private volatile long bytesPerSecond;
+    private long refillBytesPerPeriod;
+    private long availableBytes;
+    private long nextRefillNanos;
+    private volatile long totalBytesThrough;
+
+    public TokenBucketRateLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, DEFAULT_REFILL_PERIOD_MICROS, TimeUnit.MICROSECONDS, DEFAULT_FAIRNESS);
+    }
+
+    /**
+     * @param refillPeriod 补充令牌的周期, 越短等待越平滑, 但加锁唤醒越频繁
+     * @param fairness     LOW队列平均每fairness次补充中有一次优先于HIGH队列
+     */
+    public TokenBucketRateLimiter(long bytesPerSecond, long refillPeriod, TimeUnit unit, int fairness) {
+        checkArgument(bytesPerSecond > 0, "bytesPerSecond must be positive");
+        checkArgument(refillPeriod > 0, "refillPeriod must be positive");
+        requireNonNull(unit, "unit is null");
+        checkArgument(fairness > 0, "fairness must be positive");
+        this.refillPeriodNanos = unit.toNanos(refillPeriod);
+        this.fairness = fairness;
+        this.bytesPerSecond = bytesPerSecond;
+        this.refillBytesPerPeriod = refillBytes(bytesPerSecond);
+        this.nextRefillNanos = System.nanoTime();
+    }
+
+    @Override
+    public void request(long bytes, IoPriority priority) {
+        checkArgument(bytes >= 0, "bytes is negative");
+        requireNonNull(priority, "priority is null");
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while (bytes > 0) {
+                long chunk = Math.min(bytes, refillBytesPerPeriod);
+                interrupted |= acquire(chunk, priority);
+                bytes -= chunk;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 等待期间是否被中断过, 中断不会放弃申请, 由调用方恢复中断标记
+     */
+    private boolean acquire(long bytes, IoPriority priority) {
+        if (lowQueue.isEmpty() && highQueue.isEmpty() && availableBytes >= bytes) {
+            availableBytes -= bytes;
+            totalBytesThrough += bytes;
+            return false;
+        }
+
+        boolean interrupted = false;
+        Request request = new Request(bytes);
+        (priority == IoPriority.HIGH ? highQueue : lowQueue).addLast(request);
+        while (!request.granted) {
+            long now = System.nanoTime();
+            if (now - nextRefillNanos >= 0) {
+                refill(now);
+                continue;
+            }
+            try {
+                refilled.awaitNanos(nextRefillNanos - now);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        return interrupted;
+    }
+
+    private void refill(long now) {
+        nextRefillNanos = now + refillPeriodNanos;
+        availableBytes = Math.min(availableBytes + refillBytesPerPeriod, refillBytesPerPeriod);
+
+        boolean lowFirst = random.nextInt(fairness) == 0;
+        Deque<Request> first = lowFirst ? lowQueue : highQueue;
+        Deque<Request> second = lowFirst ? highQueue : lowQueue;
+        if (grant(first)) {
+            grant(second);
+        }
+        refilled.signalAll();
+    }
+
+    /**
+     * 按顺序满足队列中的请求
+     *
+     * @return 令牌是否还有剩余
+     */
+    private boolean grant(Deque<Request> queue) {
+        while (!queue.isEmpty()) {
+            Request request = queue.peekFirst();
+            if (availableBytes < request.remaining) {
+                // keep the partial grant, the request stays at the head of the queue
+                request.remaining -= availableBytes;
+                availableBytes = 0;
+                return false;
+            }
+            availableBytes -= request.remaining;
+            request.remaining = 0;
+            request.granted = true;
+            totalBytesThrough += request.bytes;
+            queue.pollFirst();
+        }
+        return true;
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public void setBytesPerSecond(long bytesPerSecond) {
+        checkArgument(bytesPerSecond > 0, "bytesPerSecond must be positive");
+        lock.lock();
+        try {
+            this.bytesPerSecond = bytesPerSecond;
+            this.refillBytesPerPeriod = refillBytes(bytesPerSecond);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTotalBytesThrough() {
+        return totalBytesThrough;
+    }
+
+    private long refillBytes(long bytesPerSecond) {
+        return Math.max(1, (long) ((double) bytesPerSecond * refillPeriodNanos / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucketRateLimiter{bytesPerSecond=" + bytesPerSecond +
+                ", refillPeriodMicros=" + TimeUnit.NANOSECONDS.toMicros(refillPeriodNanos) +
+                ", fairness=" + fairness +
+                ", totalBytesThrough=" + totalBytesThrough + '}';
+    }
+
+    private static final class Request {
+        private final long bytes;
+        private long remaining;
+        private boolean granted;
+
+        private Request(long bytes) {
+            this.bytes = bytes;
+            this.remaining = bytes;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.CompactionFilter;
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.Slices;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * 按写入时间淘汰数据的compactionFilter:
+ * >>> 1. 写入时用appendTimestamp在value末尾追加4字节小端的写入时间(秒)
+ * >>> 2. flush和compaction时, 写入时间早于ttl的数据被删除
+ * >>> 3. 读取时用stripTimestamp去掉时间戳
+ * <p>
+ * 长度不足4字节的value无法解析时间戳, 会被保留
+ *
+ * @author yf
+ */
+public class TtlCompactionFilter implements CompactionFilter {
+    public static final int TIMESTAMP_SIZE = SIZE_OF_INT;
+
+    private final long ttlSeconds;
+
+    public TtlCompactionFilter(long ttl, TimeUnit unit) {
+        checkArgument(ttl > 0, "ttl must be positive");
+        this.ttlSeconds = unit.toSeconds(ttl);
+    }
+
+    @Override
+    public String name() {
+        return "leveldb.TtlCompactionFilter";
+    }
+
+    @Override
+    public Decision filter(int level, byte[] key, byte[] value) {
+        if (value.length < TIMESTAMP_SIZE) {
+            return Decision.keep();
+        }
+        long timestamp = getTimestamp(value);
+        if (currentTimeSeconds() - timestamp >= ttlSeconds) {
+            return Decision.remove();
+        }
+        return Decision.keep();
+    }
+
+    protected long currentTimeSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    /**
+     * 在value末尾追加当前时间
+     */
+    public static byte[] appendTimestamp(byte[] value) {
+        return appendTimestamp(value, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+    }
+
+    public static byte[] appendTimestamp(byte[] value, long timestampSeconds) {
+        Slice result = Slices.allocate(value.length + TIMESTAMP_SIZE);
+        result.setBytes(0, value, 0, value.length);
+        result.setInt(value.length, (int) timestampSeconds);
+        return result.getBytes();
+    }
+
+    /**
+     * 去掉appendTimestamp追加的时间戳
+     */
+    public static byte[] stripTimestamp(byte[] value) {
+        checkArgument(value.length >= TIMESTAMP_SIZE, "value is too short to contain a timestamp");
+        return Slices.wrappedBuffer(value).copyBytes(0, value.length - TIMESTAMP_SIZE);
+    }
+
+    public static long getTimestamp(byte[] value) {
+        checkArgument(value.length >= TIMESTAMP_SIZE, "value is too short to contain a timestamp");
+        return Slices.wrappedBuffer(value).getInt(value.length - TIMESTAMP_SIZE) & 0xFFFFFFFFL;
+    }
+}
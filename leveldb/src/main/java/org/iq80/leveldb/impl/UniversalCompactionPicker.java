@@ -0,0 +1,223 @@
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+import org.iq80.leveldb.slice.Slice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
+
+/**
+ * size-tiered(universal)的compaction策略:
+ * >>> 1. 每个level0文件和每个非空的level各算一个有序段(sorted run), 按新旧排列
+ * >>> 2. 有序段数量达到maxSortedRuns时才触发compaction
+ * >>> 3. 从最新的有序段开始, 只要已选段的总大小 * (100 + sizeRatio)% 不小于下一个段, 就把下一个段并入, 至少合并两个段
+ * >>> 4. 没有满足大小比例的组合时, 合并最新的若干个段使数量回到maxSortedRuns以下
+ * <p>
+ * 合并结果写到输入中最老的那个level, 全部来自level0时写到下一个有序段之上的空level,
+ * 从不写回level0, 因此level0按文件编号判断新旧的规则仍然成立
+ *
+ * @author yf
+ */
+@Slf4j
+public class UniversalCompactionPicker implements CompactionPicker {
+    private static final int MIN_MERGE_WIDTH = 2;
+
+    private final int sizeRatio;
+    private final int maxSortedRuns;
+
+    /**
+     * @param sizeRatio     合并相邻有序段时允许的大小差异百分比
+     * @param maxSortedRuns 有序段数量达到该值时触发compaction
+     */
+    public UniversalCompactionPicker(int sizeRatio, int maxSortedRuns) {
+        checkArgument(sizeRatio >= 0, "sizeRatio is negative");
+        checkArgument(maxSortedRuns >= MIN_MERGE_WIDTH, "maxSortedRuns must be at least %s", MIN_MERGE_WIDTH);
+        this.sizeRatio = sizeRatio;
+        this.maxSortedRuns = maxSortedRuns;
+    }
+
+    @Override
+    public void finalizeVersion(Version version) {
+        List<SortedRun> runs = sortedRuns(version);
+        Window window = pickWindow(runs);
+        if (window == null) {
+            version.setCompactionLevel(-1);
+            version.setCompactionScore(1.0 * runs.size() / maxSortedRuns);
+            version.setPendingCompactionBytes(0);
+        } else {
+            version.setCompactionLevel(runs.get(window.start).level);
+            version.setCompactionScore(Math.max(1.0, 1.0 * runs.size() / maxSortedRuns));
+            version.setPendingCompactionBytes(window.bytes);
+        }
+    }
+
+    @Override
+    public boolean needsCompaction(Version version) {
+        // seek triggered compactions would move single files level by level, which breaks the sorted runs
+        return version.getCompactionScore() >= 1;
+    }
+
+    @Override
+    public Compaction pickCompaction(VersionSet versionSet, Version current) {
+        List<SortedRun> runs = sortedRuns(current);
+        Window window = pickWindow(runs);
+        if (window == null) {
+            return null;
+        }
+
+        List<Integer> levels = new ArrayList<>();
+        List<List<FileMetaData>> inputs = new ArrayList<>();
+        List<FileMetaData> level0Inputs = new ArrayList<>();
+        for (int i = window.start; i < window.end; i++) {
+            SortedRun run = runs.get(i);
+            if (run.level == 0) {
+                level0Inputs.addAll(run.files);
+            } else {
+                levels.add(run.level);
+                inputs.add(run.files);
+            }
+        }
+        if (!level0Inputs.isEmpty()) {
+            levels.add(0, 0);
+            inputs.add(0, level0Inputs);
+        }
+
+        int[] inputLevels = new int[levels.size()];
+        for (int i = 0; i < inputLevels.length; i++) {
+            inputLevels[i] = levels.get(i);
+        }
+        log.info("universal compaction合并{}个有序段, 共{}字节, 输出到level{}", window.end - window.start, window.bytes, window.outputLevel);
+        return new Compaction(current, inputLevels, inputs.toArray(new List[inputs.size()]), window.outputLevel);
+    }
+
+    @Override
+    public int pickLevelForMemTableOutput(Version base, Slice smallestUserKey, Slice largestUserKey) {
+        // every flush starts a new sorted run
+        return 0;
+    }
+
+    /**
+     * 按从新到旧的顺序列出有序段
+     */
+    static List<SortedRun> sortedRuns(Version version) {
+        List<SortedRun> runs = new ArrayList<>();
+        List<FileMetaData> level0Files = new ArrayList<>(version.getFiles(0));
+        Collections.sort(level0Files, Level0.NEWEST_FIRST);
+        for (FileMetaData file : level0Files) {
+            runs.add(new SortedRun(0, ImmutableList.of(file)));
+        }
+        for (int level = 1; level < version.numberOfLevels(); level++) {
+            List<FileMetaData> files = version.getFiles(level);
+            if (!files.isEmpty()) {
+                runs.add(new SortedRun(level, ImmutableList.copyOf(files)));
+            }
+        }
+        return runs;
+    }
+
+    Window pickWindow(List<SortedRun> runs) {
+        if (runs.size() < maxSortedRuns) {
+            return null;
+        }
+
+        // merge runs of similar size, starting from the newest
+        for (int start = 0; start + MIN_MERGE_WIDTH <= runs.size(); start++) {
+            long candidateBytes = runs.get(start).bytes;
+            int end = start + 1;
+            while (end < runs.size() && candidateBytes * (100 + sizeRatio) / 100 >= runs.get(end).bytes) {
+                candidateBytes += runs.get(end).bytes;
+                end++;
+            }
+            if (end - start >= MIN_MERGE_WIDTH) {
+                return resolve(runs, start, end);
+            }
+        }
+
+        // no runs of similar size, merge the newest runs to get back under the limit
+        int width = Math.max(MIN_MERGE_WIDTH, runs.size() - maxSortedRuns + 1);
+        return resolve(runs, 0, width);
+    }
+
+    /**
+     * 确定合并范围和输出level:
+     * >>> 1. 包含level0文件时, 比它们更老的level0文件也必须一起合并, 否则会遮挡合并结果
+     * >>> 2. 输入全部来自level0时, 输出到下一个有序段之上的空level, 没有空level时把下一个有序段也并进来
+     */
+    private static Window resolve(List<SortedRun> runs, int start, int end) {
+        int level0Runs = 0;
+        while (level0Runs < runs.size() && runs.get(level0Runs).level == 0) {
+            level0Runs++;
+        }
+        if (start < level0Runs && end < level0Runs) {
+            end = level0Runs;
+        }
+
+        int outputLevel = runs.get(end - 1).level;
+        if (outputLevel == 0) {
+            int nextLevel = end < runs.size() ? runs.get(end).level : NUM_LEVELS;
+            if (nextLevel - 1 >= 1) {
+                outputLevel = nextLevel - 1;
+            } else {
+                end++;
+                outputLevel = runs.get(end - 1).level;
+            }
+        }
+
+        long bytes = 0;
+        for (int i = start; i < end; i++) {
+            bytes += runs.get(i).bytes;
+        }
+        return new Window(start, end, outputLevel, bytes);
+    }
+
+    static class SortedRun {
+        private final int level;
+        private final List<FileMetaData> files;
+        private final long bytes;
+
+        SortedRun(int level, List<FileMetaData> files) {
+            this.level = level;
+            this.files = files;
+            this.bytes = Compaction.totalFileSize(files);
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    static class Window {
+        private final int start;
+        private final int end;
+        private final int outputLevel;
+        private final long bytes;
+
+        private Window(int start, int end, int outputLevel, long bytes) {
+            this.start = start;
+            this.end = end;
+            this.outputLevel = outputLevel;
+            this.bytes = bytes;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getOutputLevel() {
+            return outputLevel;
+        }
+    }
+}
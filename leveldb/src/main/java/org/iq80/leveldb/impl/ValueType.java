@@ -20,7 +20,13 @@ package org.iq80.leveldb.impl;
 public enum ValueType
 {
     DELETION(0x00),
-    VALUE(0x01);
+    VALUE(0x01),
+    /**
+     * Deletes every key in [userKey, value) written before it. Range
+     * tombstones are kept apart from point entries, in the memtable and in
+     * a meta block of the table.
+     */
+    RANGE_DELETION(0x0F);
 
     public static ValueType getValueTypeByPersistentId(int persistentId)
     {
@@ -29,6 +35,8 @@ public enum ValueType
                 return DELETION;
             case 1:
                 return VALUE;
+            case 0x0F:
+                return RANGE_DELETION;
             default:
                 throw new IllegalArgumentException("Unknown persistentId " + persistentId);
         }
@@ -7,6 +7,7 @@ import com.google.common.collect.Multimap;
 import lombok.Getter;
 import lombok.Setter;
 import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.table.TableProperties;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.LevelIterator;
@@ -24,7 +25,6 @@ import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.DbConstants.MAX_MEM_COMPACT_LEVEL;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
-import static org.iq80.leveldb.impl.VersionSet.MAX_GRAND_PARENT_OVERLAP_BYTES;
 
 /**
  * 版本对象：
@@ -54,6 +54,23 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
     @Getter
     @Setter
     private double compactionScore;
+    /**
+     * 预估还需要compaction重写的字节数, 用于写入限流
+     */
+    @Getter
+    @Setter
+    private long pendingCompactionBytes;
+    /**
+     * FIFO compaction中level0最老文件的创建时间, 0表示未知, 读取时不用再排序所有文件
+     */
+    @Getter
+    @Setter
+    private long oldestFileCreationTime;
+    /**
+     * 各level的目标大小, 开启动态level大小时由最后一层的实际大小推算
+     */
+    @Setter
+    private double[] maxBytesForLevel;
 
     public Version(VersionSet versionSet) {
         this.versionSet = versionSet;
@@ -156,6 +173,19 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
         return lookupResult;
     }
 
+    /**
+     * 有序段数量: 每个level0文件和每个非空level各算一个, 即点查最多需要访问的段数(读放大)
+     */
+    public int numberOfSortedRuns() {
+        int runs = numberOfFilesInLevel(0);
+        for (int level = 1; level < numberOfLevels(); level++) {
+            if (numberOfFilesInLevel(level) > 0) {
+                runs++;
+            }
+        }
+        return runs;
+    }
+
     int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey) {
         int level = 0;
         if (!overlapInLevel(0, smallestUserKey, largestUserKey)) {
@@ -168,7 +198,7 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
                     break;
                 }
                 long sum = Compaction.totalFileSize(versionSet.getOverlappingInputs(level + 2, start, limit));
-                if (sum > MAX_GRAND_PARENT_OVERLAP_BYTES) {
+                if (sum > versionSet.maxGrandParentOverlapBytes(level + 1)) {
                     break;
                 }
                 level++;
@@ -188,6 +218,14 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
         return levels.get(level - 1).someFileOverlapsRange(smallestUserKey, largestUserKey);
     }
 
+    public double getMaxBytesForLevel(int level) {
+        return maxBytesForLevel[level];
+    }
+
+    VersionSet getVersionSet() {
+        return versionSet;
+    }
+
     public int numberOfLevels() {
         return levels.size() + 1;
     }
@@ -285,6 +323,50 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
         return result;
     }
 
+    /**
+     * 文件的属性块, 第一次读取后缓存在FileMetaData中, 新写出的文件在写完时就已经带上
+     */
+    public TableProperties getTableProperties(FileMetaData fileMetaData) {
+        TableProperties properties = fileMetaData.getTableProperties();
+        if (properties == null) {
+            properties = getTableCache().getTableProperties(fileMetaData);
+            fileMetaData.setTableProperties(properties);
+        }
+        return properties;
+    }
+
+    /**
+     * 文件中的范围删除, 属性块中没有范围删除的文件不需要从tableCache打开
+     */
+    public List<RangeTombstone> getRangeTombstones(FileMetaData fileMetaData) {
+        if (getTableProperties(fileMetaData).getNumRangeDeletions() == 0) {
+            return ImmutableList.of();
+        }
+        return getTableCache().getRangeTombstones(fileMetaData);
+    }
+
+    /**
+     * 汇总指定level所有文件的属性
+     */
+    public TableProperties getAggregatedTableProperties(int level) {
+        TableProperties aggregated = TableProperties.EMPTY;
+        for (FileMetaData fileMetaData : getFiles(level)) {
+            aggregated = aggregated.add(getTableProperties(fileMetaData));
+        }
+        return aggregated;
+    }
+
+    /**
+     * 汇总所有level所有文件的属性
+     */
+    public TableProperties getAggregatedTableProperties() {
+        TableProperties aggregated = TableProperties.EMPTY;
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            aggregated = aggregated.add(getAggregatedTableProperties(level));
+        }
+        return aggregated;
+    }
+
     public void retain() {
         int was = retained.getAndIncrement();
         assert was > 0 : "Version was retain after it was disposed.";
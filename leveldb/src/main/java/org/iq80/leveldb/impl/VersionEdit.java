@@ -16,6 +16,8 @@ import org.iq80.leveldb.util.VariableLengthQuantity;
 import java.util.Map;
 import java.util.TreeMap;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * VersionEdit可以使用encode()方法序列化为Slice
  *
@@ -81,6 +83,25 @@ public class VersionEdit {
         newFiles.putAll(files);
     }
 
+    /**
+     * 为本次新增的文件补充创建时间, 在读取MANIFEST时由FILE_CREATION_TIME标签调用
+     */
+    public void setFileCreationTime(long fileNumber, long creationTime) {
+        Map.Entry<Integer, FileMetaData> added = null;
+        for (Map.Entry<Integer, FileMetaData> entry : newFiles.entries()) {
+            if (entry.getValue().getNumber() == fileNumber) {
+                added = entry;
+                break;
+            }
+        }
+        checkArgument(added != null, "Creation time for file %s that is not added by this edit", fileNumber);
+
+        int level = added.getKey();
+        FileMetaData file = added.getValue();
+        newFiles.remove(level, file);
+        newFiles.put(level, new FileMetaData(file.getNumber(), file.getFileSize(), file.getSmallest(), file.getLargest(), creationTime));
+    }
+
     public Multimap<Integer, Long> getDeletedFiles() {
         return ImmutableMultimap.copyOf(deletedFiles);
     }
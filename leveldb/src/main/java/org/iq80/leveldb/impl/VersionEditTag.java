@@ -194,6 +194,39 @@ public enum VersionEditTag {
                 writeLengthPrefixedBytes(sliceOutput, fileMetaData.getLargest().encode());
             }
         }
+    },
+
+    /**
+     * 新增文件的创建时间, 必须排在NEW_FILE之后, 读取时补充到同一个VersionEdit中已读出的文件上;
+     * 只有FIFO compaction配置了ttl时文件才带创建时间, 其他情况不写该tag, 以便原生leveldb和旧版本读取MANIFEST
+     */
+    FILE_CREATION_TIME(10) {
+        @Override
+        public void readValue(SliceInput sliceInput, VersionEdit versionEdit) {
+            // file number
+            long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+            // creation time
+            long creationTime = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+            versionEdit.setFileCreationTime(fileNumber, creationTime);
+        }
+
+        @Override
+        public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit) {
+            for (FileMetaData fileMetaData : versionEdit.getNewFiles().values()) {
+                if (fileMetaData.getCreationTime() == 0) {
+                    continue;
+                }
+                VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+
+                // file number
+                VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getNumber(), sliceOutput);
+
+                // creation time
+                VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getCreationTime(), sliceOutput);
+            }
+        }
     };
 
     public static VersionEditTag getValueTypeByPersistentId(int persistentId) {
@@ -6,10 +6,13 @@ import com.google.common.io.Files;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.iq80.leveldb.CompactionPriority;
+import org.iq80.leveldb.Options;
 import org.iq80.leveldb.log.LogReader;
 import org.iq80.leveldb.log.LogWriter;
 import org.iq80.leveldb.log.Logs;
 import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.table.TableProperties;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Level0Iterator;
@@ -35,15 +38,16 @@ import static org.iq80.leveldb.log.LogMonitors.throwExceptionMonitor;
  */
 @Slf4j
 public class VersionSet implements SeekingIterable<InternalKey, Slice> {
-    private static final int L0_COMPACTION_TRIGGER = 4;
+    static final int L0_COMPACTION_TRIGGER = 4;
 
     public static final int TARGET_FILE_SIZE = 2 * 1048576;
 
     /**
-     * Maximum bytes of overlaps in grandparent (i.e., level+2) before we
-     * stop building a single file in a level.level+1 compaction.
+     * Maximum bytes of overlaps in grandparent (i.e., level+2), as a multiple
+     * of the target file size, before we stop building a single file in a
+     * level.level+1 compaction.
      **/
-    public static final long MAX_GRAND_PARENT_OVERLAP_BYTES = 10 * TARGET_FILE_SIZE;
+    static final int GRAND_PARENT_OVERLAP_FACTOR = 10;
 
     private final AtomicLong nextFileNumber = new AtomicLong(2);
 
@@ -88,10 +92,39 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
     private LogWriter descriptorLog;
     private final Map<Integer, InternalKey> compactPointers = new TreeMap<>();
 
+    /**
+     * compaction策略
+     */
+    @Getter
+    private final CompactionPicker compactionPicker;
+
+    /**
+     * 各level的目标大小和目标文件大小配置
+     */
+    private final long maxBytesForLevelBase;
+    private final double maxBytesForLevelMultiplier;
+    private final boolean dynamicLevelBytes;
+    private final long targetFileSizeBase;
+    private final int targetFileSizeMultiplier;
+
     public VersionSet(File databaseDir, TableCache tableCache, InternalKeyComparator internalKeyComparator) throws IOException {
+        this(databaseDir, tableCache, internalKeyComparator, new Options(), new LeveledCompactionPicker());
+    }
+
+    public VersionSet(File databaseDir, TableCache tableCache, InternalKeyComparator internalKeyComparator, Options options, CompactionPicker compactionPicker) throws IOException {
+        checkArgument(options.maxBytesForLevelBase() > 0, "maxBytesForLevelBase must be positive");
+        checkArgument(options.maxBytesForLevelMultiplier() >= 1, "maxBytesForLevelMultiplier must be at least 1");
+        checkArgument(options.targetFileSizeBase() > 0, "targetFileSizeBase must be positive");
+        checkArgument(options.targetFileSizeMultiplier() >= 1, "targetFileSizeMultiplier must be at least 1");
         this.databaseDir = databaseDir;
         this.tableCache = tableCache;
         this.internalKeyComparator = internalKeyComparator;
+        this.compactionPicker = requireNonNull(compactionPicker, "compactionPicker is null");
+        this.maxBytesForLevelBase = options.maxBytesForLevelBase();
+        this.maxBytesForLevelMultiplier = options.maxBytesForLevelMultiplier();
+        this.dynamicLevelBytes = options.levelCompactionDynamicLevelBytes();
+        this.targetFileSizeBase = options.targetFileSizeBase();
+        this.targetFileSizeMultiplier = options.targetFileSizeMultiplier();
 
         //将current指向新的Version ， 并释放旧的Version
         appendVersion(new Version(this));
@@ -193,14 +226,20 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         // we will make a concatenating iterator per level.
         // TODO(opt): use concatenating iterator for level-0 if there is no overlap
         List<InternalIterator> list = new ArrayList<>();
-        for (int which = 0; which < 2; which++) {
-            if (!c.getInputs()[which].isEmpty()) {
-                if (c.getLevel() + which == 0) {
-                    List<FileMetaData> files = c.getInputs()[which];
+        for (int which = 0; which < c.getInputs().length; which++) {
+            // skip the inputs covered by a range deletion
+            List<FileMetaData> files = new ArrayList<>();
+            for (FileMetaData file : c.getInputs()[which]) {
+                if (!c.isDroppedInput(file)) {
+                    files.add(file);
+                }
+            }
+            if (!files.isEmpty()) {
+                if (c.getInputLevel(which) == 0) {
                     list.add(new Level0Iterator(tableCache, files, internalKeyComparator));
                 } else {
                     // Create concatenating iterator for the files from this level
-                    list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator));
+                    list.add(Level.createLevelConcatIterator(tableCache, files, internalKeyComparator));
                 }
             }
         }
@@ -379,42 +418,37 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
     }
 
     private void finalizeVersion(Version version) {
-        // Precomputed best level for next compaction
-        int bestLevel = -1;
-        double bestScore = -1;
-
-        for (int level = 0; level < version.numberOfLevels() - 1; level++) {
-            double score;
-            if (level == 0) {
-                // We treat level-0 specially by bounding the number of files
-                // instead of number of bytes for two reasons:
-                //
-                // (1) With larger write-buffer sizes, it is nice not to do too
-                // many level-0 compactions.
-                //
-                // (2) The files in level-0 are merged on every read and
-                // therefore we wish to avoid too many files when the individual
-                // file size is small (perhaps because of a small write-buffer
-                // setting, or very high compression ratios, or lots of
-                // overwrites/deletions).
-                score = 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
-            } else {
-                // Compute the ratio of current size to size limit.
-                long levelBytes = 0;
-                for (FileMetaData fileMetaData : version.getFiles(level)) {
-                    levelBytes += fileMetaData.getFileSize();
-                }
-                score = 1.0 * levelBytes / maxBytesForLevel(level);
-            }
+        version.setMaxBytesForLevel(levelMaxBytes(version));
+        compactionPicker.finalizeVersion(version);
+    }
 
-            if (score > bestScore) {
-                bestLevel = level;
-                bestScore = score;
-            }
+    /**
+     * 计算指定版本各level的目标大小:
+     * >>> 1. 默认从level1的maxBytesForLevelBase开始逐层乘以multiplier
+     * >>> 2. 开启dynamicLevelBytes且最后一层已有数据时, 以最后一层的实际大小为准逐层向上除以multiplier,
+     * 不低于maxBytesForLevelBase, 让绝大部分数据落在最后一层, 中间层的空间放大保持在1/multiplier左右
+     */
+    double[] levelMaxBytes(Version version) {
+        double[] result = new double[version.numberOfLevels()];
+        // Note: the result for level zero is not really used since we set
+        // the level-0 compaction threshold based on number of files.
+        result[0] = maxBytesForLevelBase;
+        double levelBytes = maxBytesForLevelBase;
+        for (int level = 1; level < result.length; level++) {
+            result[level] = levelBytes;
+            levelBytes *= maxBytesForLevelMultiplier;
         }
 
-        version.setCompactionLevel(bestLevel);
-        version.setCompactionScore(bestScore);
+        int lastLevel = result.length - 1;
+        long lastLevelBytes = Compaction.totalFileSize(version.getFiles(lastLevel));
+        if (dynamicLevelBytes && lastLevelBytes > 0) {
+            levelBytes = lastLevelBytes;
+            for (int level = lastLevel; level >= 1; level--) {
+                result[level] = Math.max(levelBytes, maxBytesForLevelBase);
+                levelBytes /= maxBytesForLevelMultiplier;
+            }
+        }
+        return result;
     }
 
     private static <V> V coalesce(V... values) {
@@ -434,23 +468,31 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         return builder.build();
     }
 
-    private static double maxBytesForLevel(int level) {
-        // Note: the result for level zero is not really used since we set
-        // the level-0 compaction threshold based on number of files.
-        double result = 10 * 1048576.0;  // Result for both level-0 and level-1
+    /**
+     * 写入指定level的文件的目标大小, level0和level1为targetFileSizeBase, 之后逐层乘以targetFileSizeMultiplier
+     */
+    public long maxFileSizeForLevel(int level) {
+        long result = targetFileSizeBase;
         while (level > 1) {
-            result *= 10;
+            result *= targetFileSizeMultiplier;
             level--;
         }
         return result;
     }
 
-    public static long maxFileSizeForLevel(int level) {
-        return TARGET_FILE_SIZE;  // We could vary per level to reduce number of files?
+    /**
+     * 写入指定level的文件与祖父层(level+1)允许的最大重叠字节数
+     */
+    public long maxGrandParentOverlapBytes(int level) {
+        return GRAND_PARENT_OVERLAP_FACTOR * maxFileSizeForLevel(level);
+    }
+
+    public long estimatedPendingCompactionBytes() {
+        return current.getPendingCompactionBytes();
     }
 
     public boolean needsCompaction() {
-        return current.getCompactionScore() >= 1 || current.getFileToCompact() != null;
+        return compactionPicker.needsCompaction(current);
     }
 
     public Compaction compactRange(int level, InternalKey begin, InternalKey end) {
@@ -463,6 +505,13 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
     }
 
     public Compaction pickCompaction() {
+        return compactionPicker.pickCompaction(this, current);
+    }
+
+    /**
+     * 分层compaction的文件选择, 由LeveledCompactionPicker调用
+     */
+    Compaction pickLevelCompaction(CompactionPriority compactionPriority) {
         // We prefer compactions triggered by too much data in a level over
         // the compactions triggered by seeks.
         boolean sizeCompaction = (current.getCompactionScore() >= 1);
@@ -475,19 +524,16 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
             checkState(level >= 0);
             checkState(level + 1 < NUM_LEVELS);
 
-            // Pick the first file that comes after compact_pointer_[level]
-            levelInputs = new ArrayList<>();
-            for (FileMetaData fileMetaData : current.getFiles(level)) {
-                if (!compactPointers.containsKey(level) ||
-                        internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
-                    levelInputs.add(fileMetaData);
-                    break;
-                }
+            FileMetaData picked = null;
+            if (compactionPriority == CompactionPriority.MIN_OVERLAPPING_RATIO) {
+                picked = pickMinOverlappingRatio(level);
+            } else if (compactionPriority == CompactionPriority.TOMBSTONE_DENSITY) {
+                picked = pickMaxTombstoneDensity(level);
             }
-            if (levelInputs.isEmpty()) {
-                // Wrap-around to the beginning of the key space
-                levelInputs.add(current.getFiles(level).get(0));
+            if (picked == null) {
+                picked = pickAfterCompactPointer(level);
             }
+            levelInputs = ImmutableList.of(picked);
         } else if (seekCompaction) {
             level = current.getFileToCompactLevel();
             levelInputs = ImmutableList.of(current.getFileToCompact());
@@ -510,6 +556,60 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         return compaction;
     }
 
+    /**
+     * 轮转选择: 取compactPointer之后的第一个文件, 到末尾后从头开始
+     */
+    private FileMetaData pickAfterCompactPointer(int level) {
+        // Pick the first file that comes after compact_pointer_[level]
+        for (FileMetaData fileMetaData : current.getFiles(level)) {
+            if (!compactPointers.containsKey(level) ||
+                    internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
+                return fileMetaData;
+            }
+        }
+        // Wrap-around to the beginning of the key space
+        return current.getFiles(level).get(0);
+    }
+
+    /**
+     * 选择下一层重叠字节数与自身大小之比最小的文件, 比值相同时取key较小的文件
+     */
+    private FileMetaData pickMinOverlappingRatio(int level) {
+        FileMetaData best = null;
+        double bestRatio = Double.MAX_VALUE;
+        for (FileMetaData fileMetaData : current.getFiles(level)) {
+            long overlappingBytes = Compaction.totalFileSize(getOverlappingInputs(level + 1, fileMetaData.getSmallest(), fileMetaData.getLargest()));
+            double ratio = 1.0 * overlappingBytes / Math.max(1, fileMetaData.getFileSize());
+            if (ratio < bestRatio) {
+                best = fileMetaData;
+                bestRatio = ratio;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 选择删除标记密度最高的文件, 整层都没有删除标记时返回null:
+     * >>> 1. 调用时持有锁, 只看属性已经缓存在FileMetaData中的文件, 不在这里打开文件
+     * >>> 2. 重新打开DB后的旧文件还没有属性, 由后台线程在不持有锁时读取, 之后的选择才会考虑它们
+     */
+    private FileMetaData pickMaxTombstoneDensity(int level) {
+        FileMetaData best = null;
+        double bestDensity = 0;
+        for (FileMetaData fileMetaData : current.getFiles(level)) {
+            TableProperties properties = fileMetaData.getTableProperties();
+            if (properties == null) {
+                continue;
+            }
+            double density = properties.getTombstoneDensity();
+            if (density > bestDensity) {
+                best = fileMetaData;
+                bestDensity = density;
+            }
+        }
+        return best;
+    }
+
     private Compaction setupOtherInputs(int level, List<FileMetaData> levelInputs) {
         Entry<InternalKey, InternalKey> range = getRange(levelInputs);
         InternalKey smallest = range.getKey();
@@ -0,0 +1,202 @@
+package org.iq80.leveldb.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 异步写入的后台刷盘线程:
+ * >>> 1. 异步写入在日志记录写入后调用register, 得到一个在下一次刷盘完成后结束的future
+ * >>> 2. 后台线程在第一个等待者出现后再等待一个窗口期, 让更多写入合并到同一次fsync
+ * >>> 3. 刷盘失败时本批次所有future以异常结束
+ * <p>
+ * 线程在第一次start时才创建, 从未使用异步写入的DB不会多出线程
+ *
+ * @author yf
+ */
+@Slf4j
+public class WalSyncer implements Closeable {
+
+    /**
+     * 刷盘动作, 由DB提供, 需要把注册之前写入的所有日志记录强制落盘
+     */
+    public interface SyncAction {
+        void sync() throws IOException;
+    }
+
+    private final long windowNanos;
+    private final SyncAction syncAction;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingCondition = lock.newCondition();
+    private List<CompletableFuture<Void>> pending = new ArrayList<>();
+    private boolean closed;
+    private Thread syncThread;
+    private volatile boolean started;
+
+    private final AtomicLong syncCount = new AtomicLong();
+    private final AtomicLong syncedWrites = new AtomicLong();
+
+    public WalSyncer(long window, TimeUnit unit, SyncAction syncAction) {
+        checkArgument(window >= 0, "window is negative");
+        requireNonNull(unit, "unit is null");
+        requireNonNull(syncAction, "syncAction is null");
+        this.windowNanos = unit.toNanos(window);
+        this.syncAction = syncAction;
+    }
+
+    /**
+     * 启动后台刷盘线程, 可重复调用
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (started || closed) {
+                return;
+            }
+            syncThread = new ThreadFactoryBuilder()
+                    .setNameFormat("leveldb-wal-syncer-%s")
+                    .setDaemon(true)
+                    .build()
+                    .newThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            syncLoop();
+                        }
+                    });
+            syncThread.start();
+            started = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 是否已经有异步写入启动过刷盘线程
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * 登记一个等待刷盘的写入, 调用前该写入的日志记录必须已经写入日志文件
+     */
+    public CompletableFuture<Void> register() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("WAL syncer has been closed"));
+                return future;
+            }
+            start();
+            pending.add(future);
+            pendingCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    private void syncLoop() {
+        while (true) {
+            List<CompletableFuture<Void>> batch;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    pendingCondition.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+
+                // give other writers a chance to join this sync
+                long remaining = windowNanos;
+                while (remaining > 0 && !closed) {
+                    try {
+                        remaining = pendingCondition.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+
+                batch = pending;
+                pending = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+
+            syncAndComplete(batch);
+        }
+    }
+
+    private void syncAndComplete(List<CompletableFuture<Void>> batch) {
+        Throwable failure = null;
+        try {
+            syncAction.sync();
+            syncCount.incrementAndGet();
+            syncedWrites.addAndGet(batch.size());
+        } catch (Throwable e) {
+            log.error("异步写入刷盘失败", e);
+            failure = e;
+        }
+
+        for (CompletableFuture<Void> future : batch) {
+            if (failure == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public long getSyncedWrites() {
+        return syncedWrites.get();
+    }
+
+    /**
+     * 停止后台线程, 关闭前已登记的写入会先完成刷盘
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        lock.lock();
+        try {
+            closed = true;
+            pendingCondition.signalAll();
+            thread = syncThread;
+        } finally {
+            lock.unlock();
+        }
+
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WalSyncer{syncCount=" + getSyncCount() + ", syncedWrites=" + getSyncedWrites() + '}';
+    }
+}
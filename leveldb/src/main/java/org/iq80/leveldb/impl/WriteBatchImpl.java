@@ -1,13 +1,11 @@
 package org.iq80.leveldb.impl;
 
-import com.google.common.collect.Maps;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.Slices;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
 
 import static java.util.Objects.requireNonNull;
 
@@ -15,7 +13,7 @@ import static java.util.Objects.requireNonNull;
  * @author
  */
 public class WriteBatchImpl implements WriteBatch {
-    private final List<Entry<Slice, Slice>> batch = new ArrayList<>();
+    private final List<Record> batch = new ArrayList<>();
     private int approximateSize;
 
     public int getApproximateSize() {
@@ -30,7 +28,7 @@ public class WriteBatchImpl implements WriteBatch {
     public WriteBatchImpl put(byte[] key, byte[] value) {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
+        batch.add(new Record(ValueType.VALUE, Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
         approximateSize += 12 + key.length + value.length;
         return this;
     }
@@ -38,7 +36,7 @@ public class WriteBatchImpl implements WriteBatch {
     public WriteBatchImpl put(Slice key, Slice value) {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(key, value));
+        batch.add(new Record(ValueType.VALUE, key, value));
         approximateSize += 12 + key.length() + value.length();
         return this;
     }
@@ -46,30 +44,51 @@ public class WriteBatchImpl implements WriteBatch {
     @Override
     public WriteBatchImpl delete(byte[] key) {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), (Slice) null));
+        batch.add(new Record(ValueType.DELETION, Slices.wrappedBuffer(key), null));
         approximateSize += 6 + key.length;
         return this;
     }
 
     public WriteBatchImpl delete(Slice key) {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(key, (Slice) null));
+        batch.add(new Record(ValueType.DELETION, key, null));
         approximateSize += 6 + key.length();
         return this;
     }
 
+    @Override
+    public WriteBatchImpl deleteRange(byte[] begin, byte[] end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        return deleteRange(Slices.wrappedBuffer(begin), Slices.wrappedBuffer(end));
+    }
+
+    public WriteBatchImpl deleteRange(Slice begin, Slice end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        batch.add(new Record(ValueType.RANGE_DELETION, begin, end));
+        approximateSize += 12 + begin.length() + end.length();
+        return this;
+    }
+
     @Override
     public void close() {
     }
 
     public void forEach(Handler handler) {
-        for (Entry<Slice, Slice> entry : batch) {
-            Slice key = entry.getKey();
-            Slice value = entry.getValue();
-            if (value != null) {
-                handler.put(key, value);
-            } else {
-                handler.delete(key);
+        for (Record record : batch) {
+            switch (record.type) {
+                case VALUE:
+                    handler.put(record.key, record.value);
+                    break;
+                case DELETION:
+                    handler.delete(record.key);
+                    break;
+                case RANGE_DELETION:
+                    handler.deleteRange(record.key, record.value);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected value type " + record.type);
             }
         }
     }
@@ -78,5 +97,19 @@ public class WriteBatchImpl implements WriteBatch {
         void put(Slice key, Slice value);
 
         void delete(Slice key);
+
+        void deleteRange(Slice begin, Slice end);
+    }
+
+    private static final class Record {
+        private final ValueType type;
+        private final Slice key;
+        private final Slice value;
+
+        private Record(ValueType type, Slice key, Slice value) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+        }
     }
 }
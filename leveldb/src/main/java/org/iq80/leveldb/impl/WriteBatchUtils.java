@@ -8,6 +8,7 @@ import org.iq80.leveldb.slice.Slices;
 import java.io.IOException;
 
 import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
 import static org.iq80.leveldb.slice.Slices.readLengthPrefixedBytes;
 import static org.iq80.leveldb.slice.Slices.writeLengthPrefixedBytes;
@@ -29,6 +30,10 @@ public class WriteBatchUtils {
             } else if (valueType == DELETION) {
                 Slice key = readLengthPrefixedBytes(record);
                 writeBatch.delete(key);
+            } else if (valueType == RANGE_DELETION) {
+                Slice begin = readLengthPrefixedBytes(record);
+                Slice end = readLengthPrefixedBytes(record);
+                writeBatch.deleteRange(begin, end);
             } else {
                 throw new IllegalStateException("Unexpected value type " + valueType);
             }
@@ -62,6 +67,13 @@ public class WriteBatchUtils {
                 sliceOutput.writeByte(DELETION.getPersistentId());
                 writeLengthPrefixedBytes(sliceOutput, key);
             }
+
+            @Override
+            public void deleteRange(Slice begin, Slice end) {
+                sliceOutput.writeByte(RANGE_DELETION.getPersistentId());
+                writeLengthPrefixedBytes(sliceOutput, begin);
+                writeLengthPrefixedBytes(sliceOutput, end);
+            }
         });
 
         //step 4 : 拷贝结果并返回
@@ -0,0 +1,206 @@
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Ticker;
+import org.iq80.leveldb.Options;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * 写入限流控制器:
+ * >>> 1. 根据level0文件数和待compaction字节数判断当前写入状态(正常/限流/停写)
+ * >>> 2. 限流状态下按令牌桶计算每次写入需要延迟的时间, 越接近停写阈值速率越低
+ * >>> 3. 记录各类停顿原因的次数和累计停顿时间
+ * <p>
+ * 调用方需持有DB的mutex, 这里的同步仅用于保护统计信息的并发读取
+ *
+ * @author yf
+ */
+public class WriteController {
+    /**
+     * 令牌桶允许的突发时长, 即最多累积1ms的写入额度
+     */
+    private static final long REFILL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 限流速率下限为基础速率的1/16, 避免在停写阈值前速率退化到0
+     */
+    private static final int MIN_RATE_DIVISOR = 16;
+
+    public enum StallCause {
+        LEVEL0_SLOWDOWN,
+        LEVEL0_STOP,
+        PENDING_COMPACTION_SLOWDOWN,
+        PENDING_COMPACTION_STOP,
+        MEMTABLE_LIMIT
+    }
+
+    private final int level0SlowdownTrigger;
+    private final int level0StopTrigger;
+    private final long softPendingBytesLimit;
+    private final long hardPendingBytesLimit;
+    private final long maxDelayedWriteRate;
+    private final Ticker ticker;
+
+    private StallCause delayCause;
+    private StallCause stopCause;
+    private long delayedWriteRate;
+
+    private double credit;
+    private long lastRefillNanos;
+
+    private final AtomicLongArray stallCounts = new AtomicLongArray(StallCause.values().length);
+    private final AtomicLongArray stallMicros = new AtomicLongArray(StallCause.values().length);
+
+    public WriteController(Options options) {
+        this(options, Ticker.systemTicker());
+    }
+
+    WriteController(Options options, Ticker ticker) {
+        requireNonNull(options, "options is null");
+        requireNonNull(ticker, "ticker is null");
+        checkArgument(options.level0SlowdownWritesTrigger() <= options.level0StopWritesTrigger(),
+                "level0SlowdownWritesTrigger %s must not exceed level0StopWritesTrigger %s",
+                options.level0SlowdownWritesTrigger(), options.level0StopWritesTrigger());
+        checkArgument(options.delayedWriteRate() > 0, "delayedWriteRate must be positive");
+
+        this.level0SlowdownTrigger = options.level0SlowdownWritesTrigger();
+        this.level0StopTrigger = options.level0StopWritesTrigger();
+        this.softPendingBytesLimit = options.softPendingCompactionBytesLimit();
+        this.hardPendingBytesLimit = options.hardPendingCompactionBytesLimit();
+        this.maxDelayedWriteRate = options.delayedWriteRate();
+        this.ticker = ticker;
+        this.delayedWriteRate = maxDelayedWriteRate;
+    }
+
+    /**
+     * 根据当前的level0文件数和待compaction字节数重新计算写入状态
+     */
+    public synchronized void updateState(int level0Files, long pendingCompactionBytes) {
+        stopCause = null;
+        delayCause = null;
+        if (level0Files >= level0StopTrigger) {
+            stopCause = StallCause.LEVEL0_STOP;
+            return;
+        }
+        if (hardPendingBytesLimit > 0 && pendingCompactionBytes >= hardPendingBytesLimit) {
+            stopCause = StallCause.PENDING_COMPACTION_STOP;
+            return;
+        }
+
+        // pick the most restrictive of the two signals
+        double factor = 1.0;
+        if (level0Files > level0SlowdownTrigger) {
+            factor = 1.0 * (level0StopTrigger - level0Files) / (level0StopTrigger - level0SlowdownTrigger);
+            delayCause = StallCause.LEVEL0_SLOWDOWN;
+        }
+        if (softPendingBytesLimit > 0 && pendingCompactionBytes >= softPendingBytesLimit) {
+            double pendingFactor = 1.0;
+            if (hardPendingBytesLimit > softPendingBytesLimit) {
+                pendingFactor = 1.0 * (hardPendingBytesLimit - pendingCompactionBytes) / (hardPendingBytesLimit - softPendingBytesLimit);
+            }
+            if (delayCause == null || pendingFactor < factor) {
+                factor = pendingFactor;
+                delayCause = StallCause.PENDING_COMPACTION_SLOWDOWN;
+            }
+        }
+
+        if (delayCause == null) {
+            // back to normal, drop any accumulated credit so the next slowdown starts fresh
+            delayedWriteRate = maxDelayedWriteRate;
+            credit = 0;
+            lastRefillNanos = 0;
+            return;
+        }
+        delayedWriteRate = Math.max(maxDelayedWriteRate / MIN_RATE_DIVISOR, (long) (maxDelayedWriteRate * factor));
+    }
+
+    public synchronized boolean isStopped() {
+        return stopCause != null;
+    }
+
+    public synchronized StallCause getStopCause() {
+        return stopCause;
+    }
+
+    public synchronized boolean isDelayed() {
+        return delayCause != null;
+    }
+
+    public synchronized StallCause getDelayCause() {
+        return delayCause;
+    }
+
+    public synchronized long getDelayedWriteRate() {
+        return delayedWriteRate;
+    }
+
+    /**
+     * 令牌桶: 返回写入bytes字节前需要等待的纳秒数, 非限流状态下返回0
+     */
+    public synchronized long getDelayNanos(long bytes) {
+        if (delayCause == null) {
+            return 0;
+        }
+
+        long now = ticker.read();
+        if (lastRefillNanos == 0) {
+            lastRefillNanos = now;
+        }
+        if (now > lastRefillNanos) {
+            double maxCredit = 1.0 * delayedWriteRate * REFILL_INTERVAL_NANOS / TimeUnit.SECONDS.toNanos(1);
+            credit = Math.min(maxCredit, credit + 1.0 * (now - lastRefillNanos) * delayedWriteRate / TimeUnit.SECONDS.toNanos(1));
+            lastRefillNanos = now;
+        }
+
+        if (credit >= bytes) {
+            credit -= bytes;
+            return 0;
+        }
+
+        long delayNanos = (long) ((bytes - credit) * TimeUnit.SECONDS.toNanos(1) / delayedWriteRate);
+        credit = 0;
+        // the time we are about to sleep has already been paid for
+        lastRefillNanos = now + delayNanos;
+        return delayNanos;
+    }
+
+    public void recordStall(StallCause cause, long nanos) {
+        requireNonNull(cause, "cause is null");
+        stallCounts.incrementAndGet(cause.ordinal());
+        stallMicros.addAndGet(cause.ordinal(), TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public long getStallCount(StallCause cause) {
+        return stallCounts.get(cause.ordinal());
+    }
+
+    public long getStallMicros(StallCause cause) {
+        return stallMicros.get(cause.ordinal());
+    }
+
+    public long getTotalStallMicros() {
+        long total = 0;
+        for (StallCause cause : StallCause.values()) {
+            total += stallMicros.get(cause.ordinal());
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("WriteController");
+        sb.append("{delayedWriteRate=").append(getDelayedWriteRate());
+        sb.append(", totalStallMicros=").append(getTotalStallMicros());
+        for (StallCause cause : StallCause.values()) {
+            sb.append(", ").append(cause).append("=").append(getStallCount(cause))
+                    .append("/").append(getStallMicros(cause)).append("us");
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -1,9 +1,12 @@
 package org.iq80.leveldb.log;
 
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.SliceInput;
+import org.iq80.leveldb.slice.Slices;
 
 import java.io.File;
 import java.io.IOException;
@@ -13,6 +16,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import static com.google.common.base.Preconditions.checkState;
 import static org.iq80.leveldb.log.LogConstants.BLOCK_SIZE;
 import static org.iq80.leveldb.log.LogConstants.HEADER_SIZE;
+import static org.iq80.leveldb.log.LogConstants.RECYCLABLE_HEADER_SIZE;
 
 @Slf4j
 public abstract class AbstractLogWriter implements LogWriter {
@@ -28,11 +32,30 @@ public abstract class AbstractLogWriter implements LogWriter {
      * Current offset in the current block
      */
     protected int blockOffset;
+    /**
+     * 是否使用可回收的记录格式, 记录头中带有日志编号
+     */
+    @Getter
+    protected boolean recyclable;
+    /**
+     * 日志记录的压缩方式, 在分片之前对整条记录压缩
+     */
+    @Getter
+    @Setter
+    protected CompressionType compressionType = CompressionType.NONE;
+    private Slice compressionScratch;
 
     @Override
     public synchronized void addRecord(Slice record, boolean force) throws IOException {
         checkState(!closed.get(), "Log has been closed");
 
+        // compress the whole record before it is fragmented
+        Slice compressed = LogRecordCompressor.compress(compressionType, record, compressionScratch);
+        if (compressed != null) {
+            compressionScratch = Slices.wrappedBuffer(compressed.getRawArray());
+            record = compressed;
+        }
+
         SliceInput sliceInput = record.input();
 
         // used to track first, middle and last blocks
@@ -46,7 +69,8 @@ public abstract class AbstractLogWriter implements LogWriter {
             checkState(bytesRemainingInBlock >= 0);
 
             // Switch to a new block if necessary
-            if (bytesRemainingInBlock < HEADER_SIZE) {
+            int headerSize = headerSize();
+            if (bytesRemainingInBlock < headerSize) {
                 if (bytesRemainingInBlock > 0) {
                     // Fill the rest of the block with zeros
                     // todo lame... need a better way to write zeros
@@ -57,7 +81,7 @@ public abstract class AbstractLogWriter implements LogWriter {
             }
 
             // Invariant: we never leave less than HEADER_SIZE bytes available in a block
-            int bytesAvailableInBlock = bytesRemainingInBlock - HEADER_SIZE;
+            int bytesAvailableInBlock = bytesRemainingInBlock - headerSize;
             checkState(bytesAvailableInBlock >= 0);
 
             // if there are more bytes in the record then there are available in the block,
@@ -83,6 +107,12 @@ public abstract class AbstractLogWriter implements LogWriter {
             } else {
                 type = LogChunkType.MIDDLE;
             }
+            if (recyclable) {
+                type = type.toRecyclable();
+            }
+            if (begin && compressed != null) {
+                type = type.toCompressed();
+            }
 
             // write the chunk
             Slice writeData = sliceInput.readBytes(fragmentLength);
@@ -101,6 +131,28 @@ public abstract class AbstractLogWriter implements LogWriter {
         }
     }
 
+    @Override
+    public synchronized void flush(boolean force) throws IOException {
+        checkState(!closed.get(), "Log has been closed");
+        if (force) {
+            doForce();
+        }
+    }
+
+    protected int headerSize() {
+        return recyclable ? RECYCLABLE_HEADER_SIZE : HEADER_SIZE;
+    }
+
+    /**
+     * 构建chunk头, 可回收格式下头部带有日志编号
+     */
+    protected Slice newRecordHeader(LogChunkType type, Slice slice) {
+        if (recyclable) {
+            return LogHeadUtils.newRecyclableLogRecordHeader(type, slice, fileNumber);
+        }
+        return LogHeadUtils.newLogRecordHeader(type, slice);
+    }
+
     abstract void ensureCapacity(int bytesLengh) throws IOException;
 
     abstract void doForce() throws IOException;
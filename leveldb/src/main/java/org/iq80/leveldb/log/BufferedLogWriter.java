@@ -0,0 +1,96 @@
+package org.iq80.leveldb.log;
+
+import lombok.extern.slf4j.Slf4j;
+import org.iq80.leveldb.slice.Slice;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * manualWalFlush模式下使用的日志写入工具:
+ * >>> 1. addRecord只把记录放入内存缓冲区
+ * >>> 2. 缓冲区超过上限、强制刷盘、显式调用flush或关闭时才写入底层LogWriter
+ * 缓冲区中的记录在进程崩溃时会丢失
+ *
+ * @author yf
+ */
+@Slf4j
+public class BufferedLogWriter implements LogWriter {
+    private final LogWriter delegate;
+    private final int bufferSize;
+
+    private final List<Slice> bufferedRecords = new ArrayList<>();
+    private int bufferedBytes;
+
+    public BufferedLogWriter(LogWriter delegate, int bufferSize) {
+        requireNonNull(delegate, "delegate is null");
+        checkArgument(bufferSize >= 0, "bufferSize is negative");
+        this.delegate = delegate;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public synchronized void addRecord(Slice record, boolean force) throws IOException {
+        checkState(!delegate.isClosed(), "Log has been closed");
+
+        bufferedRecords.add(record);
+        bufferedBytes += record.length();
+
+        if (force || bufferedBytes >= bufferSize) {
+            flush(force);
+        }
+    }
+
+    @Override
+    public synchronized void flush(boolean force) throws IOException {
+        if (!bufferedRecords.isEmpty()) {
+            log.info("将{}条缓存日志记录写入{}", bufferedRecords.size(), delegate.getFile().getName());
+            for (Slice record : bufferedRecords) {
+                delegate.addRecord(record, false);
+            }
+            bufferedRecords.clear();
+            bufferedBytes = 0;
+        }
+        delegate.flush(force);
+    }
+
+    public synchronized int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!delegate.isClosed()) {
+            flush(false);
+        }
+        delegate.close();
+    }
+
+    @Override
+    public synchronized void delete() throws IOException {
+        bufferedRecords.clear();
+        bufferedBytes = 0;
+        delegate.delete();
+    }
+
+    @Override
+    public File getFile() {
+        return delegate.getFile();
+    }
+
+    @Override
+    public long getFileNumber() {
+        return delegate.getFileNumber();
+    }
+}
@@ -11,17 +11,19 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.log.LogConstants.BLOCK_SIZE;
-import static org.iq80.leveldb.log.LogConstants.HEADER_SIZE;
 
 /**
  * @author
  */
 public class FileChannelLogWriter extends AbstractLogWriter {
+    private boolean preallocated;
+
     public FileChannelLogWriter(File file, long fileNumber) throws FileNotFoundException {
         requireNonNull(file, "file is null");
         checkArgument(fileNumber >= 0, "fileNumber is negative");
@@ -31,11 +33,45 @@ public class FileChannelLogWriter extends AbstractLogWriter {
         this.fileChannel = new FileOutputStream(file).getChannel();
     }
 
+    /**
+     * @param recyclable      使用可回收的记录格式, 已有的文件内容不会被清空, 直接从头覆盖写
+     * @param preallocateSize 预分配的文件大小, 0表示不预分配
+     */
+    public FileChannelLogWriter(File file, long fileNumber, boolean recyclable, long preallocateSize) throws IOException {
+        this(file, fileNumber, recyclable, false, preallocateSize);
+    }
+
+    /**
+     * @param prepared 文件已经预先写满0, 保留文件内容直接从头覆盖写
+     */
+    public FileChannelLogWriter(File file, long fileNumber, boolean recyclable, boolean prepared, long preallocateSize) throws IOException {
+        requireNonNull(file, "file is null");
+        checkArgument(fileNumber >= 0, "fileNumber is negative");
+        checkArgument(preallocateSize >= 0, "preallocateSize is negative");
+
+        this.file = file;
+        this.fileNumber = fileNumber;
+        this.recyclable = recyclable;
+        this.fileChannel = new RandomAccessFile(file, "rw").getChannel();
+        if (!recyclable && !prepared) {
+            fileChannel.truncate(0);
+        }
+        this.preallocated = preallocateSize > 0;
+        Logs.preallocate(fileChannel, preallocateSize);
+    }
 
     @Override
     public synchronized void close() {
         closed.set(true);
 
+        // drop the unused preallocated space, recyclable logs keep it for the next incarnation
+        if (preallocated && !recyclable) {
+            try {
+                fileChannel.truncate(fileChannel.position());
+            } catch (IOException ignored) {
+            }
+        }
+
         // try to forces the log to disk
         try {
             fileChannel.force(true);
@@ -58,16 +94,16 @@ public class FileChannelLogWriter extends AbstractLogWriter {
 
     void writeChunk(LogChunkType type, Slice slice) throws IOException {
         checkArgument(slice.length() <= 0xffff, "length %s is larger than two bytes", slice.length());
-        checkArgument(blockOffset + HEADER_SIZE <= BLOCK_SIZE);
+        checkArgument(blockOffset + headerSize() <= BLOCK_SIZE);
 
         // create header
-        Slice header = LogHeadUtils.newLogRecordHeader(type, slice);
+        Slice header = newRecordHeader(type, slice);
 
         // write the header and the payload
         header.getBytes(0, fileChannel, header.length());
         slice.getBytes(0, fileChannel, slice.length());
 
-        blockOffset += HEADER_SIZE + slice.length();
+        blockOffset += header.length() + slice.length();
     }
 
     @Override
@@ -13,6 +13,22 @@ public enum LogChunkType {
     FIRST(2),
     MIDDLE(3),
     LAST(4),
+    /**
+     * 可回收日志的chunk类型, 头部额外带有4字节的日志编号,
+     * 读取时日志编号不一致的chunk属于复用前的旧数据
+     */
+    RECYCLABLE_FULL(5),
+    RECYCLABLE_FIRST(6),
+    RECYCLABLE_MIDDLE(7),
+    RECYCLABLE_LAST(8),
+    /**
+     * 压缩记录的首个chunk, 后续chunk仍使用MIDDLE/LAST类型,
+     * 拼接后的记录为: 1字节压缩类型 + varint原始长度 + 压缩数据
+     */
+    COMPRESSED_FULL(9),
+    COMPRESSED_FIRST(10),
+    RECYCLABLE_COMPRESSED_FULL(11),
+    RECYCLABLE_COMPRESSED_FIRST(12),
     EOF,
     BAD_CHUNK,
     UNKNOWN;
@@ -33,6 +49,51 @@ public enum LogChunkType {
         return persistentId;
     }
 
+    public boolean isRecyclable() {
+        return this == RECYCLABLE_FULL || this == RECYCLABLE_FIRST || this == RECYCLABLE_MIDDLE || this == RECYCLABLE_LAST
+                || this == RECYCLABLE_COMPRESSED_FULL || this == RECYCLABLE_COMPRESSED_FIRST;
+    }
+
+    public boolean isCompressed() {
+        return this == COMPRESSED_FULL || this == COMPRESSED_FIRST || this == RECYCLABLE_COMPRESSED_FULL || this == RECYCLABLE_COMPRESSED_FIRST;
+    }
+
+    /**
+     * 返回对应的压缩chunk类型, 只有记录的首个chunk需要标记压缩
+     */
+    public LogChunkType toCompressed() {
+        switch (this) {
+            case FULL:
+                return COMPRESSED_FULL;
+            case FIRST:
+                return COMPRESSED_FIRST;
+            case RECYCLABLE_FULL:
+                return RECYCLABLE_COMPRESSED_FULL;
+            case RECYCLABLE_FIRST:
+                return RECYCLABLE_COMPRESSED_FIRST;
+            default:
+                throw new IllegalArgumentException(name() + " has no compressed form");
+        }
+    }
+
+    /**
+     * 返回对应的可回收chunk类型
+     */
+    public LogChunkType toRecyclable() {
+        switch (this) {
+            case FULL:
+                return RECYCLABLE_FULL;
+            case FIRST:
+                return RECYCLABLE_FIRST;
+            case MIDDLE:
+                return RECYCLABLE_MIDDLE;
+            case LAST:
+                return RECYCLABLE_LAST;
+            default:
+                throw new IllegalArgumentException(name() + " has no recyclable form");
+        }
+    }
+
     public static LogChunkType getLogChunkTypeByPersistentId(int persistentId) {
         for (LogChunkType logChunkType : LogChunkType.values()) {
             if (logChunkType.persistentId != null && logChunkType.persistentId == persistentId) {
@@ -14,4 +14,14 @@ public final class LogConstants {
      */
     public static final int HEADER_SIZE = SIZE_OF_INT + SIZE_OF_BYTE + SIZE_OF_SHORT;
 
+    /**
+     * Recyclable header is checksum (4 bytes), type (1 byte), length (2 bytes), log number (4 bytes).
+     */
+    public static final int RECYCLABLE_HEADER_SIZE = HEADER_SIZE + SIZE_OF_INT;
+
+    /**
+     * manualWalFlush模式下内存中最多缓存的日志字节数，超过后自动写入文件
+     */
+    public static final int MANUAL_FLUSH_BUFFER_SIZE = 1024 * 1024;
+
 }
\ No newline at end of file
@@ -4,7 +4,9 @@ import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.SliceOutput;
 import org.iq80.leveldb.slice.Slices;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static org.iq80.leveldb.log.LogConstants.HEADER_SIZE;
+import static org.iq80.leveldb.log.LogConstants.RECYCLABLE_HEADER_SIZE;
 
 public class LogHeadUtils {
 
@@ -27,4 +29,21 @@ public class LogHeadUtils {
         sliceOutput.writeByte((byte) (type.getPersistentId()));
         return header;
     }
+
+    /**
+     * 构建可回收日志的Head头
+     * 4位crc + 2位长度 + 1位类型 + 4位日志编号, crc同时覆盖日志编号
+     */
+    public static Slice newRecyclableLogRecordHeader(LogChunkType type, Slice slice, long logNumber) {
+        checkArgument(type.isRecyclable(), "%s is not a recyclable chunk type", type);
+        int crc = Logs.getChunkChecksum(type.getPersistentId(), (int) logNumber, slice.getRawArray(), slice.getRawOffset(), slice.length());
+        Slice header = Slices.allocate(RECYCLABLE_HEADER_SIZE);
+        SliceOutput sliceOutput = header.output();
+        sliceOutput.writeInt(crc);
+        sliceOutput.writeByte((byte) (slice.length() & 0xff));
+        sliceOutput.writeByte((byte) (slice.length() >>> 8));
+        sliceOutput.writeByte((byte) (type.getPersistentId()));
+        sliceOutput.writeInt((int) logNumber);
+        return header;
+    }
 }
@@ -9,7 +9,9 @@ import java.nio.channels.FileChannel;
 import static org.iq80.leveldb.log.LogChunkType.*;
 import static org.iq80.leveldb.log.LogConstants.BLOCK_SIZE;
 import static org.iq80.leveldb.log.LogConstants.HEADER_SIZE;
+import static org.iq80.leveldb.log.LogConstants.RECYCLABLE_HEADER_SIZE;
 import static org.iq80.leveldb.log.Logs.getChunkChecksum;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 
 /**
  * 日志文件的reader工具
@@ -28,6 +30,17 @@ public class LogReader {
      */
     private final long initialOffset;
 
+    /**
+     * 当前日志文件的编号, 可回收格式的chunk中编号不一致说明是复用前遗留的旧数据, -1表示不校验
+     */
+    private final long logNumber;
+
+    /**
+     * 是否读到过可回收格式的chunk, 复用的日志文件在新数据之后是旧数据,
+     * 此时遇到日志编号不一致或者不是可回收格式的chunk视为日志结束, 校验和与长度错误仍然报告为数据损坏
+     */
+    private boolean recycled;
+
     /**
      * Have we read to the end of the file?
      */
@@ -65,10 +78,15 @@ public class LogReader {
     private Slice currentChunk = Slices.EMPTY_SLICE;
 
     public LogReader(FileChannel fileChannel, LogMonitor monitor, boolean verifyChecksums, long initialOffset) {
+        this(fileChannel, monitor, verifyChecksums, initialOffset, -1);
+    }
+
+    public LogReader(FileChannel fileChannel, LogMonitor monitor, boolean verifyChecksums, long initialOffset, long logNumber) {
         this.fileChannel = fileChannel;
         this.monitor = monitor;
         this.verifyChecksums = verifyChecksums;
         this.initialOffset = initialOffset;
+        this.logNumber = logNumber;
     }
 
     /**
@@ -116,11 +134,15 @@ public class LogReader {
         long prospectiveRecordOffset = 0;
 
         boolean inFragmentedRecord = false;
+        boolean compressedRecord = false;
         while (true) {
             long physicalRecordOffset = endOfBufferOffset - currentChunk.length();
             LogChunkType chunkType = readNextChunk();
             switch (chunkType) {
                 case FULL:
+                case RECYCLABLE_FULL:
+                case COMPRESSED_FULL:
+                case RECYCLABLE_COMPRESSED_FULL:
                     if (inFragmentedRecord) {
                         reportCorruption(recordScratch.size(), "Partial record without end");
                         // simply return this full block
@@ -128,9 +150,17 @@ public class LogReader {
                     recordScratch.reset();
                     prospectiveRecordOffset = physicalRecordOffset;
                     lastRecordOffset = prospectiveRecordOffset;
-                    return currentChunk.copySlice();
+                    Slice record = decodeRecord(currentChunk, chunkType.isCompressed());
+                    if (record != null) {
+                        return record;
+                    }
+                    inFragmentedRecord = false;
+                    break;
 
                 case FIRST:
+                case RECYCLABLE_FIRST:
+                case COMPRESSED_FIRST:
+                case RECYCLABLE_COMPRESSED_FIRST:
                     if (inFragmentedRecord) {
                         //当前已经是局部chunk说明文件格式有误
                         reportCorruption(recordScratch.size(), "Partial record without end");
@@ -138,6 +168,7 @@ public class LogReader {
                         recordScratch.reset();
                     }
                     prospectiveRecordOffset = physicalRecordOffset;
+                    compressedRecord = chunkType.isCompressed();
 
                     //将当前chunk写入缓冲区
                     recordScratch.writeBytes(currentChunk);
@@ -147,6 +178,7 @@ public class LogReader {
                     break;
 
                 case MIDDLE:
+                case RECYCLABLE_MIDDLE:
                     if (!inFragmentedRecord) {
                         //当前不是局部chunk说明文件格式有问题
                         reportCorruption(recordScratch.size(), "Missing start of fragmented record");
@@ -159,6 +191,7 @@ public class LogReader {
                     break;
 
                 case LAST:
+                case RECYCLABLE_LAST:
                     if (!inFragmentedRecord) {
                         //当前不是局部chunk说明文件格式有问题
                         reportCorruption(recordScratch.size(), "Missing start of fragmented record");
@@ -169,8 +202,13 @@ public class LogReader {
                         recordScratch.writeBytes(currentChunk);
                         lastRecordOffset = prospectiveRecordOffset;
 
-                        //返回结果
-                        return recordScratch.slice().copySlice();
+                        //返回结果, 压缩记录需要先解压
+                        Slice fragmentedRecord = decodeRecord(recordScratch.slice(), compressedRecord);
+                        if (fragmentedRecord != null) {
+                            return fragmentedRecord;
+                        }
+                        inFragmentedRecord = false;
+                        recordScratch.reset();
                     }
                     break;
 
@@ -231,9 +269,31 @@ public class LogReader {
         byte chunkTypeId = currentBlock.readByte();
         LogChunkType chunkType = getLogChunkTypeByPersistentId(chunkTypeId);
 
+        //可回收格式的chunk头部还带有日志编号
+        int headerSize = HEADER_SIZE;
+        int recordLogNumber = 0;
+        if (chunkType.isRecyclable()) {
+            if (currentBlock.available() < SIZE_OF_INT) {
+                reportCorruption(currentBlock.available() + HEADER_SIZE, "Truncated recyclable chunk header");
+                currentBlock = Slices.EMPTY_SLICE.input();
+                return BAD_CHUNK;
+            }
+            recordLogNumber = currentBlock.readInt();
+            headerSize = RECYCLABLE_HEADER_SIZE;
+
+            // A chunk from a previous incarnation of a recycled log file marks the end of this log
+            if (logNumber >= 0 && recordLogNumber != (int) logNumber) {
+                return staleTail();
+            }
+        } else if (recycled && chunkType != ZERO_TYPE) {
+            // this incarnation only writes recyclable chunks, anything else after them is left over
+            // from the previous one, usually the middle of one of its chunks
+            return staleTail();
+        }
+
         //block剩余长度校验
         if (length > currentBlock.available()) {
-            int dropSize = currentBlock.available() + HEADER_SIZE;
+            int dropSize = currentBlock.available() + headerSize;
             reportCorruption(dropSize, "Invalid chunk length");
             currentBlock = Slices.EMPTY_SLICE.input();
             return BAD_CHUNK;
@@ -248,7 +308,7 @@ public class LogReader {
         }
 
         // Skip physical record that started before initialOffset
-        if (endOfBufferOffset - HEADER_SIZE - length < initialOffset) {
+        if (endOfBufferOffset - headerSize - length < initialOffset) {
             currentBlock.skipBytes(length);
             return BAD_CHUNK;
         }
@@ -258,19 +318,25 @@ public class LogReader {
 
         if (verifyChecksums) {
             // crc32校验
-            int actualChecksum = getChunkChecksum(chunkTypeId, currentChunk);
+            int actualChecksum = chunkType.isRecyclable()
+                    ? getChunkChecksum(chunkTypeId, recordLogNumber, currentChunk)
+                    : getChunkChecksum(chunkTypeId, currentChunk);
             if (actualChecksum != expectedChecksum) {
                 // Drop the rest of the buffer since "length" itself may have
                 // been corrupted and if we trust it, we could find some
                 // fragment of a real log record that just happens to look
                 // like a valid log record.
-                int dropSize = currentBlock.available() + HEADER_SIZE;
+                int dropSize = currentBlock.available() + headerSize;
                 currentBlock = Slices.EMPTY_SLICE.input();
                 reportCorruption(dropSize, "Invalid chunk checksum");
                 return BAD_CHUNK;
             }
         }
 
+        if (chunkType.isRecyclable()) {
+            recycled = true;
+        }
+
         // Skip unknown chunk types
         // Since this comes last so we the, know it is a valid chunk, and is just a type we don't understand
         if (chunkType == UNKNOWN) {
@@ -281,6 +347,31 @@ public class LogReader {
         return chunkType;
     }
 
+    /**
+     * 返回记录的副本, 压缩记录返回解压后的数据, 解压失败时报告损坏并返回null
+     */
+    private Slice decodeRecord(Slice data, boolean compressed) {
+        if (!compressed) {
+            return data.copySlice();
+        }
+        try {
+            return LogRecordCompressor.uncompress(data);
+        } catch (IOException | RuntimeException e) {
+            reportCorruption(data.length(), "Invalid compressed record: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 复用的日志文件中新数据已经读完, 剩余部分是上一次使用时留下的旧数据
+     */
+    private LogChunkType staleTail() {
+        currentChunk = Slices.EMPTY_SLICE;
+        currentBlock = Slices.EMPTY_SLICE.input();
+        eof = true;
+        return EOF;
+    }
+
     /**
      * 读取当前block
      *
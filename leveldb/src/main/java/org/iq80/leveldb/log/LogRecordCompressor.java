@@ -0,0 +1,81 @@
+package org.iq80.leveldb.log;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.SliceInput;
+import org.iq80.leveldb.slice.SliceOutput;
+import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.util.Compressor;
+import org.iq80.leveldb.util.Compressors;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+
+import java.io.IOException;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_BYTE;
+
+/**
+ * 日志记录的压缩工具, 压缩后的记录格式:
+ * >>> 1. 1字节压缩类型
+ * >>> 2. varint编码的原始长度
+ * >>> 3. 压缩数据, 格式由{@link Compressor}的实现决定
+ *
+ * @author yf
+ */
+public final class LogRecordCompressor {
+    private LogRecordCompressor() {
+    }
+
+    /**
+     * 压缩日志记录, 压缩后没有变小时返回null, 此时应按原样写入
+     *
+     * @param scratch 可复用的输出缓冲区, 容量不足时会重新分配
+     */
+    public static Slice compress(CompressionType compressionType, Slice record, Slice scratch) {
+        Compressor compressor = Compressors.get(compressionType);
+        if (compressor == null || record.length() == 0) {
+            return null;
+        }
+
+        int headerSize = SIZE_OF_BYTE + VariableLengthQuantity.variableLengthSize(record.length());
+        int maxLength = headerSize + compressor.maxCompressedLength(record.length());
+        Slice output = scratch != null && scratch.length() >= maxLength ? scratch : Slices.allocate(maxLength);
+
+        SliceOutput sliceOutput = output.output();
+        sliceOutput.writeByte(compressionType.persistentId());
+        VariableLengthQuantity.writeVariableLengthInt(record.length(), sliceOutput);
+        int compressedSize;
+        try {
+            compressedSize = compressor.compress(record.getRawArray(), record.getRawOffset(), record.length(), output.getRawArray(), output.getRawOffset() + headerSize);
+        } catch (IOException e) {
+            // compression failed, so just store uncompressed form
+            return null;
+        }
+
+        if (headerSize + compressedSize >= record.length()) {
+            return null;
+        }
+        return output.slice(0, headerSize + compressedSize);
+    }
+
+    /**
+     * 解压由compress生成的记录
+     */
+    public static Slice uncompress(Slice compressed) throws IOException {
+        SliceInput input = compressed.input();
+        CompressionType compressionType = CompressionType.getCompressionTypeByPersistentId(input.readUnsignedByte());
+        int uncompressedLength = VariableLengthQuantity.readVariableLengthInt(input);
+        int offset = compressed.length() - input.available();
+
+        Compressor compressor = Compressors.get(compressionType);
+        if (compressor == null) {
+            throw new IOException("Log record is compressed with " + compressionType + " but no implementation is available");
+        }
+
+        byte[] uncompressed = new byte[uncompressedLength];
+        int length = compressor.uncompress(compressed.getRawArray(), compressed.getRawOffset() + offset, compressed.length() - offset, uncompressed, 0);
+        if (length != uncompressedLength) {
+            throw new IOException("Corrupt log record: expected " + uncompressedLength + " bytes but got " + length);
+        }
+        return Slices.wrappedBuffer(uncompressed);
+    }
+}
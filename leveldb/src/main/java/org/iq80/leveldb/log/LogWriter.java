@@ -18,4 +18,7 @@ public interface LogWriter {
 
     // Writes a stream of chunks such that no chunk is split across a block boundary
     void addRecord(Slice record, boolean force) throws IOException;
+
+    // Writes out any buffered records and, if force is set, syncs the log to disk
+    void flush(boolean force) throws IOException;
 }
@@ -1,12 +1,17 @@
 package org.iq80.leveldb.log;
 
 import lombok.extern.slf4j.Slf4j;
+import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.impl.Iq80DBFactory;
 import org.iq80.leveldb.slice.Slice;
-import org.iq80.leveldb.util.PureJavaCrc32C;
+import org.iq80.leveldb.util.Crc32C;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
 
 /**
  * @author
@@ -24,14 +29,89 @@ public final class Logs {
         }
     }
 
+    /**
+     * 创建日志写入工具
+     *
+     * @param recyclable      是否使用可回收的记录格式, 且不清空已有文件内容(复用旧日志文件)
+     * @param preallocateSize 预分配的文件大小, 0表示不预分配
+     */
+    public static LogWriter createLogWriter(File file, long fileNumber, boolean recyclable, long preallocateSize) throws IOException {
+        return createLogWriter(file, fileNumber, recyclable, preallocateSize, CompressionType.NONE);
+    }
+
+    /**
+     * @param compressionType 日志记录的压缩方式, 每条记录在分片前整体压缩
+     */
+    public static LogWriter createLogWriter(File file, long fileNumber, boolean recyclable, long preallocateSize, CompressionType compressionType) throws IOException {
+        return createLogWriter(file, fileNumber, recyclable, false, preallocateSize, compressionType);
+    }
+
+    /**
+     * @param prepared 文件已经由{@link #prepareLogFile}写满0, 保留文件内容直接从头覆盖写
+     */
+    public static LogWriter createLogWriter(File file, long fileNumber, boolean recyclable, boolean prepared, long preallocateSize, CompressionType compressionType) throws IOException {
+        AbstractLogWriter writer;
+        if (Iq80DBFactory.USE_MMAP) {
+            log.info("使用MMapLogWriter开启{}的日志写入工具, recyclable: {}", file.getName(), recyclable);
+            writer = new MMapLogWriter(file, fileNumber, recyclable, prepared, preallocateSize);
+        } else {
+            log.info("使用FileChannelLogWriter开启{}的日志写入工具, recyclable: {}", file.getName(), recyclable);
+            writer = new FileChannelLogWriter(file, fileNumber, recyclable, prepared, preallocateSize);
+        }
+        writer.setCompressionType(compressionType);
+        return writer;
+    }
+
+    /**
+     * 把文件扩展到size, 之后的写入不再改变文件长度, 同步时不需要再刷新文件元数据:
+     * >>> 1. 逐块写0, 真正分配磁盘空间, 只扩展长度得到的稀疏文件在追加时仍要分配
+     * >>> 2. 写0需要时间, 不能在持有DB锁时调用, DB通过{@link #prepareLogFile}在后台准备下一个日志文件
+     * >>> 3. 扩展出的部分读出来都是0, 读取时视为日志结束
+     */
+    static void preallocate(FileChannel fileChannel, long size) throws IOException {
+        long position = fileChannel.size();
+        ByteBuffer zeros = ByteBuffer.allocate(LogConstants.BLOCK_SIZE);
+        while (position < size) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), size - position));
+            position += fileChannel.write(zeros, position);
+        }
+    }
+
+    /**
+     * 创建写满0的文件并落盘, 之后改名为日志文件, 以prepared方式打开时不再需要分配空间
+     */
+    public static void prepareLogFile(File file, long size) throws IOException {
+        try (FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel()) {
+            fileChannel.truncate(0);
+            preallocate(fileChannel, size);
+            fileChannel.force(true);
+        }
+    }
+
     public static int getChunkChecksum(int chunkTypeId, Slice slice) {
         return getChunkChecksum(chunkTypeId, slice.getRawArray(), slice.getRawOffset(), slice.length());
     }
 
     public static int getChunkChecksum(int chunkTypeId, byte[] buffer, int offset, int length) {
-        PureJavaCrc32C crc32C = new PureJavaCrc32C();
+        Checksum crc32C = Crc32C.checksum();
+        crc32C.update(chunkTypeId);
+        crc32C.update(buffer, offset, length);
+        return Crc32C.getMaskedValue(crc32C);
+    }
+
+    public static int getChunkChecksum(int chunkTypeId, int logNumber, Slice slice) {
+        return getChunkChecksum(chunkTypeId, logNumber, slice.getRawArray(), slice.getRawOffset(), slice.length());
+    }
+
+    public static int getChunkChecksum(int chunkTypeId, int logNumber, byte[] buffer, int offset, int length) {
+        Checksum crc32C = Crc32C.checksum();
         crc32C.update(chunkTypeId);
+        crc32C.update(logNumber);
+        crc32C.update(logNumber >>> 8);
+        crc32C.update(logNumber >>> 16);
+        crc32C.update(logNumber >>> 24);
         crc32C.update(buffer, offset, length);
-        return crc32C.getMaskedValue();
+        return Crc32C.getMaskedValue(crc32C);
     }
 }
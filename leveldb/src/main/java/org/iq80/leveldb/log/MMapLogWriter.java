@@ -24,7 +24,6 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.log.LogConstants.BLOCK_SIZE;
-import static org.iq80.leveldb.log.LogConstants.HEADER_SIZE;
 
 /**
  * @author
@@ -45,6 +44,33 @@ public class MMapLogWriter extends AbstractLogWriter {
         mappedByteBuffer = fileChannel.map(MapMode.READ_WRITE, 0, PAGE_SIZE);
     }
 
+    /**
+     * @param recyclable      使用可回收的记录格式, 已有的文件内容不会被清空, 关闭时也不截断文件
+     * @param preallocateSize 预分配的文件大小, 0表示不预分配
+     */
+    public MMapLogWriter(File file, long fileNumber, boolean recyclable, long preallocateSize) throws IOException {
+        this(file, fileNumber, recyclable, false, preallocateSize);
+    }
+
+    /**
+     * @param prepared 文件已经预先写满0, 保留文件内容直接从头覆盖写
+     */
+    public MMapLogWriter(File file, long fileNumber, boolean recyclable, boolean prepared, long preallocateSize) throws IOException {
+        requireNonNull(file, "file is null");
+        checkArgument(fileNumber >= 0, "fileNumber is negative");
+        checkArgument(preallocateSize >= 0, "preallocateSize is negative");
+        this.file = file;
+        this.fileNumber = fileNumber;
+        this.recyclable = recyclable;
+        this.fileChannel = new RandomAccessFile(file, "rw").getChannel();
+        if (!recyclable && !prepared) {
+            fileChannel.truncate(0);
+        }
+        // allocate the extents up front so remapping does not grow the file
+        Logs.preallocate(fileChannel, preallocateSize);
+        mappedByteBuffer = fileChannel.map(MapMode.READ_WRITE, 0, PAGE_SIZE);
+    }
+
     @Override
     public synchronized void close() throws IOException {
         log.info("MMapLogWriter {} 关闭", file.getName());
@@ -52,7 +78,9 @@ public class MMapLogWriter extends AbstractLogWriter {
 
         destroyMappedByteBuffer();
 
-        if (fileChannel.isOpen()) {
+        // recyclable logs keep their length so the next incarnation reuses the allocated space,
+        // the reader stops at the first chunk carrying an older log number
+        if (fileChannel.isOpen() && !recyclable) {
             fileChannel.truncate(fileOffset);
         }
 
@@ -70,10 +98,10 @@ public class MMapLogWriter extends AbstractLogWriter {
 
     void writeChunk(LogChunkType type, Slice slice) throws IOException {
         checkArgument(slice.length() <= 0xffff, "length %s is larger than two bytes", slice.length());
-        checkArgument(blockOffset + HEADER_SIZE <= BLOCK_SIZE);
+        checkArgument(blockOffset + headerSize() <= BLOCK_SIZE);
 
         // create header
-        Slice header = LogHeadUtils.newLogRecordHeader(type, slice);
+        Slice header = newRecordHeader(type, slice);
 
 
         ensureCapacity(header.length() + slice.length());
@@ -82,7 +110,7 @@ public class MMapLogWriter extends AbstractLogWriter {
         header.getBytes(0, mappedByteBuffer);
         slice.getBytes(0, mappedByteBuffer);
 
-        blockOffset += HEADER_SIZE + slice.length();
+        blockOffset += header.length() + slice.length();
     }
 
     @Override
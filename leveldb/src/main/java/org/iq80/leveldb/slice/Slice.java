@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.GatheringByteChannel;
@@ -19,11 +20,17 @@ import static org.iq80.leveldb.util.SizeOf.*;
 
 /**
  * Little Endian slice of a byte array.
+ * <p>
+ * 也可以是直接内存(例如文件映射)的只读视图, 由{@link Slices#wrappedBuffer(ByteBuffer)}创建:
+ * >>> 1. 读取数据不拷贝, 写入时抛出ReadOnlyBufferException, {@link #getRawArray()}不可用
+ * >>> 2. 调用方负责在使用期间保持底层内存有效, 例如文件映射在视图使用完之前不能unmap
  *
  * @author
  */
 public final class Slice implements Comparable<Slice> {
     private final byte[] data;
+    // the little endian direct buffer backing this slice when data is null, offset is an absolute index into it
+    private final ByteBuffer buffer;
     private final int offset;
     private final int length;
 
@@ -31,6 +38,7 @@ public final class Slice implements Comparable<Slice> {
 
     public Slice(int length) {
         data = new byte[length];
+        this.buffer = null;
         this.offset = 0;
         this.length = length;
     }
@@ -38,6 +46,7 @@ public final class Slice implements Comparable<Slice> {
     public Slice(byte[] data) {
         requireNonNull(data, "array is null");
         this.data = data;
+        this.buffer = null;
         this.offset = 0;
         this.length = data.length;
     }
@@ -45,6 +54,18 @@ public final class Slice implements Comparable<Slice> {
     public Slice(byte[] data, int offset, int length) {
         requireNonNull(data, "array is null");
         this.data = data;
+        this.buffer = null;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param buffer 小端序的ByteBuffer, offset是绝对下标
+     */
+    Slice(ByteBuffer buffer, int offset, int length) {
+        requireNonNull(buffer, "buffer is null");
+        this.data = null;
+        this.buffer = buffer;
         this.offset = offset;
         this.length = length;
     }
@@ -56,10 +77,22 @@ public final class Slice implements Comparable<Slice> {
         return length;
     }
 
+    /**
+     * Whether this slice is backed by an array rather than a direct buffer.
+     */
+    public boolean hasRawArray() {
+        return data != null;
+    }
+
     /**
      * Gets the array underlying this slice.
+     *
+     * @throws UnsupportedOperationException if the slice is backed by a direct buffer
      */
     public byte[] getRawArray() {
+        if (data == null) {
+            throw new UnsupportedOperationException("Slice is backed by a direct buffer");
+        }
         return data;
     }
 
@@ -79,6 +112,9 @@ public final class Slice implements Comparable<Slice> {
     public byte getByte(int index) {
         checkPositionIndexes(index, index + SIZE_OF_BYTE, this.length);
         index += offset;
+        if (data == null) {
+            return buffer.get(index);
+        }
         return data[index];
     }
 
@@ -103,6 +139,9 @@ public final class Slice implements Comparable<Slice> {
     public short getShort(int index) {
         checkPositionIndexes(index, index + SIZE_OF_SHORT, this.length);
         index += offset;
+        if (data == null) {
+            return buffer.getShort(index);
+        }
         return (short) (data[index] & 0xFF | data[index + 1] << 8);
     }
 
@@ -116,6 +155,9 @@ public final class Slice implements Comparable<Slice> {
     public int getInt(int index) {
         checkPositionIndexes(index, index + SIZE_OF_INT, this.length);
         index += offset;
+        if (data == null) {
+            return buffer.getInt(index);
+        }
         return (data[index] & 0xff) |
                 (data[index + 1] & 0xff) << 8 |
                 (data[index + 2] & 0xff) << 16 |
@@ -132,6 +174,9 @@ public final class Slice implements Comparable<Slice> {
     public long getLong(int index) {
         checkPositionIndexes(index, index + SIZE_OF_LONG, this.length);
         index += offset;
+        if (data == null) {
+            return buffer.getLong(index);
+        }
         return ((long) data[index] & 0xff) |
                 ((long) data[index + 1] & 0xff) << 8 |
                 ((long) data[index + 2] & 0xff) << 16 |
@@ -156,7 +201,7 @@ public final class Slice implements Comparable<Slice> {
      *                                   {@code dst.capacity}
      */
     public void getBytes(int index, Slice dst, int dstIndex, int length) {
-        getBytes(index, dst.data, dstIndex, length);
+        getBytes(index, dst.array(), dstIndex, length);
     }
 
     /**
@@ -176,6 +221,10 @@ public final class Slice implements Comparable<Slice> {
         checkPositionIndexes(index, index + length, this.length);
         checkPositionIndexes(destinationIndex, destinationIndex + length, destination.length);
         index += offset;
+        if (data == null) {
+            view(index, length).get(destination, destinationIndex, length);
+            return;
+        }
         System.arraycopy(data, index, destination, destinationIndex, length);
     }
 
@@ -184,6 +233,9 @@ public final class Slice implements Comparable<Slice> {
     }
 
     public byte[] getBytes(int index, int length) {
+        if (data == null) {
+            return copyBytes(index, length);
+        }
         index += offset;
         if (index == 0) {
             return Arrays.copyOf(data, length);
@@ -205,6 +257,10 @@ public final class Slice implements Comparable<Slice> {
      */
     public void getBytes(int index, ByteBuffer destination) {
         checkPositionIndex(index, this.length);
+        if (data == null) {
+            destination.put(view(offset + index, Math.min(this.length - index, destination.remaining())));
+            return;
+        }
         index += offset;
         destination.put(data, index, Math.min(length, destination.remaining()));
     }
@@ -222,6 +278,10 @@ public final class Slice implements Comparable<Slice> {
     public void getBytes(int index, OutputStream out, int length)
             throws IOException {
         checkPositionIndexes(index, index + length, this.length);
+        if (data == null) {
+            out.write(copyBytes(index, length));
+            return;
+        }
         index += offset;
         out.write(data, index, length);
     }
@@ -240,6 +300,9 @@ public final class Slice implements Comparable<Slice> {
     public int getBytes(int index, GatheringByteChannel out, int length) throws IOException {
         checkPositionIndexes(index, index + length, this.length);
         index += offset;
+        if (data == null) {
+            return out.write(view(index, length));
+        }
         return out.write(ByteBuffer.wrap(data, index, length));
     }
 
@@ -252,6 +315,7 @@ public final class Slice implements Comparable<Slice> {
      *                                   {@code index + 2} is greater than {@code this.capacity}
      */
     public void setShort(int index, int value) {
+        checkWritable();
         checkPositionIndexes(index, index + SIZE_OF_SHORT, this.length);
         index += offset;
         data[index] = (byte) (value);
@@ -266,6 +330,7 @@ public final class Slice implements Comparable<Slice> {
      *                                   {@code index + 4} is greater than {@code this.capacity}
      */
     public void setInt(int index, int value) {
+        checkWritable();
         checkPositionIndexes(index, index + SIZE_OF_INT, this.length);
         index += offset;
         data[index] = (byte) (value);
@@ -282,6 +347,7 @@ public final class Slice implements Comparable<Slice> {
      *                                   {@code index + 8} is greater than {@code this.capacity}
      */
     public void setLong(int index, long value) {
+        checkWritable();
         checkPositionIndexes(index, index + SIZE_OF_LONG, this.length);
         index += offset;
         data[index] = (byte) (value);
@@ -302,6 +368,7 @@ public final class Slice implements Comparable<Slice> {
      *                                   {@code index + 1} is greater than {@code this.capacity}
      */
     public void setByte(int index, int value) {
+        checkWritable();
         checkPositionIndexes(index, index + SIZE_OF_BYTE, this.length);
         index += offset;
         data[index] = (byte) value;
@@ -321,6 +388,12 @@ public final class Slice implements Comparable<Slice> {
      *                                   {@code src.capacity}
      */
     public void setBytes(int index, Slice src, int srcIndex, int length) {
+        if (src.data == null) {
+            checkWritable();
+            checkPositionIndexes(index, index + length, this.length);
+            src.getBytes(srcIndex, data, offset + index, length);
+            return;
+        }
         setBytes(index, src.data, src.offset + srcIndex, length);
     }
 
@@ -335,6 +408,7 @@ public final class Slice implements Comparable<Slice> {
      *                                   if {@code srcIndex + length} is greater than {@code src.length}
      */
     public void setBytes(int index, byte[] source, int sourceIndex, int length) {
+        checkWritable();
         checkPositionIndexes(index, index + length, this.length);
         checkPositionIndexes(sourceIndex, sourceIndex + length, source.length);
         index += offset;
@@ -351,6 +425,7 @@ public final class Slice implements Comparable<Slice> {
      *                                   {@code this.capacity}
      */
     public void setBytes(int index, ByteBuffer source) {
+        checkWritable();
         checkPositionIndexes(index, index + source.remaining(), this.length);
         index += offset;
         source.get(data, index, source.remaining());
@@ -369,6 +444,7 @@ public final class Slice implements Comparable<Slice> {
      */
     public int setBytes(int index, InputStream in, int length)
             throws IOException {
+        checkWritable();
         checkPositionIndexes(index, index + length, this.length);
         index += offset;
         int readBytes = 0;
@@ -401,6 +477,7 @@ public final class Slice implements Comparable<Slice> {
      * @throws java.io.IOException       if the specified channel threw an exception during I/O
      */
     public int setBytes(int index, ScatteringByteChannel in, int length) throws IOException {
+        checkWritable();
         checkPositionIndexes(index, index + length, this.length);
         index += offset;
         ByteBuffer buf = ByteBuffer.wrap(data, index, length);
@@ -429,6 +506,7 @@ public final class Slice implements Comparable<Slice> {
     }
 
     public int setBytes(int index, FileChannel in, int position, int length) throws IOException {
+        checkWritable();
         checkPositionIndexes(index, index + length, this.length);
         index += offset;
         ByteBuffer buf = ByteBuffer.wrap(data, index, length);
@@ -466,6 +544,9 @@ public final class Slice implements Comparable<Slice> {
      */
     public Slice copySlice(int index, int length) {
         checkPositionIndexes(index, index + length, this.length);
+        if (data == null) {
+            return new Slice(copyBytes(index, length));
+        }
 
         index += offset;
         byte[] copiedArray = new byte[length];
@@ -480,6 +561,11 @@ public final class Slice implements Comparable<Slice> {
     public byte[] copyBytes(int index, int length) {
         checkPositionIndexes(index, index + length, this.length);
         index += offset;
+        if (data == null) {
+            byte[] value = new byte[length];
+            view(index, length).get(value);
+            return value;
+        }
         if (index == 0) {
             return Arrays.copyOf(data, length);
         } else {
@@ -512,6 +598,9 @@ public final class Slice implements Comparable<Slice> {
         if (index >= 0 && length == 0) {
             return Slices.EMPTY_SLICE;
         }
+        if (data == null) {
+            return new Slice(buffer, offset + index, length);
+        }
         return new Slice(data, offset + index, length);
     }
 
@@ -544,6 +633,9 @@ public final class Slice implements Comparable<Slice> {
     public ByteBuffer toByteBuffer(int index, int length) {
         checkPositionIndexes(index, index + length, this.length);
         index += offset;
+        if (data == null) {
+            return view(index, length);
+        }
         return ByteBuffer.wrap(data, index, length).order(LITTLE_ENDIAN);
     }
 
@@ -564,7 +656,15 @@ public final class Slice implements Comparable<Slice> {
         }
 
         // if arrays have same base offset, some optimizations can be taken...
-        if (offset == slice.offset && data == slice.data) {
+        if (offset == slice.offset && data == slice.data && buffer == slice.buffer) {
+            return true;
+        }
+        if (data == null || slice.data == null) {
+            for (int i = 0; i < length; i++) {
+                if (byteAt(i) != slice.byteAt(i)) {
+                    return false;
+                }
+            }
             return true;
         }
         for (int i = 0; i < length; i++) {
@@ -582,8 +682,8 @@ public final class Slice implements Comparable<Slice> {
         }
 
         int result = length;
-        for (int i = offset; i < offset + length; i++) {
-            result = 31 * result + data[i];
+        for (int i = 0; i < length; i++) {
+            result = 31 * result + byteAt(i);
         }
         if (result == 0) {
             result = 1;
@@ -602,11 +702,21 @@ public final class Slice implements Comparable<Slice> {
         if (this == that) {
             return 0;
         }
-        if (this.data == that.data && length == that.length && offset == that.offset) {
+        if (this.data == that.data && this.buffer == that.buffer && length == that.length && offset == that.offset) {
             return 0;
         }
 
         int minLength = Math.min(this.length, that.length);
+        if (this.data == null || that.data == null) {
+            for (int i = 0; i < minLength; i++) {
+                int thisByte = 0xFF & this.byteAt(i);
+                int thatByte = 0xFF & that.byteAt(i);
+                if (thisByte != thatByte) {
+                    return (thisByte) - (thatByte);
+                }
+            }
+            return this.length - that.length;
+        }
         for (int i = 0; i < minLength; i++) {
             int thisByte = 0xFF & this.data[this.offset + i];
             int thatByte = 0xFF & that.data[that.offset + i];
@@ -637,6 +747,33 @@ public final class Slice implements Comparable<Slice> {
         return Slices.decodeString(toByteBuffer(index, length), charset);
     }
 
+    /**
+     * Gets the byte at {@code index} relative to this slice, without bounds checks.
+     */
+    private byte byteAt(int index) {
+        return data != null ? data[offset + index] : buffer.get(offset + index);
+    }
+
+    /**
+     * A little endian view of the direct buffer from the absolute {@code index}, sharing its content.
+     */
+    private ByteBuffer view(int index, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.clear().limit(index + length).position(index);
+        return view.order(LITTLE_ENDIAN);
+    }
+
+    private byte[] array() {
+        checkWritable();
+        return data;
+    }
+
+    private void checkWritable() {
+        if (data == null) {
+            throw new ReadOnlyBufferException();
+        }
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + '(' +
@@ -72,6 +72,17 @@ public final class Slices {
         return new Slice(array);
     }
 
+    /**
+     * 不拷贝地包装source中剩余的字节, 直接内存的slice是只读的, 调用方需要在slice使用期间保持source有效
+     */
+    public static Slice wrappedBuffer(ByteBuffer source) {
+        requireNonNull(source, "source is null");
+        if (source.hasArray()) {
+            return new Slice(source.array(), source.arrayOffset() + source.position(), source.remaining());
+        }
+        return new Slice(source.duplicate().order(ByteOrder.LITTLE_ENDIAN), source.position(), source.remaining());
+    }
+
     public static Slice copiedBuffer(ByteBuffer source, int sourceOffset, int length) {
         requireNonNull(source, "source is null");
         int newPosition = source.position() + sourceOffset;
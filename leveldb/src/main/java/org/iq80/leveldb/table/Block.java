@@ -20,12 +20,14 @@ package org.iq80.leveldb.table;
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.util.Hash;
 
 import java.util.Comparator;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_SHORT;
 
 /**
  * Binary Structure
@@ -60,14 +62,25 @@ import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
  * </tr>
  * </tbody>
  * </table>
+ * 数据块可以在restart index之后带一个哈希索引, 用于点查:
+ * >>> 1. 哈希索引为num buckets个单字节的桶和2字节的num buckets, restart count的最高位置1表示块带有哈希索引, 旧文件的最高位总是0
+ * >>> 2. 桶中是user key所在的重启区间的下标, 不同重启区间的user key落在同一个桶中时记为冲突, 没有user key的桶记为空
+ * >>> 3. 一个user key的所有版本都在同一个重启区间时才能被哈希定位, 重启区间超过{@link #MAX_HASH_RESTARTS}个的块不带哈希索引
  * @author
  */
 public class Block implements SeekingIterable<Slice, Slice> {
+    static final int HASH_INDEX_FLAG = 1 << 31;
+    static final int MAX_HASH_RESTARTS = 253;
+    static final int HASH_COLLISION = 254;
+    static final int HASH_NO_ENTRY = 255;
+
     private final Slice block;
     private final Comparator<Slice> comparator;
 
     private final Slice data;
     private final Slice restartPositions;
+    // the hash index buckets, null when the block has no hash index
+    private final Slice hashBuckets;
 
     public Block(Slice block, Comparator<Slice> comparator) {
         requireNonNull(block, "block is null");
@@ -85,10 +98,23 @@ public class Block implements SeekingIterable<Slice, Slice> {
         // key restart count is the last int of the block
         int restartCount = block.getInt(block.length() - SIZE_OF_INT);
 
+        // the hash index sits between the restart index and the restart count
+        int restartsEnd = block.length() - SIZE_OF_INT;
+        if ((restartCount & HASH_INDEX_FLAG) != 0) {
+            restartCount &= ~HASH_INDEX_FLAG;
+            checkArgument(restartsEnd >= SIZE_OF_SHORT, "Block is corrupt: hash index is greater than block size");
+            int bucketCount = block.getShort(restartsEnd - SIZE_OF_SHORT) & 0xFFFF;
+            restartsEnd -= SIZE_OF_SHORT + bucketCount;
+            checkArgument(bucketCount > 0 && restartsEnd >= 0, "Block is corrupt: hash index is greater than block size");
+            hashBuckets = block.slice(restartsEnd, bucketCount);
+        } else {
+            hashBuckets = null;
+        }
+
         if (restartCount > 0) {
             // restarts are written at the end of the block
-            int restartOffset = block.length() - (1 + restartCount) * SIZE_OF_INT;
-            checkArgument(restartOffset < block.length() - SIZE_OF_INT, "Block is corrupt: restart offset count is greater than block size");
+            int restartOffset = restartsEnd - restartCount * SIZE_OF_INT;
+            checkArgument(restartOffset >= 0 && restartOffset < restartsEnd, "Block is corrupt: restart offset count is greater than block size");
             restartPositions = block.slice(restartOffset, restartCount * SIZE_OF_INT);
 
             // data starts at 0 and extends to the restart index
@@ -107,4 +133,33 @@ public class Block implements SeekingIterable<Slice, Slice> {
     public BlockIterator iterator() {
         return new BlockIterator(data, restartPositions, comparator);
     }
+
+    public boolean hasHashIndex() {
+        return hashBuckets != null;
+    }
+
+    /**
+     * 点查时定位第一个不小于targetKey的条目, 有哈希索引时直接从userKey所在的重启区间开始查找,
+     * 此时迭代器之后的位置可能不是seek的结果, 只能用来比较下一个条目的user key
+     *
+     * @param userKey targetKey中的user key, 按字节比较
+     * @return 定位好的迭代器, 哈希索引确定块中没有userKey时返回null
+     */
+    public BlockIterator seekForGet(Slice targetKey, Slice userKey) {
+        BlockIterator iterator = iterator();
+        if (hashBuckets == null) {
+            iterator.seek(targetKey);
+            return iterator;
+        }
+        int bucket = hashBuckets.getUnsignedByte(Integer.remainderUnsigned(Hash.hash(userKey), hashBuckets.length()));
+        if (bucket == HASH_NO_ENTRY) {
+            return null;
+        }
+        if (bucket == HASH_COLLISION || bucket >= restartPositions.length() / SIZE_OF_INT) {
+            iterator.seek(targetKey);
+        } else {
+            iterator.seek(targetKey, bucket);
+        }
+        return iterator;
+    }
 }
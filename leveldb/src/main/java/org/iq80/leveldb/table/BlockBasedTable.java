@@ -0,0 +1,153 @@
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Throwables;
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.util.Compressor;
+import org.iq80.leveldb.util.Compressors;
+import org.iq80.leveldb.util.TableIterator;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link TableBuilder}写出的文件: 数据按块存储, 通过索引块定位数据块
+ *
+ * @author yf
+ */
+public abstract class BlockBasedTable extends Table {
+    // the whole index, or the top-level index pointing to the index partitions
+    protected final Block indexBlock;
+    // index partitions loaded so far by offset, null when the index is not partitioned
+    private final ConcurrentMap<Long, Block> indexPartitions;
+    // the compression type of the dictionary and its bound implementation, null when the table has no dictionary
+    private final CompressionType dictionaryCompressionType;
+    private final Compressor dictionaryCompressor;
+
+    public BlockBasedTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums) throws IOException {
+        super(name, fileChannel, comparator, verifyChecksums);
+
+        // the dictionary is loaded once, the meta blocks it is read from never use it
+        Block dictionaryBlock = getMetaBlock(TableBuilder.COMPRESSION_DICTIONARY_BLOCK);
+        if (dictionaryBlock != null) {
+            BlockEntry entry = dictionaryBlock.iterator().next();
+            dictionaryCompressionType = CompressionType.getCompressionTypeByPersistentId(entry.getKey().getByte(0));
+            dictionaryCompressor = Compressors.withDictionary(dictionaryCompressionType, entry.getValue().getBytes());
+            if (dictionaryCompressor == null) {
+                throw new IOException("Table " + name + " uses a " + dictionaryCompressionType + " dictionary but no implementation supports dictionaries");
+            }
+        } else {
+            dictionaryCompressionType = null;
+            dictionaryCompressor = null;
+        }
+
+        indexPartitions = getProperties().getIndexPartitions() > 0 ? new ConcurrentHashMap<Long, Block>() : null;
+        indexBlock = readBlock(indexBlockHandle);
+    }
+
+    @Override
+    public SeekingIterator<Slice, Slice> iterator() {
+        return new TableIterator(this, indexIterator());
+    }
+
+    /**
+     * 遍历所有数据块的索引项, 分区索引先在顶层索引中定位分区, 再在分区中查找
+     */
+    public SeekingIterator<Slice, Slice> indexIterator() {
+        if (indexPartitions == null) {
+            return indexBlock.iterator();
+        }
+        return TableIterator.indexPartitionIterator(this, indexBlock.iterator());
+    }
+
+    /**
+     * 打开索引分区, 分区第一次使用时才读取, 之后缓存到文件关闭
+     */
+    public Block openIndexPartition(Slice partitionEntry) {
+        BlockHandle partitionHandle = BlockHandle.readBlockHandle(partitionEntry.input());
+        Block partition = indexPartitions.get(partitionHandle.getOffset());
+        if (partition == null) {
+            try {
+                partition = readBlock(partitionHandle);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            Block existing = indexPartitions.putIfAbsent(partitionHandle.getOffset(), partition);
+            if (existing != null) {
+                partition = existing;
+            }
+        }
+        return partition;
+    }
+
+    public Block openBlock(Slice blockEntry) {
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
+        Block dataBlock;
+        try {
+            dataBlock = readBlock(blockHandle);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return dataBlock;
+    }
+
+    /**
+     * 数据块带有哈希索引时直接定位到userKey所在的重启区间
+     */
+    @Override
+    public Entry<Slice, Slice> seekForGet(Slice key, Slice userKey) {
+        SeekingIterator<Slice, Slice> index = indexIterator();
+        index.seek(key);
+        while (index.hasNext()) {
+            BlockIterator iterator = openBlock(index.next().getValue()).seekForGet(key, userKey);
+            if (iterator == null) {
+                return null;
+            }
+            if (iterator.hasNext()) {
+                return iterator.next();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long getApproximateOffsetOf(Slice key) {
+        SeekingIterator<Slice, Slice> iterator = indexIterator();
+        iterator.seek(key);
+        if (iterator.hasNext()) {
+            BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.next().getValue().input());
+            return blockHandle.getOffset();
+        }
+
+        // key is past the last key in the file.  Approximate the offset
+        // by returning the offset of the metaindex block (which is
+        // right near the end of the file).
+        return metaindexBlockHandle.getOffset();
+    }
+
+    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+
+    protected int uncompressedLength(ByteBuffer data) throws IOException {
+        int length = VariableLengthQuantity.readVariableLengthInt(data.duplicate());
+        return length;
+    }
+
+    /**
+     * 解压SNAPPY以外的压缩类型, SNAPPY仍走直接内存的快速路径;
+     * 文件带有压缩字典时, 同类型的块都用字典解压, 没有引用字典的块解压结果不变
+     */
+    protected Slice uncompress(CompressionType compressionType, ByteBuffer compressed) throws IOException {
+        if (compressionType == dictionaryCompressionType) {
+            return Slices.wrappedBuffer(Compressors.uncompress(compressionType, dictionaryCompressor, compressed));
+        }
+        return Slices.wrappedBuffer(Compressors.uncompress(compressionType, compressed));
+    }
+}
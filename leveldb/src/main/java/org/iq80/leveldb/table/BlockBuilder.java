@@ -3,14 +3,18 @@ package org.iq80.leveldb.table;
 import com.google.common.primitives.Ints;
 import org.iq80.leveldb.slice.DynamicSliceOutput;
 import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.util.Hash;
 import org.iq80.leveldb.util.IntVector;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 import static com.google.common.base.Preconditions.*;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_SHORT;
 
 public class BlockBuilder {
     private final int blockRestartInterval;
@@ -24,14 +28,29 @@ public class BlockBuilder {
     private final DynamicSliceOutput block;
     private Slice lastKey;
 
+    // user keys per hash bucket, 0 disables the hash index
+    private final double hashRatio;
+    // the user key hash and restart index of each user key added
+    private final IntVector hashEntries;
+
     public BlockBuilder(int estimatedSize, int blockRestartInterval, Comparator<Slice> comparator) {
+        this(estimatedSize, blockRestartInterval, comparator, 0);
+    }
+
+    /**
+     * @param hashRatio 大于0时在块尾写入user key的哈希索引, 每个桶平均分到的user key数, 这时key必须是编码后的InternalKey
+     */
+    public BlockBuilder(int estimatedSize, int blockRestartInterval, Comparator<Slice> comparator, double hashRatio) {
         checkArgument(estimatedSize >= 0, "estimatedSize is negative");
         checkArgument(blockRestartInterval >= 0, "blockRestartInterval is negative");
         requireNonNull(comparator, "comparator is null");
+        checkArgument(hashRatio >= 0, "hashRatio is negative");
 
         this.block = new DynamicSliceOutput(estimatedSize);
         this.blockRestartInterval = blockRestartInterval;
         this.comparator = comparator;
+        this.hashRatio = hashRatio;
+        this.hashEntries = hashRatio > 0 ? new IntVector(64) : null;
 
         restartPositions = new IntVector(32);
         restartPositions.add(0);  // first restart point must be 0
@@ -45,6 +64,9 @@ public class BlockBuilder {
         restartBlockEntryCount = 0;
         lastKey = null;
         finished = false;
+        if (hashEntries != null) {
+            hashEntries.clear();
+        }
     }
 
     public int getEntryCount() {
@@ -68,9 +90,23 @@ public class BlockBuilder {
 
         return block.size() +                              // raw data buffer
                 restartPositions.size() * SIZE_OF_INT +    // restart positions
+                hashIndexSize() +                          // hash index
                 SIZE_OF_INT;                               // restart position size
     }
 
+    private int bucketCount() {
+        int bucketCount = (int) Math.min(0xFFFF, hashEntries.size() / 2 / hashRatio);
+        // an odd bucket count spreads hashes that differ in the low bits only
+        return Math.max(1, bucketCount | 1);
+    }
+
+    private int hashIndexSize() {
+        if (hashEntries == null || restartPositions.size() > Block.MAX_HASH_RESTARTS) {
+            return 0;
+        }
+        return bucketCount() + SIZE_OF_SHORT;
+    }
+
     public void add(BlockEntry blockEntry) {
         requireNonNull(blockEntry, "blockEntry is null");
         add(blockEntry.getKey(), blockEntry.getValue());
@@ -93,6 +129,15 @@ public class BlockBuilder {
             restartBlockEntryCount = 0;
         }
 
+        if (hashEntries != null) {
+            // all versions of a user key in one restart interval share a bucket entry
+            Slice userKey = key.slice(0, key.length() - SIZE_OF_LONG);
+            if (restartBlockEntryCount == 0 || lastKey.length() != key.length() || calculateSharedBytes(key, lastKey) < userKey.length()) {
+                hashEntries.add(Hash.hash(userKey));
+                hashEntries.add(restartPositions.size() - 1);
+            }
+        }
+
         int nonSharedKeyBytes = key.length() - sharedKeyBytes;
 
         // write "<shared><non_shared><value_size>"
@@ -133,11 +178,34 @@ public class BlockBuilder {
 
             if (entryCount > 0) {
                 restartPositions.write(block);
-                block.writeInt(restartPositions.size());
+                if (hashIndexSize() > 0) {
+                    writeHashIndex();
+                    block.writeInt(restartPositions.size() | Block.HASH_INDEX_FLAG);
+                } else {
+                    block.writeInt(restartPositions.size());
+                }
             } else {
                 block.writeInt(0);
             }
         }
         return block.slice();
     }
+
+    private void writeHashIndex() {
+        int bucketCount = bucketCount();
+        byte[] buckets = new byte[bucketCount];
+        Arrays.fill(buckets, (byte) Block.HASH_NO_ENTRY);
+        for (int i = 0; i < hashEntries.size(); i += 2) {
+            int bucket = Integer.remainderUnsigned(hashEntries.get(i), bucketCount);
+            int restartIndex = hashEntries.get(i + 1);
+            int current = buckets[bucket] & 0xFF;
+            if (current == Block.HASH_NO_ENTRY) {
+                buckets[bucket] = (byte) restartIndex;
+            } else if (current != restartIndex) {
+                buckets[bucket] = (byte) Block.HASH_COLLISION;
+            }
+        }
+        block.writeBytes(buckets);
+        block.writeShort(bucketCount);
+    }
 }
\ No newline at end of file
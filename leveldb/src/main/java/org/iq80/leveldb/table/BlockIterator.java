@@ -150,6 +150,18 @@ public class BlockIterator
 
     }
 
+    /**
+     * 从指定的重启区间开始线性查找第一个不小于targetKey的条目, 用于数据块哈希索引定位到的重启区间
+     */
+    void seek(Slice targetKey, int restartPosition)
+    {
+        for (seekToRestartPosition(restartPosition); nextEntry != null; next()) {
+            if (comparator.compare(peek().getKey(), targetKey) >= 0) {
+                break;
+            }
+        }
+    }
+
     /**
      * Seeks to and reads the entry at the specified restart position.
      * <p/>
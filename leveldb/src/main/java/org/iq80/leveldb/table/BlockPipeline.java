@@ -0,0 +1,80 @@
+package org.iq80.leveldb.table;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * TableBuilder写数据块的流水线, 可以被多个TableBuilder共享:
+ * >>> 1. 构建线程(例如compaction线程)只负责归并和前缀编码, 写满的数据块交给压缩线程池
+ * >>> 2. 压缩线程池并行完成压缩和crc计算
+ * >>> 3. 单个写线程按提交顺序把数据块写入文件
+ * <p>
+ * 每个TableBuilder最多有maxPendingBlocks个数据块在压缩或等待写入, 超过时构建线程等待最早的数据块完成,
+ * 这样内存占用有上限, 也不会因为磁盘慢而无限堆积
+ *
+ * @author yf
+ */
+public class BlockPipeline implements Closeable {
+    private final ExecutorService compressionExecutor;
+    private final ExecutorService writerExecutor;
+    private final int maxPendingBlocks;
+
+    /**
+     * @param compressionThreads 压缩线程数
+     */
+    public BlockPipeline(int compressionThreads) {
+        this(compressionThreads, 2 * compressionThreads);
+    }
+
+    public BlockPipeline(int compressionThreads, int maxPendingBlocks) {
+        checkArgument(compressionThreads > 0, "compressionThreads must be positive");
+        checkArgument(maxPendingBlocks > 0, "maxPendingBlocks must be positive");
+        this.compressionExecutor = Executors.newFixedThreadPool(compressionThreads, new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-block-compression-%s")
+                .setDaemon(true)
+                .build());
+        this.writerExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-block-writer-%s")
+                .setDaemon(true)
+                .build());
+        this.maxPendingBlocks = maxPendingBlocks;
+    }
+
+    public int getMaxPendingBlocks() {
+        return maxPendingBlocks;
+    }
+
+    <T> Future<T> compress(Callable<T> task) {
+        return compressionExecutor.submit(task);
+    }
+
+    /**
+     * 写任务在同一个线程中按提交顺序执行
+     */
+    <T> Future<T> write(Callable<T> task) {
+        return writerExecutor.submit(task);
+    }
+
+    /**
+     * 等待已提交的任务完成后停止所有线程
+     */
+    @Override
+    public void close() {
+        compressionExecutor.shutdown();
+        writerExecutor.shutdown();
+        try {
+            compressionExecutor.awaitTermination(1, TimeUnit.DAYS);
+            writerExecutor.awaitTermination(1, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
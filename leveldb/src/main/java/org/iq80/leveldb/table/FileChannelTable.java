@@ -10,9 +10,10 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
 
+import static org.iq80.leveldb.CompressionType.NONE;
 import static org.iq80.leveldb.CompressionType.SNAPPY;
 
-public class FileChannelTable extends Table {
+public class FileChannelTable extends BlockBasedTable {
     public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException {
         super(name, fileChannel, comparator, verifyChecksums);
@@ -45,6 +46,8 @@ public class FileChannelTable extends Table {
                 Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
                 uncompressedData = Slices.copiedBuffer(uncompressedScratch);
             }
+        } else if (blockTrailer.getCompressionType() != NONE) {
+            uncompressedData = uncompress(blockTrailer.getCompressionType(), uncompressedBuffer);
         } else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
         }
@@ -31,6 +31,13 @@ public class Footer {
     }
 
     public static Footer readFooter(Slice slice) {
+        return readFooter(slice, TableBuilder.TABLE_MAGIC_NUMBER);
+    }
+
+    /**
+     * @param magicNumber 文件格式对应的magic number, 不一致时抛出IllegalArgumentException
+     */
+    public static Footer readFooter(Slice slice, long magicNumber) {
         requireNonNull(slice, "slice is null");
         checkArgument(slice.length() == ENCODED_LENGTH, "Expected slice.size to be %s but was %s", ENCODED_LENGTH, slice.length());
 
@@ -40,23 +47,38 @@ public class Footer {
         BlockHandle metaindexBlockHandle = readBlockHandle(sliceInput);
         BlockHandle indexBlockHandle = readBlockHandle(sliceInput);
 
-        // skip padding
-        sliceInput.setPosition(ENCODED_LENGTH - SIZE_OF_LONG);
-
         // verify magic number
-        long magicNumber = sliceInput.readUnsignedInt() | (sliceInput.readUnsignedInt() << 32);
-        checkArgument(magicNumber == TableBuilder.TABLE_MAGIC_NUMBER, "File is not a table (bad magic number)");
+        checkArgument(readMagicNumber(slice) == magicNumber, "File is not a table (bad magic number)");
 
         return new Footer(metaindexBlockHandle, indexBlockHandle);
     }
 
+    /**
+     * 读取footer末尾的magic number, 用于区分文件格式
+     */
+    public static long readMagicNumber(Slice slice) {
+        checkArgument(slice.length() == ENCODED_LENGTH, "Expected slice.size to be %s but was %s", ENCODED_LENGTH, slice.length());
+        SliceInput sliceInput = slice.input();
+        // skip handles and padding
+        sliceInput.setPosition(ENCODED_LENGTH - SIZE_OF_LONG);
+        return sliceInput.readUnsignedInt() | (sliceInput.readUnsignedInt() << 32);
+    }
+
     public static Slice writeFooter(Footer footer) {
+        return writeFooter(footer, TableBuilder.TABLE_MAGIC_NUMBER);
+    }
+
+    public static Slice writeFooter(Footer footer, long magicNumber) {
         Slice slice = Slices.allocate(ENCODED_LENGTH);
-        writeFooter(footer, slice.output());
+        writeFooter(footer, slice.output(), magicNumber);
         return slice;
     }
 
     public static void writeFooter(Footer footer, SliceOutput sliceOutput) {
+        writeFooter(footer, sliceOutput, TableBuilder.TABLE_MAGIC_NUMBER);
+    }
+
+    public static void writeFooter(Footer footer, SliceOutput sliceOutput, long magicNumber) {
         // remember the starting write index so we can calculate the padding
         int startingWriteIndex = sliceOutput.size();
 
@@ -68,7 +90,7 @@ public class Footer {
         sliceOutput.writeZero(ENCODED_LENGTH - SIZE_OF_LONG - (sliceOutput.size() - startingWriteIndex));
 
         // write magic number as two (little endian) integers
-        sliceOutput.writeInt((int) TableBuilder.TABLE_MAGIC_NUMBER);
-        sliceOutput.writeInt((int) (TableBuilder.TABLE_MAGIC_NUMBER >>> 32));
+        sliceOutput.writeInt((int) magicNumber);
+        sliceOutput.writeInt((int) (magicNumber >>> 32));
     }
 }
@@ -18,11 +18,14 @@ import java.util.Comparator;
 import java.util.concurrent.Callable;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static org.iq80.leveldb.CompressionType.NONE;
 import static org.iq80.leveldb.CompressionType.SNAPPY;
 
 @Slf4j
-public class MMapTable extends Table {
+public class MMapTable extends BlockBasedTable {
     private MappedByteBuffer data;
+    // the whole mapping as a read only slice, uncompressed blocks are views of it
+    private Slice mappedData;
 
     public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums) throws IOException {
         super(name, fileChannel, comparator, verifyChecksums);
@@ -33,7 +36,8 @@ public class MMapTable extends Table {
     protected Footer init() throws IOException {
         long size = fileChannel.size();
         data = fileChannel.map(MapMode.READ_ONLY, 0, size);
-        Slice footerSlice = Slices.copiedBuffer(data, (int) size - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH);
+        mappedData = Slices.wrappedBuffer(data);
+        Slice footerSlice = mappedData.slice((int) size - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH);
         return Footer.readFooter(footerSlice);
     }
 
@@ -42,7 +46,7 @@ public class MMapTable extends Table {
         return new Closer(name, fileChannel, data);
     }
 
-    private static class Closer implements Callable<Void> {
+    static class Closer implements Callable<Void> {
         private final String name;
         private final Closeable closeable;
         private final MappedByteBuffer data;
@@ -64,7 +68,12 @@ public class MMapTable extends Table {
     @Override
     protected Block readBlock(BlockHandle blockHandle) throws IOException {
         // read block trailer
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data, (int) blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH));
+        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(mappedData.slice((int) blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH));
+        if (blockTrailer.getCompressionType() == NONE) {
+            // a view of the mapping, kept valid by the references callers hold on this table
+            return new Block(mappedData.slice((int) blockHandle.getOffset(), blockHandle.getDataSize()), comparator);
+        }
+
         // decompress data
         Slice uncompressedData;
         ByteBuffer uncompressedBuffer = read((int) blockHandle.getOffset(), blockHandle.getDataSize());
@@ -80,7 +89,7 @@ public class MMapTable extends Table {
                 uncompressedData = Slices.copiedBuffer(uncompressedScratch);
             }
         } else {
-            uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
+            uncompressedData = uncompress(blockTrailer.getCompressionType(), uncompressedBuffer);
         }
 
         return new Block(uncompressedData, comparator);
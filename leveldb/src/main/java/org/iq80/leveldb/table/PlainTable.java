@@ -0,0 +1,212 @@
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.util.AbstractSeekingIterator;
+import org.iq80.leveldb.util.Hash;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+import static org.iq80.leveldb.util.VariableLengthQuantity.variableLengthSize;
+
+/**
+ * 读取{@link PlainTableBuilder}写出的文件, 适合能全部放进内存的数据集:
+ * >>> 1. 打开时映射整个文件, 之后的读取不再访问文件; 返回的value直接引用映射, 由调用方持有的table引用保证有效, key拷贝到堆上
+ * >>> 2. 点查先查哈希表, 桶为空或者桶中的user key不同时直接返回null, 冲突时退化为二分查找
+ * >>> 3. 范围查找在记录偏移索引中二分查找, 再从该记录开始顺序扫描, 最多扫描blockRestartInterval条记录
+ *
+ * @author yf
+ */
+public class PlainTable extends Table {
+    // the whole file, assigned by init() while the super constructor runs
+    private MappedByteBuffer mapping;
+    private Slice data;
+    private final int dataSize;
+    private final int[] recordOffsets;
+    private final int[] buckets;
+
+    public PlainTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums) throws IOException {
+        super(name, fileChannel, comparator, verifyChecksums);
+
+        // the index is not in block format: the sampled record offsets, then the hash buckets
+        Slice index = data.slice((int) indexBlockHandle.getOffset(), indexBlockHandle.getDataSize());
+        int tail = index.length() - 4 * SIZE_OF_INT;
+        int offsetCount = index.getInt(tail + SIZE_OF_INT);
+        int bucketCount = index.getInt(tail + 2 * SIZE_OF_INT);
+        checkArgument(tail == (offsetCount + bucketCount) * SIZE_OF_INT, "Plain table %s has a corrupt index", name);
+
+        recordOffsets = new int[offsetCount];
+        for (int i = 0; i < offsetCount; i++) {
+            recordOffsets[i] = index.getInt(i * SIZE_OF_INT);
+        }
+        buckets = new int[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = index.getInt((offsetCount + i) * SIZE_OF_INT);
+        }
+        dataSize = (int) indexBlockHandle.getOffset();
+    }
+
+    @Override
+    protected Footer init() throws IOException {
+        long size = fileChannel.size();
+        checkArgument(size <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
+        mapping = fileChannel.map(MapMode.READ_ONLY, 0, size);
+        data = Slices.wrappedBuffer(mapping);
+        Slice footerSlice = data.slice(data.length() - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH);
+        return Footer.readFooter(footerSlice, PlainTableBuilder.PLAIN_TABLE_MAGIC_NUMBER);
+    }
+
+    @Override
+    protected Block readBlock(BlockHandle blockHandle) throws IOException {
+        // the meta blocks are never compressed
+        return new Block(data.slice((int) blockHandle.getOffset(), blockHandle.getDataSize()), comparator);
+    }
+
+    @Override
+    public Callable<?> closer() {
+        return new MMapTable.Closer(name, fileChannel, mapping);
+    }
+
+    @Override
+    public SeekingIterator<Slice, Slice> iterator() {
+        return new PlainTableIterator();
+    }
+
+    @Override
+    public Entry<Slice, Slice> seekForGet(Slice key, Slice userKey) {
+        int offset;
+        if (buckets.length > 0) {
+            int bucket = buckets[Integer.remainderUnsigned(Hash.hash(userKey), buckets.length)];
+            if (bucket == PlainTableBuilder.HASH_NO_ENTRY) {
+                return null;
+            }
+            if (bucket == PlainTableBuilder.HASH_COLLISION) {
+                offset = seekOffset(key);
+            } else {
+                // the bucket holds the first version of exactly one user key
+                Slice found = readKey(bucket);
+                if (found.length() != userKey.length() + SIZE_OF_LONG || !userKey.equals(found.slice(0, userKey.length()))) {
+                    return null;
+                }
+                offset = seek(bucket, dataSize, key);
+            }
+        } else {
+            offset = seekOffset(key);
+        }
+        return offset < dataSize ? readEntry(offset) : null;
+    }
+
+    @Override
+    public long getApproximateOffsetOf(Slice key) {
+        int offset = seekOffset(key);
+        return offset < dataSize ? offset : metaindexBlockHandle.getOffset();
+    }
+
+    /**
+     * @return 第一个不小于key的记录的偏移, 没有时返回数据区的大小
+     */
+    private int seekOffset(Slice key) {
+        if (recordOffsets.length == 0) {
+            return dataSize;
+        }
+        // find the last sampled record smaller than the key
+        int left = 0;
+        int right = recordOffsets.length - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (comparator.compare(readKey(recordOffsets[mid]), key) < 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        int end = left + 1 < recordOffsets.length ? recordOffsets[left + 1] : dataSize;
+        return seek(recordOffsets[left], end, key);
+    }
+
+    /**
+     * 从offset开始顺序扫描到end
+     *
+     * @return 第一个不小于key的记录的偏移, 都小于key时返回end
+     */
+    private int seek(int offset, int end, Slice key) {
+        while (offset < end && comparator.compare(readKey(offset), key) < 0) {
+            offset = nextRecord(offset);
+        }
+        return offset;
+    }
+
+    private Slice readKey(int offset) {
+        int keyLength = readVarint(offset);
+        int valueLengthOffset = offset + variableLengthSize(keyLength);
+        int keyOffset = valueLengthOffset + variableLengthSize(readVarint(valueLengthOffset));
+        return data.slice(keyOffset, keyLength);
+    }
+
+    private BlockEntry readEntry(int offset) {
+        int keyLength = readVarint(offset);
+        int valueLengthOffset = offset + variableLengthSize(keyLength);
+        int valueLength = readVarint(valueLengthOffset);
+        int keyOffset = valueLengthOffset + variableLengthSize(valueLength);
+        // keys are kept by callers after the table is released, only values may stay views of the mapping
+        return new BlockEntry(data.copySlice(keyOffset, keyLength), data.slice(keyOffset + keyLength, valueLength));
+    }
+
+    private int nextRecord(int offset) {
+        int keyLength = readVarint(offset);
+        int valueLengthOffset = offset + variableLengthSize(keyLength);
+        int valueLength = readVarint(valueLengthOffset);
+        return valueLengthOffset + variableLengthSize(valueLength) + keyLength + valueLength;
+    }
+
+    private int readVarint(int offset) {
+        int result = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            int b = data.getByte(offset++) & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new NumberFormatException("last byte of variable length int has high bit set");
+    }
+
+    private final class PlainTableIterator extends AbstractSeekingIterator<Slice, Slice> {
+        private int position;
+
+        @Override
+        protected void seekToFirstInternal() {
+            position = 0;
+        }
+
+        @Override
+        protected void seekInternal(Slice targetKey) {
+            position = seekOffset(targetKey);
+        }
+
+        @Override
+        protected Entry<Slice, Slice> getNextElement() {
+            if (position >= dataSize) {
+                return null;
+            }
+            Entry<Slice, Slice> entry = readEntry(position);
+            position = nextRecord(position);
+            return entry;
+        }
+
+        @Override
+        public String toString() {
+            return "PlainTableIterator{name='" + name + "', position=" + position + '}';
+        }
+    }
+}
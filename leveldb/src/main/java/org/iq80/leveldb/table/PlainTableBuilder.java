@@ -0,0 +1,294 @@
+package org.iq80.leveldb.table;
+
+import com.google.common.collect.Maps;
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.RateLimiter;
+import org.iq80.leveldb.RateLimiter.IoPriority;
+import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.ValueType;
+import org.iq80.leveldb.slice.DynamicSliceOutput;
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.util.Hash;
+import org.iq80.leveldb.util.IntVector;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * 写{@link PlainTable}格式的文件:
+ * >>> 1. 数据区是连续的记录, 每条记录为varint的key长度、varint的value长度、key和value, 不压缩, 没有块边界和前缀压缩
+ * >>> 2. 索引区记录每blockRestartInterval条记录的偏移, 以及user key哈希到该user key第一条记录偏移的哈希表
+ * >>> 3. 索引区之后是不压缩的属性块、范围删除块和meta index, footer使用{@link #PLAIN_TABLE_MAGIC_NUMBER}
+ * >>> 4. 只有InternalKey且user key按字节比较时才写哈希表, 否则点查退化为在偏移索引中二分查找
+ *
+ * @author yf
+ */
+public class PlainTableBuilder
+        implements TableFileBuilder {
+    /**
+     * 与{@link TableBuilder#TABLE_MAGIC_NUMBER}不同, 打开文件时据此选择格式
+     */
+    public static final long PLAIN_TABLE_MAGIC_NUMBER = 0x8242229663bf9564L;
+
+    static final int HASH_NO_ENTRY = -1;
+    static final int HASH_COLLISION = -2;
+    // user keys per hash bucket
+    private static final double HASH_RATIO = 0.75;
+
+    private final FileChannel fileChannel;
+    private final UserComparator userComparator;
+    private final int indexInterval;
+    private final int bufferSize;
+    private final boolean hashIndex;
+    private final RateLimiter rateLimiter;
+    private final IoPriority ioPriority;
+
+    // records not yet written to the file
+    private final DynamicSliceOutput buffer;
+    private long position;
+
+    // offset of every indexInterval-th record
+    private final IntVector recordOffsets = new IntVector(64);
+    // the user key hash and first record offset of each user key
+    private final IntVector hashEntries = new IntVector(64);
+    private Slice lastKey;
+
+    private long entryCount;
+    private long deletionCount;
+    private long rawKeySize;
+    private long rawValueSize;
+    private long smallestSequence = Long.MAX_VALUE;
+    private long largestSequence;
+    private long creationTime;
+    private final List<Map.Entry<Slice, Slice>> rangeTombstones = new ArrayList<>();
+    private TableProperties properties;
+    private boolean closed;
+
+    public PlainTableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, IoPriority ioPriority) {
+        requireNonNull(options, "options is null");
+        requireNonNull(fileChannel, "fileChannel is null");
+        requireNonNull(userComparator, "userComparator is null");
+        requireNonNull(ioPriority, "ioPriority is null");
+        this.fileChannel = fileChannel;
+        this.userComparator = userComparator;
+        this.indexInterval = Math.max(1, options.blockRestartInterval());
+        this.bufferSize = options.blockSize();
+        this.hashIndex = TableBuilder.hasBytewiseInternalKeys(userComparator);
+        this.rateLimiter = options.rateLimiter();
+        this.ioPriority = ioPriority;
+        this.buffer = new DynamicSliceOutput(bufferSize + 256);
+    }
+
+    @Override
+    public void add(InternalKey key, Slice value) throws IOException {
+        requireNonNull(key, "key is null");
+        add(key.encode(), value);
+        if (key.getValueType() == ValueType.DELETION) {
+            deletionCount++;
+        }
+        trackSequence(key.getSequenceNumber());
+    }
+
+    private void trackSequence(long sequence) {
+        smallestSequence = Math.min(smallestSequence, sequence);
+        largestSequence = Math.max(largestSequence, sequence);
+    }
+
+    @Override
+    public void add(Slice key, Slice value) throws IOException {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        checkState(!closed, "table is finished");
+        if (lastKey != null) {
+            assert (userComparator.compare(key, lastKey) > 0) : "key must be greater than last key";
+        }
+
+        long offset = getFileSize();
+        checkState(offset <= Integer.MAX_VALUE, "Plain table is larger than %s bytes", Integer.MAX_VALUE);
+        if (entryCount % indexInterval == 0) {
+            recordOffsets.add((int) offset);
+        }
+        if (hashIndex) {
+            // versions of a user key are adjacent, only the first one is hashed
+            Slice userKey = key.slice(0, key.length() - SIZE_OF_LONG);
+            if (lastKey == null || lastKey.length() != key.length() || BlockBuilder.calculateSharedBytes(key, lastKey) < userKey.length()) {
+                hashEntries.add(Hash.hash(userKey));
+                hashEntries.add((int) offset);
+            }
+        }
+
+        VariableLengthQuantity.writeVariableLengthInt(key.length(), buffer);
+        VariableLengthQuantity.writeVariableLengthInt(value.length(), buffer);
+        buffer.writeBytes(key);
+        buffer.writeBytes(value);
+
+        lastKey = key;
+        entryCount++;
+        rawKeySize += key.length();
+        rawValueSize += value.length();
+
+        if (buffer.size() >= bufferSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void addRangeTombstone(Slice startKey, Slice endKey) {
+        requireNonNull(startKey, "startKey is null");
+        requireNonNull(endKey, "endKey is null");
+        checkState(!closed, "table is finished");
+        rangeTombstones.add(Maps.immutableEntry(startKey, endKey));
+        trackSequence(new InternalKey(startKey).getSequenceNumber());
+    }
+
+    @Override
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    @Override
+    public long getFileSize() {
+        return position + buffer.size();
+    }
+
+    @Override
+    public boolean isFileSizeAtLeast(long fileSize) {
+        return getFileSize() >= fileSize;
+    }
+
+    @Override
+    public void setCreationTime(long creationTime) {
+        this.creationTime = creationTime;
+    }
+
+    @Override
+    public TableProperties getProperties() {
+        return properties;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        checkState(!closed, "table is finished");
+        flush();
+        closed = true;
+        long dataSize = position;
+
+        BlockHandle indexHandle = writeBlock(buildIndex());
+
+        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, indexInterval, new BytewiseComparator());
+        properties = new TableProperties.Builder()
+                .numEntries(entryCount)
+                .numDeletions(deletionCount)
+                .numRangeDeletions(rangeTombstones.size())
+                .rawKeySize(rawKeySize)
+                .rawValueSize(rawValueSize)
+                .dataSize(dataSize)
+                .indexSize(indexHandle.getFullBlockSize())
+                .compressionType(CompressionType.NONE)
+                .smallestSequence(smallestSequence == Long.MAX_VALUE ? 0 : smallestSequence)
+                .largestSequence(largestSequence)
+                .creationTime(creationTime)
+                .build();
+        BlockBuilder propertiesBlockBuilder = new BlockBuilder(256, indexInterval, new BytewiseComparator());
+        properties.writeTo(propertiesBlockBuilder);
+        BlockHandle propertiesHandle = writeBlock(propertiesBlockBuilder.finish());
+        metaIndexBlockBuilder.add(Slices.copiedBuffer(TableProperties.PROPERTIES_BLOCK, UTF_8), BlockHandle.writeBlockHandle(propertiesHandle));
+        if (!rangeTombstones.isEmpty()) {
+            BlockHandle rangeDeletionHandle = writeBlock(buildRangeDeletionBlock());
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(TableBuilder.RANGE_DELETION_BLOCK, UTF_8), BlockHandle.writeBlockHandle(rangeDeletionHandle));
+        }
+        BlockHandle metaindexHandle = writeBlock(metaIndexBlockBuilder.finish());
+
+        write(Footer.writeFooter(new Footer(metaindexHandle, indexHandle), PLAIN_TABLE_MAGIC_NUMBER));
+    }
+
+    @Override
+    public void abandon() {
+        checkState(!closed, "table is finished");
+        closed = true;
+    }
+
+    /**
+     * 索引区: 记录偏移数组、哈希桶数组, 最后是记录数、偏移数、桶数和偏移间隔
+     */
+    private Slice buildIndex() {
+        int bucketCount = 0;
+        if (hashEntries.size() > 0) {
+            bucketCount = Math.max(1, (int) Math.min(Integer.MAX_VALUE / SIZE_OF_INT, hashEntries.size() / 2 / HASH_RATIO) | 1);
+        }
+        int[] buckets = new int[bucketCount];
+        Arrays.fill(buckets, HASH_NO_ENTRY);
+        for (int i = 0; i < hashEntries.size(); i += 2) {
+            int bucket = Integer.remainderUnsigned(hashEntries.get(i), bucketCount);
+            if (buckets[bucket] == HASH_NO_ENTRY) {
+                buckets[bucket] = hashEntries.get(i + 1);
+            } else {
+                buckets[bucket] = HASH_COLLISION;
+            }
+        }
+
+        DynamicSliceOutput index = new DynamicSliceOutput((recordOffsets.size() + bucketCount + 4) * SIZE_OF_INT);
+        recordOffsets.write(index);
+        for (int bucket : buckets) {
+            index.writeInt(bucket);
+        }
+        index.writeInt((int) entryCount);
+        index.writeInt(recordOffsets.size());
+        index.writeInt(bucketCount);
+        index.writeInt(indexInterval);
+        return index.slice();
+    }
+
+    private Slice buildRangeDeletionBlock() {
+        Collections.sort(rangeTombstones, new Comparator<Map.Entry<Slice, Slice>>() {
+            @Override
+            public int compare(Map.Entry<Slice, Slice> o1, Map.Entry<Slice, Slice> o2) {
+                return userComparator.compare(o1.getKey(), o2.getKey());
+            }
+        });
+        BlockBuilder blockBuilder = new BlockBuilder(256, 1, userComparator);
+        for (Map.Entry<Slice, Slice> tombstone : rangeTombstones) {
+            blockBuilder.add(tombstone.getKey(), tombstone.getValue());
+        }
+        return blockBuilder.finish();
+    }
+
+    /**
+     * 写入一个不压缩的块和块尾
+     */
+    private BlockHandle writeBlock(Slice block) throws IOException {
+        BlockHandle handle = new BlockHandle(position, block.length());
+        write(block);
+        write(BlockTrailer.writeBlockTrailer(new BlockTrailer(CompressionType.NONE, TableBuilder.crc32c(block, CompressionType.NONE))));
+        return handle;
+    }
+
+    private void flush() throws IOException {
+        if (buffer.size() > 0) {
+            write(buffer.slice());
+            buffer.reset();
+        }
+    }
+
+    private void write(Slice data) throws IOException {
+        if (rateLimiter != null) {
+            rateLimiter.request(data.length(), ioPriority);
+        }
+        position += fileChannel.write(data.toByteBuffer());
+    }
+}
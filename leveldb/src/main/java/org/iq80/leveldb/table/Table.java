@@ -3,18 +3,20 @@ package org.iq80.leveldb.table;
 import com.google.common.base.Throwables;
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.Slices;
 import org.iq80.leveldb.util.Closeables;
-import org.iq80.leveldb.util.TableIterator;
-import org.iq80.leveldb.util.VariableLengthQuantity;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
+import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 /**
@@ -25,8 +27,12 @@ public abstract class Table implements SeekingIterable<Slice, Slice> {
     protected final FileChannel fileChannel;
     protected final Comparator<Slice> comparator;
     protected final boolean verifyChecksums;
-    protected final Block indexBlock;
+    // where the footer points to the index, which subclasses read in their own format
+    protected final BlockHandle indexBlockHandle;
     protected final BlockHandle metaindexBlockHandle;
+    private final TableProperties properties;
+    // the opener's reference plus one per open iterator or lookup, the file is closed when it drops to zero
+    private final AtomicInteger references = new AtomicInteger(1);
 
     public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums) throws IOException {
         requireNonNull(name, "name is null");
@@ -41,37 +47,48 @@ public abstract class Table implements SeekingIterable<Slice, Slice> {
         this.comparator = comparator;
 
         Footer footer = init();
-        indexBlock = readBlock(footer.getIndexBlockHandle());
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
+        indexBlockHandle = footer.getIndexBlockHandle();
+
+        Block propertiesBlock = getMetaBlock(TableProperties.PROPERTIES_BLOCK);
+        properties = propertiesBlock == null ? TableProperties.EMPTY : TableProperties.readFrom(propertiesBlock);
     }
 
     protected abstract Footer init() throws IOException;
 
-    @Override
-    public TableIterator iterator() {
-        return new TableIterator(this, indexBlock.iterator());
-    }
+    /**
+     * 点查: 返回文件中第一个不小于key的条目, 由调用方比较它的user key, 确定userKey不在文件中时返回null
+     *
+     * @param key     编码后的InternalKey
+     * @param userKey key中的user key
+     */
+    public abstract Entry<Slice, Slice> seekForGet(Slice key, Slice userKey);
 
-    public Block openBlock(Slice blockEntry) {
-        BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
-        Block dataBlock;
-        try {
-            dataBlock = readBlock(blockHandle);
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
+    /**
+     * 按名称读取meta block, 不存在时返回null
+     */
+    public Block getMetaBlock(String metaBlockName) throws IOException {
+        Slice target = Slices.copiedBuffer(metaBlockName, UTF_8);
+        // the meta index is ordered bytewise, not with the table comparator, so it can not be searched with seek
+        BlockIterator iterator = readBlock(metaindexBlockHandle).iterator();
+        while (iterator.hasNext()) {
+            BlockEntry entry = iterator.next();
+            if (entry.getKey().equals(target)) {
+                return readBlock(BlockHandle.readBlockHandle(entry.getValue().input()));
+            }
         }
-        return dataBlock;
+        return null;
     }
 
-    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+    /**
+     * 文件的属性, 打开文件时读取, 没有属性块的旧文件返回{@link TableProperties#EMPTY}
+     */
+    public TableProperties getProperties() throws IOException {
+        return properties;
+    }
 
     protected abstract Block readBlock(BlockHandle blockHandle) throws IOException;
 
-    protected int uncompressedLength(ByteBuffer data) throws IOException {
-        int length = VariableLengthQuantity.readVariableLengthInt(data.duplicate());
-        return length;
-    }
-
     /**
      * Given a key, return an approximate byte offset in the file where
      * the data for that key begins (or would begin if the key were
@@ -80,19 +97,7 @@ public abstract class Table implements SeekingIterable<Slice, Slice> {
      * For example, the approximate offset of the last key in the table will
      * be close to the file length.
      */
-    public long getApproximateOffsetOf(Slice key) {
-        BlockIterator iterator = indexBlock.iterator();
-        iterator.seek(key);
-        if (iterator.hasNext()) {
-            BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.next().getValue().input());
-            return blockHandle.getOffset();
-        }
-
-        // key is past the last key in the file.  Approximate the offset
-        // by returning the offset of the metaindex block (which is
-        // right near the end of the file).
-        return metaindexBlockHandle.getOffset();
-    }
+    public abstract long getApproximateOffsetOf(Slice key);
 
     @Override
     public String toString() {
@@ -105,6 +110,37 @@ public abstract class Table implements SeekingIterable<Slice, Slice> {
         return sb.toString();
     }
 
+    /**
+     * 增加一个引用, 读取文件或者使用读出的slice期间必须持有引用, 因为slice可能直接指向文件映射:
+     * >>> 1. 新打开的table带有一个引用, 由打开它的一方(例如TableCache淘汰时)释放
+     * >>> 2. 引用数降到0时立即关闭文件, 之后retain返回false, 调用方需要重新打开文件
+     *
+     * @return 文件已经关闭时返回false
+     */
+    public boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        int count = references.decrementAndGet();
+        checkState(count >= 0, "Table %s released more times than retained", name);
+        if (count == 0) {
+            try {
+                closer().call();
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
     public Callable<?> closer() {
         return new Closer(fileChannel);
     }
@@ -1,22 +1,47 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.RateLimiter;
+import org.iq80.leveldb.RateLimiter.IoPriority;
+import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.InternalUserComparator;
+import org.iq80.leveldb.impl.ValueType;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.Slices;
-import org.iq80.leveldb.util.PureJavaCrc32C;
-import org.iq80.leveldb.util.Snappy;
+import org.iq80.leveldb.util.Compressor;
+import org.iq80.leveldb.util.Compressors;
+import org.iq80.leveldb.util.DictionaryCompressor;
+import org.iq80.leveldb.util.DictionaryTrainer;
+import org.iq80.leveldb.util.Crc32C;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Checksum;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.VersionSet.TARGET_FILE_SIZE;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 
-public class TableBuilder {
+public class TableBuilder
+        implements TableFileBuilder {
     /**
      * TABLE_MAGIC_NUMBER was picked by running
      * echo http://code.google.com/p/leveldb/ | sha1sum
@@ -24,17 +49,57 @@ public class TableBuilder {
      */
     public static final long TABLE_MAGIC_NUMBER = 0xdb4775248b80fb57L;
 
+    /**
+     * 范围删除meta block的名称, 块中key为编码后的起始InternalKey, value为结束userKey
+     */
+    public static final String RANGE_DELETION_BLOCK = "leveldb.range_del";
+
+    /**
+     * 压缩字典meta block的名称, 块中只有一个条目, key为单字节的压缩类型persistentId, value为raw content字典
+     */
+    public static final String COMPRESSION_DICTIONARY_BLOCK = "leveldb.compression_dict";
+
+    // data blocks sampled for the dictionary, relative to the dictionary size
+    private static final int DICTIONARY_SAMPLE_FACTOR = 100;
+
+    /**
+     * options.blockAlign()时数据块对齐的页大小
+     */
+    public static final int BLOCK_ALIGNMENT = 4096;
+    // larger gaps are not worth filling, the block is written unaligned instead
+    private static final int MAX_BLOCK_PADDING = BLOCK_ALIGNMENT / 8;
+    private static final ByteBuffer BLOCK_PADDING = ByteBuffer.allocate(MAX_BLOCK_PADDING).asReadOnlyBuffer();
+
     private final int blockRestartInterval;
     private final int blockSize;
+    private final boolean blockAlign;
     private final CompressionType compressionType;
+    private final RateLimiter rateLimiter;
+    private final IoPriority ioPriority;
 
     private final FileChannel fileChannel;
+    private final BlockPipeline pipeline;
+    // The pipeline was created for this builder and is closed with it
+    private final boolean ownsPipeline;
     private final BlockBuilder dataBlockBuilder;
     private final BlockBuilder indexBlockBuilder;
+    // index partitions are cut once the index block reaches this size, 0 keeps a single index block
+    private final int indexPartitionSize;
+    // finished index partitions and the last key of each, written after the data blocks
+    private final List<Map.Entry<Slice, Slice>> indexPartitions = new ArrayList<>();
+    private Slice lastIndexKey;
     private Slice lastKey;
     private final UserComparator userComparator;
 
     private long entryCount;
+    private long deletionCount;
+    private long rawKeySize;
+    private long rawValueSize;
+    // sequence range of the internal keys and range deletions added, smallest is MAX_VALUE while none was added
+    private long smallestSequence = Long.MAX_VALUE;
+    private long largestSequence;
+    private long creationTime;
+    private TableProperties properties;
 
     // Either Finish() or Abandon() has been called.
     private boolean closed;
@@ -51,11 +116,60 @@ public class TableBuilder {
 
     private Slice compressedOutput;
 
+    // Data blocks handed to the pipeline, in file order: blocks still being
+    // compressed, and blocks with a handle that are still being written
+    private final Deque<PendingBlock> compressingBlocks = new ArrayDeque<>();
+    private final Deque<Future<Void>> pendingWrites = new ArrayDeque<>();
+
+    private final List<Map.Entry<Slice, Slice>> rangeTombstones = new ArrayList<>();
+
+    // Data blocks are only buffered until the dictionary is trained from them, 0 disables the dictionary
+    private final int dictionarySize;
+    private boolean bufferingSamples;
+    private long bufferedBytes;
+    private byte[] dictionary;
+    // compresses the data blocks, bound to the dictionary once it is trained
+    private Compressor blockCompressor;
+
     private long position;
 
     public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator) {
+        this(options, fileChannel, userComparator, IoPriority.LOW);
+    }
+
+    /**
+     * @param ioPriority 向options中的rateLimiter申请写入带宽时使用的优先级
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, IoPriority ioPriority) {
+        this(options, fileChannel, userComparator, ioPriority, null);
+    }
+
+    /**
+     * @param pipeline 压缩和写入数据块的流水线, 可以被多个builder共享;
+     *                 为null时若options.compressionThreads()大于0则创建一个只供本builder使用的流水线, 否则在当前线程中压缩和写入
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, IoPriority ioPriority, BlockPipeline pipeline) {
+        this(options, fileChannel, userComparator, ioPriority, pipeline, options.compressionType());
+    }
+
+    /**
+     * @param compressionType 数据块的压缩类型, 覆盖options.compressionType(), 用于按level选择压缩算法
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, IoPriority ioPriority, BlockPipeline pipeline,
+            CompressionType compressionType) {
+        this(options, fileChannel, userComparator, ioPriority, pipeline, compressionType, 0);
+    }
+
+    /**
+     * @param dictionarySize 大于0且压缩类型支持字典时, 先缓存数据块用于训练不超过该大小的字典,
+     *                       训练后用字典压缩所有数据块, 字典写入{@link #COMPRESSION_DICTIONARY_BLOCK}
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, IoPriority ioPriority, BlockPipeline pipeline,
+            CompressionType compressionType, int dictionarySize) {
         requireNonNull(options, "options is null");
         requireNonNull(fileChannel, "fileChannel is null");
+        requireNonNull(ioPriority, "ioPriority is null");
+        requireNonNull(compressionType, "compressionType is null");
         try {
             checkState(position == fileChannel.position(), "Expected position %s to equal fileChannel.position %s", position, fileChannel.position());
         } catch (IOException e) {
@@ -64,33 +178,95 @@ public class TableBuilder {
 
         this.fileChannel = fileChannel;
         this.userComparator = userComparator;
+        if (pipeline == null && options.compressionThreads() > 0) {
+            this.pipeline = new BlockPipeline(options.compressionThreads());
+            this.ownsPipeline = true;
+        } else {
+            this.pipeline = pipeline;
+            this.ownsPipeline = false;
+        }
 
         blockRestartInterval = options.blockRestartInterval();
         blockSize = options.blockSize();
-        compressionType = options.compressionType();
-
-        dataBlockBuilder = new BlockBuilder((int) Math.min(blockSize * 1.1, TARGET_FILE_SIZE), blockRestartInterval, userComparator);
-
-        // with expected 50% compression
-        int expectedNumberOfBlocks = 1024;
-        indexBlockBuilder = new BlockBuilder(BlockHandle.MAX_ENCODED_LENGTH * expectedNumberOfBlocks, 1, userComparator);
+        blockAlign = options.blockAlign();
+        this.compressionType = compressionType;
+        blockCompressor = Compressors.get(compressionType);
+        this.dictionarySize = blockCompressor instanceof DictionaryCompressor ? Math.max(0, dictionarySize) : 0;
+        bufferingSamples = this.dictionarySize > 0;
+        rateLimiter = options.rateLimiter();
+        this.ioPriority = ioPriority;
+
+        double hashRatio = hasBytewiseInternalKeys(userComparator) ? Math.max(0, options.dataBlockHashRatio()) : 0;
+        dataBlockBuilder = new BlockBuilder((int) Math.min(blockSize * 1.1, TARGET_FILE_SIZE), blockRestartInterval, userComparator, hashRatio);
+
+        indexPartitionSize = Math.max(0, options.indexPartitionSize());
+        if (indexPartitionSize > 0) {
+            indexBlockBuilder = new BlockBuilder(indexPartitionSize + 2 * BlockHandle.MAX_ENCODED_LENGTH, 1, userComparator);
+        } else {
+            // with expected 50% compression
+            int expectedNumberOfBlocks = 1024;
+            indexBlockBuilder = new BlockBuilder(BlockHandle.MAX_ENCODED_LENGTH * expectedNumberOfBlocks, 1, userComparator);
+        }
 
         lastKey = Slices.EMPTY_SLICE;
     }
 
+    /**
+     * 数据块的哈希索引按user key的字节查找, 只能用于InternalKey且user key按字节比较的文件
+     */
+    static boolean hasBytewiseInternalKeys(UserComparator userComparator) {
+        return userComparator instanceof InternalUserComparator
+                && ((InternalUserComparator) userComparator).getInternalKeyComparator().getUserComparator() instanceof BytewiseComparator;
+    }
+
+    @Override
     public long getEntryCount() {
         return entryCount;
     }
 
+    @Override
     public long getFileSize() throws IOException {
+        // the size of a block is only known once it is compressed
+        while (!compressingBlocks.isEmpty()) {
+            resolveBlock();
+        }
         return position + dataBlockBuilder.currentSizeEstimate();
     }
 
+    /**
+     * 与getFileSize() >= fileSize结果相同, 但只在可能达到时才等待压缩中的数据块
+     */
+    @Override
+    public boolean isFileSizeAtLeast(long fileSize) throws IOException {
+        // a stored block is never larger than the raw block
+        long upperBound = position + dataBlockBuilder.currentSizeEstimate();
+        for (PendingBlock block : compressingBlocks) {
+            upperBound += block.rawLength + BlockTrailer.ENCODED_LENGTH + (blockAlign ? MAX_BLOCK_PADDING : 0);
+        }
+        return upperBound >= fileSize && getFileSize() >= fileSize;
+    }
+
     public void add(BlockEntry blockEntry) throws IOException {
         requireNonNull(blockEntry, "blockEntry is null");
         add(blockEntry.getKey(), blockEntry.getValue());
     }
 
+    @Override
+    public void add(InternalKey key, Slice value) throws IOException {
+        requireNonNull(key, "key is null");
+        add(key.encode(), value);
+        if (key.getValueType() == ValueType.DELETION) {
+            deletionCount++;
+        }
+        trackSequence(key.getSequenceNumber());
+    }
+
+    private void trackSequence(long sequence) {
+        smallestSequence = Math.min(smallestSequence, sequence);
+        largestSequence = Math.max(largestSequence, sequence);
+    }
+
+    @Override
     public void add(Slice key, Slice value) throws IOException {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
@@ -101,19 +277,32 @@ public class TableBuilder {
             assert (userComparator.compare(key, lastKey) > 0) : "key must be greater than last key";
         }
 
+        // an aligned block is cut before the entry would make it larger than the block size
+        if (blockAlign && !dataBlockBuilder.isEmpty() &&
+                dataBlockBuilder.currentSizeEstimate() + maxEntrySize(key, value) + BlockTrailer.ENCODED_LENGTH > blockSize) {
+            flush();
+        }
+
         // If we just wrote a block, we can now add the handle to index block
         if (pendingIndexEntry) {
             checkState(dataBlockBuilder.isEmpty(), "Internal error: Table has a pending index entry but data block builder is empty");
 
             Slice shortestSeparator = userComparator.findShortestSeparator(lastKey, key);
 
-            Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
-            indexBlockBuilder.add(shortestSeparator, handleEncoding);
+            if (pendingHandle != null) {
+                addIndexEntry(shortestSeparator, pendingHandle);
+                pendingHandle = null;
+            } else {
+                // the block is still being compressed, the entry is added once its handle is known
+                compressingBlocks.peekLast().separator = shortestSeparator;
+            }
             pendingIndexEntry = false;
         }
 
         lastKey = key;
         entryCount++;
+        rawKeySize += key.length();
+        rawValueSize += value.length();
         dataBlockBuilder.add(key, value);
 
         int estimatedBlockSize = dataBlockBuilder.currentSizeEstimate();
@@ -122,6 +311,25 @@ public class TableBuilder {
         }
     }
 
+    /**
+     * 添加一个范围删除标记, 在finish时写入单独的meta block
+     *
+     * @param startKey 编码后的起始InternalKey, 类型为RANGE_DELETION
+     * @param endKey   结束userKey(不包含)
+     */
+    @Override
+    public void addRangeTombstone(Slice startKey, Slice endKey) {
+        requireNonNull(startKey, "startKey is null");
+        requireNonNull(endKey, "endKey is null");
+        checkState(!closed, "table is finished");
+        rangeTombstones.add(Maps.immutableEntry(startKey, endKey));
+        trackSequence(new InternalKey(startKey).getSequenceNumber());
+    }
+
+    public int getRangeTombstoneCount() {
+        return rangeTombstones.size();
+    }
+
     private void flush() throws IOException {
         checkState(!closed, "table is finished");
         if (dataBlockBuilder.isEmpty()) {
@@ -130,26 +338,262 @@ public class TableBuilder {
 
         checkState(!pendingIndexEntry, "Internal error: Table already has a pending index entry to flush");
 
-        pendingHandle = writeBlock(dataBlockBuilder);
+        if (bufferingSamples) {
+            bufferBlock(dataBlockBuilder);
+        } else if (pipeline == null) {
+            CompressedBlock block = compressBlock(dataBlockBuilder.finish(), blockCompressor, true);
+            int padding = blockPadding(block);
+            position += padding;
+            pendingHandle = new BlockHandle(position, block.contents.length());
+            position += block.contents.length() + block.trailer.length();
+            writeCompressedBlock(padding, block);
+            dataBlockBuilder.reset();
+        } else {
+            submitBlock(dataBlockBuilder);
+        }
         pendingIndexEntry = true;
     }
 
+    /**
+     * 训练字典之前只缓存数据块, 它们既是训练样本, 也要在训练后用字典压缩
+     */
+    private void bufferBlock(BlockBuilder blockBuilder) throws IOException {
+        Slice raw = blockBuilder.finish().copySlice();
+        blockBuilder.reset();
+
+        compressingBlocks.addLast(new PendingBlock(raw));
+        bufferedBytes += raw.length();
+        if (bufferedBytes >= (long) dictionarySize * DICTIONARY_SAMPLE_FACTOR) {
+            finishSampling();
+            if (pipeline == null) {
+                // later blocks are written directly behind the buffered ones
+                while (!compressingBlocks.isEmpty()) {
+                    resolveBlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 用缓存的数据块训练字典, 然后压缩它们, 之后的数据块不再缓存
+     */
+    private void finishSampling() {
+        bufferingSamples = false;
+
+        // a dictionary as large as the data can not pay for itself
+        if (bufferedBytes > dictionarySize) {
+            List<Slice> samples = new ArrayList<>(compressingBlocks.size());
+            for (PendingBlock block : compressingBlocks) {
+                samples.add(block.raw);
+            }
+            dictionary = DictionaryTrainer.train(samples, dictionarySize);
+            if (dictionary != null) {
+                blockCompressor = ((DictionaryCompressor) blockCompressor).withDictionary(dictionary);
+            }
+        }
+
+        final Compressor compressor = blockCompressor;
+        for (PendingBlock block : compressingBlocks) {
+            final Slice raw = block.raw;
+            if (pipeline == null) {
+                block.compressed = Futures.immediateFuture(compressBlock(raw, compressor, false));
+            } else {
+                block.compressed = pipeline.compress(new Callable<CompressedBlock>() {
+                    @Override
+                    public CompressedBlock call() {
+                        return compressBlock(raw, compressor, false);
+                    }
+                });
+            }
+            block.raw = null;
+        }
+    }
+
+    /**
+     * 把数据块交给流水线压缩, 压缩完成的数据块按顺序分配BlockHandle并交给写线程
+     */
+    private void submitBlock(BlockBuilder blockBuilder) throws IOException {
+        // the builder is reused for the next block
+        final Slice raw = blockBuilder.finish().copySlice();
+        blockBuilder.reset();
+
+        final Compressor compressor = blockCompressor;
+        Future<CompressedBlock> compressed = pipeline.compress(new Callable<CompressedBlock>() {
+            @Override
+            public CompressedBlock call() {
+                return compressBlock(raw, compressor, false);
+            }
+        });
+        compressingBlocks.addLast(new PendingBlock(raw.length(), compressed));
+
+        // hand over the blocks that are ready and bound the work in flight
+        while (!compressingBlocks.isEmpty() &&
+                (compressingBlocks.peekFirst().compressed.isDone() || compressingBlocks.size() > pipeline.getMaxPendingBlocks())) {
+            resolveBlock();
+        }
+        while (pendingWrites.size() > pipeline.getMaxPendingBlocks()) {
+            waitForWrite(pendingWrites.pollFirst());
+        }
+    }
+
+    /**
+     * 等待最早的数据块压缩完成, 分配BlockHandle, 提交写入并补上它的索引项,
+     * 还在缓存的数据块要先训练字典才能压缩
+     */
+    private void resolveBlock() throws IOException {
+        if (bufferingSamples) {
+            finishSampling();
+        }
+        PendingBlock block = compressingBlocks.pollFirst();
+        final CompressedBlock compressed = getUninterruptibly(block.compressed);
+
+        final int padding = blockPadding(compressed);
+        position += padding;
+        BlockHandle blockHandle = new BlockHandle(position, compressed.contents.length());
+        position += compressed.contents.length() + compressed.trailer.length();
+        if (pipeline == null) {
+            writeCompressedBlock(padding, compressed);
+        } else {
+            pendingWrites.addLast(pipeline.write(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    writeCompressedBlock(padding, compressed);
+                    return null;
+                }
+            }));
+        }
+
+        if (block.separator != null) {
+            addIndexEntry(block.separator, blockHandle);
+        } else {
+            // this is the last block, its separator is not known yet
+            pendingHandle = blockHandle;
+        }
+    }
+
+    private void waitForWrite(Future<Void> write) throws IOException {
+        getUninterruptibly(write);
+    }
+
+    private static <T> T getUninterruptibly(Future<T> future) throws IOException {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * 等待流水线中所有数据块写入文件
+     */
+    private void drainPipeline() throws IOException {
+        while (!compressingBlocks.isEmpty()) {
+            resolveBlock();
+        }
+        while (!pendingWrites.isEmpty()) {
+            waitForWrite(pendingWrites.pollFirst());
+        }
+    }
+
     private BlockHandle writeBlock(BlockBuilder blockBuilder) throws IOException {
+        // only data blocks use the dictionary
+        return writeBlock(blockBuilder, Compressors.get(compressionType));
+    }
+
+    private BlockHandle writeBlock(BlockBuilder blockBuilder, Compressor compressor) throws IOException {
         // close the block
         Slice raw = blockBuilder.finish();
 
+        CompressedBlock block = compressBlock(raw, compressor, true);
+        BlockHandle blockHandle = writeBlock(block);
+
+        // clean up state
+        blockBuilder.reset();
+
+        return blockHandle;
+    }
+
+    private BlockHandle writeBlock(CompressedBlock block) throws IOException {
+        // create a handle to this block
+        BlockHandle blockHandle = new BlockHandle(position, block.contents.length());
+
+        // write data and trailer
+        requestWrite(block.contents.length() + block.trailer.length());
+        position += fileChannel.write(new ByteBuffer[]{block.contents.toByteBuffer(), block.trailer.toByteBuffer()});
+        return blockHandle;
+    }
+
+    private void writeCompressedBlock(int padding, CompressedBlock block) throws IOException {
+        requestWrite(padding + block.contents.length() + block.trailer.length());
+        ByteBuffer[] buffers = {paddingBuffer(padding), block.contents.toByteBuffer(), block.trailer.toByteBuffer()};
+        while (buffers[2].hasRemaining()) {
+            fileChannel.write(buffers);
+        }
+    }
+
+    /**
+     * options.blockAlign()时, 在position处写数据块之前需要填充的字节数:
+     * >>> 1. 只在数据块因此少跨一个页时填充, 已经对齐或者跨页数不变时不填充
+     * >>> 2. 填充超过{@link #MAX_BLOCK_PADDING}时不填充, 压缩后较小的块通常不值得对齐
+     * >>> 3. 填充的字节不属于任何BlockHandle, 读取时不会访问, 不了解对齐的reader也能读取文件
+     */
+    private int blockPadding(CompressedBlock block) {
+        int offset = (int) (position % BLOCK_ALIGNMENT);
+        if (!blockAlign || offset == 0) {
+            return 0;
+        }
+        int padding = BLOCK_ALIGNMENT - offset;
+        int length = block.contents.length() + block.trailer.length();
+        if (padding > MAX_BLOCK_PADDING || pages(offset, length) == pages(0, length)) {
+            return 0;
+        }
+        return padding;
+    }
+
+    private static int pages(int offset, int length) {
+        return (offset + length + BLOCK_ALIGNMENT - 1) / BLOCK_ALIGNMENT;
+    }
+
+    private static ByteBuffer paddingBuffer(int padding) {
+        ByteBuffer buffer = BLOCK_PADDING.duplicate();
+        buffer.limit(padding);
+        return buffer;
+    }
+
+    /**
+     * 添加一个条目后数据块最多增长的字节数: 三个varint、key、value和一个restart point
+     */
+    private static int maxEntrySize(Slice key, Slice value) {
+        return 3 * 5 + key.length() + value.length() + SIZE_OF_INT;
+    }
+
+    /**
+     * 压缩数据块并计算crc, 不修改builder的状态, 可以在压缩线程中执行
+     *
+     * @param compressor  压缩类型对应的实现, 可能绑定了字典, 为null时不压缩
+     * @param reuseOutput 为true时复用builder的压缩缓冲区, 只能在构建线程中使用
+     */
+    private CompressedBlock compressBlock(Slice raw, Compressor compressor, boolean reuseOutput) {
         // attempt to compress the block
         Slice blockContents = raw;
         CompressionType blockCompressionType = CompressionType.NONE;
-        if (compressionType == CompressionType.SNAPPY) {
-            ensureCompressedOutputCapacity(maxCompressedLength(raw.length()));
+        if (compressor != null) {
+            int maxCompressedLength = compressor.maxCompressedLength(raw.length());
+            Slice output;
+            if (reuseOutput) {
+                ensureCompressedOutputCapacity(maxCompressedLength);
+                output = compressedOutput;
+            } else {
+                output = Slices.allocate(maxCompressedLength);
+            }
             try {
-                int compressedSize = Snappy.compress(raw.getRawArray(), raw.getRawOffset(), raw.length(), compressedOutput.getRawArray(), 0);
+                int compressedSize = compressor.compress(raw.getRawArray(), raw.getRawOffset(), raw.length(), output.getRawArray(), output.getRawOffset());
 
                 // Don't use the compressed data if compressed less than 12.5%,
                 if (compressedSize < raw.length() - (raw.length() / 8)) {
-                    blockContents = compressedOutput.slice(0, compressedSize);
-                    blockCompressionType = CompressionType.SNAPPY;
+                    blockContents = output.slice(0, compressedSize);
+                    blockCompressionType = compressionType;
                 }
             } catch (IOException ignored) {
                 // compression failed, so just store uncompressed form
@@ -159,85 +603,194 @@ public class TableBuilder {
         // create block trailer
         BlockTrailer blockTrailer = new BlockTrailer(blockCompressionType, crc32c(blockContents, blockCompressionType));
         Slice trailer = BlockTrailer.writeBlockTrailer(blockTrailer);
-
-        // create a handle to this block
-        BlockHandle blockHandle = new BlockHandle(position, blockContents.length());
-
-        // write data and trailer
-        position += fileChannel.write(new ByteBuffer[]{blockContents.toByteBuffer(), trailer.toByteBuffer()});
-
-        // clean up state
-        blockBuilder.reset();
-
-        return blockHandle;
-    }
-
-    private static int maxCompressedLength(int length) {
-        // Compressed data can be defined as:
-        //    compressed := item* literal*
-        //    item       := literal* copy
-        //
-        // The trailing literal sequence has a space blowup of at most 62/60
-        // since a literal of length 60 needs one tag byte + one extra byte
-        // for length information.
-        //
-        // Item blowup is trickier to measure.  Suppose the "copy" op copies
-        // 4 bytes of data.  Because of a special check in the encoding code,
-        // we produce a 4-byte copy only if the offset is < 65536.  Therefore
-        // the copy op takes 3 bytes to encode, and this type of item leads
-        // to at most the 62/60 blowup for representing literals.
-        //
-        // Suppose the "copy" op copies 5 bytes of data.  If the offset is big
-        // enough, it will take 5 bytes to encode the copy op.  Therefore the
-        // worst case here is a one-byte literal followed by a five-byte copy.
-        // I.e., 6 bytes of input turn into 7 bytes of "compressed" data.
-        //
-        // This last factor dominates the blowup, so the final estimate is:
-        return 32 + length + (length / 6);
+        return new CompressedBlock(blockContents, trailer);
     }
 
+    @Override
     public void finish() throws IOException {
         checkState(!closed, "table is finished");
 
         // flush current data block
         flush();
+        try {
+            drainPipeline();
+        } finally {
+            closeOwnedPipeline();
+        }
 
         // mark table as closed
         closed = true;
-
-        // write (empty) meta index block
-        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
-        // TODO(postrelease): Add stats and other meta blocks
-        BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
+        long dataSize = position;
 
         // add last handle to index block
         if (pendingIndexEntry) {
             Slice shortSuccessor = userComparator.findShortSuccessor(lastKey);
 
-            Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
-            indexBlockBuilder.add(shortSuccessor, handleEncoding);
+            addIndexEntry(shortSuccessor, pendingHandle);
             pendingIndexEntry = false;
         }
 
+        // index partitions follow the data blocks, the top-level index points to them
+        long indexSize = 0;
+        if (!indexPartitions.isEmpty()) {
+            if (!indexBlockBuilder.isEmpty()) {
+                cutIndexPartition();
+            }
+            for (Map.Entry<Slice, Slice> partition : indexPartitions) {
+                CompressedBlock block = compressBlock(partition.getValue(), Compressors.get(compressionType), false);
+                indexSize += block.contents.length() + block.trailer.length();
+                indexBlockBuilder.add(partition.getKey(), BlockHandle.writeBlockHandle(writeBlock(block)));
+            }
+        }
+
+        // the index block is still written last, it is compressed first so the properties can record its size
+        CompressedBlock indexBlock = compressBlock(indexBlockBuilder.finish(), Compressors.get(compressionType), false);
+        indexSize += indexBlock.contents.length() + indexBlock.trailer.length();
+
+        // write meta blocks, the meta index must be added in name order
+        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        if (dictionary != null) {
+            BlockHandle dictionaryHandle = writeCompressionDictionaryBlock();
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(COMPRESSION_DICTIONARY_BLOCK, UTF_8), BlockHandle.writeBlockHandle(dictionaryHandle));
+        }
+        properties = new TableProperties.Builder()
+                .numEntries(entryCount)
+                .numDeletions(deletionCount)
+                .numRangeDeletions(rangeTombstones.size())
+                .rawKeySize(rawKeySize)
+                .rawValueSize(rawValueSize)
+                .dataSize(dataSize)
+                .indexSize(indexSize)
+                .indexPartitions(indexPartitions.size())
+                .compressionType(compressionType)
+                .smallestSequence(smallestSequence == Long.MAX_VALUE ? 0 : smallestSequence)
+                .largestSequence(largestSequence)
+                .creationTime(creationTime)
+                .build();
+        BlockHandle propertiesHandle = writePropertiesBlock();
+        metaIndexBlockBuilder.add(Slices.copiedBuffer(TableProperties.PROPERTIES_BLOCK, UTF_8), BlockHandle.writeBlockHandle(propertiesHandle));
+        if (!rangeTombstones.isEmpty()) {
+            BlockHandle rangeDeletionHandle = writeRangeDeletionBlock();
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(RANGE_DELETION_BLOCK, UTF_8), BlockHandle.writeBlockHandle(rangeDeletionHandle));
+        }
+        BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
+
         // write index block
-        BlockHandle indexBlockHandle = writeBlock(indexBlockBuilder);
+        BlockHandle indexBlockHandle = writeBlock(indexBlock);
 
         // write footer
         Footer footer = new Footer(metaindexBlockHandle, indexBlockHandle);
         Slice footerEncoding = Footer.writeFooter(footer);
+        requestWrite(footerEncoding.length());
         position += fileChannel.write(footerEncoding.toByteBuffer());
     }
 
+    /**
+     * 添加数据块的索引项, 开启分区索引时索引块达到分区大小后切出一个分区
+     */
+    private void addIndexEntry(Slice separator, BlockHandle blockHandle) {
+        indexBlockBuilder.add(separator, BlockHandle.writeBlockHandle(blockHandle));
+        lastIndexKey = separator;
+        if (indexPartitionSize > 0 && indexBlockBuilder.currentSizeEstimate() >= indexPartitionSize) {
+            cutIndexPartition();
+        }
+    }
+
+    /**
+     * 结束当前的索引分区, 分区的最后一个key不小于分区中所有数据块的key, 作为顶层索引的key
+     */
+    private void cutIndexPartition() {
+        indexPartitions.add(Maps.immutableEntry(lastIndexKey, indexBlockBuilder.finish().copySlice()));
+        indexBlockBuilder.reset();
+    }
+
+    /**
+     * 设置写入属性块的文件创建时间(毫秒), 默认为0即未知, 这样相同的输入总是写出相同的文件
+     */
+    @Override
+    public void setCreationTime(long creationTime) {
+        this.creationTime = creationTime;
+    }
+
+    /**
+     * 写入文件的属性, finish之前返回null
+     */
+    @Override
+    public TableProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * 属性块不压缩, 属性名共享leveldb.前缀, 创建时间不同时块的长度也不变
+     */
+    private BlockHandle writePropertiesBlock() throws IOException {
+        BlockBuilder blockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        properties.writeTo(blockBuilder);
+        return writeBlock(blockBuilder, null);
+    }
+
+    private BlockHandle writeCompressionDictionaryBlock() throws IOException {
+        BlockBuilder blockBuilder = new BlockBuilder(dictionary.length + 64, 1, new BytewiseComparator());
+        blockBuilder.add(Slices.wrappedBuffer(new byte[]{(byte) compressionType.persistentId()}), Slices.wrappedBuffer(dictionary));
+        return writeBlock(blockBuilder);
+    }
+
+    private BlockHandle writeRangeDeletionBlock() throws IOException {
+        Collections.sort(rangeTombstones, new Comparator<Map.Entry<Slice, Slice>>() {
+            @Override
+            public int compare(Map.Entry<Slice, Slice> o1, Map.Entry<Slice, Slice> o2) {
+                return userComparator.compare(o1.getKey(), o2.getKey());
+            }
+        });
+        BlockBuilder blockBuilder = new BlockBuilder(256, 1, userComparator);
+        for (Map.Entry<Slice, Slice> tombstone : rangeTombstones) {
+            blockBuilder.add(tombstone.getKey(), tombstone.getValue());
+        }
+        return writeBlock(blockBuilder);
+    }
+
+    private void requestWrite(int bytes) {
+        if (rateLimiter != null) {
+            rateLimiter.request(bytes, ioPriority);
+        }
+    }
+
+    @Override
     public void abandon() {
         checkState(!closed, "table is finished");
         closed = true;
+        bufferingSamples = false;
+        // blocks still compressing are dropped without ever being written
+        for (PendingBlock block : compressingBlocks) {
+            if (block.compressed != null) {
+                block.compressed.cancel(false);
+            }
+        }
+        compressingBlocks.clear();
+        // writes already submitted must finish before the caller deletes the file
+        try {
+            while (!pendingWrites.isEmpty()) {
+                try {
+                    waitForWrite(pendingWrites.pollFirst());
+                } catch (IOException | RuntimeException ignored) {
+                }
+            }
+        } finally {
+            closeOwnedPipeline();
+        }
+    }
+
+    private void closeOwnedPipeline() {
+        if (ownsPipeline) {
+            pipeline.close();
+        }
     }
 
     public static int crc32c(Slice data, CompressionType type) {
-        PureJavaCrc32C crc32c = new PureJavaCrc32C();
+        Checksum crc32c = Crc32C.checksum();
         crc32c.update(data.getRawArray(), data.getRawOffset(), data.length());
         crc32c.update(type.persistentId() & 0xFF);
-        return crc32c.getMaskedValue();
+        return Crc32C.getMaskedValue(crc32c);
     }
 
     public void ensureCompressedOutputCapacity(int capacity) {
@@ -246,4 +799,34 @@ public class TableBuilder {
         }
         compressedOutput = Slices.allocate(capacity);
     }
+
+    private static final class CompressedBlock {
+        private final Slice contents;
+        private final Slice trailer;
+
+        private CompressedBlock(Slice contents, Slice trailer) {
+            this.contents = contents;
+            this.trailer = trailer;
+        }
+    }
+
+    private static final class PendingBlock {
+        private final int rawLength;
+        // null while the block is buffered for the dictionary
+        private Future<CompressedBlock> compressed;
+        // the uncompressed block, only kept while it is buffered
+        private Slice raw;
+        // index key of the block, set once the first key of the next block is added
+        private Slice separator;
+
+        private PendingBlock(int rawLength, Future<CompressedBlock> compressed) {
+            this.rawLength = rawLength;
+            this.compressed = compressed;
+        }
+
+        private PendingBlock(Slice raw) {
+            this.rawLength = raw.length();
+            this.raw = raw;
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.slice.Slice;
+
+import java.io.IOException;
+
+/**
+ * 写sst文件的接口, flush和compaction通过它写出{@link TableFormats}选择的文件格式:
+ * >>> 1. key必须按比较器递增添加, 范围删除标记可以在finish之前任意时刻添加
+ * >>> 2. finish或abandon之后不能再添加数据, abandon之后文件内容无效, 由调用方删除
+ *
+ * @author yf
+ */
+public interface TableFileBuilder {
+    void add(Slice key, Slice value) throws IOException;
+
+    /**
+     * 添加一个InternalKey编码的条目, 删除标记会计入属性块中的删除数
+     */
+    void add(InternalKey key, Slice value) throws IOException;
+
+    /**
+     * @param startKey 编码后的起始InternalKey, 类型为RANGE_DELETION
+     * @param endKey   结束userKey(不包含)
+     */
+    void addRangeTombstone(Slice startKey, Slice endKey);
+
+    long getEntryCount();
+
+    /**
+     * 已经添加的数据写完后的文件大小, 不含finish时写入的索引和meta block
+     */
+    long getFileSize() throws IOException;
+
+    boolean isFileSizeAtLeast(long fileSize) throws IOException;
+
+    /**
+     * 设置写入属性块的文件创建时间(毫秒), 默认为0即未知
+     */
+    void setCreationTime(long creationTime);
+
+    void finish() throws IOException;
+
+    void abandon();
+
+    /**
+     * 写入文件的属性, finish之前返回null
+     */
+    TableProperties getProperties();
+}
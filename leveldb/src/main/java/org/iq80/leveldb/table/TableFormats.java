@@ -0,0 +1,61 @@
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.RateLimiter.IoPriority;
+import org.iq80.leveldb.TableFormat;
+import org.iq80.leveldb.slice.Slice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 按{@link TableFormat}创建sst文件的读写实现:
+ * >>> 1. 写文件时使用options.tableFormat(), 修改该选项只影响之后flush和compaction写出的文件
+ * >>> 2. 读文件时根据footer中的magic number选择格式, 因此同一个数据库中可以同时存在两种格式的文件
+ *
+ * @author yf
+ */
+public final class TableFormats {
+    private TableFormats() {
+    }
+
+    /**
+     * @param pipeline        block-based格式的压缩线程池, 可以为null
+     * @param compressionType block-based格式数据块的压缩类型, plain格式不压缩
+     * @param dictionarySize  block-based格式的压缩字典大小
+     */
+    public static TableFileBuilder newBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, IoPriority ioPriority,
+            BlockPipeline pipeline, CompressionType compressionType, int dictionarySize) {
+        if (options.tableFormat() == TableFormat.PLAIN) {
+            return new PlainTableBuilder(options, fileChannel, userComparator, ioPriority);
+        }
+        return new TableBuilder(options, fileChannel, userComparator, ioPriority, pipeline, compressionType, dictionarySize);
+    }
+
+    /**
+     * @param useMmap block-based格式是否用mmap读取, plain格式总是用mmap读取
+     */
+    public static Table openTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, boolean useMmap)
+            throws IOException {
+        long size = fileChannel.size();
+        checkArgument(size >= Footer.ENCODED_LENGTH, "File is corrupt: size must be at least %s bytes", Footer.ENCODED_LENGTH);
+        ByteBuffer footer = ByteBuffer.allocate(Footer.ENCODED_LENGTH);
+        while (footer.hasRemaining()) {
+            if (fileChannel.read(footer, size - Footer.ENCODED_LENGTH + footer.position()) < 0) {
+                throw new IOException("Could not read all the data");
+            }
+        }
+        if (Footer.readMagicNumber(new Slice(footer.array())) == PlainTableBuilder.PLAIN_TABLE_MAGIC_NUMBER) {
+            return new PlainTable(name, fileChannel, comparator, verifyChecksums);
+        }
+        if (useMmap) {
+            return new MMapTable(name, fileChannel, comparator, verifyChecksums);
+        }
+        return new FileChannelTable(name, fileChannel, comparator, verifyChecksums);
+    }
+}
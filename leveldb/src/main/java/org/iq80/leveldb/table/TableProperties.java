@@ -0,0 +1,364 @@
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.SliceOutput;
+import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * SST文件的统计信息, 写在名为leveldb.properties的meta block中:
+ * >>> 1. 块中key为属性名, value为varint64编码的属性值, 按属性名字节序排列
+ * >>> 2. 读取时忽略不认识的属性, 缺少的属性按0处理, 旧文件没有该块时各项都为0
+ * >>> 3. 多个文件的属性可以用{@link #add(TableProperties)}汇总, 例如一个Version中的所有文件
+ *
+ * @author yf
+ */
+public class TableProperties {
+    public static final String PROPERTIES_BLOCK = "leveldb.properties";
+
+    static final String NUM_ENTRIES = "leveldb.num.entries";
+    static final String NUM_DELETIONS = "leveldb.num.deletions";
+    static final String NUM_RANGE_DELETIONS = "leveldb.num.range-deletions";
+    static final String RAW_KEY_SIZE = "leveldb.raw.key.size";
+    static final String RAW_VALUE_SIZE = "leveldb.raw.value.size";
+    static final String DATA_SIZE = "leveldb.data.size";
+    static final String INDEX_SIZE = "leveldb.index.size";
+    static final String INDEX_PARTITIONS = "leveldb.index.partitions";
+    static final String FILTER_SIZE = "leveldb.filter.size";
+    // the persistent id plus one, so that a missing property reads as unknown
+    static final String COMPRESSION = "leveldb.compression";
+    static final String SMALLEST_SEQUENCE = "leveldb.smallest.sequence";
+    static final String LARGEST_SEQUENCE = "leveldb.largest.sequence";
+    static final String CREATION_TIME = "leveldb.creation.time";
+
+    public static final TableProperties EMPTY = new TableProperties(0, 0, 0);
+
+    /**
+     * 数据块中的条目数, 包含删除标记
+     */
+    private final long numEntries;
+
+    /**
+     * 数据块中的删除标记数
+     */
+    private final long numDeletions;
+
+    /**
+     * 范围删除标记数
+     */
+    private final long numRangeDeletions;
+
+    /**
+     * 数据块中key和value压缩前的总字节数
+     */
+    private final long rawKeySize;
+    private final long rawValueSize;
+
+    /**
+     * 数据块、索引块和filter块在文件中占用的字节数, 包含块尾
+     */
+    private final long dataSize;
+    private final long indexSize;
+    private final long filterSize;
+
+    /**
+     * 分区索引的分区数, 0表示索引只有一个块
+     */
+    private final long indexPartitions;
+
+    /**
+     * 数据块配置的压缩类型, 单个块压缩效果不好时仍以NONE存储; 未知或者汇总了不同类型时为null
+     */
+    private final CompressionType compressionType;
+
+    /**
+     * 文件中最小和最大的sequence, 包含范围删除标记
+     */
+    private final long smallestSequence;
+    private final long largestSequence;
+
+    /**
+     * 文件写完的时间, 毫秒
+     */
+    private final long creationTime;
+
+    public TableProperties(long numEntries, long numDeletions, long numRangeDeletions) {
+        this(new Builder().numEntries(numEntries).numDeletions(numDeletions).numRangeDeletions(numRangeDeletions));
+    }
+
+    private TableProperties(Builder builder) {
+        this.numEntries = builder.numEntries;
+        this.numDeletions = builder.numDeletions;
+        this.numRangeDeletions = builder.numRangeDeletions;
+        this.rawKeySize = builder.rawKeySize;
+        this.rawValueSize = builder.rawValueSize;
+        this.dataSize = builder.dataSize;
+        this.indexSize = builder.indexSize;
+        this.filterSize = builder.filterSize;
+        this.indexPartitions = builder.indexPartitions;
+        this.compressionType = builder.compressionType;
+        this.smallestSequence = builder.smallestSequence;
+        this.largestSequence = builder.largestSequence;
+        this.creationTime = builder.creationTime;
+    }
+
+    public long getNumEntries() {
+        return numEntries;
+    }
+
+    public long getNumDeletions() {
+        return numDeletions;
+    }
+
+    public long getNumRangeDeletions() {
+        return numRangeDeletions;
+    }
+
+    public long getRawKeySize() {
+        return rawKeySize;
+    }
+
+    public long getRawValueSize() {
+        return rawValueSize;
+    }
+
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    public long getIndexSize() {
+        return indexSize;
+    }
+
+    public long getFilterSize() {
+        return filterSize;
+    }
+
+    public long getIndexPartitions() {
+        return indexPartitions;
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    public long getSmallestSequence() {
+        return smallestSequence;
+    }
+
+    public long getLargestSequence() {
+        return largestSequence;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * 删除标记(含范围删除)占全部条目的比例
+     */
+    public double getTombstoneDensity() {
+        long total = numEntries + numRangeDeletions;
+        return total == 0 ? 0 : 1.0 * (numDeletions + numRangeDeletions) / total;
+    }
+
+    /**
+     * 汇总两个文件的属性: 计数和大小相加, sequence取并集, 创建时间取较早的, 压缩类型不同时为null
+     */
+    public TableProperties add(TableProperties other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        return new Builder()
+                .numEntries(numEntries + other.numEntries)
+                .numDeletions(numDeletions + other.numDeletions)
+                .numRangeDeletions(numRangeDeletions + other.numRangeDeletions)
+                .rawKeySize(rawKeySize + other.rawKeySize)
+                .rawValueSize(rawValueSize + other.rawValueSize)
+                .dataSize(dataSize + other.dataSize)
+                .indexSize(indexSize + other.indexSize)
+                .filterSize(filterSize + other.filterSize)
+                .indexPartitions(indexPartitions + other.indexPartitions)
+                .compressionType(compressionType == other.compressionType ? compressionType : null)
+                .smallestSequence(Math.min(smallestSequence, other.smallestSequence))
+                .largestSequence(Math.max(largestSequence, other.largestSequence))
+                .creationTime(Math.min(creationTime, other.creationTime))
+                .build();
+    }
+
+    private boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    void writeTo(BlockBuilder blockBuilder) {
+        Map<String, Long> properties = new TreeMap<>();
+        properties.put(NUM_ENTRIES, numEntries);
+        properties.put(NUM_DELETIONS, numDeletions);
+        properties.put(NUM_RANGE_DELETIONS, numRangeDeletions);
+        properties.put(RAW_KEY_SIZE, rawKeySize);
+        properties.put(RAW_VALUE_SIZE, rawValueSize);
+        properties.put(DATA_SIZE, dataSize);
+        properties.put(INDEX_SIZE, indexSize);
+        properties.put(FILTER_SIZE, filterSize);
+        if (indexPartitions > 0) {
+            properties.put(INDEX_PARTITIONS, indexPartitions);
+        }
+        if (compressionType != null) {
+            properties.put(COMPRESSION, compressionType.persistentId() + 1L);
+        }
+        properties.put(SMALLEST_SEQUENCE, smallestSequence);
+        properties.put(LARGEST_SEQUENCE, largestSequence);
+        properties.put(CREATION_TIME, creationTime);
+        for (Map.Entry<String, Long> property : properties.entrySet()) {
+            Slice value = Slices.allocate(VariableLengthQuantity.variableLengthSize(property.getValue()));
+            SliceOutput output = value.output();
+            VariableLengthQuantity.writeVariableLengthLong(property.getValue(), output);
+            blockBuilder.add(Slices.copiedBuffer(property.getKey(), UTF_8), value);
+        }
+    }
+
+    static TableProperties readFrom(Block block) {
+        Map<String, Long> properties = new TreeMap<>();
+        BlockIterator iterator = block.iterator();
+        while (iterator.hasNext()) {
+            BlockEntry entry = iterator.next();
+            properties.put(entry.getKey().toString(UTF_8), VariableLengthQuantity.readVariableLengthLong(entry.getValue().input()));
+        }
+        long compression = get(properties, COMPRESSION);
+        return new Builder()
+                .numEntries(get(properties, NUM_ENTRIES))
+                .numDeletions(get(properties, NUM_DELETIONS))
+                .numRangeDeletions(get(properties, NUM_RANGE_DELETIONS))
+                .rawKeySize(get(properties, RAW_KEY_SIZE))
+                .rawValueSize(get(properties, RAW_VALUE_SIZE))
+                .dataSize(get(properties, DATA_SIZE))
+                .indexSize(get(properties, INDEX_SIZE))
+                .filterSize(get(properties, FILTER_SIZE))
+                .indexPartitions(get(properties, INDEX_PARTITIONS))
+                .compressionType(compression == 0 ? null : CompressionType.getCompressionTypeByPersistentId((int) compression - 1))
+                .smallestSequence(get(properties, SMALLEST_SEQUENCE))
+                .largestSequence(get(properties, LARGEST_SEQUENCE))
+                .creationTime(get(properties, CREATION_TIME))
+                .build();
+    }
+
+    private static long get(Map<String, Long> properties, String name) {
+        Long value = properties.get(name);
+        return value == null ? 0 : value;
+    }
+
+    @Override
+    public String toString() {
+        return "TableProperties{numEntries=" + numEntries +
+                ", numDeletions=" + numDeletions +
+                ", numRangeDeletions=" + numRangeDeletions +
+                ", rawKeySize=" + rawKeySize +
+                ", rawValueSize=" + rawValueSize +
+                ", dataSize=" + dataSize +
+                ", indexSize=" + indexSize +
+                ", filterSize=" + filterSize +
+                ", indexPartitions=" + indexPartitions +
+                ", compressionType=" + compressionType +
+                ", smallestSequence=" + smallestSequence +
+                ", largestSequence=" + largestSequence +
+                ", creationTime=" + creationTime +
+                '}';
+    }
+
+    /**
+     * 属性较多, 未设置的属性为0, 压缩类型为null
+     */
+    public static class Builder {
+        private long numEntries;
+        private long numDeletions;
+        private long numRangeDeletions;
+        private long rawKeySize;
+        private long rawValueSize;
+        private long dataSize;
+        private long indexSize;
+        private long filterSize;
+        private long indexPartitions;
+        private CompressionType compressionType;
+        private long smallestSequence;
+        private long largestSequence;
+        private long creationTime;
+
+        public Builder numEntries(long numEntries) {
+            this.numEntries = numEntries;
+            return this;
+        }
+
+        public Builder numDeletions(long numDeletions) {
+            this.numDeletions = numDeletions;
+            return this;
+        }
+
+        public Builder numRangeDeletions(long numRangeDeletions) {
+            this.numRangeDeletions = numRangeDeletions;
+            return this;
+        }
+
+        public Builder rawKeySize(long rawKeySize) {
+            this.rawKeySize = rawKeySize;
+            return this;
+        }
+
+        public Builder rawValueSize(long rawValueSize) {
+            this.rawValueSize = rawValueSize;
+            return this;
+        }
+
+        public Builder dataSize(long dataSize) {
+            this.dataSize = dataSize;
+            return this;
+        }
+
+        public Builder indexSize(long indexSize) {
+            this.indexSize = indexSize;
+            return this;
+        }
+
+        public Builder filterSize(long filterSize) {
+            this.filterSize = filterSize;
+            return this;
+        }
+
+        public Builder indexPartitions(long indexPartitions) {
+            this.indexPartitions = indexPartitions;
+            return this;
+        }
+
+        public Builder compressionType(CompressionType compressionType) {
+            this.compressionType = compressionType;
+            return this;
+        }
+
+        public Builder smallestSequence(long smallestSequence) {
+            this.smallestSequence = smallestSequence;
+            return this;
+        }
+
+        public Builder largestSequence(long largestSequence) {
+            this.largestSequence = largestSequence;
+            return this;
+        }
+
+        public Builder creationTime(long creationTime) {
+            this.creationTime = creationTime;
+            return this;
+        }
+
+        public TableProperties build() {
+            return new TableProperties(this);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.iq80.leveldb.util;
+
+import java.io.IOException;
+
+/**
+ * 数据块压缩算法的SPI, 同一种CompressionType的所有实现必须读写相同的格式:
+ * >>> 1. SNAPPY: snappy原始格式, 开头是varint编码的原始长度
+ * >>> 2. LZ4: varint编码的原始长度, 后面是LZ4 block格式的数据
+ * >>> 3. ZSTD: 一个带Frame_Content_Size的标准zstd frame
+ * <p>
+ * 实现必须是线程安全的, 压缩线程池会并发调用同一个实例
+ *
+ * @author yf
+ */
+public interface Compressor {
+    /**
+     * 压缩length字节所需的最大输出长度
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * @return 写入output的字节数, output从outputOffset开始至少要有maxCompressedLength(length)字节
+     */
+    int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+            throws IOException;
+
+    /**
+     * 从压缩数据中读出原始长度
+     */
+    int uncompressedLength(byte[] input, int inputOffset, int length)
+            throws IOException;
+
+    /**
+     * @return 写入output的字节数, output从outputOffset开始至少要有uncompressedLength字节
+     */
+    int uncompress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+            throws IOException;
+}
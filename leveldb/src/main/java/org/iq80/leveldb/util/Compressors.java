@@ -0,0 +1,138 @@
+package org.iq80.leveldb.util;
+
+import org.iq80.leveldb.CompressionType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 按CompressionType查找Compressor实现:
+ * >>> 1. SNAPPY沿用{@link Snappy}选出的实现
+ * >>> 2. LZ4和ZSTD按系统属性leveldb.lz4、leveldb.zstd中逗号分隔的类名依次加载, 第一个能加载的生效
+ * >>> 3. 属性值java代表自带的纯Java实现, 也是默认值, 例如:
+ * <p/>
+ * <code>
+ * -Dleveldb.zstd=com.example.NativeZstdCompressor,java
+ * </code>
+ *
+ * @author yf
+ */
+public final class Compressors {
+    private static final Compressor SNAPPY = Snappy.available() ? new SnappyCompressor() : null;
+    private static final Compressor LZ4 = load("leveldb.lz4", "org.iq80.leveldb.util.PureJavaLz4");
+    private static final Compressor ZSTD = load("leveldb.zstd", "org.iq80.leveldb.util.zstd.PureJavaZstd");
+
+    private Compressors() {
+    }
+
+    /**
+     * @return 指定压缩类型的实现, NONE或者实现不可用时返回null
+     */
+    public static Compressor get(CompressionType compressionType) {
+        switch (compressionType) {
+            case SNAPPY:
+                return SNAPPY;
+            case LZ4:
+                return LZ4;
+            case ZSTD:
+                return ZSTD;
+            default:
+                return null;
+        }
+    }
+
+    public static boolean available(CompressionType compressionType) {
+        return compressionType == CompressionType.NONE || get(compressionType) != null;
+    }
+
+    /**
+     * @return 使用字典的实现, 实现不可用或者不支持字典时返回null
+     */
+    public static Compressor withDictionary(CompressionType compressionType, byte[] dictionary) {
+        Compressor compressor = get(compressionType);
+        if (compressor instanceof DictionaryCompressor) {
+            return ((DictionaryCompressor) compressor).withDictionary(dictionary);
+        }
+        return null;
+    }
+
+    /**
+     * 解压整个buffer, 不修改buffer的position
+     */
+    public static byte[] uncompress(CompressionType compressionType, ByteBuffer compressed)
+            throws IOException {
+        return uncompress(compressionType, get(compressionType), compressed);
+    }
+
+    /**
+     * 用指定的实现解压整个buffer, 例如绑定了字典的实现, 不修改buffer的position
+     */
+    public static byte[] uncompress(CompressionType compressionType, Compressor compressor, ByteBuffer compressed)
+            throws IOException {
+        if (compressor == null) {
+            throw new IOException("Data is compressed with " + compressionType + " but no implementation is available");
+        }
+
+        byte[] input;
+        int inputOffset;
+        if (compressed.hasArray()) {
+            input = compressed.array();
+            inputOffset = compressed.arrayOffset() + compressed.position();
+        } else {
+            input = new byte[compressed.remaining()];
+            inputOffset = 0;
+            compressed.duplicate().get(input);
+        }
+        int length = compressed.remaining();
+
+        byte[] uncompressed = new byte[compressor.uncompressedLength(input, inputOffset, length)];
+        int uncompressedLength = compressor.uncompress(input, inputOffset, length, uncompressed, 0);
+        if (uncompressedLength != uncompressed.length) {
+            throw new IOException("Corrupt " + compressionType + " data: expected " + uncompressed.length + " bytes but got " + uncompressedLength);
+        }
+        return uncompressed;
+    }
+
+    private static Compressor load(String property, String defaultClassName) {
+        String[] names = System.getProperty(property, "java").split(",");
+        for (String name : names) {
+            name = name.trim();
+            if ("java".equals(name.toLowerCase())) {
+                name = defaultClassName;
+            }
+            try {
+                return (Compressor) Thread.currentThread().getContextClassLoader().loadClass(name).newInstance();
+            } catch (Throwable ignored) {
+            }
+        }
+        return null;
+    }
+
+    private static class SnappyCompressor
+            implements Compressor {
+        @Override
+        public int maxCompressedLength(int length) {
+            return Snappy.maxCompressedLength(length);
+        }
+
+        @Override
+        public int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+                throws IOException {
+            return Snappy.compress(input, inputOffset, length, output, outputOffset);
+        }
+
+        @Override
+        public int uncompressedLength(byte[] input, int inputOffset, int length)
+                throws IOException {
+            return VariableLengthQuantity.readVariableLengthInt(ByteBuffer.wrap(input, inputOffset, length));
+        }
+
+        @Override
+        public int uncompress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+                throws IOException {
+            int uncompressedLength = uncompressedLength(input, inputOffset, length);
+            Snappy.uncompress(input, inputOffset, length, output, outputOffset);
+            return uncompressedLength;
+        }
+    }
+}
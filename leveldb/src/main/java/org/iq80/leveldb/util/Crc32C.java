@@ -0,0 +1,56 @@
+package org.iq80.leveldb.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * 计算CRC32C校验和, 块尾和日志记录的校验和都通过它计算:
+ * >>> 1. 具体实现由{@link Crc32CProvider}提供, 该类在jar的META-INF/versions/9下有一个版本, JDK 9以上使用带硬件加速的java.util.zip.CRC32C
+ * >>> 2. JDK 8或者不支持多版本jar时使用{@link PureJavaCrc32C}, 两者结果相同, 文件格式不变
+ * >>> 3. 每个线程复用一个实例, {@link #checksum()}返回的实例只能在当前调用中使用, 不能跨调用保存
+ *
+ * @author yf
+ */
+public final class Crc32C {
+    private static final ThreadLocal<Checksum> CHECKSUM = new ThreadLocal<Checksum>() {
+        @Override
+        protected Checksum initialValue() {
+            return Crc32CProvider.newChecksum();
+        }
+    };
+
+    private Crc32C() {
+    }
+
+    /**
+     * 新建一个实例, 需要长期持有时使用
+     */
+    public static Checksum newChecksum() {
+        return Crc32CProvider.newChecksum();
+    }
+
+    /**
+     * @return 当前线程复用的实例, 已经reset
+     */
+    public static Checksum checksum() {
+        Checksum checksum = CHECKSUM.get();
+        checksum.reset();
+        return checksum;
+    }
+
+    /**
+     * 当前使用的实现, 用于日志和benchmark
+     */
+    public static String implementation() {
+        return CHECKSUM.get().getClass().getName();
+    }
+
+    public static int getMaskedValue(Checksum checksum) {
+        return PureJavaCrc32C.mask((int) checksum.getValue());
+    }
+
+    public static int maskedValue(byte[] data, int offset, int length) {
+        Checksum checksum = checksum();
+        checksum.update(data, offset, length);
+        return getMaskedValue(checksum);
+    }
+}
@@ -0,0 +1,17 @@
+package org.iq80.leveldb.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * JDK 8的CRC32C实现, JDK 9以上由src/main/java9下的同名类替换
+ *
+ * @author yf
+ */
+final class Crc32CProvider {
+    private Crc32CProvider() {
+    }
+
+    static Checksum newChecksum() {
+        return new PureJavaCrc32C();
+    }
+}
@@ -55,6 +55,16 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
         resetPriorityQueue();
     }
 
+    @Override
+    public void close() {
+        for (InternalTableIterator level0File : level0Files) {
+            level0File.close();
+        }
+        for (LevelIterator level : levels) {
+            level.close();
+        }
+    }
+
     @Override
     protected void seekToFirstInternal() {
         if (memTableIterator != null) {
@@ -0,0 +1,17 @@
+package org.iq80.leveldb.util;
+
+/**
+ * 支持预置字典的Compressor, 字典是压缩前后双方都已知的一段历史数据:
+ * >>> 1. 小数据块内部重复很少, 但块与块之间结构相似, 字典提供了块开头缺少的历史
+ * >>> 2. 压缩和解压必须使用同一个字典, 字典本身需要和压缩数据一起保存
+ * >>> 3. 不引用字典的压缩数据用字典解压结果不变
+ *
+ * @author yf
+ */
+public interface DictionaryCompressor
+        extends Compressor {
+    /**
+     * 返回使用指定字典压缩和解压的Compressor, 字典只预处理一次, 返回的实例是线程安全的
+     */
+    Compressor withDictionary(byte[] dictionary);
+}
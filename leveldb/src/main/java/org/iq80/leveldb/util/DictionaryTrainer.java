@@ -0,0 +1,197 @@
+package org.iq80.leveldb.util;
+
+import org.iq80.leveldb.slice.Slice;
+
+import java.util.List;
+
+/**
+ * 从样本中训练raw content压缩字典, 是zstd COVER算法的简化版:
+ * >>> 1. 统计每个8字节片段(dmer)出现在多少个样本中, 出现在越多样本中的片段越值得放进字典
+ * >>> 2. 把样本分成若干段(epoch), 每段中找出dmer得分之和最高的定长区间, 区间内重复的dmer只计一次
+ * >>> 3. 选中区间的dmer得分清零, 避免之后重复选择相同内容, 依次轮询各段直到字典填满
+ * >>> 4. 先选中的区间放在字典末尾, 离压缩数据最近, 匹配的偏移最小
+ *
+ * @author yf
+ */
+public final class DictionaryTrainer {
+    private static final int DMER_SIZE = 8;
+    private static final int SEGMENT_SIZE = 128;
+    private static final int HASH_LOG = 20;
+
+    private final byte[] samples;
+    private final int length;
+    // dmer hash at each position, -1 for dmers that cross a sample boundary
+    private final int[] dmers;
+    private final int[] frequencies = new int[1 << HASH_LOG];
+    private final int[] activeCounts = new int[1 << HASH_LOG];
+
+    private DictionaryTrainer(List<Slice> samples) {
+        int total = 0;
+        for (Slice sample : samples) {
+            total += sample.length();
+        }
+        this.samples = new byte[total];
+        this.length = total;
+        this.dmers = new int[Math.max(0, total - DMER_SIZE + 1)];
+
+        int[] lastSample = new int[1 << HASH_LOG];
+        int offset = 0;
+        int sampleNumber = 0;
+        for (Slice sample : samples) {
+            sampleNumber++;
+            sample.getBytes(0, this.samples, offset, sample.length());
+            int sampleEnd = offset + sample.length();
+            for (int position = offset; position < sampleEnd && position < dmers.length; position++) {
+                if (position + DMER_SIZE > sampleEnd) {
+                    dmers[position] = -1;
+                    continue;
+                }
+                int hash = hash(this.samples, position);
+                dmers[position] = hash;
+                // count samples, not occurrences: content repeated within one block compresses well on its own
+                if (lastSample[hash] != sampleNumber) {
+                    lastSample[hash] = sampleNumber;
+                    frequencies[hash]++;
+                }
+            }
+            offset = sampleEnd;
+        }
+    }
+
+    /**
+     * @return 不超过dictionarySize字节的字典, 样本中找不到重复内容时返回null
+     */
+    public static byte[] train(List<Slice> samples, int dictionarySize) {
+        if (dictionarySize <= 0) {
+            return null;
+        }
+        return new DictionaryTrainer(samples).train(dictionarySize);
+    }
+
+    private byte[] train(int dictionarySize) {
+        byte[] dictionary = new byte[dictionarySize];
+        int tail = dictionarySize;
+
+        int epochs = Math.max(1, dictionarySize / SEGMENT_SIZE);
+        int epochSize = dmers.length / epochs;
+        if (epochSize < SEGMENT_SIZE) {
+            epochs = Math.max(1, dmers.length / SEGMENT_SIZE);
+            epochSize = dmers.length / epochs;
+        }
+
+        // stop after a full round over the epochs that found nothing worth adding
+        int fruitlessEpochs = 0;
+        for (int epoch = 0; tail > 0 && fruitlessEpochs < epochs; epoch = (epoch + 1) % epochs) {
+            int epochStart = epoch * epochSize;
+            int epochEnd = epoch == epochs - 1 ? dmers.length : epochStart + epochSize;
+            long segment = bestSegment(epochStart, epochEnd);
+            int segmentStart = (int) (segment >>> 32);
+            int segmentEnd = (int) segment;
+            if (segmentEnd <= segmentStart) {
+                fruitlessEpochs++;
+                continue;
+            }
+            fruitlessEpochs = 0;
+
+            int segmentLength = Math.min(segmentEnd - segmentStart, tail);
+            tail -= segmentLength;
+            System.arraycopy(samples, segmentStart, dictionary, tail, segmentLength);
+        }
+
+        if (tail == dictionarySize) {
+            return null;
+        }
+        byte[] result = new byte[dictionarySize - tail];
+        System.arraycopy(dictionary, tail, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * 在[epochStart, epochEnd)中找出得分最高的区间并清零其中dmer的得分
+     *
+     * @return 高32位是区间起点, 低32位是区间终点(不包含), 没有可选区间时终点不大于起点
+     */
+    private long bestSegment(int epochStart, int epochEnd) {
+        int window = SEGMENT_SIZE - DMER_SIZE + 1;
+        long score = 0;
+        long bestScore = 0;
+        int bestStart = epochStart;
+        int bestEnd = epochStart;
+        for (int position = epochStart; position < epochEnd; position++) {
+            score += add(position);
+            if (position - window >= epochStart) {
+                score -= remove(position - window);
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestStart = Math.max(epochStart, position - window + 1);
+                bestEnd = position + 1;
+            }
+        }
+        for (int position = Math.max(epochStart, epochEnd - window); position < epochEnd; position++) {
+            remove(position);
+        }
+        if (bestScore == 0) {
+            return 0;
+        }
+
+        // trim dmers that no other sample shares from both ends
+        while (bestStart < bestEnd && (dmers[bestStart] < 0 || frequencies[dmers[bestStart]] <= 1)) {
+            bestStart++;
+        }
+        while (bestEnd > bestStart && (dmers[bestEnd - 1] < 0 || frequencies[dmers[bestEnd - 1]] <= 1)) {
+            bestEnd--;
+        }
+        for (int position = bestStart; position < bestEnd; position++) {
+            if (dmers[position] >= 0) {
+                frequencies[dmers[position]] = 0;
+            }
+        }
+        // a few shared dmers are more likely hash collisions than shared content
+        if (bestEnd <= bestStart || bestScore < 2 * DMER_SIZE) {
+            return 0;
+        }
+        // the segment covers the bytes of its last dmer as well
+        return ((long) bestStart << 32) | Math.min(length, bestEnd - 1 + DMER_SIZE);
+    }
+
+    /**
+     * 把dmer加入当前区间
+     *
+     * @return 区间得分的增量, dmer已经在区间中时为0
+     */
+    private int add(int position) {
+        int hash = dmers[position];
+        if (hash >= 0 && activeCounts[hash]++ == 0) {
+            return score(hash);
+        }
+        return 0;
+    }
+
+    /**
+     * @return 区间得分的减量, dmer仍在区间中时为0
+     */
+    private int remove(int position) {
+        int hash = dmers[position];
+        if (hash >= 0 && --activeCounts[hash] == 0) {
+            return score(hash);
+        }
+        return 0;
+    }
+
+    /**
+     * 只出现在一个样本中的dmer对其它数据块没有帮助
+     */
+    private int score(int hash) {
+        int frequency = frequencies[hash];
+        return frequency > 1 ? frequency : 0;
+    }
+
+    private static int hash(byte[] data, int position) {
+        long value = 0;
+        for (int i = DMER_SIZE - 1; i >= 0; i--) {
+            value = (value << 8) | (data[position + i] & 0xFF);
+        }
+        return (int) ((value * 0x9E3779B185EBCA87L) >>> (64 - HASH_LOG));
+    }
+}
@@ -0,0 +1,47 @@
+package org.iq80.leveldb.util;
+
+import org.iq80.leveldb.slice.Slice;
+
+/**
+ * 与LevelDB的Hash函数一致的32位哈希, 用于数据块中的哈希索引, 结果写入文件, 不能修改
+ *
+ * @author yf
+ */
+public final class Hash {
+    private static final int SEED = 0xbc9f1d34;
+    private static final int M = 0xc6a4a793;
+
+    private Hash() {
+    }
+
+    public static int hash(Slice data) {
+        return hash(data, 0, data.length(), SEED);
+    }
+
+    public static int hash(Slice data, int offset, int length, int seed) {
+        int h = seed ^ (length * M);
+        int index = offset;
+        int limit = offset + length;
+        for (; index + 4 <= limit; index += 4) {
+            h += data.getInt(index);
+            h *= M;
+            h ^= h >>> 16;
+        }
+        switch (limit - index) {
+            case 3:
+                h += (data.getUnsignedByte(index + 2)) << 16;
+                // fall through
+            case 2:
+                h += (data.getUnsignedByte(index + 1)) << 8;
+                // fall through
+            case 1:
+                h += data.getUnsignedByte(index);
+                h *= M;
+                h ^= h >>> 24;
+                break;
+            default:
+                break;
+        }
+        return h;
+    }
+}
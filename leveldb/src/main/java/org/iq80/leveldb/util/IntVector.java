@@ -22,6 +22,7 @@ import org.iq80.leveldb.slice.SliceOutput;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
 
 public class IntVector
 {
@@ -69,6 +70,12 @@ public class IntVector
         values = Arrays.copyOf(values, newLength);
     }
 
+    public int get(int index)
+    {
+        checkElementIndex(index, size);
+        return values[index];
+    }
+
     public int[] values()
     {
         return Arrays.copyOf(values, size);
@@ -29,4 +29,8 @@ import org.iq80.leveldb.slice.Slice;
 public interface InternalIterator
         extends SeekingIterator<InternalKey, Slice>
 {
+    /**
+     * 释放迭代器打开的sst文件的引用, 文件可能被映射到内存, 之后不能再使用迭代器返回的value
+     */
+    void close();
 }
@@ -2,15 +2,31 @@ package org.iq80.leveldb.util;
 
 import com.google.common.collect.Maps;
 import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.table.Table;
 
 import java.util.Map.Entry;
 
 public class InternalTableIterator extends AbstractSeekingIterator<InternalKey, Slice> implements InternalIterator {
-    private final TableIterator tableIterator;
-
-    public InternalTableIterator(TableIterator tableIterator) {
+    private final SeekingIterator<Slice, Slice> tableIterator;
+    private final Table table;
+    private boolean closed;
+
+    /**
+     * @param table 迭代器持有table的一个引用, close时释放
+     */
+    public InternalTableIterator(SeekingIterator<Slice, Slice> tableIterator, Table table) {
         this.tableIterator = tableIterator;
+        this.table = table;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            table.release();
+        }
     }
 
     @Override
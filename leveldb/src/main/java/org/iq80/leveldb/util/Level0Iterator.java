@@ -38,6 +38,13 @@ public final class Level0Iterator extends AbstractSeekingIterator<InternalKey, S
         resetPriorityQueue(comparator);
     }
 
+    @Override
+    public void close() {
+        for (InternalTableIterator input : inputs) {
+            input.close();
+        }
+    }
+
     @Override
     protected void seekToFirstInternal() {
         for (InternalTableIterator input : inputs) {
@@ -23,16 +23,37 @@ import org.iq80.leveldb.impl.InternalKeyComparator;
 import org.iq80.leveldb.impl.TableCache;
 import org.iq80.leveldb.slice.Slice;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 public final class LevelIterator
         extends AbstractSeekingIterator<InternalKey, Slice>
         implements InternalIterator
 {
+    // Values returned from a file may point into its mapping and stay in use after moving on to the
+    // next file: the iterators above this one hold at most the entry being returned, the entry peeked
+    // by the merging iterator and the entry buffered by the snapshot iterator, so the current file
+    // and the three files before it are kept open
+    private static final int RETAINED_FILES = 4;
+
     private final TableCache tableCache;
     private final List<FileMetaData> files;
     private final InternalKeyComparator comparator;
+    // the most recently used file iterators by file index, reused on later seeks
+    private final Map<Integer, InternalTableIterator> retained = new LinkedHashMap<Integer, InternalTableIterator>(RETAINED_FILES * 2, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, InternalTableIterator> eldest)
+        {
+            if (size() > RETAINED_FILES) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
     private InternalTableIterator current;
     private int index;
 
@@ -43,6 +64,16 @@ public final class LevelIterator
         this.comparator = comparator;
     }
 
+    @Override
+    public void close()
+    {
+        for (InternalTableIterator iterator : retained.values()) {
+            iterator.close();
+        }
+        retained.clear();
+        current = null;
+    }
+
     @Override
     protected void seekToFirstInternal()
     {
@@ -133,9 +164,21 @@ public final class LevelIterator
 
     private InternalTableIterator openNextFile()
     {
-        FileMetaData fileMetaData = files.get(index);
+        if (current != null) {
+            // drop the current block, the file stays open while it is one of the retained files
+            current.seekToFirst();
+        }
+        InternalTableIterator iterator = retained.get(index);
+        if (iterator == null) {
+            iterator = tableCache.newIterator(files.get(index));
+            // closes the least recently used file once more than RETAINED_FILES are open
+            retained.put(index, iterator);
+        }
+        else {
+            iterator.seekToFirst();
+        }
         index++;
-        return tableCache.newIterator(fileMetaData);
+        return iterator;
     }
 
     @Override
@@ -39,6 +39,16 @@ public final class MergingIterator
         resetPriorityQueue(comparator);
     }
 
+    /**
+     * 关闭所有输入
+     */
+    public void close()
+    {
+        for (InternalIterator level : levels) {
+            level.close();
+        }
+    }
+
     @Override
     protected void seekToFirstInternal()
     {
@@ -0,0 +1,258 @@
+package org.iq80.leveldb.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 纯Java实现的LZ4 block格式压缩, 压缩结果为varint编码的原始长度加上LZ4 block:
+ * >>> 1. 每个sequence由token、字面量长度扩展、字面量、2字节offset、匹配长度扩展组成
+ * >>> 2. token高4位是字面量长度, 低4位是匹配长度减4, 等于15时后面跟着255累加的扩展字节
+ * >>> 3. 最后一个sequence只有字面量, 最后5个字节总是字面量, 最后一个匹配至少在结尾12字节之前开始
+ * <p>
+ * 压缩使用单个哈希表的贪心匹配, 追求速度而不是压缩率
+ *
+ * @author yf
+ */
+public class PureJavaLz4
+        implements Compressor {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int RUN_MASK = 15;
+    private static final int ML_MASK = 15;
+
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final ThreadLocal<int[]> HASH_TABLE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return VariableLengthQuantity.variableLengthSize(length) + length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        int outputIndex = writeVariableLengthInt(length, output, outputOffset);
+        outputIndex = compressBlock(input, inputOffset, length, output, outputIndex);
+        return outputIndex - outputOffset;
+    }
+
+    @Override
+    public int uncompressedLength(byte[] input, int inputOffset, int length)
+            throws IOException {
+        int uncompressedLength;
+        try {
+            uncompressedLength = VariableLengthQuantity.readVariableLengthInt(ByteBuffer.wrap(input, inputOffset, length));
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt LZ4 block: invalid length", e);
+        }
+        if (uncompressedLength < 0) {
+            throw new IOException("Corrupt LZ4 block: invalid length " + uncompressedLength);
+        }
+        return uncompressedLength;
+    }
+
+    @Override
+    public int uncompress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+            throws IOException {
+        int uncompressedLength = uncompressedLength(input, inputOffset, length);
+        int headerSize = VariableLengthQuantity.variableLengthSize(uncompressedLength);
+        if (headerSize > length || output.length - outputOffset < uncompressedLength) {
+            throw new IOException("Corrupt LZ4 block: output buffer too small");
+        }
+        try {
+            return uncompressBlock(input, inputOffset + headerSize, inputOffset + length, output, outputOffset, outputOffset + uncompressedLength);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 block", e);
+        }
+    }
+
+    private static int compressBlock(byte[] input, int inputOffset, int length, byte[] output, int outputIndex) {
+        int inputEnd = inputOffset + length;
+        int anchor = inputOffset;
+        if (length < MF_LIMIT + 1) {
+            return writeLastLiterals(input, anchor, inputEnd - anchor, output, outputIndex);
+        }
+
+        int[] table = HASH_TABLE.get();
+        Arrays.fill(table, -1);
+
+        int matchStartLimit = inputEnd - MF_LIMIT;
+        int matchEndLimit = inputEnd - LAST_LITERALS;
+        int index = inputOffset;
+        int searchCount = 1 << SKIP_TRIGGER;
+        while (index <= matchStartLimit) {
+            int sequence = readInt(input, index);
+            int hash = hash(sequence);
+            int reference = table[hash];
+            table[hash] = index;
+            if (reference < 0 || index - reference > MAX_DISTANCE || readInt(input, reference) != sequence) {
+                // skip faster through data that does not compress
+                index += searchCount++ >>> SKIP_TRIGGER;
+                continue;
+            }
+            searchCount = 1 << SKIP_TRIGGER;
+
+            // extend the match backwards over pending literals
+            while (index > anchor && reference > inputOffset && input[index - 1] == input[reference - 1]) {
+                index--;
+                reference--;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (index + matchLength < matchEndLimit && input[index + matchLength] == input[reference + matchLength]) {
+                matchLength++;
+            }
+
+            outputIndex = writeSequence(input, anchor, index - anchor, index - reference, matchLength, output, outputIndex);
+            index += matchLength;
+            anchor = index;
+
+            // make the end of the match findable
+            if (index - 2 <= matchStartLimit) {
+                table[hash(readInt(input, index - 2))] = index - 2;
+            }
+        }
+
+        return writeLastLiterals(input, anchor, inputEnd - anchor, output, outputIndex);
+    }
+
+    private static int writeSequence(byte[] input, int literalsIndex, int literalLength, int offset, int matchLength, byte[] output, int outputIndex) {
+        int tokenIndex = outputIndex++;
+        int token;
+        if (literalLength >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            outputIndex = writeLengthExtension(literalLength - RUN_MASK, output, outputIndex);
+        } else {
+            token = literalLength << 4;
+        }
+        System.arraycopy(input, literalsIndex, output, outputIndex, literalLength);
+        outputIndex += literalLength;
+
+        output[outputIndex++] = (byte) offset;
+        output[outputIndex++] = (byte) (offset >>> 8);
+
+        int matchCode = matchLength - MIN_MATCH;
+        if (matchCode >= ML_MASK) {
+            token |= ML_MASK;
+            outputIndex = writeLengthExtension(matchCode - ML_MASK, output, outputIndex);
+        } else {
+            token |= matchCode;
+        }
+        output[tokenIndex] = (byte) token;
+        return outputIndex;
+    }
+
+    private static int writeLastLiterals(byte[] input, int literalsIndex, int literalLength, byte[] output, int outputIndex) {
+        if (literalLength >= RUN_MASK) {
+            output[outputIndex++] = (byte) (RUN_MASK << 4);
+            outputIndex = writeLengthExtension(literalLength - RUN_MASK, output, outputIndex);
+        } else {
+            output[outputIndex++] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(input, literalsIndex, output, outputIndex, literalLength);
+        return outputIndex + literalLength;
+    }
+
+    private static int writeLengthExtension(int length, byte[] output, int outputIndex) {
+        while (length >= 255) {
+            output[outputIndex++] = (byte) 255;
+            length -= 255;
+        }
+        output[outputIndex++] = (byte) length;
+        return outputIndex;
+    }
+
+    private static int uncompressBlock(byte[] input, int inputIndex, int inputEnd, byte[] output, int outputOffset, int outputEnd)
+            throws IOException {
+        int outputIndex = outputOffset;
+        while (true) {
+            if (inputIndex >= inputEnd) {
+                throw new IOException("Corrupt LZ4 block: missing last literals");
+            }
+            int token = input[inputIndex++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int value;
+                do {
+                    value = input[inputIndex++] & 0xFF;
+                    literalLength += value;
+                } while (value == 255);
+            }
+            if (literalLength > inputEnd - inputIndex || literalLength > outputEnd - outputIndex) {
+                throw new IOException("Corrupt LZ4 block: literals out of bounds");
+            }
+            System.arraycopy(input, inputIndex, output, outputIndex, literalLength);
+            inputIndex += literalLength;
+            outputIndex += literalLength;
+
+            if (inputIndex == inputEnd) {
+                break;
+            }
+
+            int offset = (input[inputIndex] & 0xFF) | ((input[inputIndex + 1] & 0xFF) << 8);
+            inputIndex += 2;
+            if (offset == 0 || offset > outputIndex - outputOffset) {
+                throw new IOException("Corrupt LZ4 block: invalid offset " + offset);
+            }
+
+            int matchLength = token & ML_MASK;
+            if (matchLength == ML_MASK) {
+                int value;
+                do {
+                    value = input[inputIndex++] & 0xFF;
+                    matchLength += value;
+                } while (value == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > outputEnd - outputIndex) {
+                throw new IOException("Corrupt LZ4 block: match out of bounds");
+            }
+
+            int matchIndex = outputIndex - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(output, matchIndex, output, outputIndex, matchLength);
+                outputIndex += matchLength;
+            } else {
+                // overlapping copy repeats the last offset bytes
+                for (int i = 0; i < matchLength; i++) {
+                    output[outputIndex++] = output[matchIndex++];
+                }
+            }
+        }
+
+        if (outputIndex != outputEnd) {
+            throw new IOException("Corrupt LZ4 block: expected " + (outputEnd - outputOffset) + " bytes but got " + (outputIndex - outputOffset));
+        }
+        return outputIndex - outputOffset;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] data, int index) {
+        return (data[index] & 0xFF) |
+                ((data[index + 1] & 0xFF) << 8) |
+                ((data[index + 2] & 0xFF) << 16) |
+                ((data[index + 3] & 0xFF) << 24);
+    }
+
+    private static int writeVariableLengthInt(int value, byte[] output, int outputIndex) {
+        while ((value & ~0x7F) != 0) {
+            output[outputIndex++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output[outputIndex++] = (byte) value;
+        return outputIndex;
+    }
+}
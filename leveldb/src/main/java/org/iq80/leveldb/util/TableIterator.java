@@ -1,23 +1,38 @@
 package org.iq80.leveldb.util;
 
+import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.table.Block;
 import org.iq80.leveldb.table.BlockIterator;
-import org.iq80.leveldb.table.Table;
+import org.iq80.leveldb.table.BlockBasedTable;
 
 import java.util.Map.Entry;
 
 public final class TableIterator extends AbstractSeekingIterator<Slice, Slice> {
-    private final Table table;
-    private final BlockIterator blockIterator;
+    private final BlockBasedTable table;
+    private final SeekingIterator<Slice, Slice> blockIterator;
+    // the blocks are index partitions rather than data blocks
+    private final boolean indexPartitions;
     private BlockIterator current;
 
-    public TableIterator(Table table, BlockIterator blockIterator) {
+    public TableIterator(BlockBasedTable table, SeekingIterator<Slice, Slice> blockIterator) {
+        this(table, blockIterator, false);
+    }
+
+    private TableIterator(BlockBasedTable table, SeekingIterator<Slice, Slice> blockIterator, boolean indexPartitions) {
         this.table = table;
         this.blockIterator = blockIterator;
+        this.indexPartitions = indexPartitions;
         current = null;
     }
 
+    /**
+     * 把顶层索引和索引分区拼成一个遍历所有数据块索引项的迭代器
+     */
+    public static TableIterator indexPartitionIterator(BlockBasedTable table, BlockIterator topLevelIterator) {
+        return new TableIterator(table, topLevelIterator, true);
+    }
+
     @Override
     protected void seekToFirstInternal() {
         // reset index to before first and clear the data iterator
@@ -72,7 +87,7 @@ public final class TableIterator extends AbstractSeekingIterator<Slice, Slice> {
 
     private BlockIterator getNextBlock() {
         Slice blockHandle = blockIterator.next().getValue();
-        Block dataBlock = table.openBlock(blockHandle);
+        Block dataBlock = indexPartitions ? table.openIndexPartition(blockHandle) : table.openBlock(blockHandle);
         return dataBlock.iterator();
     }
 
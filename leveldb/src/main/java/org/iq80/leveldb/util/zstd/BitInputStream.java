@@ -0,0 +1,100 @@
+package org.iq80.leveldb.util.zstd;
+
+import java.io.IOException;
+
+import static org.iq80.leveldb.util.zstd.ZstdConstants.highestBit;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.readLong;
+
+/**
+ * 从后向前读取的比特流, huffman和FSE编码的数据都以这种方式读取:
+ * >>> 1. 最后一个字节的最高位1是结束标记, 它之上的0和它本身都被跳过
+ * >>> 2. 之后从高位向低位读取, 最后写入的比特最先读出
+ * >>> 3. 每次最多缓存8个字节, 读完后调用reload向前补充
+ *
+ * @author yf
+ */
+final class BitInputStream {
+    private final byte[] data;
+    private final int start;
+
+    // first byte of the 8 byte window held by the container
+    private int position;
+    private long container;
+    private int bitsConsumed;
+
+    BitInputStream(byte[] data, int start, int end)
+            throws IOException {
+        if (end <= start) {
+            throw new IOException("Corrupt zstd data: empty bitstream");
+        }
+        int lastByte = data[end - 1] & 0xFF;
+        if (lastByte == 0) {
+            throw new IOException("Corrupt zstd data: bitstream end mark not present");
+        }
+
+        this.data = data;
+        this.start = start;
+        int size = end - start;
+        if (size >= 8) {
+            position = end - 8;
+            container = readLong(data, position);
+            bitsConsumed = 8 - highestBit(lastByte);
+        } else {
+            position = start;
+            for (int i = 0; i < size; i++) {
+                container |= (data[start + i] & 0xFFL) << (8 * i);
+            }
+            bitsConsumed = 8 - highestBit(lastByte) + (8 - size) * 8;
+        }
+    }
+
+    long peekBits(int count) {
+        return (container << bitsConsumed) >>> 1 >>> (63 - count);
+    }
+
+    long readBits(int count) {
+        long value = peekBits(count);
+        bitsConsumed += count;
+        return value;
+    }
+
+    void skipBits(int count) {
+        bitsConsumed += count;
+    }
+
+    /**
+     * 补充缓存的比特
+     *
+     * @return false表示已经读过了比特流的开头, 数据损坏或者解码结束
+     */
+    boolean reload() {
+        if (bitsConsumed > 64) {
+            return false;
+        }
+        if (position >= start + 8) {
+            position -= bitsConsumed >>> 3;
+            bitsConsumed &= 7;
+            container = readLong(data, position);
+            return true;
+        }
+        if (position == start) {
+            return true;
+        }
+        int bytes = Math.min(bitsConsumed >>> 3, position - start);
+        position -= bytes;
+        bitsConsumed -= bytes * 8;
+        container = readLong(data, position);
+        return true;
+    }
+
+    /**
+     * 是否恰好读完了所有比特
+     */
+    boolean isComplete() {
+        return position == start && bitsConsumed == 64;
+    }
+
+    boolean isOverflow() {
+        return bitsConsumed > 64;
+    }
+}
@@ -0,0 +1,69 @@
+package org.iq80.leveldb.util.zstd;
+
+/**
+ * 与{@link BitInputStream}对应的比特流写入, 从低位向高位写入, close时追加结束标记
+ * <p>
+ * 超出limit时不再写入并标记为溢出, 调用方改用不压缩的格式
+ *
+ * @author yf
+ */
+final class BitOutputStream {
+    private final byte[] output;
+    private final int start;
+    private final int limit;
+
+    private int position;
+    private long container;
+    private int bitCount;
+    private boolean overflow;
+
+    BitOutputStream(byte[] output, int start, int limit) {
+        this.output = output;
+        this.start = start;
+        this.limit = limit;
+        this.position = start;
+    }
+
+    /**
+     * 写入value的低count位, count不超过32
+     */
+    void addBits(long value, int count) {
+        container |= (value & ((1L << count) - 1)) << bitCount;
+        bitCount += count;
+        if (bitCount > 32) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        int bytes = bitCount >>> 3;
+        if (position + bytes > limit) {
+            overflow = true;
+            position = limit;
+        } else {
+            for (int i = 0; i < bytes; i++) {
+                output[position++] = (byte) (container >>> (8 * i));
+            }
+        }
+        container >>>= bytes * 8;
+        bitCount &= 7;
+    }
+
+    /**
+     * 写入结束标记并输出剩余的比特
+     *
+     * @return 写入的字节数, 溢出时返回-1
+     */
+    int close() {
+        addBits(1, 1);
+        flush();
+        if (bitCount > 0) {
+            if (position + 1 > limit) {
+                overflow = true;
+            } else {
+                output[position++] = (byte) container;
+            }
+        }
+        return overflow ? -1 : position - start;
+    }
+}
@@ -0,0 +1,434 @@
+package org.iq80.leveldb.util.zstd;
+
+import java.io.IOException;
+
+import static org.iq80.leveldb.util.zstd.ZstdConstants.highestBit;
+
+/**
+ * FSE(tANS)熵编码:
+ * >>> 1. 归一化计数之和为2^tableLog, -1表示概率小于1, 占用表尾的一个位置
+ * >>> 2. 编码和解码用同样的方式把符号散布到表中, 编码按解码的相反顺序进行
+ * >>> 3. 归一化计数以变长比特写在数据前面, 连续的0计数用2比特的重复标记压缩
+ *
+ * @author yf
+ */
+final class FiniteStateEntropy {
+    static final int MIN_TABLE_LOG = 5;
+    static final int MAX_TABLE_LOG = 12;
+
+    private FiniteStateEntropy() {
+    }
+
+    /**
+     * 解码表, 下标为状态
+     */
+    static final class DecodingTable {
+        int log2Size;
+        final int[] newState;
+        final byte[] symbol;
+        final byte[] numberOfBits;
+
+        DecodingTable(int maxTableLog) {
+            newState = new int[1 << maxTableLog];
+            symbol = new byte[1 << maxTableLog];
+            numberOfBits = new byte[1 << maxTableLog];
+        }
+
+        /**
+         * 只有一个符号的表, 解码不消耗比特
+         */
+        void initializeRle(int value) {
+            log2Size = 0;
+            symbol[0] = (byte) value;
+            newState[0] = 0;
+            numberOfBits[0] = 0;
+        }
+    }
+
+    /**
+     * 编码表
+     */
+    static final class EncodingTable {
+        final int log2Size;
+        final int[] nextState;
+        final int[] deltaNumberOfBits;
+        final int[] deltaFindState;
+
+        EncodingTable(int log2Size, int maxSymbol) {
+            this.log2Size = log2Size;
+            this.nextState = new int[1 << log2Size];
+            this.deltaNumberOfBits = new int[maxSymbol + 1];
+            this.deltaFindState = new int[maxSymbol + 1];
+        }
+
+        int initialState(int symbol) {
+            int outputBits = (deltaNumberOfBits[symbol] + (1 << 15)) >>> 16;
+            int base = (outputBits << 16) - deltaNumberOfBits[symbol];
+            return nextState[(base >>> outputBits) + deltaFindState[symbol]];
+        }
+
+        int encode(BitOutputStream stream, int state, int symbol) {
+            int outputBits = (state + deltaNumberOfBits[symbol]) >>> 16;
+            stream.addBits(state, outputBits);
+            return nextState[(state >>> outputBits) + deltaFindState[symbol]];
+        }
+
+        void finish(BitOutputStream stream, int state) {
+            stream.addBits(state, log2Size);
+        }
+    }
+
+    /**
+     * 按散布规则把符号放入表中, 概率小于1的符号放在表尾
+     */
+    private static int[] spreadSymbols(short[] normalizedCounts, int maxSymbol, int tableLog) {
+        int tableSize = 1 << tableLog;
+        int[] tableSymbols = new int[tableSize];
+        int highThreshold = tableSize - 1;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            if (normalizedCounts[symbol] == -1) {
+                tableSymbols[highThreshold--] = symbol;
+            }
+        }
+
+        int mask = tableSize - 1;
+        int step = (tableSize >>> 1) + (tableSize >>> 3) + 3;
+        int position = 0;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            for (int i = 0; i < normalizedCounts[symbol]; i++) {
+                tableSymbols[position] = symbol;
+                do {
+                    position = (position + step) & mask;
+                } while (position > highThreshold);
+            }
+        }
+        return tableSymbols;
+    }
+
+    static void buildDecodingTable(DecodingTable table, short[] normalizedCounts, int maxSymbol, int tableLog)
+            throws IOException {
+        int tableSize = 1 << tableLog;
+        int[] nextSymbolState = new int[maxSymbol + 1];
+        int total = 0;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            int count = normalizedCounts[symbol];
+            nextSymbolState[symbol] = count == -1 ? 1 : count;
+            total += nextSymbolState[symbol];
+        }
+        if (total != tableSize) {
+            throw new IOException("Corrupt zstd data: invalid FSE distribution");
+        }
+
+        int[] tableSymbols = spreadSymbols(normalizedCounts, maxSymbol, tableLog);
+        table.log2Size = tableLog;
+        for (int state = 0; state < tableSize; state++) {
+            int symbol = tableSymbols[state];
+            int next = nextSymbolState[symbol]++;
+            int numberOfBits = tableLog - highestBit(next);
+            table.symbol[state] = (byte) symbol;
+            table.numberOfBits[state] = (byte) numberOfBits;
+            table.newState[state] = (next << numberOfBits) - tableSize;
+        }
+    }
+
+    static EncodingTable buildEncodingTable(short[] normalizedCounts, int maxSymbol, int tableLog) {
+        int tableSize = 1 << tableLog;
+        EncodingTable table = new EncodingTable(tableLog, maxSymbol);
+
+        int[] cumulative = new int[maxSymbol + 2];
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            int count = normalizedCounts[symbol];
+            cumulative[symbol + 1] = cumulative[symbol] + (count == -1 ? 1 : count);
+        }
+
+        int[] tableSymbols = spreadSymbols(normalizedCounts, maxSymbol, tableLog);
+        for (int position = 0; position < tableSize; position++) {
+            int symbol = tableSymbols[position];
+            table.nextState[cumulative[symbol]++] = tableSize + position;
+        }
+
+        int total = 0;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            int count = normalizedCounts[symbol];
+            if (count == 0) {
+                table.deltaNumberOfBits[symbol] = ((tableLog + 1) << 16) - tableSize;
+            } else if (count == -1 || count == 1) {
+                table.deltaNumberOfBits[symbol] = (tableLog << 16) - tableSize;
+                table.deltaFindState[symbol] = total - 1;
+                total++;
+            } else {
+                int maxBitsOut = tableLog - highestBit(count - 1);
+                int minStatePlus = count << maxBitsOut;
+                table.deltaNumberOfBits[symbol] = (maxBitsOut << 16) - minStatePlus;
+                table.deltaFindState[symbol] = total - count;
+                total += count;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 读取归一化计数
+     *
+     * @return 消耗的字节数
+     */
+    static int readNormalizedCounts(DecodingTable table, byte[] input, int offset, int end, int maxSymbol, int maxTableLog)
+            throws IOException {
+        BitReader reader = new BitReader(input, offset, end);
+        int tableLog = (int) reader.read(4) + MIN_TABLE_LOG;
+        if (tableLog > maxTableLog) {
+            throw new IOException("Corrupt zstd data: FSE table log " + tableLog + " is too large");
+        }
+
+        short[] normalizedCounts = new short[maxSymbol + 1];
+        int remaining = (1 << tableLog) + 1;
+        int threshold = 1 << tableLog;
+        int numberOfBits = tableLog + 1;
+        int symbol = 0;
+        boolean previousIsZero = false;
+        while (remaining > 1 && symbol <= maxSymbol) {
+            if (previousIsZero) {
+                int zeros = symbol;
+                int repeat;
+                while ((repeat = (int) reader.peek(2)) == 3) {
+                    zeros += 3;
+                    reader.skip(2);
+                }
+                zeros += repeat;
+                reader.skip(2);
+                if (zeros > maxSymbol) {
+                    throw new IOException("Corrupt zstd data: FSE symbol out of range");
+                }
+                symbol = zeros;
+            }
+
+            int max = (2 * threshold - 1) - remaining;
+            int value = (int) reader.peek(numberOfBits);
+            int count;
+            if ((value & (threshold - 1)) < max) {
+                count = value & (threshold - 1);
+                reader.skip(numberOfBits - 1);
+            } else {
+                count = value & (2 * threshold - 1);
+                if (count >= threshold) {
+                    count -= max;
+                }
+                reader.skip(numberOfBits);
+            }
+            count--;
+            remaining -= count < 0 ? -count : count;
+            normalizedCounts[symbol++] = (short) count;
+            previousIsZero = count == 0;
+            while (remaining < threshold) {
+                numberOfBits--;
+                threshold >>>= 1;
+            }
+        }
+        if (remaining != 1 || reader.isOverflow()) {
+            throw new IOException("Corrupt zstd data: invalid FSE distribution");
+        }
+
+        buildDecodingTable(table, normalizedCounts, symbol - 1, tableLog);
+        return reader.bytesConsumed();
+    }
+
+    /**
+     * 写入归一化计数
+     *
+     * @return 写入的字节数, 超出limit时返回-1
+     */
+    static int writeNormalizedCounts(byte[] output, int offset, int limit, short[] normalizedCounts, int maxSymbol, int tableLog) {
+        int index = offset;
+        int tableSize = 1 << tableLog;
+        long bitStream = tableLog - MIN_TABLE_LOG;
+        int bitCount = 4;
+
+        int remaining = tableSize + 1;
+        int threshold = tableSize;
+        int numberOfBits = tableLog + 1;
+        int symbol = 0;
+        boolean previousIsZero = false;
+        while (symbol <= maxSymbol && remaining > 1) {
+            if (previousIsZero) {
+                int start = symbol;
+                while (symbol <= maxSymbol && normalizedCounts[symbol] == 0) {
+                    symbol++;
+                }
+                if (symbol > maxSymbol) {
+                    break;
+                }
+                while (symbol >= start + 3) {
+                    start += 3;
+                    bitStream |= 3L << bitCount;
+                    bitCount += 2;
+                    if (bitCount > 16) {
+                        if (index + 2 > limit) {
+                            return -1;
+                        }
+                        output[index++] = (byte) bitStream;
+                        output[index++] = (byte) (bitStream >>> 8);
+                        bitStream >>>= 16;
+                        bitCount -= 16;
+                    }
+                }
+                bitStream |= (long) (symbol - start) << bitCount;
+                bitCount += 2;
+                if (bitCount > 16) {
+                    if (index + 2 > limit) {
+                        return -1;
+                    }
+                    output[index++] = (byte) bitStream;
+                    output[index++] = (byte) (bitStream >>> 8);
+                    bitStream >>>= 16;
+                    bitCount -= 16;
+                }
+            }
+
+            int count = normalizedCounts[symbol++];
+            int max = (2 * threshold - 1) - remaining;
+            remaining -= count < 0 ? -count : count;
+            count++;
+            if (count >= threshold) {
+                count += max;
+            }
+            bitStream |= (long) count << bitCount;
+            bitCount += numberOfBits;
+            if (count < max) {
+                bitCount--;
+            }
+            previousIsZero = count == 1;
+            while (remaining < threshold) {
+                numberOfBits--;
+                threshold >>>= 1;
+            }
+
+            if (bitCount > 16) {
+                if (index + 2 > limit) {
+                    return -1;
+                }
+                output[index++] = (byte) bitStream;
+                output[index++] = (byte) (bitStream >>> 8);
+                bitStream >>>= 16;
+                bitCount -= 16;
+            }
+        }
+        if (remaining != 1) {
+            throw new IllegalArgumentException("Invalid normalized counts");
+        }
+
+        int bytes = (bitCount + 7) / 8;
+        if (index + bytes > limit) {
+            return -1;
+        }
+        for (int i = 0; i < bytes; i++) {
+            output[index++] = (byte) (bitStream >>> (8 * i));
+        }
+        return index - offset;
+    }
+
+    /**
+     * 选择表大小: 不超过maxTableLog, 不必大于数据量, 但要能容纳所有符号
+     */
+    static int optimalTableLog(int maxTableLog, int total, int maxSymbol) {
+        int tableLog = maxTableLog;
+        int minBitsSource = highestBit(total - 1) + 1;
+        if (minBitsSource < tableLog) {
+            tableLog = minBitsSource;
+        }
+        int minBitsSymbols = highestBit(maxSymbol) + 2;
+        if (minBitsSymbols > tableLog) {
+            tableLog = minBitsSymbols;
+        }
+        return Math.max(MIN_TABLE_LOG, Math.min(MAX_TABLE_LOG, tableLog));
+    }
+
+    /**
+     * 把计数缩放为和为2^tableLog的归一化计数, 出现过的符号至少为1
+     */
+    static short[] normalizeCounts(int[] counts, int maxSymbol, int total, int tableLog) {
+        int tableSize = 1 << tableLog;
+        short[] normalized = new short[maxSymbol + 1];
+        int distributed = 0;
+        int largest = 0;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            if (counts[symbol] == 0) {
+                continue;
+            }
+            int value = (int) (((long) counts[symbol] * tableSize + total / 2) / total);
+            normalized[symbol] = (short) Math.max(1, value);
+            distributed += normalized[symbol];
+            if (counts[symbol] > counts[largest]) {
+                largest = symbol;
+            }
+        }
+
+        int difference = tableSize - distributed;
+        if (normalized[largest] + difference >= 1) {
+            normalized[largest] += difference;
+            return normalized;
+        }
+
+        // too many rare symbols were rounded up, take the excess from the most probable ones
+        while (difference < 0) {
+            int candidate = -1;
+            for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+                if (normalized[symbol] > 1 && (candidate < 0 || normalized[symbol] > normalized[candidate])) {
+                    candidate = symbol;
+                }
+            }
+            normalized[candidate]--;
+            difference++;
+        }
+        while (difference > 0) {
+            normalized[largest]++;
+            difference--;
+        }
+        return normalized;
+    }
+
+    /**
+     * 从前向后、从低位向高位读取的比特流, 用于归一化计数
+     */
+    private static final class BitReader {
+        private final byte[] input;
+        private final int offset;
+        private final int end;
+        private long bitPosition;
+
+        BitReader(byte[] input, int offset, int end) {
+            this.input = input;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        long peek(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                long bit = bitPosition + i;
+                int index = offset + (int) (bit >>> 3);
+                if (index < end && (input[index] & (1 << (bit & 7))) != 0) {
+                    value |= 1L << i;
+                }
+            }
+            return value;
+        }
+
+        long read(int count) {
+            long value = peek(count);
+            bitPosition += count;
+            return value;
+        }
+
+        void skip(int count) {
+            bitPosition += count;
+        }
+
+        boolean isOverflow() {
+            return bitPosition > (long) (end - offset) * 8;
+        }
+
+        int bytesConsumed() {
+            return (int) ((bitPosition + 7) >>> 3);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package org.iq80.leveldb.util.zstd;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+
+import static org.iq80.leveldb.util.zstd.ZstdConstants.HUFFMAN_MAX_NUMBER_OF_BITS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.HUFFMAN_MAX_SYMBOL;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.HUFFMAN_MAX_WEIGHT;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.HUFFMAN_WEIGHTS_MAX_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.highestBit;
+
+/**
+ * 字面量的huffman编码:
+ * >>> 1. 码表以权重描述, 码长 = 最大码长 + 1 - 权重, 权重0表示符号未出现, 最后一个符号的权重由其余权重推出
+ * >>> 2. 权重直接以4比特存储, 或者用FSE压缩后存储
+ * >>> 3. 码字按权重升序、符号升序连续分配, 解码时用最大码长的比特查一次表即可
+ * >>> 4. 数据从后向前编码, 解码时按原顺序输出
+ *
+ * @author yf
+ */
+final class Huffman {
+    private static final int DECODE_TABLE_SIZE = 1 << HUFFMAN_MAX_NUMBER_OF_BITS;
+
+    private Huffman() {
+    }
+
+    static final class DecodingTable {
+        int tableLog;
+        final byte[] symbols = new byte[DECODE_TABLE_SIZE];
+        final byte[] numberOfBits = new byte[DECODE_TABLE_SIZE];
+    }
+
+    static final class EncodingTable {
+        final int maxNumberOfBits;
+        final int maxSymbol;
+        final int[] codes;
+        final byte[] numberOfBits;
+
+        EncodingTable(int maxNumberOfBits, int maxSymbol, int[] codes, byte[] numberOfBits) {
+            this.maxNumberOfBits = maxNumberOfBits;
+            this.maxSymbol = maxSymbol;
+            this.codes = codes;
+            this.numberOfBits = numberOfBits;
+        }
+    }
+
+    /**
+     * 读取码表描述
+     *
+     * @return 消耗的字节数
+     */
+    static int readTable(DecodingTable table, byte[] input, int offset, int end)
+            throws IOException {
+        if (offset >= end) {
+            throw new IOException("Corrupt zstd data: missing huffman table");
+        }
+        byte[] weights = new byte[HUFFMAN_MAX_SYMBOL + 1];
+        int header = input[offset] & 0xFF;
+        int weightCount;
+        int consumed;
+        if (header >= 128) {
+            weightCount = header - 127;
+            int bytes = (weightCount + 1) / 2;
+            if (offset + 1 + bytes > end) {
+                throw new IOException("Corrupt zstd data: truncated huffman weights");
+            }
+            for (int i = 0; i < weightCount; i++) {
+                int value = input[offset + 1 + i / 2] & 0xFF;
+                weights[i] = (byte) ((i & 1) == 0 ? value >>> 4 : value & 0xF);
+            }
+            consumed = 1 + bytes;
+        } else {
+            if (offset + 1 + header > end) {
+                throw new IOException("Corrupt zstd data: truncated huffman weights");
+            }
+            weightCount = readCompressedWeights(weights, input, offset + 1, offset + 1 + header);
+            consumed = 1 + header;
+        }
+
+        int[] rankCount = new int[HUFFMAN_MAX_WEIGHT + 1];
+        int total = 0;
+        for (int i = 0; i < weightCount; i++) {
+            int weight = weights[i];
+            if (weight > HUFFMAN_MAX_WEIGHT) {
+                throw new IOException("Corrupt zstd data: invalid huffman weight");
+            }
+            rankCount[weight]++;
+            total += (1 << weight) >> 1;
+        }
+        if (total == 0) {
+            throw new IOException("Corrupt zstd data: empty huffman table");
+        }
+        int tableLog = highestBit(total) + 1;
+        if (tableLog > HUFFMAN_MAX_NUMBER_OF_BITS) {
+            throw new IOException("Corrupt zstd data: huffman table log " + tableLog + " is too large");
+        }
+        int rest = (1 << tableLog) - total;
+        if (Integer.bitCount(rest) != 1) {
+            throw new IOException("Corrupt zstd data: invalid huffman weights");
+        }
+        int lastWeight = highestBit(rest) + 1;
+        weights[weightCount] = (byte) lastWeight;
+        rankCount[lastWeight]++;
+        int symbolCount = weightCount + 1;
+        if (rankCount[1] < 2 || (rankCount[1] & 1) != 0) {
+            throw new IOException("Corrupt zstd data: invalid huffman weights");
+        }
+
+        int[] rankStart = new int[HUFFMAN_MAX_WEIGHT + 1];
+        int next = 0;
+        for (int weight = 1; weight <= tableLog; weight++) {
+            rankStart[weight] = next;
+            next += rankCount[weight] << (weight - 1);
+        }
+        table.tableLog = tableLog;
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+            int weight = weights[symbol];
+            if (weight == 0) {
+                continue;
+            }
+            int length = (1 << weight) >> 1;
+            byte numberOfBits = (byte) (tableLog + 1 - weight);
+            int start = rankStart[weight];
+            for (int i = start; i < start + length; i++) {
+                table.symbols[i] = (byte) symbol;
+                table.numberOfBits[i] = numberOfBits;
+            }
+            rankStart[weight] = start + length;
+        }
+        return consumed;
+    }
+
+    /**
+     * 两个交替的FSE状态解码权重, 比特流读完时结束
+     */
+    private static int readCompressedWeights(byte[] weights, byte[] input, int offset, int end)
+            throws IOException {
+        FiniteStateEntropy.DecodingTable table = new FiniteStateEntropy.DecodingTable(HUFFMAN_WEIGHTS_MAX_TABLE_LOG);
+        int headerSize = FiniteStateEntropy.readNormalizedCounts(table, input, offset, end, HUFFMAN_MAX_WEIGHT, HUFFMAN_WEIGHTS_MAX_TABLE_LOG);
+        BitInputStream in = new BitInputStream(input, offset + headerSize, end);
+        int state1 = (int) in.readBits(table.log2Size);
+        int state2 = (int) in.readBits(table.log2Size);
+        in.reload();
+
+        int maxWeights = weights.length - 1;
+        int count = 0;
+        while (true) {
+            if (count > maxWeights - 2) {
+                throw new IOException("Corrupt zstd data: too many huffman weights");
+            }
+            weights[count++] = table.symbol[state1];
+            state1 = table.newState[state1] + (int) in.readBits(table.numberOfBits[state1]);
+            if (!in.reload()) {
+                weights[count++] = table.symbol[state2];
+                break;
+            }
+
+            if (count > maxWeights - 2) {
+                throw new IOException("Corrupt zstd data: too many huffman weights");
+            }
+            weights[count++] = table.symbol[state2];
+            state2 = table.newState[state2] + (int) in.readBits(table.numberOfBits[state2]);
+            if (!in.reload()) {
+                weights[count++] = table.symbol[state1];
+                break;
+            }
+        }
+        return count;
+    }
+
+    static void decodeSingleStream(DecodingTable table, byte[] input, int start, int end, byte[] output, int outputIndex, int outputEnd)
+            throws IOException {
+        BitInputStream in = new BitInputStream(input, start, end);
+        int tableLog = table.tableLog;
+        byte[] symbols = table.symbols;
+        byte[] numberOfBits = table.numberOfBits;
+        while (outputIndex < outputEnd) {
+            // four symbols of at most 11 bits always fit in a reloaded container
+            int batchEnd = Math.min(outputIndex + 4, outputEnd);
+            while (outputIndex < batchEnd) {
+                int index = (int) in.peekBits(tableLog);
+                output[outputIndex++] = symbols[index];
+                in.skipBits(numberOfBits[index]);
+            }
+            if (!in.reload()) {
+                throw new IOException("Corrupt zstd data: huffman stream overflow");
+            }
+        }
+        if (!in.isComplete()) {
+            throw new IOException("Corrupt zstd data: huffman stream not fully consumed");
+        }
+    }
+
+    static void decodeFourStreams(DecodingTable table, byte[] input, int start, int end, byte[] output, int outputIndex, int outputEnd)
+            throws IOException {
+        if (end - start < 10) {
+            throw new IOException("Corrupt zstd data: truncated huffman streams");
+        }
+        int size1 = (input[start] & 0xFF) | ((input[start + 1] & 0xFF) << 8);
+        int size2 = (input[start + 2] & 0xFF) | ((input[start + 3] & 0xFF) << 8);
+        int size3 = (input[start + 4] & 0xFF) | ((input[start + 5] & 0xFF) << 8);
+        int start1 = start + 6;
+        int start2 = start1 + size1;
+        int start3 = start2 + size2;
+        int start4 = start3 + size3;
+        if (start4 >= end) {
+            throw new IOException("Corrupt zstd data: invalid huffman jump table");
+        }
+
+        int segmentSize = (outputEnd - outputIndex + 3) / 4;
+        int output2 = outputIndex + segmentSize;
+        int output3 = output2 + segmentSize;
+        int output4 = output3 + segmentSize;
+        if (output4 > outputEnd) {
+            throw new IOException("Corrupt zstd data: too few literals for four huffman streams");
+        }
+        decodeSingleStream(table, input, start1, start2, output, outputIndex, output2);
+        decodeSingleStream(table, input, start2, start3, output, output2, output3);
+        decodeSingleStream(table, input, start3, start4, output, output3, output4);
+        decodeSingleStream(table, input, start4, end, output, output4, outputEnd);
+    }
+
+    /**
+     * 构造码长不超过11的huffman码表, 码长超出时把频率减半后重新构造
+     *
+     * @return 少于两个符号时返回null
+     */
+    static EncodingTable buildEncodingTable(int[] counts, int maxSymbol) {
+        int[] scaled = new int[maxSymbol + 1];
+        int distinct = 0;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            scaled[symbol] = counts[symbol];
+            if (counts[symbol] > 0) {
+                distinct++;
+            }
+        }
+        if (distinct < 2) {
+            return null;
+        }
+
+        byte[] numberOfBits;
+        while (true) {
+            numberOfBits = codeLengths(scaled, maxSymbol);
+            int maxBits = 0;
+            for (byte bits : numberOfBits) {
+                maxBits = Math.max(maxBits, bits);
+            }
+            if (maxBits <= HUFFMAN_MAX_NUMBER_OF_BITS) {
+                break;
+            }
+            for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+                if (scaled[symbol] > 0) {
+                    scaled[symbol] = (scaled[symbol] + 1) >>> 1;
+                }
+            }
+        }
+
+        int maxNumberOfBits = 0;
+        int lastSymbol = 0;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            if (numberOfBits[symbol] > 0) {
+                maxNumberOfBits = Math.max(maxNumberOfBits, numberOfBits[symbol]);
+                lastSymbol = symbol;
+            }
+        }
+
+        // assign codes in the same order as the decoding table is filled
+        int[] rankCount = new int[HUFFMAN_MAX_WEIGHT + 1];
+        for (int symbol = 0; symbol <= lastSymbol; symbol++) {
+            if (numberOfBits[symbol] > 0) {
+                rankCount[maxNumberOfBits + 1 - numberOfBits[symbol]]++;
+            }
+        }
+        int[] rankStart = new int[HUFFMAN_MAX_WEIGHT + 1];
+        int next = 0;
+        for (int weight = 1; weight <= maxNumberOfBits; weight++) {
+            rankStart[weight] = next;
+            next += rankCount[weight] << (weight - 1);
+        }
+        int[] codes = new int[lastSymbol + 1];
+        for (int symbol = 0; symbol <= lastSymbol; symbol++) {
+            if (numberOfBits[symbol] > 0) {
+                int weight = maxNumberOfBits + 1 - numberOfBits[symbol];
+                codes[symbol] = rankStart[weight] >>> (weight - 1);
+                rankStart[weight] += 1 << (weight - 1);
+            }
+        }
+        byte[] lengths = new byte[lastSymbol + 1];
+        System.arraycopy(numberOfBits, 0, lengths, 0, lastSymbol + 1);
+        return new EncodingTable(maxNumberOfBits, lastSymbol, codes, lengths);
+    }
+
+    private static byte[] codeLengths(final int[] counts, int maxSymbol) {
+        int leaves = maxSymbol + 1;
+        final int[] weight = new int[leaves * 2];
+        int[] parent = new int[leaves * 2];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(leaves, (a, b) -> weight[a] != weight[b] ? Integer.compare(weight[a], weight[b]) : Integer.compare(a, b));
+        for (int symbol = 0; symbol < leaves; symbol++) {
+            if (counts[symbol] > 0) {
+                weight[symbol] = counts[symbol];
+                queue.add(symbol);
+            }
+        }
+        int node = leaves;
+        while (queue.size() > 1) {
+            int first = queue.poll();
+            int second = queue.poll();
+            weight[node] = weight[first] + weight[second];
+            parent[first] = node;
+            parent[second] = node;
+            queue.add(node++);
+        }
+        int root = node - 1;
+
+        byte[] numberOfBits = new byte[leaves];
+        int[] depth = new int[leaves * 2];
+        for (int i = root - 1; i >= leaves; i--) {
+            depth[i] = depth[parent[i]] + 1;
+        }
+        for (int symbol = 0; symbol < leaves; symbol++) {
+            if (counts[symbol] > 0) {
+                numberOfBits[symbol] = (byte) Math.min(depth[parent[symbol]] + 1, 127);
+            }
+        }
+        return numberOfBits;
+    }
+
+    /**
+     * 写入码表描述, 权重用FSE压缩后更小时使用压缩格式
+     *
+     * @return 写入的字节数, 无法表示或者超出limit时返回-1
+     */
+    static int writeTable(EncodingTable table, byte[] output, int offset, int limit) {
+        int weightCount = table.maxSymbol;
+        byte[] weights = new byte[weightCount];
+        int[] weightCounts = new int[HUFFMAN_MAX_WEIGHT + 1];
+        int maxWeight = 0;
+        for (int symbol = 0; symbol < weightCount; symbol++) {
+            int bits = table.numberOfBits[symbol];
+            int weight = bits == 0 ? 0 : table.maxNumberOfBits + 1 - bits;
+            weights[symbol] = (byte) weight;
+            weightCounts[weight]++;
+            maxWeight = Math.max(maxWeight, weight);
+        }
+
+        int size = writeCompressedWeights(weights, weightCounts, maxWeight, output, offset + 1, Math.min(limit, offset + 128));
+        if (size > 1 && size < weightCount / 2) {
+            output[offset] = (byte) size;
+            return size + 1;
+        }
+
+        if (weightCount > 128) {
+            return -1;
+        }
+        int bytes = (weightCount + 1) / 2;
+        if (offset + 1 + bytes > limit) {
+            return -1;
+        }
+        output[offset] = (byte) (127 + weightCount);
+        for (int i = 0; i < weightCount; i += 2) {
+            int high = weights[i];
+            int low = i + 1 < weightCount ? weights[i + 1] : 0;
+            output[offset + 1 + i / 2] = (byte) ((high << 4) | low);
+        }
+        return 1 + bytes;
+    }
+
+    private static int writeCompressedWeights(byte[] weights, int[] weightCounts, int maxWeight, byte[] output, int offset, int limit) {
+        int weightCount = weights.length;
+        if (weightCount <= 1) {
+            return -1;
+        }
+        for (int count : weightCounts) {
+            if (count == weightCount) {
+                // a single repeated weight cannot be expressed with FSE
+                return -1;
+            }
+        }
+
+        int tableLog = FiniteStateEntropy.optimalTableLog(HUFFMAN_WEIGHTS_MAX_TABLE_LOG, weightCount, maxWeight);
+        short[] normalized = FiniteStateEntropy.normalizeCounts(weightCounts, maxWeight, weightCount, tableLog);
+        int headerSize = FiniteStateEntropy.writeNormalizedCounts(output, offset, limit, normalized, maxWeight, tableLog);
+        if (headerSize < 0) {
+            return -1;
+        }
+        FiniteStateEntropy.EncodingTable table = FiniteStateEntropy.buildEncodingTable(normalized, maxWeight, tableLog);
+
+        // the state decoding the first weight is written last
+        BitOutputStream out = new BitOutputStream(output, offset + headerSize, limit);
+        int[] states = new int[2];
+        int last = weightCount - 1;
+        states[last & 1] = table.initialState(weights[last]);
+        states[(last - 1) & 1] = table.initialState(weights[last - 1]);
+        for (int i = last - 2; i >= 0; i--) {
+            states[i & 1] = table.encode(out, states[i & 1], weights[i]);
+        }
+        table.finish(out, states[1]);
+        table.finish(out, states[0]);
+        int streamSize = out.close();
+        if (streamSize < 0) {
+            return -1;
+        }
+        return headerSize + streamSize;
+    }
+
+    /**
+     * @return 写入的字节数, 超出limit时返回-1
+     */
+    static int encodeSingleStream(EncodingTable table, byte[] input, int start, int end, byte[] output, int offset, int limit) {
+        BitOutputStream out = new BitOutputStream(output, offset, limit);
+        int[] codes = table.codes;
+        byte[] numberOfBits = table.numberOfBits;
+        for (int i = end - 1; i >= start; i--) {
+            int symbol = input[i] & 0xFF;
+            out.addBits(codes[symbol], numberOfBits[symbol]);
+        }
+        return out.close();
+    }
+
+    /**
+     * @return 写入的字节数(含6字节跳转表), 超出limit时返回-1
+     */
+    static int encodeFourStreams(EncodingTable table, byte[] input, int start, int end, byte[] output, int offset, int limit) {
+        int segmentSize = (end - start + 3) / 4;
+        int index = offset + 6;
+        if (index > limit) {
+            return -1;
+        }
+        int segmentStart = start;
+        for (int stream = 0; stream < 4; stream++) {
+            int segmentEnd = stream == 3 ? end : segmentStart + segmentSize;
+            int size = encodeSingleStream(table, input, segmentStart, segmentEnd, output, index, limit);
+            if (size < 0 || (stream < 3 && size > 0xFFFF)) {
+                return -1;
+            }
+            if (stream < 3) {
+                output[offset + stream * 2] = (byte) size;
+                output[offset + stream * 2 + 1] = (byte) (size >>> 8);
+            }
+            index += size;
+            segmentStart = segmentEnd;
+        }
+        return index - offset;
+    }
+}
@@ -0,0 +1,62 @@
+package org.iq80.leveldb.util.zstd;
+
+import org.iq80.leveldb.util.Compressor;
+import org.iq80.leveldb.util.DictionaryCompressor;
+
+import java.io.IOException;
+
+/**
+ * 纯Java实现的zstd, 输出标准的zstd frame, 可以和libzstd互相解压,
+ * 字典按raw content字典处理, 对应libzstd的ZSTD_compress_usingDict和ZSTD_decompress_usingDict
+ *
+ * @author yf
+ */
+public class PureJavaZstd
+        implements DictionaryCompressor {
+    // the prepared dictionary, null when compressing without one
+    private final ZstdDictionary dictionary;
+
+    public PureJavaZstd() {
+        this(null);
+    }
+
+    private PureJavaZstd(ZstdDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public Compressor withDictionary(byte[] dictionary) {
+        return new PureJavaZstd(new ZstdDictionary(dictionary.clone()));
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return ZstdFrameCompressor.maxCompressedLength(length);
+    }
+
+    @Override
+    public int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        return ZstdFrameCompressor.compress(dictionary, input, inputOffset, length, output, outputOffset);
+    }
+
+    @Override
+    public int uncompressedLength(byte[] input, int inputOffset, int length)
+            throws IOException {
+        long contentSize = ZstdFrameDecompressor.readContentSize(input, inputOffset, length);
+        if (contentSize < 0 || contentSize > Integer.MAX_VALUE) {
+            throw new IOException("Unsupported zstd frame: content size " + (contentSize < 0 ? "unknown" : contentSize));
+        }
+        return (int) contentSize;
+    }
+
+    @Override
+    public int uncompress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+            throws IOException {
+        int uncompressedLength = uncompressedLength(input, inputOffset, length);
+        if (output.length - outputOffset < uncompressedLength) {
+            throw new IOException("Corrupt zstd data: output buffer too small");
+        }
+        byte[] dictionaryContent = dictionary == null ? null : dictionary.content();
+        return new ZstdFrameDecompressor(output, outputOffset, outputOffset + uncompressedLength, dictionaryContent).decompress(input, inputOffset, length);
+    }
+}
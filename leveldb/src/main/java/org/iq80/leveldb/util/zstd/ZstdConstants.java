@@ -0,0 +1,145 @@
+package org.iq80.leveldb.util.zstd;
+
+/**
+ * zstd格式(RFC 8878)中的常量和编码表
+ *
+ * @author yf
+ */
+final class ZstdConstants {
+    static final int MAGIC_NUMBER = 0xFD2FB528;
+
+    static final int MIN_WINDOW_LOG = 10;
+    static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    static final int BLOCK_HEADER_SIZE = 3;
+    static final int RAW_BLOCK = 0;
+    static final int RLE_BLOCK = 1;
+    static final int COMPRESSED_BLOCK = 2;
+
+    static final int RAW_LITERALS_BLOCK = 0;
+    static final int RLE_LITERALS_BLOCK = 1;
+    static final int COMPRESSED_LITERALS_BLOCK = 2;
+    static final int TREELESS_LITERALS_BLOCK = 3;
+
+    static final int SEQUENCE_ENCODING_PREDEFINED = 0;
+    static final int SEQUENCE_ENCODING_RLE = 1;
+    static final int SEQUENCE_ENCODING_COMPRESSED = 2;
+    static final int SEQUENCE_ENCODING_REPEAT = 3;
+
+    static final int MIN_MATCH = 3;
+    static final int LONG_NUMBER_OF_SEQUENCES = 0x7F00;
+
+    static final int MAX_LITERALS_LENGTH_SYMBOL = 35;
+    static final int MAX_MATCH_LENGTH_SYMBOL = 52;
+    static final int MAX_OFFSET_CODE_SYMBOL = 31;
+
+    static final int LITERALS_LENGTH_TABLE_LOG = 9;
+    static final int MATCH_LENGTH_TABLE_LOG = 9;
+    static final int OFFSET_TABLE_LOG = 8;
+
+    static final int HUFFMAN_MAX_NUMBER_OF_BITS = 11;
+    static final int HUFFMAN_MAX_SYMBOL = 255;
+    static final int HUFFMAN_WEIGHTS_MAX_TABLE_LOG = 6;
+    static final int HUFFMAN_MAX_WEIGHT = 12;
+
+    static final int[] LITERALS_LENGTH_BASE = {
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+            16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 0x80, 0x100, 0x200, 0x400, 0x800, 0x1000,
+            0x2000, 0x4000, 0x8000, 0x10000};
+
+    static final int[] LITERALS_LENGTH_BITS = {
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12,
+            13, 14, 15, 16};
+
+    static final int[] MATCH_LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+            19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34,
+            35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 0x83, 0x103, 0x203, 0x403, 0x803,
+            0x1003, 0x2003, 0x4003, 0x8003, 0x10003};
+
+    static final int[] MATCH_LENGTH_BITS = {
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11,
+            12, 13, 14, 15, 16};
+
+    static final short[] DEFAULT_LITERALS_LENGTH_NORMALIZED_COUNTS = {
+            4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1,
+            -1, -1, -1, -1};
+    static final int DEFAULT_LITERALS_LENGTH_TABLE_LOG = 6;
+
+    static final short[] DEFAULT_MATCH_LENGTH_NORMALIZED_COUNTS = {
+            1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1,
+            -1, -1, -1, -1, -1};
+    static final int DEFAULT_MATCH_LENGTH_TABLE_LOG = 6;
+
+    static final short[] DEFAULT_OFFSET_NORMALIZED_COUNTS = {
+            1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1};
+    static final int DEFAULT_OFFSET_TABLE_LOG = 5;
+
+    private ZstdConstants() {
+    }
+
+    static int highestBit(int value) {
+        return 31 - Integer.numberOfLeadingZeros(value);
+    }
+
+    static int literalsLengthCode(int literalsLength) {
+        return code(LITERALS_LENGTH_BASE, literalsLength);
+    }
+
+    static int matchLengthCode(int matchLength) {
+        return code(MATCH_LENGTH_BASE, matchLength);
+    }
+
+    /**
+     * 最后一个不大于value的base对应的code
+     */
+    private static int code(int[] base, int value) {
+        int low = 0;
+        int high = base.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (base[middle] <= value) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    static int readInt(byte[] data, int index) {
+        return (data[index] & 0xFF) |
+                ((data[index + 1] & 0xFF) << 8) |
+                ((data[index + 2] & 0xFF) << 16) |
+                ((data[index + 3] & 0xFF) << 24);
+    }
+
+    static long readLong(byte[] data, int index) {
+        return (readInt(data, index) & 0xFFFFFFFFL) | ((long) readInt(data, index + 4) << 32);
+    }
+
+    /**
+     * 按小端序读取count(不超过8)个字节
+     */
+    static long readLittleEndian(byte[] data, int index, int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value |= (data[index + i] & 0xFFL) << (8 * i);
+        }
+        return value;
+    }
+
+    static int writeLittleEndian(byte[] output, int index, long value, int count) {
+        for (int i = 0; i < count; i++) {
+            output[index++] = (byte) (value >>> (8 * i));
+        }
+        return index;
+    }
+}
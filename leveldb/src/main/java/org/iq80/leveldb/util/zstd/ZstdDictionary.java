@@ -0,0 +1,50 @@
+package org.iq80.leveldb.util.zstd;
+
+import java.util.Arrays;
+
+import static org.iq80.leveldb.util.zstd.ZstdConstants.readInt;
+import static org.iq80.leveldb.util.zstd.ZstdFrameCompressor.HASH_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdFrameCompressor.hash;
+
+/**
+ * zstd的raw content字典, 即frame之前的一段历史数据:
+ * >>> 1. 字典内容在解压时相当于紧挨着输出开头的数据, 匹配的偏移可以伸进字典
+ * >>> 2. 没有熵表和字典ID, frame头中不写Dictionary_ID, 与libzstd的ZSTD_dct_rawContent一致
+ * >>> 3. 字典的哈希链只构建一次, 之后只读, 可以被多个压缩线程共享
+ *
+ * @author yf
+ */
+final class ZstdDictionary {
+    private final byte[] content;
+    // the latest dictionary position for each hash and the previous position with the same hash, -1 ends a chain
+    private final int[] head;
+    private final int[] chain;
+
+    ZstdDictionary(byte[] content) {
+        this.content = content;
+        this.head = new int[1 << HASH_LOG];
+        this.chain = new int[content.length];
+        Arrays.fill(head, -1);
+        for (int index = 0; index + 4 <= content.length; index++) {
+            int hash = hash(readInt(content, index));
+            chain[index] = head[hash];
+            head[hash] = index;
+        }
+    }
+
+    byte[] content() {
+        return content;
+    }
+
+    int length() {
+        return content.length;
+    }
+
+    int head(int hash) {
+        return head[hash];
+    }
+
+    int next(int index) {
+        return chain[index];
+    }
+}
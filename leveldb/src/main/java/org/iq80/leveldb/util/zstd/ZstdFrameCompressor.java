@@ -0,0 +1,646 @@
+package org.iq80.leveldb.util.zstd;
+
+import java.util.Arrays;
+
+import static org.iq80.leveldb.util.zstd.ZstdConstants.BLOCK_HEADER_SIZE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.COMPRESSED_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.COMPRESSED_LITERALS_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_LITERALS_LENGTH_NORMALIZED_COUNTS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_LITERALS_LENGTH_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_MATCH_LENGTH_NORMALIZED_COUNTS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_MATCH_LENGTH_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_OFFSET_NORMALIZED_COUNTS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_OFFSET_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.LITERALS_LENGTH_BASE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.LITERALS_LENGTH_BITS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.LITERALS_LENGTH_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.LONG_NUMBER_OF_SEQUENCES;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAGIC_NUMBER;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MATCH_LENGTH_BASE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MATCH_LENGTH_BITS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MATCH_LENGTH_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAX_BLOCK_SIZE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAX_LITERALS_LENGTH_SYMBOL;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAX_MATCH_LENGTH_SYMBOL;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAX_OFFSET_CODE_SYMBOL;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MIN_MATCH;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.OFFSET_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.RAW_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.RAW_LITERALS_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.RLE_LITERALS_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.SEQUENCE_ENCODING_COMPRESSED;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.SEQUENCE_ENCODING_PREDEFINED;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.SEQUENCE_ENCODING_RLE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.highestBit;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.literalsLengthCode;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.matchLengthCode;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.readInt;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.writeLittleEndian;
+
+/**
+ * 把输入压缩为一个单segment的zstd frame:
+ * >>> 1. frame头带Frame_Content_Size, 不带content checksum, 窗口即整个输入
+ * >>> 2. 输入按128KB切分为block, 压缩后不比原始数据小的block以原始格式存储
+ * >>> 3. 匹配查找使用哈希链加一步惰性匹配, 优先复用最近的偏移
+ * >>> 4. 字面量尽量用huffman编码, sequence的每种符号按估算的比特数在预定义表、RLE和新FSE表之间选择
+ * >>> 5. 使用字典时字典内容位于输入之前, 匹配可以从字典开始并延续到输入中
+ * <p>
+ * 压缩率介于zstd的1级和3级之间, 解压速度与压缩级别无关
+ *
+ * @author yf
+ */
+final class ZstdFrameCompressor {
+    private static final int MAX_FRAME_HEADER_SIZE = 4 + 1 + 8;
+
+    static final int HASH_LOG = 16;
+    private static final int MAX_CHAIN_LENGTH = 16;
+    private static final int MIN_HUFFMAN_LITERALS = 64;
+
+    private static final FiniteStateEntropy.EncodingTable DEFAULT_LITERALS_LENGTH_TABLE = FiniteStateEntropy.buildEncodingTable(
+            DEFAULT_LITERALS_LENGTH_NORMALIZED_COUNTS, DEFAULT_LITERALS_LENGTH_NORMALIZED_COUNTS.length - 1, DEFAULT_LITERALS_LENGTH_TABLE_LOG);
+    private static final FiniteStateEntropy.EncodingTable DEFAULT_MATCH_LENGTH_TABLE = FiniteStateEntropy.buildEncodingTable(
+            DEFAULT_MATCH_LENGTH_NORMALIZED_COUNTS, DEFAULT_MATCH_LENGTH_NORMALIZED_COUNTS.length - 1, DEFAULT_MATCH_LENGTH_TABLE_LOG);
+    private static final FiniteStateEntropy.EncodingTable DEFAULT_OFFSET_TABLE = FiniteStateEntropy.buildEncodingTable(
+            DEFAULT_OFFSET_NORMALIZED_COUNTS, DEFAULT_OFFSET_NORMALIZED_COUNTS.length - 1, DEFAULT_OFFSET_TABLE_LOG);
+
+    private final byte[] input;
+    private final int inputStart;
+    private final int inputEnd;
+
+    private final ZstdDictionary dictionary;
+    private final byte[] dictionaryContent;
+    // positions below inputStart address the dictionary, which starts at this position
+    private final int dictionaryBase;
+
+    private final int[] head = new int[1 << HASH_LOG];
+    private final int[] chain;
+    private int nextToInsert;
+
+    private final int[] repeatOffsets = {1, 4, 8};
+
+    // sequences of the current block
+    private int sequenceCount;
+    private int[] literalsLengths;
+    private int[] matchLengths;
+    private int[] offsetValues;
+    private byte[] literals;
+    private int literalsSize;
+
+    private ZstdFrameCompressor(byte[] input, int inputOffset, int length, ZstdDictionary dictionary) {
+        this.input = input;
+        this.inputStart = inputOffset;
+        this.inputEnd = inputOffset + length;
+        this.dictionary = dictionary;
+        this.dictionaryContent = dictionary == null ? null : dictionary.content();
+        this.dictionaryBase = dictionary == null ? inputOffset : inputOffset - dictionary.length();
+        this.chain = new int[length];
+        this.nextToInsert = inputOffset;
+        Arrays.fill(head, -1);
+    }
+
+    static int maxCompressedLength(int length) {
+        int blocks = Math.max(1, (length + MAX_BLOCK_SIZE - 1) / MAX_BLOCK_SIZE);
+        return MAX_FRAME_HEADER_SIZE + length + blocks * BLOCK_HEADER_SIZE;
+    }
+
+    /**
+     * @return 写入output的字节数
+     */
+    static int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        return compress(null, input, inputOffset, length, output, outputOffset);
+    }
+
+    /**
+     * @param dictionary 为null时不使用字典
+     * @return 写入output的字节数
+     */
+    static int compress(ZstdDictionary dictionary, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        return new ZstdFrameCompressor(input, inputOffset, length, dictionary).compress(output, outputOffset);
+    }
+
+    private int compress(byte[] output, int outputOffset) {
+        int outputIndex = writeFrameHeader(output, outputOffset, inputEnd - inputStart);
+
+        int blockStart = inputStart;
+        do {
+            int blockEnd = Math.min(blockStart + MAX_BLOCK_SIZE, inputEnd);
+            int blockSize = blockEnd - blockStart;
+            boolean lastBlock = blockEnd == inputEnd;
+
+            int[] savedRepeatOffsets = repeatOffsets.clone();
+            findSequences(blockStart, blockEnd);
+            int compressedSize = -1;
+            if (blockSize > 0) {
+                int contentStart = outputIndex + BLOCK_HEADER_SIZE;
+                compressedSize = encodeBlock(output, contentStart, contentStart + blockSize - 1);
+            }
+
+            if (compressedSize > 0) {
+                int header = (lastBlock ? 1 : 0) | (COMPRESSED_BLOCK << 1) | (compressedSize << 3);
+                writeLittleEndian(output, outputIndex, header, BLOCK_HEADER_SIZE);
+                outputIndex += BLOCK_HEADER_SIZE + compressedSize;
+            } else {
+                // the decoder never sees the sequences of a raw block
+                System.arraycopy(savedRepeatOffsets, 0, repeatOffsets, 0, repeatOffsets.length);
+                int header = (lastBlock ? 1 : 0) | (RAW_BLOCK << 1) | (blockSize << 3);
+                writeLittleEndian(output, outputIndex, header, BLOCK_HEADER_SIZE);
+                outputIndex += BLOCK_HEADER_SIZE;
+                System.arraycopy(input, blockStart, output, outputIndex, blockSize);
+                outputIndex += blockSize;
+            }
+            blockStart = blockEnd;
+        } while (blockStart < inputEnd);
+
+        return outputIndex - outputOffset;
+    }
+
+    private static int writeFrameHeader(byte[] output, int outputIndex, int contentSize) {
+        outputIndex = writeLittleEndian(output, outputIndex, MAGIC_NUMBER, 4);
+        // single segment, no checksum, no dictionary
+        if (contentSize < 256) {
+            output[outputIndex++] = (byte) 0x20;
+            output[outputIndex++] = (byte) contentSize;
+        } else if (contentSize < 65536 + 256) {
+            output[outputIndex++] = (byte) (0x20 | (1 << 6));
+            outputIndex = writeLittleEndian(output, outputIndex, contentSize - 256, 2);
+        } else {
+            output[outputIndex++] = (byte) (0x20 | (2 << 6));
+            outputIndex = writeLittleEndian(output, outputIndex, contentSize, 4);
+        }
+        return outputIndex;
+    }
+
+    // ------------------------------------------------------------------ match finding
+
+    private void findSequences(int blockStart, int blockEnd) {
+        int blockSize = blockEnd - blockStart;
+        int maxSequences = blockSize / MIN_MATCH + 1;
+        if (literalsLengths == null || literalsLengths.length < maxSequences) {
+            literalsLengths = new int[maxSequences];
+            matchLengths = new int[maxSequences];
+            offsetValues = new int[maxSequences];
+        }
+        if (literals == null || literals.length < blockSize) {
+            literals = new byte[blockSize];
+        }
+        sequenceCount = 0;
+        literalsSize = 0;
+
+        int anchor = blockStart;
+        int index = blockStart;
+        int matchSearchLimit = blockEnd - 4;
+        while (index <= matchSearchLimit) {
+            long match = findMatch(index, anchor, blockEnd);
+            int matchLength = (int) (match >>> 32);
+            if (matchLength < 4) {
+                index++;
+                continue;
+            }
+            int matchStart = index;
+            int offset = (int) match;
+
+            // lazy evaluation: prefer a clearly longer match one byte later
+            if (index + 1 <= matchSearchLimit) {
+                long next = findMatch(index + 1, anchor, blockEnd);
+                int nextLength = (int) (next >>> 32);
+                if (nextLength > matchLength + 1) {
+                    matchStart = index + 1;
+                    matchLength = nextLength;
+                    offset = (int) next;
+                }
+            }
+
+            // extend backwards over pending literals
+            while (matchStart > anchor && matchStart - offset > dictionaryBase && input[matchStart - 1] == byteAt(matchStart - 1 - offset)) {
+                matchStart--;
+                matchLength++;
+            }
+
+            addSequence(anchor, matchStart - anchor, offset, matchLength);
+            index = matchStart + matchLength;
+            anchor = index;
+        }
+
+        int remaining = blockEnd - anchor;
+        System.arraycopy(input, anchor, literals, literalsSize, remaining);
+        literalsSize += remaining;
+    }
+
+    /**
+     * @return 高32位是匹配长度, 低32位是偏移, 没有匹配时长度为0
+     */
+    private long findMatch(int index, int anchor, int limit) {
+        insertUpTo(index);
+
+        int bestLength = 0;
+        int bestOffset = 0;
+
+        int repeatOffset = index == anchor ? repeatOffsets[1] : repeatOffsets[0];
+        if (index - repeatOffset >= dictionaryBase) {
+            int length = matchLength(index - repeatOffset, index, limit);
+            if (length >= MIN_MATCH) {
+                bestLength = length;
+                bestOffset = repeatOffset;
+            }
+        }
+
+        int hash = hash(readInt(input, index));
+        int candidate = head[hash];
+        int depth = MAX_CHAIN_LENGTH;
+        while (candidate >= inputStart && index + bestLength < limit && depth-- > 0) {
+            if (input[candidate + bestLength] == input[index + bestLength]) {
+                int length = matchLength(candidate, index, limit);
+                // a repeated offset is cheaper to encode, so only replace it with a longer match
+                if (length > bestLength + (bestOffset == repeatOffset ? 1 : 0)) {
+                    bestLength = length;
+                    bestOffset = index - candidate;
+                }
+            }
+            candidate = chain[candidate - inputStart];
+        }
+
+        if (dictionary != null) {
+            int dictionaryIndex = dictionary.head(hash);
+            depth = MAX_CHAIN_LENGTH;
+            while (dictionaryIndex >= 0 && index + bestLength < limit && depth-- > 0) {
+                candidate = dictionaryBase + dictionaryIndex;
+                if (byteAt(candidate + bestLength) == input[index + bestLength]) {
+                    int length = matchLength(candidate, index, limit);
+                    // input matches have smaller offsets, so the dictionary has to do better
+                    if (length > bestLength + (bestOffset == repeatOffset ? 1 : 0)) {
+                        bestLength = length;
+                        bestOffset = index - candidate;
+                    }
+                }
+                dictionaryIndex = dictionary.next(dictionaryIndex);
+            }
+        }
+
+        insert(index);
+        return ((long) bestLength << 32) | (bestOffset & 0xFFFFFFFFL);
+    }
+
+    private int matchLength(int candidate, int index, int limit) {
+        int length = 0;
+        // a match starting in the dictionary may run on into the input
+        while (candidate + length < inputStart && index + length < limit && dictionaryContent[candidate + length - dictionaryBase] == input[index + length]) {
+            length++;
+        }
+        if (candidate + length < inputStart) {
+            return length;
+        }
+        while (index + length < limit && input[candidate + length] == input[index + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    private byte byteAt(int position) {
+        return position >= inputStart ? input[position] : dictionaryContent[position - dictionaryBase];
+    }
+
+    private void insertUpTo(int index) {
+        while (nextToInsert < index) {
+            insert(nextToInsert);
+        }
+    }
+
+    private void insert(int index) {
+        if (index < nextToInsert) {
+            return;
+        }
+        if (index + 4 <= inputEnd) {
+            int hash = hash(readInt(input, index));
+            chain[index - inputStart] = head[hash];
+            head[hash] = index;
+        }
+        nextToInsert = index + 1;
+    }
+
+    static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private void addSequence(int literalsStart, int literalsLength, int offset, int matchLength) {
+        System.arraycopy(input, literalsStart, literals, literalsSize, literalsLength);
+        literalsSize += literalsLength;
+
+        // mirror the decoder's repeat offset bookkeeping
+        int[] repeat = repeatOffsets;
+        int shift = literalsLength == 0 ? 1 : 0;
+        int offsetValue = 0;
+        for (int repeatIndex = shift; repeatIndex <= 2 + shift; repeatIndex++) {
+            int candidate = repeatIndex == 3 ? repeat[0] - 1 : repeat[repeatIndex];
+            if (candidate == offset) {
+                offsetValue = repeatIndex + 1 - shift;
+                if (repeatIndex != 0) {
+                    if (repeatIndex != 1) {
+                        repeat[2] = repeat[1];
+                    }
+                    repeat[1] = repeat[0];
+                    repeat[0] = offset;
+                }
+                break;
+            }
+        }
+        if (offsetValue == 0) {
+            offsetValue = offset + 3;
+            repeat[2] = repeat[1];
+            repeat[1] = repeat[0];
+            repeat[0] = offset;
+        }
+
+        literalsLengths[sequenceCount] = literalsLength;
+        matchLengths[sequenceCount] = matchLength;
+        offsetValues[sequenceCount] = offsetValue;
+        sequenceCount++;
+    }
+
+    // ------------------------------------------------------------------ entropy coding
+
+    /**
+     * @return 压缩block的大小, 超出limit时返回-1
+     */
+    private int encodeBlock(byte[] output, int outputIndex, int limit) {
+        int literalsSectionSize = encodeLiterals(output, outputIndex, limit);
+        if (literalsSectionSize < 0) {
+            return -1;
+        }
+        int sequencesSectionSize = encodeSequences(output, outputIndex + literalsSectionSize, limit);
+        if (sequencesSectionSize < 0) {
+            return -1;
+        }
+        return literalsSectionSize + sequencesSectionSize;
+    }
+
+    private int encodeLiterals(byte[] output, int outputIndex, int limit) {
+        int size = literalsSize;
+        boolean allSame = size > 0;
+        for (int i = 1; i < size && allSame; i++) {
+            allSame = literals[i] == literals[0];
+        }
+        if (allSame && size > 1) {
+            int headerSize = writeRawLiteralsHeader(output, outputIndex, limit, RLE_LITERALS_BLOCK, size);
+            if (headerSize < 0 || outputIndex + headerSize + 1 > limit) {
+                return -1;
+            }
+            output[outputIndex + headerSize] = literals[0];
+            return headerSize + 1;
+        }
+
+        if (size >= MIN_HUFFMAN_LITERALS) {
+            int huffmanSize = encodeHuffmanLiterals(output, outputIndex, limit);
+            if (huffmanSize > 0) {
+                return huffmanSize;
+            }
+        }
+
+        int headerSize = writeRawLiteralsHeader(output, outputIndex, limit, RAW_LITERALS_BLOCK, size);
+        if (headerSize < 0 || outputIndex + headerSize + size > limit) {
+            return -1;
+        }
+        System.arraycopy(literals, 0, output, outputIndex + headerSize, size);
+        return headerSize + size;
+    }
+
+    private static int writeRawLiteralsHeader(byte[] output, int outputIndex, int limit, int type, int size) {
+        if (size < 32) {
+            if (outputIndex + 1 > limit) {
+                return -1;
+            }
+            output[outputIndex] = (byte) (type | (size << 3));
+            return 1;
+        } else if (size < 4096) {
+            if (outputIndex + 2 > limit) {
+                return -1;
+            }
+            writeLittleEndian(output, outputIndex, type | (1 << 2) | (size << 4), 2);
+            return 2;
+        } else {
+            if (outputIndex + 3 > limit) {
+                return -1;
+            }
+            writeLittleEndian(output, outputIndex, type | (3 << 2) | (size << 4), 3);
+            return 3;
+        }
+    }
+
+    /**
+     * @return 字面量段的大小, 不划算或者超出limit时返回-1
+     */
+    private int encodeHuffmanLiterals(byte[] output, int outputIndex, int limit) {
+        int size = literalsSize;
+        int[] counts = new int[256];
+        int maxSymbol = 0;
+        for (int i = 0; i < size; i++) {
+            int symbol = literals[i] & 0xFF;
+            counts[symbol]++;
+            maxSymbol = Math.max(maxSymbol, symbol);
+        }
+        Huffman.EncodingTable table = Huffman.buildEncodingTable(counts, maxSymbol);
+        if (table == null) {
+            return -1;
+        }
+
+        boolean singleStream = size < 256;
+        int headerSize = singleStream ? 3 : size < 1024 ? 3 : size < 16384 ? 4 : 5;
+        // raw literals are preferred unless huffman saves something
+        int sectionLimit = Math.min(limit, outputIndex + size);
+        int index = outputIndex + headerSize;
+        int tableSize = Huffman.writeTable(table, output, index, sectionLimit);
+        if (tableSize < 0) {
+            return -1;
+        }
+        index += tableSize;
+        int streamsSize = singleStream
+                ? Huffman.encodeSingleStream(table, literals, 0, size, output, index, sectionLimit)
+                : Huffman.encodeFourStreams(table, literals, 0, size, output, index, sectionLimit);
+        if (streamsSize < 0) {
+            return -1;
+        }
+        int compressedSize = tableSize + streamsSize;
+
+        int sizeFormat;
+        int sizeBits;
+        if (singleStream) {
+            sizeFormat = 0;
+            sizeBits = 10;
+        } else if (headerSize == 3) {
+            sizeFormat = 1;
+            sizeBits = 10;
+        } else if (headerSize == 4) {
+            sizeFormat = 2;
+            sizeBits = 14;
+        } else {
+            sizeFormat = 3;
+            sizeBits = 18;
+        }
+        if (compressedSize >= (1 << sizeBits)) {
+            return -1;
+        }
+        long header = COMPRESSED_LITERALS_BLOCK | (sizeFormat << 2) | ((long) size << 4) | ((long) compressedSize << (4 + sizeBits));
+        writeLittleEndian(output, outputIndex, header, headerSize);
+        return headerSize + compressedSize;
+    }
+
+    private int encodeSequences(byte[] output, int outputIndex, int limit) {
+        int count = sequenceCount;
+        int index = outputIndex;
+        if (index + 4 > limit) {
+            return -1;
+        }
+        if (count < 128) {
+            output[index++] = (byte) count;
+        } else if (count < LONG_NUMBER_OF_SEQUENCES) {
+            output[index++] = (byte) ((count >>> 8) + 128);
+            output[index++] = (byte) count;
+        } else {
+            output[index++] = (byte) 255;
+            index = writeLittleEndian(output, index, count - LONG_NUMBER_OF_SEQUENCES, 2);
+        }
+        if (count == 0) {
+            return index - outputIndex;
+        }
+
+        byte[] literalsLengthCodes = new byte[count];
+        byte[] matchLengthCodes = new byte[count];
+        byte[] offsetCodes = new byte[count];
+        int[] literalsLengthCounts = new int[MAX_LITERALS_LENGTH_SYMBOL + 1];
+        int[] matchLengthCounts = new int[MAX_MATCH_LENGTH_SYMBOL + 1];
+        int[] offsetCounts = new int[MAX_OFFSET_CODE_SYMBOL + 1];
+        for (int i = 0; i < count; i++) {
+            int literalsLengthCode = literalsLengthCode(literalsLengths[i]);
+            int matchLengthCode = matchLengthCode(matchLengths[i]);
+            int offsetCode = highestBit(offsetValues[i]);
+            literalsLengthCodes[i] = (byte) literalsLengthCode;
+            matchLengthCodes[i] = (byte) matchLengthCode;
+            offsetCodes[i] = (byte) offsetCode;
+            literalsLengthCounts[literalsLengthCode]++;
+            matchLengthCounts[matchLengthCode]++;
+            offsetCounts[offsetCode]++;
+        }
+
+        int modesIndex = index++;
+        SymbolTable literalsLengthTable = chooseTable(literalsLengthCounts, MAX_LITERALS_LENGTH_SYMBOL, count, LITERALS_LENGTH_TABLE_LOG,
+                DEFAULT_LITERALS_LENGTH_NORMALIZED_COUNTS, DEFAULT_LITERALS_LENGTH_TABLE_LOG, DEFAULT_LITERALS_LENGTH_TABLE);
+        SymbolTable offsetTable = chooseTable(offsetCounts, MAX_OFFSET_CODE_SYMBOL, count, OFFSET_TABLE_LOG,
+                DEFAULT_OFFSET_NORMALIZED_COUNTS, DEFAULT_OFFSET_TABLE_LOG, DEFAULT_OFFSET_TABLE);
+        SymbolTable matchLengthTable = chooseTable(matchLengthCounts, MAX_MATCH_LENGTH_SYMBOL, count, MATCH_LENGTH_TABLE_LOG,
+                DEFAULT_MATCH_LENGTH_NORMALIZED_COUNTS, DEFAULT_MATCH_LENGTH_TABLE_LOG, DEFAULT_MATCH_LENGTH_TABLE);
+        output[modesIndex] = (byte) ((literalsLengthTable.mode << 6) | (offsetTable.mode << 4) | (matchLengthTable.mode << 2));
+        for (SymbolTable table : new SymbolTable[] {literalsLengthTable, offsetTable, matchLengthTable}) {
+            if (index + table.header.length > limit) {
+                return -1;
+            }
+            System.arraycopy(table.header, 0, output, index, table.header.length);
+            index += table.header.length;
+        }
+
+        FiniteStateEntropy.EncodingTable llTable = literalsLengthTable.table;
+        FiniteStateEntropy.EncodingTable mlTable = matchLengthTable.table;
+        FiniteStateEntropy.EncodingTable ofTable = offsetTable.table;
+
+        BitOutputStream out = new BitOutputStream(output, index, limit);
+        int last = count - 1;
+        int mlState = initialState(mlTable, matchLengthCodes[last]);
+        int ofState = initialState(ofTable, offsetCodes[last]);
+        int llState = initialState(llTable, literalsLengthCodes[last]);
+        writeExtraBits(out, last, literalsLengthCodes[last], matchLengthCodes[last], offsetCodes[last]);
+        for (int i = last - 1; i >= 0; i--) {
+            ofState = encode(ofTable, out, ofState, offsetCodes[i]);
+            mlState = encode(mlTable, out, mlState, matchLengthCodes[i]);
+            llState = encode(llTable, out, llState, literalsLengthCodes[i]);
+            writeExtraBits(out, i, literalsLengthCodes[i], matchLengthCodes[i], offsetCodes[i]);
+        }
+        finish(mlTable, out, mlState);
+        finish(ofTable, out, ofState);
+        finish(llTable, out, llState);
+        int streamSize = out.close();
+        if (streamSize < 0) {
+            return -1;
+        }
+        return index + streamSize - outputIndex;
+    }
+
+    private void writeExtraBits(BitOutputStream out, int sequence, int literalsLengthCode, int matchLengthCode, int offsetCode) {
+        out.addBits(literalsLengths[sequence] - LITERALS_LENGTH_BASE[literalsLengthCode], LITERALS_LENGTH_BITS[literalsLengthCode]);
+        out.addBits(matchLengths[sequence] - MATCH_LENGTH_BASE[matchLengthCode], MATCH_LENGTH_BITS[matchLengthCode]);
+        out.addBits(offsetValues[sequence], offsetCode);
+    }
+
+    private static int initialState(FiniteStateEntropy.EncodingTable table, int symbol) {
+        return table == null ? 0 : table.initialState(symbol);
+    }
+
+    private static int encode(FiniteStateEntropy.EncodingTable table, BitOutputStream out, int state, int symbol) {
+        return table == null ? 0 : table.encode(out, state, symbol);
+    }
+
+    private static void finish(FiniteStateEntropy.EncodingTable table, BitOutputStream out, int state) {
+        if (table != null) {
+            table.finish(out, state);
+        }
+    }
+
+    /**
+     * 一种符号的编码方式, RLE模式下table为null, 解码不消耗比特
+     */
+    private static final class SymbolTable {
+        final int mode;
+        final byte[] header;
+        final FiniteStateEntropy.EncodingTable table;
+
+        SymbolTable(int mode, byte[] header, FiniteStateEntropy.EncodingTable table) {
+            this.mode = mode;
+            this.header = header;
+            this.table = table;
+        }
+    }
+
+    private static SymbolTable chooseTable(int[] counts, int maxSymbol, int total, int maxTableLog,
+            short[] defaultCounts, int defaultTableLog, FiniteStateEntropy.EncodingTable defaultTable) {
+        int usedMaxSymbol = 0;
+        int distinct = 0;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            if (counts[symbol] > 0) {
+                usedMaxSymbol = symbol;
+                distinct++;
+            }
+        }
+        if (distinct == 1) {
+            return new SymbolTable(SEQUENCE_ENCODING_RLE, new byte[] {(byte) usedMaxSymbol}, null);
+        }
+
+        double predefinedCost = cost(counts, usedMaxSymbol, defaultCounts, defaultTableLog);
+
+        int tableLog = FiniteStateEntropy.optimalTableLog(maxTableLog, total, usedMaxSymbol);
+        short[] normalized = FiniteStateEntropy.normalizeCounts(counts, usedMaxSymbol, total, tableLog);
+        byte[] header = new byte[512];
+        int headerSize = FiniteStateEntropy.writeNormalizedCounts(header, 0, header.length, normalized, usedMaxSymbol, tableLog);
+        double compressedCost = headerSize * 8 + cost(counts, usedMaxSymbol, normalized, tableLog);
+
+        if (predefinedCost <= compressedCost) {
+            return new SymbolTable(SEQUENCE_ENCODING_PREDEFINED, new byte[0], defaultTable);
+        }
+        return new SymbolTable(SEQUENCE_ENCODING_COMPRESSED, Arrays.copyOf(header, headerSize),
+                FiniteStateEntropy.buildEncodingTable(normalized, usedMaxSymbol, tableLog));
+    }
+
+    /**
+     * 用归一化计数估算编码所有符号的比特数, 表中没有的符号代价为无穷大
+     */
+    private static double cost(int[] counts, int maxSymbol, short[] normalizedCounts, int tableLog) {
+        double bits = 0;
+        for (int symbol = 0; symbol <= maxSymbol; symbol++) {
+            if (counts[symbol] == 0) {
+                continue;
+            }
+            if (symbol >= normalizedCounts.length || normalizedCounts[symbol] == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            int probability = normalizedCounts[symbol] == -1 ? 1 : normalizedCounts[symbol];
+            bits += counts[symbol] * (tableLog - Math.log(probability) / Math.log(2));
+        }
+        return bits;
+    }
+}
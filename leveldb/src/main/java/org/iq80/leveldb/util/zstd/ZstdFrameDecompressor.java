@@ -0,0 +1,555 @@
+package org.iq80.leveldb.util.zstd;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.iq80.leveldb.util.zstd.ZstdConstants.BLOCK_HEADER_SIZE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.COMPRESSED_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.COMPRESSED_LITERALS_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_LITERALS_LENGTH_NORMALIZED_COUNTS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_LITERALS_LENGTH_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_MATCH_LENGTH_NORMALIZED_COUNTS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_MATCH_LENGTH_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_OFFSET_NORMALIZED_COUNTS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.DEFAULT_OFFSET_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.LITERALS_LENGTH_BASE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.LITERALS_LENGTH_BITS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.LITERALS_LENGTH_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.LONG_NUMBER_OF_SEQUENCES;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAGIC_NUMBER;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MATCH_LENGTH_BASE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MATCH_LENGTH_BITS;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MATCH_LENGTH_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAX_BLOCK_SIZE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAX_LITERALS_LENGTH_SYMBOL;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAX_MATCH_LENGTH_SYMBOL;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.MAX_OFFSET_CODE_SYMBOL;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.OFFSET_TABLE_LOG;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.RAW_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.RAW_LITERALS_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.RLE_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.RLE_LITERALS_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.SEQUENCE_ENCODING_COMPRESSED;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.SEQUENCE_ENCODING_PREDEFINED;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.SEQUENCE_ENCODING_REPEAT;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.SEQUENCE_ENCODING_RLE;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.TREELESS_LITERALS_BLOCK;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.readInt;
+import static org.iq80.leveldb.util.zstd.ZstdConstants.readLittleEndian;
+
+/**
+ * 解压单个zstd frame, 每次解压使用一个新实例:
+ * >>> 1. frame头之后是一串block, 每个block是原始数据、单字节重复或者压缩数据
+ * >>> 2. 压缩block先是字面量段, 再是sequence段, 每个sequence是(字面量长度, 偏移, 匹配长度)
+ * >>> 3. huffman码表、FSE表和最近三个偏移在block之间延续
+ * >>> 4. 使用raw content字典时, 超出已输出数据的偏移从字典末尾往前取
+ * <p>
+ * 不校验frame尾部的content checksum
+ *
+ * @author yf
+ */
+final class ZstdFrameDecompressor {
+    private static final FiniteStateEntropy.DecodingTable DEFAULT_LITERALS_LENGTH_TABLE = defaultTable(DEFAULT_LITERALS_LENGTH_NORMALIZED_COUNTS, DEFAULT_LITERALS_LENGTH_TABLE_LOG);
+    private static final FiniteStateEntropy.DecodingTable DEFAULT_MATCH_LENGTH_TABLE = defaultTable(DEFAULT_MATCH_LENGTH_NORMALIZED_COUNTS, DEFAULT_MATCH_LENGTH_TABLE_LOG);
+    private static final FiniteStateEntropy.DecodingTable DEFAULT_OFFSET_TABLE = defaultTable(DEFAULT_OFFSET_NORMALIZED_COUNTS, DEFAULT_OFFSET_TABLE_LOG);
+
+    private final byte[] output;
+    private final int outputStart;
+    private final int outputLimit;
+    private int outputIndex;
+
+    private final byte[] dictionary;
+
+    private final int[] repeatOffsets = {1, 4, 8};
+
+    private Huffman.DecodingTable huffmanTable;
+    private byte[] literalsBuffer;
+
+    private final FiniteStateEntropy.DecodingTable literalsLengthScratch = new FiniteStateEntropy.DecodingTable(LITERALS_LENGTH_TABLE_LOG);
+    private final FiniteStateEntropy.DecodingTable matchLengthScratch = new FiniteStateEntropy.DecodingTable(MATCH_LENGTH_TABLE_LOG);
+    private final FiniteStateEntropy.DecodingTable offsetScratch = new FiniteStateEntropy.DecodingTable(OFFSET_TABLE_LOG);
+    private FiniteStateEntropy.DecodingTable literalsLengthTable;
+    private FiniteStateEntropy.DecodingTable matchLengthTable;
+    private FiniteStateEntropy.DecodingTable offsetTable;
+
+    ZstdFrameDecompressor(byte[] output, int outputOffset, int outputLimit) {
+        this(output, outputOffset, outputLimit, null);
+    }
+
+    /**
+     * @param dictionary raw content字典, 为null时不使用字典
+     */
+    ZstdFrameDecompressor(byte[] output, int outputOffset, int outputLimit, byte[] dictionary) {
+        this.output = output;
+        this.outputStart = outputOffset;
+        this.outputLimit = outputLimit;
+        this.outputIndex = outputOffset;
+        this.dictionary = dictionary;
+    }
+
+    private static FiniteStateEntropy.DecodingTable defaultTable(short[] normalizedCounts, int tableLog) {
+        FiniteStateEntropy.DecodingTable table = new FiniteStateEntropy.DecodingTable(tableLog);
+        try {
+            FiniteStateEntropy.buildDecodingTable(table, normalizedCounts, normalizedCounts.length - 1, tableLog);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return table;
+    }
+
+    /**
+     * 读取frame头中的Frame_Content_Size
+     *
+     * @return 原始长度, frame头中没有时返回-1
+     */
+    static long readContentSize(byte[] input, int offset, int length)
+            throws IOException {
+        FrameHeader header = readFrameHeader(input, offset, offset + length);
+        return header.contentSize;
+    }
+
+    /**
+     * @return 写入output的字节数
+     */
+    int decompress(byte[] input, int offset, int length)
+            throws IOException {
+        try {
+            int end = offset + length;
+            FrameHeader header = readFrameHeader(input, offset, end);
+            int index = offset + header.size;
+
+            boolean lastBlock;
+            do {
+                if (index + BLOCK_HEADER_SIZE > end) {
+                    throw new IOException("Corrupt zstd data: truncated block header");
+                }
+                int blockHeader = (int) readLittleEndian(input, index, BLOCK_HEADER_SIZE);
+                index += BLOCK_HEADER_SIZE;
+                lastBlock = (blockHeader & 1) != 0;
+                int blockType = (blockHeader >>> 1) & 3;
+                int blockSize = blockHeader >>> 3;
+                switch (blockType) {
+                    case RAW_BLOCK:
+                        checkInput(index + blockSize, end);
+                        checkOutput(blockSize);
+                        System.arraycopy(input, index, output, outputIndex, blockSize);
+                        outputIndex += blockSize;
+                        index += blockSize;
+                        break;
+                    case RLE_BLOCK:
+                        checkInput(index + 1, end);
+                        checkOutput(blockSize);
+                        fill(input[index], blockSize);
+                        index += 1;
+                        break;
+                    case COMPRESSED_BLOCK:
+                        if (blockSize > MAX_BLOCK_SIZE) {
+                            throw new IOException("Corrupt zstd data: block size " + blockSize + " is too large");
+                        }
+                        checkInput(index + blockSize, end);
+                        decodeCompressedBlock(input, index, index + blockSize);
+                        index += blockSize;
+                        break;
+                    default:
+                        throw new IOException("Corrupt zstd data: reserved block type");
+                }
+            } while (!lastBlock);
+
+            if (header.hasChecksum) {
+                checkInput(index + 4, end);
+            }
+
+            int written = outputIndex - outputStart;
+            if (header.contentSize >= 0 && written != header.contentSize) {
+                throw new IOException("Corrupt zstd data: expected " + header.contentSize + " bytes but got " + written);
+            }
+            return written;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt zstd data", e);
+        }
+    }
+
+    private void decodeCompressedBlock(byte[] input, int index, int end)
+            throws IOException {
+        // literals section
+        checkInput(index + 1, end);
+        int literalsType = input[index] & 3;
+        int sizeFormat = (input[index] >>> 2) & 3;
+        byte[] literals;
+        int literalsIndex;
+        int literalsSize;
+        switch (literalsType) {
+            case RAW_LITERALS_BLOCK:
+            case RLE_LITERALS_BLOCK: {
+                int headerSize;
+                switch (sizeFormat) {
+                    case 1:
+                        headerSize = 2;
+                        break;
+                    case 3:
+                        headerSize = 3;
+                        break;
+                    default:
+                        headerSize = 1;
+                }
+                checkInput(index + headerSize, end);
+                int header = (int) readLittleEndian(input, index, headerSize);
+                literalsSize = headerSize == 1 ? header >>> 3 : header >>> 4;
+                index += headerSize;
+                if (literalsType == RAW_LITERALS_BLOCK) {
+                    checkInput(index + literalsSize, end);
+                    literals = input;
+                    literalsIndex = index;
+                    index += literalsSize;
+                } else {
+                    checkInput(index + 1, end);
+                    literals = literalsBuffer(literalsSize);
+                    literalsIndex = 0;
+                    Arrays.fill(literals, 0, literalsSize, input[index]);
+                    index += 1;
+                }
+                break;
+            }
+            case COMPRESSED_LITERALS_BLOCK:
+            case TREELESS_LITERALS_BLOCK: {
+                int headerSize;
+                int sizeBits;
+                switch (sizeFormat) {
+                    case 2:
+                        headerSize = 4;
+                        sizeBits = 14;
+                        break;
+                    case 3:
+                        headerSize = 5;
+                        sizeBits = 18;
+                        break;
+                    default:
+                        headerSize = 3;
+                        sizeBits = 10;
+                }
+                checkInput(index + headerSize, end);
+                long header = readLittleEndian(input, index, headerSize);
+                literalsSize = (int) ((header >>> 4) & ((1 << sizeBits) - 1));
+                int compressedSize = (int) ((header >>> (4 + sizeBits)) & ((1 << sizeBits) - 1));
+                index += headerSize;
+                checkInput(index + compressedSize, end);
+                if (literalsSize > MAX_BLOCK_SIZE) {
+                    throw new IOException("Corrupt zstd data: too many literals");
+                }
+
+                int streamsEnd = index + compressedSize;
+                if (literalsType == COMPRESSED_LITERALS_BLOCK) {
+                    if (huffmanTable == null) {
+                        huffmanTable = new Huffman.DecodingTable();
+                    }
+                    index += Huffman.readTable(huffmanTable, input, index, streamsEnd);
+                } else if (huffmanTable == null) {
+                    throw new IOException("Corrupt zstd data: treeless literals without a previous huffman table");
+                }
+
+                literals = literalsBuffer(literalsSize);
+                literalsIndex = 0;
+                if (sizeFormat == 0) {
+                    Huffman.decodeSingleStream(huffmanTable, input, index, streamsEnd, literals, 0, literalsSize);
+                } else {
+                    Huffman.decodeFourStreams(huffmanTable, input, index, streamsEnd, literals, 0, literalsSize);
+                }
+                index = streamsEnd;
+                break;
+            }
+            default:
+                throw new AssertionError();
+        }
+
+        // sequences section
+        checkInput(index + 1, end);
+        int sequenceCount = input[index++] & 0xFF;
+        if (sequenceCount >= 128) {
+            if (sequenceCount == 255) {
+                checkInput(index + 2, end);
+                sequenceCount = ((input[index] & 0xFF) | ((input[index + 1] & 0xFF) << 8)) + LONG_NUMBER_OF_SEQUENCES;
+                index += 2;
+            } else {
+                checkInput(index + 1, end);
+                sequenceCount = ((sequenceCount - 128) << 8) + (input[index++] & 0xFF);
+            }
+        }
+
+        int literalsEnd = literalsIndex + literalsSize;
+        if (sequenceCount == 0) {
+            if (index != end) {
+                throw new IOException("Corrupt zstd data: trailing bytes after literals");
+            }
+            copyLiterals(literals, literalsIndex, literalsSize);
+            return;
+        }
+
+        checkInput(index + 1, end);
+        int modes = input[index++] & 0xFF;
+        if ((modes & 3) != 0) {
+            throw new IOException("Corrupt zstd data: reserved sequence mode bits set");
+        }
+        index = readTable(modes >>> 6, input, index, end, 0);
+        index = readTable((modes >>> 4) & 3, input, index, end, 1);
+        index = readTable((modes >>> 2) & 3, input, index, end, 2);
+
+        FiniteStateEntropy.DecodingTable llTable = literalsLengthTable;
+        FiniteStateEntropy.DecodingTable mlTable = matchLengthTable;
+        FiniteStateEntropy.DecodingTable ofTable = offsetTable;
+
+        BitInputStream in = new BitInputStream(input, index, end);
+        int llState = (int) in.readBits(llTable.log2Size);
+        int ofState = (int) in.readBits(ofTable.log2Size);
+        int mlState = (int) in.readBits(mlTable.log2Size);
+        in.reload();
+
+        int[] repeat = repeatOffsets;
+        for (int sequence = 0; sequence < sequenceCount; sequence++) {
+            int llCode = llTable.symbol[llState] & 0xFF;
+            int mlCode = mlTable.symbol[mlState] & 0xFF;
+            int ofCode = ofTable.symbol[ofState] & 0xFF;
+
+            long offsetValue = (1L << ofCode) + in.readBits(ofCode);
+            in.reload();
+            int matchLength = MATCH_LENGTH_BASE[mlCode] + (int) in.readBits(MATCH_LENGTH_BITS[mlCode]);
+            int literalsLength = LITERALS_LENGTH_BASE[llCode] + (int) in.readBits(LITERALS_LENGTH_BITS[llCode]);
+            in.reload();
+
+            int offset;
+            if (offsetValue > 3) {
+                if (offsetValue - 3 > Integer.MAX_VALUE) {
+                    throw new IOException("Corrupt zstd data: offset out of range");
+                }
+                offset = (int) (offsetValue - 3);
+                repeat[2] = repeat[1];
+                repeat[1] = repeat[0];
+                repeat[0] = offset;
+            } else {
+                int repeatIndex = (int) offsetValue - 1 + (literalsLength == 0 ? 1 : 0);
+                if (repeatIndex == 0) {
+                    offset = repeat[0];
+                } else {
+                    offset = repeatIndex == 3 ? repeat[0] - 1 : repeat[repeatIndex];
+                    if (offset == 0) {
+                        offset = 1;
+                    }
+                    if (repeatIndex != 1) {
+                        repeat[2] = repeat[1];
+                    }
+                    repeat[1] = repeat[0];
+                    repeat[0] = offset;
+                }
+            }
+
+            if (literalsLength > literalsEnd - literalsIndex) {
+                throw new IOException("Corrupt zstd data: sequence literals out of bounds");
+            }
+            copyLiterals(literals, literalsIndex, literalsLength);
+            literalsIndex += literalsLength;
+            copyMatch(offset, matchLength);
+
+            if (sequence < sequenceCount - 1) {
+                llState = llTable.newState[llState] + (int) in.readBits(llTable.numberOfBits[llState]);
+                mlState = mlTable.newState[mlState] + (int) in.readBits(mlTable.numberOfBits[mlState]);
+                ofState = ofTable.newState[ofState] + (int) in.readBits(ofTable.numberOfBits[ofState]);
+                if (!in.reload()) {
+                    throw new IOException("Corrupt zstd data: sequence stream overflow");
+                }
+            }
+        }
+        if (!in.isComplete()) {
+            throw new IOException("Corrupt zstd data: sequence stream not fully consumed");
+        }
+        copyLiterals(literals, literalsIndex, literalsEnd - literalsIndex);
+    }
+
+    /**
+     * 读取一种符号的FSE表, kind为0、1、2时分别是字面量长度、偏移、匹配长度
+     */
+    private int readTable(int mode, byte[] input, int index, int end, int kind)
+            throws IOException {
+        FiniteStateEntropy.DecodingTable defaultTable;
+        FiniteStateEntropy.DecodingTable scratch;
+        int maxSymbol;
+        int maxTableLog;
+        switch (kind) {
+            case 0:
+                defaultTable = DEFAULT_LITERALS_LENGTH_TABLE;
+                scratch = literalsLengthScratch;
+                maxSymbol = MAX_LITERALS_LENGTH_SYMBOL;
+                maxTableLog = LITERALS_LENGTH_TABLE_LOG;
+                break;
+            case 1:
+                defaultTable = DEFAULT_OFFSET_TABLE;
+                scratch = offsetScratch;
+                maxSymbol = MAX_OFFSET_CODE_SYMBOL;
+                maxTableLog = OFFSET_TABLE_LOG;
+                break;
+            default:
+                defaultTable = DEFAULT_MATCH_LENGTH_TABLE;
+                scratch = matchLengthScratch;
+                maxSymbol = MAX_MATCH_LENGTH_SYMBOL;
+                maxTableLog = MATCH_LENGTH_TABLE_LOG;
+        }
+
+        FiniteStateEntropy.DecodingTable table;
+        switch (mode) {
+            case SEQUENCE_ENCODING_PREDEFINED:
+                table = defaultTable;
+                break;
+            case SEQUENCE_ENCODING_RLE: {
+                checkInput(index + 1, end);
+                int symbol = input[index++] & 0xFF;
+                if (symbol > maxSymbol) {
+                    throw new IOException("Corrupt zstd data: invalid RLE symbol " + symbol);
+                }
+                scratch.initializeRle(symbol);
+                table = scratch;
+                break;
+            }
+            case SEQUENCE_ENCODING_COMPRESSED:
+                index += FiniteStateEntropy.readNormalizedCounts(scratch, input, index, end, maxSymbol, maxTableLog);
+                table = scratch;
+                break;
+            case SEQUENCE_ENCODING_REPEAT:
+                table = kind == 0 ? literalsLengthTable : kind == 1 ? offsetTable : matchLengthTable;
+                if (table == null) {
+                    throw new IOException("Corrupt zstd data: repeat mode without a previous table");
+                }
+                break;
+            default:
+                throw new AssertionError();
+        }
+
+        if (kind == 0) {
+            literalsLengthTable = table;
+        } else if (kind == 1) {
+            offsetTable = table;
+        } else {
+            matchLengthTable = table;
+        }
+        return index;
+    }
+
+    private void copyLiterals(byte[] literals, int literalsIndex, int length)
+            throws IOException {
+        checkOutput(length);
+        System.arraycopy(literals, literalsIndex, output, outputIndex, length);
+        outputIndex += length;
+    }
+
+    private void copyMatch(int offset, int length)
+            throws IOException {
+        int produced = outputIndex - outputStart;
+        int dictionaryLength = dictionary == null ? 0 : dictionary.length;
+        if (offset > produced + dictionaryLength) {
+            throw new IOException("Corrupt zstd data: offset " + offset + " is before the start of the output");
+        }
+        checkOutput(length);
+        if (offset > produced) {
+            // the match starts in the dictionary and may run on into the output
+            int dictionaryIndex = dictionaryLength - (offset - produced);
+            int fromDictionary = Math.min(length, dictionaryLength - dictionaryIndex);
+            System.arraycopy(dictionary, dictionaryIndex, output, outputIndex, fromDictionary);
+            outputIndex += fromDictionary;
+            length -= fromDictionary;
+            if (length == 0) {
+                return;
+            }
+        }
+        int matchIndex = outputIndex - offset;
+        if (offset >= length) {
+            System.arraycopy(output, matchIndex, output, outputIndex, length);
+            outputIndex += length;
+        } else {
+            // overlapping copy repeats the last offset bytes
+            for (int i = 0; i < length; i++) {
+                output[outputIndex++] = output[matchIndex++];
+            }
+        }
+    }
+
+    private void fill(byte value, int length) {
+        Arrays.fill(output, outputIndex, outputIndex + length, value);
+        outputIndex += length;
+    }
+
+    private byte[] literalsBuffer(int size) {
+        if (literalsBuffer == null || literalsBuffer.length < size) {
+            literalsBuffer = new byte[Math.max(size, 1024)];
+        }
+        return literalsBuffer;
+    }
+
+    private void checkOutput(int length)
+            throws IOException {
+        if (length > outputLimit - outputIndex) {
+            throw new IOException("Corrupt zstd data: output buffer too small");
+        }
+    }
+
+    private static void checkInput(int required, int end)
+            throws IOException {
+        if (required > end) {
+            throw new IOException("Corrupt zstd data: truncated input");
+        }
+    }
+
+    private static FrameHeader readFrameHeader(byte[] input, int offset, int end)
+            throws IOException {
+        checkInput(offset + 5, end);
+        if (readInt(input, offset) != MAGIC_NUMBER) {
+            throw new IOException("Not a zstd frame");
+        }
+        int index = offset + 4;
+        int descriptor = input[index++] & 0xFF;
+        int contentSizeFlag = descriptor >>> 6;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        if ((descriptor & 0x08) != 0) {
+            throw new IOException("Corrupt zstd data: reserved frame header bit set");
+        }
+        boolean hasChecksum = (descriptor & 0x04) != 0;
+        int dictionaryIdFlag = descriptor & 3;
+        if (!singleSegment) {
+            index++;
+        }
+        index += dictionaryIdFlag == 3 ? 4 : dictionaryIdFlag;
+
+        int contentSizeBytes;
+        switch (contentSizeFlag) {
+            case 1:
+                contentSizeBytes = 2;
+                break;
+            case 2:
+                contentSizeBytes = 4;
+                break;
+            case 3:
+                contentSizeBytes = 8;
+                break;
+            default:
+                contentSizeBytes = singleSegment ? 1 : 0;
+        }
+        checkInput(index + contentSizeBytes, end);
+        long contentSize = -1;
+        if (contentSizeBytes > 0) {
+            contentSize = readLittleEndian(input, index, contentSizeBytes);
+            if (contentSizeBytes == 2) {
+                contentSize += 256;
+            }
+        }
+        index += contentSizeBytes;
+        return new FrameHeader(index - offset, contentSize, hasChecksum);
+    }
+
+    private static final class FrameHeader {
+        final int size;
+        final long contentSize;
+        final boolean hasChecksum;
+
+        FrameHeader(int size, long contentSize, boolean hasChecksum) {
+            this.size = size;
+            this.contentSize = contentSize;
+            this.hasChecksum = hasChecksum;
+        }
+    }
+}
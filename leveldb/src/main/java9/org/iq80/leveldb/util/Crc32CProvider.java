@@ -0,0 +1,18 @@
+package org.iq80.leveldb.util;
+
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * JDK 9以上的CRC32C实现, 打包在多版本jar的META-INF/versions/9下, JIT会把它编译为CPU的CRC32C指令
+ *
+ * @author yf
+ */
+final class Crc32CProvider {
+    private Crc32CProvider() {
+    }
+
+    static Checksum newChecksum() {
+        return new CRC32C();
+    }
+}
@@ -18,20 +18,39 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.UnsignedBytes;
 import org.iq80.leveldb.*;
+import org.iq80.leveldb.impl.Filename.FileInfo;
+import org.iq80.leveldb.impl.Filename.FileType;
+import org.iq80.leveldb.log.LogMonitors;
+import org.iq80.leveldb.log.LogReader;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.table.Block;
+import org.iq80.leveldb.table.BlockHandle;
+import org.iq80.leveldb.table.BlockTrailer;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.table.FileChannelTable;
+import org.iq80.leveldb.table.Footer;
+import org.iq80.leveldb.table.Table;
+import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.TableProperties;
+import org.iq80.leveldb.util.Compressors;
 import org.iq80.leveldb.util.FileUtils;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.Maps.immutableEntry;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -627,6 +646,206 @@ public class DbImplTest {
         assertBetween(db.size("", "pastFoo"), 0, 1000);
     }
 
+    @Test
+    public void testCompactionKeepsOneVersionPerSnapshot()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        fillLevels(db, "a", "z");
+        db.put("foo", "v1");
+        Snapshot s1 = db.getSnapshot();
+        db.put("foo", "v2");
+        Snapshot s2 = db.getSnapshot();
+        db.put("foo", "v3");
+        db.put("foo", "v4");
+        db.compactMemTable();
+
+        // v3 is hidden by v4 from every snapshot
+        db.compactRange(0, "", "x");
+        assertEquals(db.allEntriesFor("foo"), asList("v4", "v2", "v1"));
+        assertEquals(db.get("foo", s1), "v1");
+        assertEquals(db.get("foo", s2), "v2");
+        assertEquals(db.get("foo"), "v4");
+
+        s1.close();
+        db.compactRange(1, "", "x");
+        assertEquals(db.allEntriesFor("foo"), asList("v4", "v2"));
+        assertEquals(db.get("foo", s2), "v2");
+
+        s2.close();
+        db.compactRange(2, "", "x");
+        assertEquals(db.allEntriesFor("foo"), asList("v4"));
+    }
+
+    @Test
+    public void testCompressionPerLevel()
+            throws Exception {
+        Options options = new Options().compressionPerLevel(NONE, CompressionType.LZ4).bottommostCompression(CompressionType.ZSTD);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        int last = DbConstants.MAX_MEM_COMPACT_LEVEL;
+
+        // flushes use level 0's codec wherever the file ends up
+        Set<File> tables = new HashSet<>();
+        putCompressible(db, "v1");
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(last), 1);
+        assertEquals(newTableCompressions(tables), asList(NONE));
+
+        // nothing lives below the output level
+        db.compactRange(last, "", "z");
+        assertEquals(db.numberOfFilesInLevel(last + 1), 1);
+        assertEquals(newTableCompressions(tables), asList(CompressionType.ZSTD));
+
+        putCompressible(db, "v2");
+        db.compactMemTable();
+        putCompressible(db, "v3");
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(last - 1), 1);
+        assertEquals(db.numberOfFilesInLevel(last), 1);
+        newTableCompressions(tables);
+
+        // the output level has data below it
+        db.compactRange(last - 1, "", "z");
+        assertEquals(db.numberOfFilesInLevel(last), 1);
+        assertEquals(newTableCompressions(tables), asList(CompressionType.LZ4));
+        assertEquals(db.get("key5"), longString(1000, '5') + "v3");
+    }
+
+    @Test
+    public void testBottommostCompressionDictionary()
+            throws Exception {
+        Options options = new Options().compressionType(CompressionType.ZSTD).compressionDictionarySize(4096);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        int last = DbConstants.MAX_MEM_COMPACT_LEVEL;
+
+        Random random = new Random(301);
+        Map<String, String> records = new TreeMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String value = "{\"id\":" + random.nextInt(1000000) + ",\"status\":\"" + (random.nextBoolean() ? "active" : "pending") +
+                    "\",\"email\":\"user" + random.nextInt(1000) + "@example.com\",\"created\":\"2016-0" + (1 + random.nextInt(9)) + "-12\"}";
+            records.put(key(i), value);
+            db.put(key(i), value);
+        }
+
+        // flushes never train a dictionary
+        Set<File> tables = new HashSet<>();
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(last), 1);
+        File flushed = Iterables.getOnlyElement(newTables(tables));
+        assertFalse(hasCompressionDictionary(flushed));
+        long flushedSize = flushed.length();
+
+        db.compactRange(last, "", "z");
+        assertEquals(db.numberOfFilesInLevel(last + 1), 1);
+        File bottommost = Iterables.getOnlyElement(newTables(tables));
+        assertTrue(hasCompressionDictionary(bottommost));
+        assertEquals(firstDataBlockCompression(bottommost), CompressionType.ZSTD);
+        assertTrue(bottommost.length() < flushedSize, "dictionary " + bottommost.length() + " plain " + flushedSize);
+
+        db.reopen();
+        for (Entry<String, String> record : records.entrySet()) {
+            assertEquals(db.get(record.getKey()), record.getValue());
+        }
+    }
+
+    private Set<File> newTables(Set<File> seen) {
+        Set<File> tables = new HashSet<>();
+        for (File file : Filename.listFiles(databaseDir)) {
+            FileInfo fileInfo = Filename.parseFileName(file);
+            if (fileInfo != null && fileInfo.getFileType() == FileType.TABLE && seen.add(file)) {
+                tables.add(file);
+            }
+        }
+        return tables;
+    }
+
+    private static boolean hasCompressionDictionary(File file)
+            throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            Table table = new FileChannelTable(file.getName(), in.getChannel(), new BytewiseComparator(), true);
+            return table.getMetaBlock(TableBuilder.COMPRESSION_DICTIONARY_BLOCK) != null;
+        }
+    }
+
+    private void putCompressible(DbStringWrapper db, String suffix) {
+        for (int i = 0; i < 10; i++) {
+            db.put("key" + i, longString(1000, (char) ('0' + i)) + suffix);
+        }
+    }
+
+    /**
+     * 返回上次调用之后新出现的sst文件中第一个数据块的压缩类型
+     */
+    private List<CompressionType> newTableCompressions(Set<File> seen)
+            throws IOException {
+        List<CompressionType> compressions = new ArrayList<>();
+        for (File file : newTables(seen)) {
+            compressions.add(firstDataBlockCompression(file));
+        }
+        return compressions;
+    }
+
+    private static CompressionType firstDataBlockCompression(File file)
+            throws IOException {
+        Slice table = Slices.wrappedBuffer(Files.toByteArray(file));
+        Footer footer = Footer.readFooter(table.slice(table.length() - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH));
+        BlockHandle indexHandle = footer.getIndexBlockHandle();
+        Slice index = table.slice((int) indexHandle.getOffset(), indexHandle.getDataSize());
+        CompressionType indexCompression = readTrailer(table, indexHandle).getCompressionType();
+        if (indexCompression != NONE) {
+            index = Slices.wrappedBuffer(Compressors.uncompress(indexCompression, index.toByteBuffer()));
+        }
+        BlockHandle firstBlock = BlockHandle.readBlockHandle(new Block(index, new BytewiseComparator()).iterator().next().getValue().input());
+        return readTrailer(table, firstBlock).getCompressionType();
+    }
+
+    /**
+     * 两个文件只允许属性块中的创建时间不同, 属性块不压缩, 所以两个文件的布局完全相同
+     */
+    private static void assertSameTableIgnoringCreationTime(File actual, File expected)
+            throws IOException {
+        Slice actualTable = Slices.wrappedBuffer(Files.toByteArray(actual));
+        Slice expectedTable = Slices.wrappedBuffer(Files.toByteArray(expected));
+        assertEquals(actualTable.length(), expectedTable.length());
+
+        BlockHandle properties = propertiesHandle(expectedTable);
+        assertEquals(propertiesHandle(actualTable), properties);
+        Map<String, Slice> actualProperties = readBlock(actualTable, properties);
+        Map<String, Slice> expectedProperties = readBlock(expectedTable, properties);
+        actualProperties.remove("leveldb.creation.time");
+        expectedProperties.remove("leveldb.creation.time");
+        assertEquals(actualProperties, expectedProperties);
+
+        int start = (int) properties.getOffset();
+        int end = start + properties.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+        assertEquals(actualTable.slice(0, start), expectedTable.slice(0, start));
+        assertEquals(actualTable.slice(end, actualTable.length() - end), expectedTable.slice(end, expectedTable.length() - end));
+    }
+
+    private static BlockHandle propertiesHandle(Slice table)
+            throws IOException {
+        Footer footer = Footer.readFooter(table.slice(table.length() - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH));
+        Slice handle = readBlock(table, footer.getMetaindexBlockHandle()).get(TableProperties.PROPERTIES_BLOCK);
+        return BlockHandle.readBlockHandle(handle.input());
+    }
+
+    private static Map<String, Slice> readBlock(Slice table, BlockHandle handle)
+            throws IOException {
+        Slice block = table.slice((int) handle.getOffset(), handle.getDataSize());
+        CompressionType compression = readTrailer(table, handle).getCompressionType();
+        if (compression != NONE) {
+            block = Slices.wrappedBuffer(Compressors.uncompress(compression, block.toByteBuffer()));
+        }
+        Map<String, Slice> entries = new HashMap<>();
+        for (Entry<Slice, Slice> entry : new Block(block, new BytewiseComparator())) {
+            entries.put(entry.getKey().toString(UTF_8), entry.getValue());
+        }
+        return entries;
+    }
+
+    private static BlockTrailer readTrailer(Slice table, BlockHandle handle) {
+        return BlockTrailer.readBlockTrailer(table.slice((int) handle.getOffset() + handle.getDataSize(), BlockTrailer.ENCODED_LENGTH));
+    }
+
     @Test
     public void testDeletionMarkers1()
             throws Exception {
@@ -751,6 +970,696 @@ public class DbImplTest {
         }
     }
 
+    @Test
+    public void testDisableWalLosesWritesOnCrash()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("logged", "v1");
+        db.put("unlogged", "v2", new WriteOptions().disableWAL(true));
+        assertEquals(db.get("unlogged"), "v2");
+
+        // a crash only recovers what reached the log
+        DbStringWrapper crashed = db.crashCopy();
+        assertEquals(crashed.get("logged"), "v1");
+        assertNull(crashed.get("unlogged"));
+
+        // once the memtable is flushed the write is durable
+        db.compactMemTable();
+        crashed = db.crashCopy();
+        assertEquals(crashed.get("unlogged"), "v2");
+    }
+
+    @Test
+    public void testDisableWalSurvivesCleanClose()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("unlogged", "v1", new WriteOptions().disableWAL(true));
+        db.reopen();
+        assertEquals(db.get("unlogged"), "v1");
+    }
+
+    @Test
+    public void testManualWalFlush()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().manualWalFlush(true), databaseDir);
+        db.put("foo", "v1");
+        assertEquals(db.get("foo"), "v1");
+
+        // buffered records are lost on crash
+        DbStringWrapper crashed = db.crashCopy();
+        assertNull(crashed.get("foo"));
+
+        db.flushWal(false);
+        crashed = db.crashCopy();
+        assertEquals(crashed.get("foo"), "v1");
+
+        // sync writes are never left in the buffer
+        db.put("bar", "v2", new WriteOptions().sync(true));
+        crashed = db.crashCopy();
+        assertEquals(crashed.get("bar"), "v2");
+
+        // buffered records are written out on close
+        db.put("baz", "v3");
+        db.reopen();
+        assertEquals(db.get("baz"), "v3");
+    }
+
+    @Test
+    public void testWriteAsync()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().walSyncWindowMicros(10_000), databaseDir);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(db.putAsync(key(i), "v" + i));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        // every acknowledged write is in the log on disk
+        DbStringWrapper crashed = db.crashCopy();
+        for (int i = 0; i < 50; i++) {
+            assertEquals(crashed.get(key(i)), "v" + i);
+        }
+
+        WalSyncer syncer = db.db.getWalSyncer();
+        assertEquals(syncer.getSyncedWrites(), 50);
+        assertTrue(syncer.getSyncCount() < 50, "fsyncs were not coalesced: " + syncer);
+    }
+
+    @Test
+    public void testWriteAsyncAcrossLogSwitch()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(10_000).walSyncWindowMicros(0), databaseDir);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(db.putAsync(key(i), longString(100, 'a')));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        db.reopen();
+        for (int i = 0; i < 500; i++) {
+            assertEquals(db.get(key(i)), longString(100, 'a'));
+        }
+    }
+
+    @Test
+    public void testRecycleLogFiles()
+            throws Exception {
+        Options options = new Options().writeBufferSize(10_000).recycleLogFileNum(2).walPreallocate(true);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i), longString(100, (char) ('a' + i % 26)));
+        }
+
+        // the current log, the recycled ones and at most one waiting for its memtable to be flushed
+        int logFiles = 0;
+        for (File file : Filename.listFiles(databaseDir)) {
+            FileInfo fileInfo = Filename.parseFileName(file);
+            if (fileInfo != null && fileInfo.getFileType() == FileType.LOG) {
+                logFiles++;
+            }
+        }
+        assertTrue(logFiles <= 4, "too many log files: " + logFiles);
+
+        DbStringWrapper crashed = db.crashCopy();
+        db.reopen();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(crashed.get(key(i)), longString(100, (char) ('a' + i % 26)));
+            assertEquals(db.get(key(i)), longString(100, (char) ('a' + i % 26)));
+        }
+    }
+
+    @Test
+    public void testPreparedLogFiles()
+            throws Exception {
+        Options options = new Options().writeBufferSize(10_000).walPreallocate(true);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i), longString(100, (char) ('a' + i % 26)));
+        }
+
+        // at most the next log is being prepared
+        int tempFiles = 0;
+        for (File file : Filename.listFiles(databaseDir)) {
+            FileInfo fileInfo = Filename.parseFileName(file);
+            if (fileInfo != null && fileInfo.getFileType() == FileType.TEMP) {
+                tempFiles++;
+            }
+        }
+        assertTrue(tempFiles <= 1, "too many temp files: " + tempFiles);
+
+        DbStringWrapper crashed = db.crashCopy();
+        db.reopen();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(crashed.get(key(i)), longString(100, (char) ('a' + i % 26)));
+            assertEquals(db.get(key(i)), longString(100, (char) ('a' + i % 26)));
+        }
+    }
+
+    @Test
+    public void testWalCompressionRecovery()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().walCompression(CompressionType.SNAPPY), databaseDir);
+        db.put("foo", longString(10000, 'v'));
+        db.put("bar", "v2");
+        db.delete("foo");
+        db.put("baz", longString(100000, 'z'));
+
+        DbStringWrapper crashed = db.crashCopy();
+        assertNull(crashed.get("foo"));
+        assertEquals(crashed.get("bar"), "v2");
+        assertEquals(crashed.get("baz"), longString(100000, 'z'));
+    }
+
+    @Test
+    public void testUniversalCompaction()
+            throws Exception {
+        Options options = new Options().compactionStyle(CompactionStyle.UNIVERSAL).universalMaxSortedRuns(4);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                db.put(key(i), "v" + round + "-" + i);
+            }
+            db.delete(key(round));
+            db.compactMemTable();
+        }
+
+        // wait for the background compactions to bring the sorted runs back under the limit
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (db.sortedRuns() >= 4 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(db.sortedRuns() < 4, "sorted runs: " + db.sortedRuns());
+        String stats = db.db.getProperty("leveldb.compaction-stats");
+        assertTrue(stats.startsWith("style=UNIVERSAL readAmplification=" + db.sortedRuns() + " "), stats);
+
+        db.reopen();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(db.get(key(i)), i == 19 ? null : "v19-" + i);
+        }
+    }
+
+    @Test
+    public void testFifoCompactionDropsOldestFiles()
+            throws Exception {
+        Options options = new Options().compactionStyle(CompactionStyle.FIFO).fifoMaxTableFilesSize(50000).compressionType(NONE);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        for (int i = 0; i < 10; i++) {
+            db.put(key(i), longString(10000, (char) ('a' + i)));
+            db.compactMemTable();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (db.totalTableFiles() > 5 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // only the newest files that fit in the limit survive, all in level 0
+        assertEquals(db.totalTableFiles(), db.numberOfFilesInLevel(0));
+        assertTrue(db.numberOfFilesInLevel(0) <= 5, "level 0 files: " + db.numberOfFilesInLevel(0));
+        assertNull(db.get(key(0)));
+        assertEquals(db.get(key(9)), longString(10000, 'j'));
+        // nothing was rewritten
+        assertTrue(db.db.getProperty("leveldb.compaction-stats").contains(" bytesCompacted=0 "));
+
+        db.reopen();
+        assertNull(db.get(key(0)));
+        assertEquals(db.get(key(9)), longString(10000, 'j'));
+    }
+
+    @Test
+    public void testDataBlockHashIndex()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().dataBlockHashRatio(0.75).blockSize(512), databaseDir);
+        List<Snapshot> snapshots = new ArrayList<>();
+        List<Map<String, String>> expected = new ArrayList<>();
+        Map<String, String> current = new HashMap<>();
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 300; i += round + 1) {
+                if (i % 7 == round) {
+                    db.delete(key(i * 2));
+                    current.remove(key(i * 2));
+                } else {
+                    db.put(key(i * 2), "v" + round + "-" + i);
+                    current.put(key(i * 2), "v" + round + "-" + i);
+                }
+            }
+            snapshots.add(db.getSnapshot());
+            expected.add(new HashMap<>(current));
+            db.compactMemTable();
+        }
+        db.compactRange(0, key(0), key(600));
+
+        for (int round = 0; round < snapshots.size(); round++) {
+            for (int i = 0; i < 600; i++) {
+                assertEquals(db.get(key(i), snapshots.get(round)), expected.get(round).get(key(i)), key(i) + " at round " + round);
+            }
+        }
+        for (int i = 0; i < 600; i++) {
+            assertEquals(db.get(key(i)), current.get(key(i)));
+        }
+        for (Snapshot snapshot : snapshots) {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void testPlainTableFormat()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().tableFormat(TableFormat.PLAIN).blockSize(512), databaseDir);
+        Map<String, String> current = new TreeMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 300; i += round + 1) {
+                if (i % 5 == round) {
+                    db.delete(key(i * 2));
+                    current.remove(key(i * 2));
+                } else {
+                    db.put(key(i * 2), "v" + round + "-" + i);
+                    current.put(key(i * 2), "v" + round + "-" + i);
+                }
+            }
+            db.compactMemTable();
+        }
+        assertPlainTableContents(db, current);
+
+        // files written in the other format stay readable
+        db.reopen(new Options().tableFormat(TableFormat.BLOCK_BASED).blockSize(512));
+        assertPlainTableContents(db, current);
+        for (int i = 0; i < 300; i += 4) {
+            db.put(key(i * 2 + 1), "b-" + i);
+            current.put(key(i * 2 + 1), "b-" + i);
+        }
+        db.compactMemTable();
+        assertPlainTableContents(db, current);
+        db.compactRange(0, key(0), key(600));
+        assertPlainTableContents(db, current);
+    }
+
+    private static void assertPlainTableContents(DbStringWrapper db, Map<String, String> expected) {
+        for (int i = 0; i < 600; i++) {
+            assertEquals(db.get(key(i)), expected.get(key(i)), key(i));
+        }
+        SeekingIterator<String, String> iterator = db.iterator();
+        for (Entry<String, String> entry : expected.entrySet()) {
+            assertTrue(iterator.hasNext(), entry.getKey());
+            assertEquals(iterator.next(), entry);
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testAggregatedTableProperties()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 10; i++) {
+            db.put(key(i), "value" + i);
+        }
+        db.delete(key(0));
+        db.compactMemTable();
+        db.put(key(10), "value10");
+        db.compactMemTable();
+
+        String properties = db.db.getProperty("leveldb.aggregated-table-properties");
+        assertTrue(properties.contains("numEntries=12,"), properties);
+        assertTrue(properties.contains("numDeletions=1,"), properties);
+        assertTrue(properties.contains("smallestSequence=1,"), properties);
+        assertTrue(properties.contains("largestSequence=12,"), properties);
+        assertNull(db.db.getProperty("leveldb.aggregated-table-properties-at-level" + NUM_LEVELS));
+
+        // files recovered from the manifest read their properties from the table
+        db.reopen();
+        assertEquals(db.db.getProperty("leveldb.aggregated-table-properties"), properties);
+    }
+
+    @Test
+    public void testFifoCompactionExpiresFilesByAge()
+            throws Exception {
+        Options options = new Options().compactionStyle(CompactionStyle.FIFO).fifoTtlSeconds(1);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        db.put("old", "v1");
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(0), 1);
+
+        // creation times survive a reopen
+        db.reopen();
+        Thread.sleep(1100);
+        db.put("new", "v2");
+        db.compactMemTable();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (db.numberOfFilesInLevel(0) > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(db.numberOfFilesInLevel(0), 1);
+        assertNull(db.get("old"));
+        assertEquals(db.get("new"), "v2");
+        assertTrue(Iterables.any(manifestFiles(databaseDir), file -> file.getCreationTime() > 0));
+    }
+
+    @Test
+    public void testManifestWithoutFifoHasNoCreationTimes()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("foo", "v1");
+        db.compactMemTable();
+        db.put("foo", "v2");
+        db.compactMemTable();
+        db.compactRange(0, "", "z");
+
+        // readers that do not know the creation time tag must be able to read the manifest
+        List<FileMetaData> files = manifestFiles(databaseDir);
+        assertFalse(files.isEmpty());
+        for (FileMetaData file : files) {
+            assertEquals(file.getCreationTime(), 0, file.toString());
+        }
+    }
+
+    private static List<FileMetaData> manifestFiles(File databaseDir)
+            throws IOException {
+        String current = Files.asCharSource(new File(databaseDir, Filename.currentFileName()), UTF_8).read().trim();
+        List<FileMetaData> files = new ArrayList<>();
+        try (FileInputStream input = new FileInputStream(new File(databaseDir, current))) {
+            LogReader reader = new LogReader(input.getChannel(), LogMonitors.throwExceptionMonitor(), true, 0);
+            for (Slice record = reader.readRecord(); record != null; record = reader.readRecord()) {
+                files.addAll(new VersionEdit(record).getNewFiles().values());
+            }
+        }
+        return files;
+    }
+
+    @Test
+    public void testCompactionFilter()
+            throws Exception {
+        CompactionFilter filter = new CompactionFilter() {
+            @Override
+            public String name() {
+                return "test";
+            }
+
+            @Override
+            public Decision filter(int level, byte[] key, byte[] value) {
+                String userKey = new String(key, UTF_8);
+                if (userKey.startsWith("tenant1/")) {
+                    return Decision.remove();
+                }
+                if (userKey.startsWith("trim/")) {
+                    return Decision.changeValue(Arrays.copyOf(value, 3));
+                }
+                return Decision.keep();
+            }
+        };
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("tenant1/a", "old");
+        db.put("tenant2/a", "keep");
+        db.put("trim/a", "abcdef");
+        db.compact("a", "z");
+        assertEquals(db.get("tenant1/a"), "old");
+
+        db.reopen(new Options().compactionFilter(filter));
+        db.put("tenant1/a", "new");
+        db.put("tenant1/b", "new");
+        db.compactMemTable();
+        // the flush removed the newest version without exposing the older one
+        assertNull(db.get("tenant1/a"));
+        assertNull(db.get("tenant1/b"));
+
+        db.compact("a", "z");
+        assertNull(db.get("tenant1/a"));
+        assertEquals(db.get("tenant2/a"), "keep");
+        assertEquals(db.get("trim/a"), "abc");
+        assertEquals(db.allEntriesFor("tenant1/a"), Collections.emptyList());
+
+        // like compactions, a flush only filters versions at or below the oldest snapshot
+        Snapshot oldest = db.getSnapshot();
+        db.put("tenant1/c", "before");
+        Snapshot snapshot = db.getSnapshot();
+        db.put("tenant1/c", "after");
+        db.compactMemTable();
+        assertNull(db.get("tenant1/c", oldest));
+        assertEquals(db.get("tenant1/c", snapshot), "before");
+        assertEquals(db.get("tenant1/c"), "after");
+        oldest.close();
+        snapshot.close();
+    }
+
+    @Test
+    public void testDeleteRange()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(String.format("tenant1/%03d", i), "v" + i);
+        }
+        db.compact("a", "z");
+        assertEquals(db.totalTableFiles(), 1);
+        db.put("tenant0/a", "keep");
+        db.put("tenant2/a", "keep");
+
+        Snapshot snapshot = db.getSnapshot();
+        db.deleteRange("tenant1/", "tenant1/~");
+        db.put("tenant1/010", "new");
+
+        assertNull(db.get("tenant1/005"));
+        assertEquals(db.get("tenant1/010"), "new");
+        assertEquals(db.get("tenant1/005", snapshot), "v5");
+        assertSequence(db.iterator(),
+                immutableEntry("tenant0/a", "keep"),
+                immutableEntry("tenant1/010", "new"),
+                immutableEntry("tenant2/a", "keep"));
+        snapshot.close();
+
+        // recovered from the log
+        db.reopen();
+        assertNull(db.get("tenant1/005"));
+        assertEquals(db.get("tenant1/010"), "new");
+
+        // the range deletion is written into a table
+        db.compactMemTable();
+        assertNull(db.get("tenant1/099"));
+        assertSequence(db.iterator(),
+                immutableEntry("tenant0/a", "keep"),
+                immutableEntry("tenant1/010", "new"),
+                immutableEntry("tenant2/a", "keep"));
+
+        // the covered table is dropped and the range deletion is gone at the bottom level
+        db.compact("a", "z");
+        assertEquals(db.allEntriesFor("tenant1/005"), Collections.emptyList());
+        assertEquals(db.get("tenant1/010"), "new");
+        assertEquals(db.get("tenant0/a"), "keep");
+        assertEquals(db.get("tenant2/a"), "keep");
+        db.reopen();
+        assertNull(db.get("tenant1/050"));
+        assertSequence(db.iterator(),
+                immutableEntry("tenant0/a", "keep"),
+                immutableEntry("tenant1/010", "new"),
+                immutableEntry("tenant2/a", "keep"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "begin must be before end")
+    public void testDeleteRangeRejectsInvertedRange()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.deleteRange("b", "a");
+    }
+
+    @Test
+    public void testDeleteRangeInBatchIgnoresEmptyRange()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("a", "va");
+        db.put("b", "vb");
+        try (WriteBatch batch = db.db.createWriteBatch()) {
+            batch.deleteRange(toByteArray("b"), toByteArray("a"));
+            batch.deleteRange(toByteArray("b"), toByteArray("b"));
+            batch.put(toByteArray("c"), toByteArray("vc"));
+            db.db.write(batch);
+        }
+        assertSequence(db.iterator(),
+                immutableEntry("a", "va"),
+                immutableEntry("b", "vb"),
+                immutableEntry("c", "vc"));
+
+        // replayed from the log without the empty ranges
+        db.reopen();
+        db.compactMemTable();
+        assertEquals(db.get("a"), "va");
+        assertEquals(db.get("b"), "vb");
+        assertEquals(db.get("c"), "vc");
+    }
+
+    @Test
+    public void testDeleteRangeAcrossLevels()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("a", "va");
+        db.put("c", "vc");
+        db.compact("a", "z");
+        db.put("b", "vb");
+        db.put("d", "vd");
+        db.compactMemTable();
+
+        db.deleteRange("b", "d");
+        db.compactMemTable();
+        assertNull(db.get("b"));
+        assertNull(db.get("c"));
+        assertEquals(db.get("d"), "vd");
+
+        // the range deletion must survive while older data is below it
+        db.compactRange(0, "a", "z");
+        assertNull(db.get("b"));
+        assertNull(db.get("c"));
+        assertEquals(db.get("a"), "va");
+        assertEquals(db.get("d"), "vd");
+
+        db.compact("a", "z");
+        assertSequence(db.iterator(), immutableEntry("a", "va"), immutableEntry("d", "vd"));
+        assertEquals(db.allEntriesFor("c"), Collections.emptyList());
+    }
+
+    @Test
+    public void testRateLimiter()
+            throws Exception {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(100L * 1024 * 1024);
+        DbStringWrapper db = new DbStringWrapper(new Options().rateLimiter(rateLimiter), databaseDir);
+        Random random = new Random(301);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 200; i++) {
+                db.put(key(i), randomString(random, 1000));
+            }
+            db.compactMemTable();
+        }
+        long flushed = rateLimiter.getTotalBytesThrough();
+        assertTrue(flushed >= 2 * 200 * 1000, "flushes wrote " + flushed + " bytes through the limiter");
+
+        db.compact("a", "z");
+        // the compaction read both tables and wrote the newest version of every key
+        assertTrue(rateLimiter.getTotalBytesThrough() >= flushed + flushed / 2 + 200 * 1000);
+        assertEquals(db.totalTableFiles(), 1);
+    }
+
+    @Test
+    public void testCompressionThreads()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().compressionThreads(2).blockSize(1024), databaseDir);
+        Random random = new Random(301);
+        Map<String, String> expected = new HashMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 500; i++) {
+                String value = randomString(random, 200);
+                db.put(key(i), value);
+                expected.put(key(i), value);
+            }
+            db.compactMemTable();
+        }
+        db.compact("a", "z");
+
+        for (Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+        db.reopen();
+        SeekingIterator<String, String> iterator = db.iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Entry<String, String> entry = iterator.next();
+            assertEquals(entry.getValue(), expected.get(entry.getKey()));
+            count++;
+        }
+        assertEquals(count, expected.size());
+    }
+
+    @Test
+    public void testCompressionThreadsFlushMatchesSerialFlush()
+            throws Exception {
+        File serialDir = FileUtils.createTempDir("leveldb-serial");
+        try {
+            DbStringWrapper parallel = new DbStringWrapper(new Options().compressionThreads(3).blockSize(512), databaseDir);
+            DbStringWrapper serial = new DbStringWrapper(new Options().blockSize(512), serialDir);
+            Random random = new Random(301);
+            for (int i = 0; i < 2000; i++) {
+                String value = randomString(random, 100);
+                parallel.put(key(i), value);
+                serial.put(key(i), value);
+            }
+            parallel.compactMemTable();
+            serial.compactMemTable();
+            parallel.close();
+            serial.close();
+
+            List<File> tables = new ArrayList<>();
+            for (File file : databaseDir.listFiles()) {
+                if (file.getName().endsWith(".sst")) {
+                    tables.add(file);
+                }
+            }
+            assertEquals(tables.size(), 1);
+            for (File table : tables) {
+                assertSameTableIgnoringCreationTime(table, new File(serialDir, table.getName()));
+            }
+        } finally {
+            FileUtils.deleteRecursively(serialDir);
+        }
+    }
+
+    @Test
+    public void testTtlCompactionFilter()
+            throws Exception {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        Options options = new Options().compactionFilter(new TtlCompactionFilter(1, TimeUnit.HOURS));
+        DbImpl db = new DbImpl(options, databaseDir);
+        try {
+            db.put(toByteArray("expired"), TtlCompactionFilter.appendTimestamp(toByteArray("v1"), now - 7200));
+            db.put(toByteArray("live"), TtlCompactionFilter.appendTimestamp(toByteArray("v2")));
+            db.flushMemTable();
+
+            assertNull(db.get(toByteArray("expired")));
+            byte[] value = db.get(toByteArray("live"));
+            assertEquals(new String(TtlCompactionFilter.stripTimestamp(value), UTF_8), "v2");
+            assertTrue(TtlCompactionFilter.getTimestamp(value) >= now);
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void testEntriesOutliveIterator()
+            throws Exception {
+        // uncompressed blocks of mapped tables are read without copying
+        DbImpl db = new DbImpl(new Options().compressionType(NONE), databaseDir);
+        try {
+            for (int i = 0; i < 200; i++) {
+                db.put(toByteArray(key(i)), toByteArray("value" + i));
+            }
+            db.flushMemTable();
+            db.compactRange(0, Slices.copiedBuffer(key(0), UTF_8), Slices.copiedBuffer(key(200), UTF_8));
+
+            List<Entry<byte[], byte[]>> entries = new ArrayList<>();
+            try (DBIterator iterator = db.iterator()) {
+                while (iterator.hasNext()) {
+                    entries.add(iterator.next());
+                }
+            }
+
+            // replace the files the entries were read from, so their tables are evicted and unmapped
+            for (int i = 0; i < 200; i++) {
+                db.put(toByteArray(key(i)), toByteArray("rewritten" + i));
+            }
+            db.flushMemTable();
+            db.compactRange(0, Slices.copiedBuffer(key(0), UTF_8), Slices.copiedBuffer(key(200), UTF_8));
+            db.compactRange(1, Slices.copiedBuffer(key(0), UTF_8), Slices.copiedBuffer(key(200), UTF_8));
+
+            assertEquals(entries.size(), 200);
+            for (int i = 0; i < entries.size(); i++) {
+                SeekingIteratorAdapter.DbEntry entry = (SeekingIteratorAdapter.DbEntry) entries.get(i);
+                assertTrue(entry.getKeySlice().hasRawArray());
+                assertTrue(entry.getValueSlice().hasRawArray());
+                assertEquals(new String(entry.getKey(), UTF_8), key(i));
+                assertEquals(new String(entry.getValue(), UTF_8), "value" + i);
+            }
+        } finally {
+            db.close();
+        }
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Database directory '" + DOES_NOT_EXIST_FILENAME_PATTERN + "'.*")
     public void testCantCreateDirectoryReturnMessage()
             throws Exception {
@@ -857,6 +1766,10 @@ public class DbImplTest {
         }
         opened.clear();
         FileUtils.deleteRecursively(databaseDir);
+        for (File dir : crashCopies) {
+            FileUtils.deleteRecursively(dir);
+        }
+        crashCopies.clear();
     }
 
     private void assertBetween(long actual, int smallest, int greatest) {
@@ -915,6 +1828,7 @@ public class DbImplTest {
     }
 
     private final ArrayList<DbStringWrapper> opened = new ArrayList<>();
+    private final ArrayList<File> crashCopies = new ArrayList<>();
 
     private static class ReverseDBComparator
             implements DBComparator {
@@ -986,7 +1900,12 @@ public class DbImplTest {
 
         private DbStringWrapper(Options options, File databaseDir)
                 throws IOException {
-            this.options = options.verifyChecksums(true).createIfMissing(true).errorIfExists(true);
+            this(options, databaseDir, true);
+        }
+
+        private DbStringWrapper(Options options, File databaseDir, boolean errorIfExists)
+                throws IOException {
+            this.options = options.verifyChecksums(true).createIfMissing(true).errorIfExists(errorIfExists);
             this.databaseDir = databaseDir;
             this.db = new DbImpl(options, databaseDir);
             opened.add(this);
@@ -1012,10 +1931,39 @@ public class DbImplTest {
             db.put(toByteArray(key), toByteArray(value));
         }
 
+        public void put(String key, String value, WriteOptions writeOptions) {
+            db.put(toByteArray(key), toByteArray(value), writeOptions);
+        }
+
+        public CompletableFuture<Void> putAsync(String key, String value) {
+            return db.writeAsync(new WriteBatchImpl().put(toByteArray(key), toByteArray(value)), new WriteOptions());
+        }
+
         public void delete(String key) {
             db.delete(toByteArray(key));
         }
 
+        public void deleteRange(String begin, String end) {
+            db.deleteRange(toByteArray(begin), toByteArray(end));
+        }
+
+        public void flushWal(boolean sync) {
+            db.flushWal(sync);
+        }
+
+        /**
+         * Opens a copy of the files as they are on disk right now, which is
+         * what a process crash would leave behind.
+         */
+        public DbStringWrapper crashCopy()
+                throws IOException {
+            File copy = FileUtils.createTempDir("leveldb-crash");
+            crashCopies.add(copy);
+            FileUtils.copyDirectoryContents(databaseDir, copy);
+            new File(copy, "LOCK").delete();
+            return new DbStringWrapper(new Options(), copy, false);
+        }
+
         public SeekingIterator<String, String> iterator() {
             return new StringDbIterator(db.iterator());
         }
@@ -1054,6 +2002,16 @@ public class DbImplTest {
             return db.numberOfFilesInLevel(level);
         }
 
+        public int sortedRuns() {
+            int result = db.numberOfFilesInLevel(0);
+            for (int level = 1; level < NUM_LEVELS; level++) {
+                if (db.numberOfFilesInLevel(level) > 0) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
         public int totalTableFiles() {
             int result = 0;
             for (int level = 0; level < NUM_LEVELS; level++) {
@@ -1,6 +1,7 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.log.LogMonitor;
 import org.iq80.leveldb.log.LogReader;
 import org.iq80.leveldb.log.LogWriter;
@@ -15,13 +16,17 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
+import static org.iq80.leveldb.log.LogConstants.RECYCLABLE_HEADER_SIZE;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 import static org.testng.FileAssert.fail;
 
 public class LogTest {
@@ -85,6 +90,133 @@ public class LogTest {
         testLog(ImmutableList.of(toSlice("something"), toSlice("something else")), false);
     }
 
+    @Test
+    public void testRecyclableRecords() throws Exception {
+        writer.delete();
+        writer = Logs.createLogWriter(File.createTempFile("table", ".log"), 42, true, 0);
+        testLog(asList(toSlice("small"), toSlice("dain sundstrom", 4000), toSlice("Lagavulin", 10000)));
+    }
+
+    @Test
+    public void testRecycledLogIgnoresStaleTail() throws Exception {
+        File file = writer.getFile();
+        writer.delete();
+
+        // the previous incarnation writes more than the next one will overwrite
+        LogWriter oldWriter = Logs.createLogWriter(file, 7, true, 0);
+        for (int i = 0; i < 20; i++) {
+            oldWriter.addRecord(toSlice("old record " + i, 1000), false);
+        }
+        oldWriter.close();
+        long oldLength = file.length();
+
+        writer = Logs.createLogWriter(file, 42, true, 0);
+        List<Slice> records = asList(toSlice("new record", 1000), toSlice("another new record", 3000));
+        for (Slice record : records) {
+            writer.addRecord(record, false);
+        }
+        writer.close();
+        assertTrue(file.length() >= oldLength);
+
+        try (FileInputStream fis = new FileInputStream(file); FileChannel fileChannel = fis.getChannel()) {
+            LogReader reader = new LogReader(fileChannel, NO_CORRUPTION_MONITOR, true, 0, 42);
+            for (Slice expected : records) {
+                assertEquals(reader.readRecord(), expected);
+            }
+            assertNull(reader.readRecord());
+        }
+    }
+
+    @Test
+    public void testRecycledLogReportsCorruption() throws Exception {
+        File file = writer.getFile();
+        writer.delete();
+        writer = Logs.createLogWriter(file, 42, true, 0);
+        Slice first = toSlice("first record", 10);
+        writer.addRecord(first, false);
+        writer.addRecord(toSlice("second record", 10), false);
+        writer.close();
+
+        // corrupt the payload of the second chunk, which carries the current log number
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            long offset = 2 * RECYCLABLE_HEADER_SIZE + first.length() + 5;
+            randomAccessFile.seek(offset);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(value ^ 0xFF);
+        }
+
+        final List<String> corruptions = new ArrayList<>();
+        LogMonitor monitor = new LogMonitor() {
+            @Override
+            public void corruption(long bytes, String reason) {
+                corruptions.add(reason);
+            }
+
+            @Override
+            public void corruption(long bytes, Throwable reason) {
+                corruptions.add(reason.getMessage());
+            }
+        };
+        try (FileInputStream fis = new FileInputStream(file); FileChannel fileChannel = fis.getChannel()) {
+            LogReader reader = new LogReader(fileChannel, monitor, true, 0, 42);
+            assertEquals(reader.readRecord(), first);
+            assertNull(reader.readRecord());
+        }
+        assertEquals(corruptions, ImmutableList.of("Invalid chunk checksum"));
+    }
+
+    @Test
+    public void testCompressedRecords() throws Exception {
+        File file = writer.getFile();
+        writer.delete();
+        writer = Logs.createLogWriter(file, 42, false, 0, CompressionType.SNAPPY);
+
+        // compressible records spanning several blocks, plus ones too small to shrink
+        List<Slice> records = asList(
+                toSlice("x"),
+                toSlice("Lagunitas IPA", 100),
+                toSlice("dain sundstrom", 20000),
+                toSlice("Oban 14"));
+        testLog(records, true);
+        assertTrue(file.length() < 20000, "records were not compressed: " + file.length());
+    }
+
+    @Test
+    public void testRecyclableCompressedRecords() throws Exception {
+        File file = writer.getFile();
+        writer.delete();
+        writer = Logs.createLogWriter(file, 42, true, 0, CompressionType.SNAPPY);
+        testLog(asList(toSlice("Lagunitas IPA", 100), toSlice("dain sundstrom", 20000)));
+    }
+
+    @Test
+    public void testPreallocatedLog() throws Exception {
+        File file = writer.getFile();
+        writer.delete();
+        writer = Logs.createLogWriter(file, 42, false, 256 * 1024);
+        assertTrue(file.length() >= 256 * 1024);
+
+        // the zero filled tail reads as the end of the log
+        testLog(ImmutableList.of(toSlice("something"), toSlice("something else", 100)), false);
+    }
+
+    @Test
+    public void testPreparedLog() throws Exception {
+        File file = writer.getFile();
+        writer.delete();
+        Logs.prepareLogFile(file, 256 * 1024);
+        assertEquals(file.length(), 256 * 1024);
+
+        // the writer overwrites the zeros in place instead of truncating the prepared file
+        writer = Logs.createLogWriter(file, 42, false, true, 256 * 1024, CompressionType.NONE);
+        assertTrue(file.length() >= 256 * 1024);
+        testLog(ImmutableList.of(toSlice("something"), toSlice("something else", 100)), false);
+
+        writer.close();
+        assertTrue(file.length() < 256 * 1024);
+    }
+
     private void testLog(Slice... entries) throws IOException {
         testLog(asList(entries));
     }
@@ -0,0 +1,78 @@
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.RateLimiter.IoPriority;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TokenBucketRateLimiterTest {
+    @Test
+    public void testLimitsThroughput() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1024 * 1024, 10, TimeUnit.MILLISECONDS, 10);
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            limiter.request(4096, IoPriority.LOW);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 200KB at 1MB/s
+        assertTrue(elapsedMillis >= 150, "finished in " + elapsedMillis + "ms");
+        assertEquals(limiter.getTotalBytesThrough(), 50 * 4096);
+    }
+
+    @Test
+    public void testLargeRequestIsSplit() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(100 * 1024, 10, TimeUnit.MILLISECONDS, 10);
+        long start = System.nanoTime();
+        // ten times the bytes of a refill period
+        limiter.request(10 * 1024, IoPriority.HIGH);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= 80, "finished in " + elapsedMillis + "ms");
+        assertEquals(limiter.getTotalBytesThrough(), 10 * 1024);
+    }
+
+    @Test
+    public void testSetBytesPerSecond() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1024);
+        limiter.setBytesPerSecond(1024 * 1024 * 1024);
+        assertEquals(limiter.getBytesPerSecond(), 1024 * 1024 * 1024);
+
+        long start = System.nanoTime();
+        limiter.request(10 * 1024 * 1024, IoPriority.LOW);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis < 5000, "finished in " + elapsedMillis + "ms");
+    }
+
+    @Test
+    public void testHighPriorityGoesFirst()
+            throws Exception {
+        // fairness is so large that low priority requests practically never go first
+        final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10 * 1024, 10, TimeUnit.MILLISECONDS, Integer.MAX_VALUE);
+        final AtomicLong lowFinished = new AtomicLong();
+        final CountDownLatch lowStarted = new CountDownLatch(1);
+        Thread low = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lowStarted.countDown();
+                // takes about a second
+                limiter.request(10 * 1024, IoPriority.LOW);
+                lowFinished.set(System.nanoTime());
+            }
+        });
+        low.start();
+        lowStarted.await();
+        Thread.sleep(100);
+
+        limiter.request(1024, IoPriority.HIGH);
+        long highFinished = System.nanoTime();
+        low.join();
+
+        assertTrue(highFinished < lowFinished.get(), "high priority request finished after the low priority one");
+    }
+}
@@ -0,0 +1,77 @@
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.impl.UniversalCompactionPicker.SortedRun;
+import org.iq80.leveldb.impl.UniversalCompactionPicker.Window;
+import org.iq80.leveldb.slice.Slices;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class UniversalCompactionPickerTest {
+    private long nextFileNumber = 1;
+
+    @Test
+    public void testNoCompactionBelowMaxSortedRuns() {
+        UniversalCompactionPicker picker = new UniversalCompactionPicker(1, 4);
+        assertNull(picker.pickWindow(runs(new int[] {0, 0, 0}, new long[] {100, 100, 100})));
+    }
+
+    @Test
+    public void testMergesRunsOfSimilarSize() {
+        UniversalCompactionPicker picker = new UniversalCompactionPicker(1, 4);
+        // three equal level0 files followed by a much larger level 6
+        Window window = picker.pickWindow(runs(new int[] {0, 0, 0, 6}, new long[] {100, 100, 100, 100000}));
+        assertEquals(window.getStart(), 0);
+        assertEquals(window.getEnd(), 3);
+        // all inputs are level0 files, so the output goes just above the next sorted run
+        assertEquals(window.getOutputLevel(), 5);
+    }
+
+    @Test
+    public void testSizeRatioIncludesLargerOlderRun() {
+        UniversalCompactionPicker picker = new UniversalCompactionPicker(1, 4);
+        // 100 + 100 = 200 covers the 201 byte run within the default 1% ratio
+        Window window = picker.pickWindow(runs(new int[] {0, 0, 3, 6}, new long[] {100, 100, 201, 100000}));
+        assertEquals(window.getStart(), 0);
+        assertEquals(window.getEnd(), 3);
+        assertEquals(window.getOutputLevel(), 3);
+    }
+
+    @Test
+    public void testOlderLevel0FilesAreAlwaysIncluded() {
+        UniversalCompactionPicker picker = new UniversalCompactionPicker(1, 4);
+        // the two newest files are too small to pick up the third, but the window
+        // may not leave an older level0 file behind newer compacted data
+        Window window = picker.pickWindow(runs(new int[] {0, 0, 0, 1}, new long[] {100, 100, 10000, 100000}));
+        assertEquals(window.getStart(), 0);
+        assertEquals(window.getEnd(), 4);
+        assertEquals(window.getOutputLevel(), 1);
+    }
+
+    @Test
+    public void testFallsBackToNewestRuns() {
+        UniversalCompactionPicker picker = new UniversalCompactionPicker(1, 4);
+        // sizes grow too fast for the ratio rule, so the newest runs are merged
+        Window window = picker.pickWindow(runs(new int[] {1, 2, 3, 4, 5}, new long[] {10, 1000, 100000, 10000000, 1000000000}));
+        assertEquals(window.getStart(), 0);
+        assertEquals(window.getEnd(), 2);
+        assertEquals(window.getOutputLevel(), 2);
+    }
+
+    private List<SortedRun> runs(int[] levels, long[] sizes) {
+        List<SortedRun> runs = new ArrayList<>();
+        for (int i = 0; i < levels.length; i++) {
+            InternalKey smallest = new InternalKey(Slices.copiedBuffer("a", UTF_8), 1, VALUE);
+            InternalKey largest = new InternalKey(Slices.copiedBuffer("z", UTF_8), 1, VALUE);
+            runs.add(new SortedRun(levels[i], ImmutableList.of(new FileMetaData(nextFileNumber++, sizes[i], smallest, largest))));
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,37 @@
+package org.iq80.leveldb.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.Map.Entry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+import static org.iq80.leveldb.slice.Slices.copiedBuffer;
+import static org.testng.Assert.assertEquals;
+
+public class VersionEditTest {
+    @Test
+    public void testFileCreationTimeRoundTrip() {
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(0, new FileMetaData(7, 1000, key("a"), key("m"), 1234567890123L));
+        edit.addFile(2, new FileMetaData(8, 2000, key("n"), key("z")));
+
+        VersionEdit decoded = new VersionEdit(edit.encode());
+        assertEquals(decoded.getNewFiles().size(), 2);
+        for (Entry<Integer, FileMetaData> entry : decoded.getNewFiles().entries()) {
+            FileMetaData file = entry.getValue();
+            if (file.getNumber() == 7) {
+                assertEquals((int) entry.getKey(), 0);
+                assertEquals(file.getFileSize(), 1000);
+                assertEquals(file.getCreationTime(), 1234567890123L);
+            } else {
+                assertEquals((int) entry.getKey(), 2);
+                assertEquals(file.getCreationTime(), 0);
+            }
+        }
+    }
+
+    private static InternalKey key(String userKey) {
+        return new InternalKey(copiedBuffer(userKey, UTF_8), 1, VALUE);
+    }
+}
@@ -0,0 +1,163 @@
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.CompactionPriority;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.table.TableProperties;
+import org.iq80.leveldb.util.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+import static org.iq80.leveldb.slice.Slices.copiedBuffer;
+import static org.testng.Assert.assertEquals;
+
+public class VersionSetTest {
+    private static final long MB = 1 << 20;
+    private static final long GB = 1 << 30;
+
+    private File databaseDir;
+
+    @BeforeMethod
+    public void setUp() {
+        databaseDir = FileUtils.createTempDir("leveldb-versionset");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        FileUtils.deleteRecursively(databaseDir);
+    }
+
+    @Test
+    public void testStaticLevelSizes()
+            throws Exception {
+        VersionSet versionSet = newVersionSet(new Options());
+        double[] maxBytes = versionSet.levelMaxBytes(versionWithLastLevel(versionSet, 500 * GB));
+        assertEquals(maxBytes[1], 10.0 * MB);
+        assertEquals(maxBytes[2], 100.0 * MB);
+        assertEquals(maxBytes[6], 1000000.0 * MB);
+    }
+
+    @Test
+    public void testDynamicLevelSizesFollowLastLevel()
+            throws Exception {
+        VersionSet versionSet = newVersionSet(new Options().levelCompactionDynamicLevelBytes(true));
+        double[] maxBytes = versionSet.levelMaxBytes(versionWithLastLevel(versionSet, 500 * GB));
+        assertEquals(maxBytes[6], 500.0 * GB);
+        assertEquals(maxBytes[5], 50.0 * GB);
+        assertEquals(maxBytes[3], 0.5 * GB);
+        // never below the base level size
+        assertEquals(maxBytes[1], 10.0 * MB);
+    }
+
+    @Test
+    public void testDynamicLevelSizesWithoutLastLevel()
+            throws Exception {
+        Options options = new Options().levelCompactionDynamicLevelBytes(true).maxBytesForLevelBase(64 * MB).maxBytesForLevelMultiplier(8);
+        VersionSet versionSet = newVersionSet(options);
+        double[] maxBytes = versionSet.levelMaxBytes(new Version(versionSet));
+        assertEquals(maxBytes[1], 64.0 * MB);
+        assertEquals(maxBytes[2], 512.0 * MB);
+    }
+
+    @Test
+    public void testTargetFileSizePerLevel()
+            throws Exception {
+        VersionSet versionSet = newVersionSet(new Options().targetFileSizeBase(4 * MB).targetFileSizeMultiplier(2));
+        assertEquals(versionSet.maxFileSizeForLevel(0), 4 * MB);
+        assertEquals(versionSet.maxFileSizeForLevel(1), 4 * MB);
+        assertEquals(versionSet.maxFileSizeForLevel(3), 16 * MB);
+        assertEquals(versionSet.maxGrandParentOverlapBytes(3), 160 * MB);
+    }
+
+    @Test
+    public void testRoundRobinPicksFirstFile()
+            throws Exception {
+        VersionSet versionSet = newVersionSetWithLevel1(CompactionPriority.ROUND_ROBIN);
+        assertEquals(versionSet.pickCompaction().getLevelInputs().get(0).getNumber(), 10);
+    }
+
+    @Test
+    public void testMinOverlappingRatioPicksCheapestFile()
+            throws Exception {
+        VersionSet versionSet = newVersionSetWithLevel1(CompactionPriority.MIN_OVERLAPPING_RATIO);
+        Compaction compaction = versionSet.pickCompaction();
+        assertEquals(compaction.getLevelInputs().get(0).getNumber(), 11);
+        assertEquals(compaction.getLevelUpInputs().get(0).getNumber(), 21);
+    }
+
+    @Test
+    public void testTombstoneDensityPicksMostDeletedFile()
+            throws Exception {
+        VersionSet versionSet = newVersionSetWithLevel1(CompactionPriority.TOMBSTONE_DENSITY);
+        List<FileMetaData> level1 = versionSet.getCurrent().getFiles(1);
+        level1.get(0).setTableProperties(new TableProperties(100, 1, 0));
+        level1.get(1).setTableProperties(new TableProperties(100, 40, 2));
+        assertEquals(versionSet.pickCompaction().getLevelInputs().get(0).getNumber(), 11);
+    }
+
+    @Test
+    public void testTombstoneDensitySkipsFilesWithoutLoadedProperties()
+            throws Exception {
+        VersionSet versionSet = newVersionSetWithLevel1(CompactionPriority.TOMBSTONE_DENSITY);
+        // file 10 has no properties yet and its table does not exist, so it must not be opened
+        versionSet.getCurrent().getFiles(1).get(1).setTableProperties(new TableProperties(100, 40, 2));
+        assertEquals(versionSet.pickCompaction().getLevelInputs().get(0).getNumber(), 11);
+    }
+
+    @Test
+    public void testTombstoneDensityWithoutDeletionsFallsBackToRoundRobin()
+            throws Exception {
+        VersionSet versionSet = newVersionSetWithLevel1(CompactionPriority.TOMBSTONE_DENSITY);
+        for (FileMetaData file : versionSet.getCurrent().getFiles(1)) {
+            file.setTableProperties(new TableProperties(100, 0, 0));
+        }
+        assertEquals(versionSet.pickCompaction().getLevelInputs().get(0).getNumber(), 10);
+    }
+
+    /**
+     * level1超过目标大小, 文件10在level2的重叠字节远多于文件11
+     */
+    private VersionSet newVersionSetWithLevel1(CompactionPriority compactionPriority)
+            throws IOException {
+        VersionSet versionSet = newVersionSet(new Options(), new LeveledCompactionPicker(compactionPriority));
+        versionSet.recover();
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(1, 10, 6 * MB, key("a"), key("c"));
+        edit.addFile(1, 11, 6 * MB, key("d"), key("f"));
+        edit.addFile(2, 20, 50 * MB, key("a"), key("c"));
+        edit.addFile(2, 21, MB, key("d"), key("f"));
+        versionSet.logAndApply(edit);
+        return versionSet;
+    }
+
+    private static InternalKey key(String userKey) {
+        return new InternalKey(copiedBuffer(userKey, UTF_8), 1, VALUE);
+    }
+
+    private VersionSet newVersionSet(Options options)
+            throws IOException {
+        return newVersionSet(options, new LeveledCompactionPicker());
+    }
+
+    private VersionSet newVersionSet(Options options, CompactionPicker compactionPicker)
+            throws IOException {
+        InternalKeyComparator internalKeyComparator = new InternalKeyComparator(new BytewiseComparator());
+        TableCache tableCache = new TableCache(databaseDir, 10, new InternalUserComparator(internalKeyComparator), true);
+        return new VersionSet(databaseDir, tableCache, internalKeyComparator, options, compactionPicker);
+    }
+
+    private static Version versionWithLastLevel(VersionSet versionSet, long lastLevelBytes) {
+        Version version = new Version(versionSet);
+        InternalKey smallest = new InternalKey(copiedBuffer("a", UTF_8), 1, VALUE);
+        InternalKey largest = new InternalKey(copiedBuffer("z", UTF_8), 1, VALUE);
+        version.addFile(version.numberOfLevels() - 1, new FileMetaData(100, lastLevelBytes, smallest, largest));
+        return version;
+    }
+}
@@ -0,0 +1,86 @@
+package org.iq80.leveldb.impl;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class WalSyncerTest {
+    @Test
+    public void testSyncsAreCoalesced()
+            throws Exception {
+        final AtomicInteger syncs = new AtomicInteger();
+        WalSyncer syncer = new WalSyncer(50, TimeUnit.MILLISECONDS, new WalSyncer.SyncAction() {
+            @Override
+            public void sync() {
+                syncs.incrementAndGet();
+            }
+        });
+        assertFalse(syncer.isStarted());
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(syncer.register());
+        }
+        assertTrue(syncer.isStarted());
+        for (CompletableFuture<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertTrue(syncs.get() < 100, "expected fewer syncs than writes but got " + syncs.get());
+        assertEquals(syncer.getSyncedWrites(), 100);
+        assertEquals(syncer.getSyncCount(), syncs.get());
+        syncer.close();
+    }
+
+    @Test
+    public void testSyncFailureFailsWaiters()
+            throws Exception {
+        WalSyncer syncer = new WalSyncer(0, TimeUnit.MILLISECONDS, new WalSyncer.SyncAction() {
+            @Override
+            public void sync()
+                    throws IOException {
+                throw new IOException("disk gone");
+            }
+        });
+
+        CompletableFuture<Void> future = syncer.register();
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("expected sync failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        syncer.close();
+    }
+
+    @Test
+    public void testCloseSyncsPendingWrites()
+            throws Exception {
+        final AtomicInteger syncs = new AtomicInteger();
+        WalSyncer syncer = new WalSyncer(1, TimeUnit.HOURS, new WalSyncer.SyncAction() {
+            @Override
+            public void sync() {
+                syncs.incrementAndGet();
+            }
+        });
+
+        CompletableFuture<Void> future = syncer.register();
+        syncer.close();
+        assertTrue(future.isDone());
+        assertFalse(future.isCompletedExceptionally());
+        assertEquals(syncs.get(), 1);
+
+        assertTrue(syncer.register().isCompletedExceptionally());
+    }
+}
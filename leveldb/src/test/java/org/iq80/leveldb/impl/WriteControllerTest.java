@@ -0,0 +1,110 @@
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Ticker;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.impl.WriteController.StallCause;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class WriteControllerTest {
+    private static final long RATE = 1 << 20;
+
+    @Test
+    public void testNormalStateHasNoDelay() {
+        WriteController controller = new WriteController(options(), new FakeTicker());
+        controller.updateState(0, 0);
+        assertFalse(controller.isDelayed());
+        assertFalse(controller.isStopped());
+        assertEquals(controller.getDelayNanos(1 << 20), 0);
+    }
+
+    @Test
+    public void testRateDropsAsLevel0FilesGrow() {
+        WriteController controller = new WriteController(options(), new FakeTicker());
+
+        controller.updateState(9, 0);
+        assertTrue(controller.isDelayed());
+        assertEquals(controller.getDelayCause(), StallCause.LEVEL0_SLOWDOWN);
+        long rateAt9 = controller.getDelayedWriteRate();
+
+        controller.updateState(11, 0);
+        long rateAt11 = controller.getDelayedWriteRate();
+        assertTrue(rateAt11 < rateAt9, rateAt11 + " should be less than " + rateAt9);
+        assertTrue(rateAt11 >= RATE / 16);
+
+        controller.updateState(12, 0);
+        assertTrue(controller.isStopped());
+        assertEquals(controller.getStopCause(), StallCause.LEVEL0_STOP);
+    }
+
+    @Test
+    public void testPendingCompactionBytes() {
+        Options options = options().softPendingCompactionBytesLimit(1000).hardPendingCompactionBytesLimit(2000);
+        WriteController controller = new WriteController(options, new FakeTicker());
+
+        controller.updateState(0, 1500);
+        assertEquals(controller.getDelayCause(), StallCause.PENDING_COMPACTION_SLOWDOWN);
+        assertEquals(controller.getDelayedWriteRate(), RATE / 2);
+
+        controller.updateState(0, 2000);
+        assertEquals(controller.getStopCause(), StallCause.PENDING_COMPACTION_STOP);
+    }
+
+    @Test
+    public void testTokenBucketDelay() {
+        FakeTicker ticker = new FakeTicker();
+        WriteController controller = new WriteController(options(), ticker);
+        controller.updateState(10, 0);
+        long rate = controller.getDelayedWriteRate();
+
+        // the bucket starts empty, so a write must wait for its bytes to accumulate
+        long delay = controller.getDelayNanos(rate);
+        assertEquals(delay, TimeUnit.SECONDS.toNanos(1));
+
+        // the sleep has been paid for, so the next write after the sleep is charged only for itself
+        ticker.advance(delay);
+        assertEquals(controller.getDelayNanos(rate / 2), TimeUnit.MILLISECONDS.toNanos(500));
+
+        // an idle period refills at most one millisecond of credit
+        ticker.advance(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(controller.getDelayNanos(rate / 1000), 0);
+    }
+
+    @Test
+    public void testStallCounters() {
+        WriteController controller = new WriteController(options(), new FakeTicker());
+        controller.recordStall(StallCause.LEVEL0_SLOWDOWN, TimeUnit.MILLISECONDS.toNanos(2));
+        controller.recordStall(StallCause.MEMTABLE_LIMIT, TimeUnit.MILLISECONDS.toNanos(3));
+        controller.recordStall(StallCause.MEMTABLE_LIMIT, TimeUnit.MILLISECONDS.toNanos(3));
+
+        assertEquals(controller.getStallCount(StallCause.LEVEL0_SLOWDOWN), 1);
+        assertEquals(controller.getStallCount(StallCause.MEMTABLE_LIMIT), 2);
+        assertEquals(controller.getStallMicros(StallCause.MEMTABLE_LIMIT), 6000);
+        assertEquals(controller.getTotalStallMicros(), 8000);
+    }
+
+    private static Options options() {
+        return new Options()
+                .level0SlowdownWritesTrigger(8)
+                .level0StopWritesTrigger(12)
+                .delayedWriteRate(RATE);
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos = 1;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        public void advance(long delta) {
+            nanos += delta;
+        }
+    }
+}
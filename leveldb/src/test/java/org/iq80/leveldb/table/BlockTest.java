@@ -17,15 +17,23 @@
  */
 package org.iq80.leveldb.table;
 
+import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.InternalKeyComparator;
+import org.iq80.leveldb.impl.InternalUserComparator;
+import org.iq80.leveldb.impl.ValueType;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.Slices;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class BlockTest
 {
@@ -102,6 +110,66 @@ public class BlockTest
         }
     }
 
+    @Test
+    public void testHashIndex()
+            throws Exception
+    {
+        InternalUserComparator comparator = new InternalUserComparator(new InternalKeyComparator(new BytewiseComparator()));
+        BlockBuilder builder = new BlockBuilder(256, 4, comparator, 0.75);
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // some keys have versions in two restart intervals and can only be found by binary search
+            for (int sequence = i % 3 + 2; sequence >= 2; sequence--) {
+                entries.add(new BlockEntry(internalKey(String.format("key%03d", i * 2), sequence), Slices.copiedBuffer("value" + i + "@" + sequence, UTF_8)));
+            }
+        }
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        assertEquals(builder.currentSizeEstimate(), builder.finish().length());
+        Block block = new Block(builder.finish(), comparator);
+        assertTrue(block.hasHashIndex());
+        BlockHelper.assertSequence(block.iterator(), entries);
+
+        int absent = 0;
+        for (int i = 0; i < 200; i++) {
+            Slice userKey = Slices.copiedBuffer(String.format("key%03d", i), UTF_8);
+            for (long sequence = 1; sequence <= 5; sequence++) {
+                Slice target = internalKey(String.format("key%03d", i), sequence);
+                BlockIterator expected = block.iterator();
+                expected.seek(target);
+                BlockIterator actual = block.seekForGet(target, userKey);
+                if (expected.hasNext() && new InternalKey(expected.peek().getKey()).getUserKey().equals(userKey)) {
+                    assertTrue(actual != null && actual.hasNext());
+                    assertEquals(actual.next(), expected.next());
+                } else if (actual == null) {
+                    absent++;
+                } else if (actual.hasNext()) {
+                    assertFalse(new InternalKey(actual.next().getKey()).getUserKey().equals(userKey));
+                }
+            }
+        }
+        // most of the absent keys are rejected without searching
+        assertTrue(absent > 250, "absent keys rejected by the hash index: " + absent);
+    }
+
+    @Test
+    public void testHashIndexNeedsFewRestarts()
+            throws Exception
+    {
+        InternalUserComparator comparator = new InternalUserComparator(new InternalKeyComparator(new BytewiseComparator()));
+        BlockBuilder builder = new BlockBuilder(256, 1, comparator, 0.75);
+        for (int i = 0; i < Block.MAX_HASH_RESTARTS + 1; i++) {
+            builder.add(internalKey(String.format("key%03d", i), 1), Slices.EMPTY_SLICE);
+        }
+        assertFalse(new Block(builder.finish(), comparator).hasHashIndex());
+    }
+
+    private static Slice internalKey(String userKey, long sequence)
+    {
+        return new InternalKey(Slices.copiedBuffer(userKey, UTF_8), sequence, ValueType.VALUE).encode();
+    }
+
     private static void blockTest(int blockRestartInterval, BlockEntry... entries)
     {
         blockTest(blockRestartInterval, asList(entries));
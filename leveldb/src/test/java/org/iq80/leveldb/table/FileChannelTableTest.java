@@ -27,7 +27,7 @@ public class FileChannelTableTest
         extends TableTest
 {
     @Override
-    protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
+    protected BlockBasedTable createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
     {
         return new FileChannelTable(name, fileChannel, comparator, verifyChecksums);
@@ -17,19 +17,85 @@
  */
 package org.iq80.leveldb.table;
 
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.slice.Slice;
+import org.testng.annotations.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class MMapTableTest
         extends TableTest
 {
     @Override
-    protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
+    protected BlockBasedTable createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
     {
         return new MMapTable(name, fileChannel, comparator, verifyChecksums);
     }
+
+    @Test
+    public void testUncompressedBlocksAreNotCopied() throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%05d", i), "value" + i));
+        }
+
+        for (CompressionType compressionType : new CompressionType[] {CompressionType.NONE, CompressionType.SNAPPY}) {
+            File file = File.createTempFile("table", ".db");
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                TableBuilder builder = new TableBuilder(new Options().blockSize(256).compressionType(compressionType), randomAccessFile.getChannel(),
+                        new BytewiseComparator());
+                for (BlockEntry entry : entries) {
+                    builder.add(entry.getKey(), entry.getValue());
+                }
+                builder.finish();
+
+                Table table = createTable(file.getAbsolutePath(), randomAccessFile.getChannel(), new BytewiseComparator(), true);
+                SeekingIterator<Slice, Slice> iterator = table.iterator();
+                BlockHelper.assertSequence(iterator, entries);
+
+                // values of uncompressed blocks point into the mapping, decompressed ones live on the heap
+                iterator.seekToFirst();
+                Entry<Slice, Slice> first = iterator.next();
+                assertEquals(first.getValue(), entries.get(0).getValue());
+                assertEquals(first.getValue().hasRawArray(), compressionType != CompressionType.NONE);
+                table.release();
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testReferenceCounting() throws Exception {
+        File file = File.createTempFile("table", ".db");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            TableBuilder builder = new TableBuilder(new Options(), randomAccessFile.getChannel(), new BytewiseComparator());
+            builder.add(BlockHelper.createBlockEntry("name", "dain sundstrom"));
+            builder.finish();
+
+            Table table = createTable(file.getAbsolutePath(), randomAccessFile.getChannel(), new BytewiseComparator(), true);
+            assertTrue(table.retain());
+            // the opener's reference is gone, the reader's one keeps the mapping valid
+            table.release();
+            assertEquals(table.iterator().next().getValue(), BlockHelper.createBlockEntry("name", "dain sundstrom").getValue());
+            table.release();
+            assertFalse(table.retain());
+        } finally {
+            file.delete();
+        }
+    }
 }
@@ -0,0 +1,175 @@
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.RateLimiter.IoPriority;
+import org.iq80.leveldb.TableFormat;
+import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.InternalKeyComparator;
+import org.iq80.leveldb.impl.InternalUserComparator;
+import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.impl.ValueType;
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.Slices;
+import org.iq80.leveldb.util.Closeables;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class PlainTableTest {
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+
+    @Test
+    public void testEmptyTable() throws Exception {
+        tableTest(16, Collections.<BlockEntry>emptyList());
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), "value" + i));
+        }
+        for (int indexInterval : new int[] {1, 3, 16, 1000}) {
+            tableTest(indexInterval, entries);
+        }
+    }
+
+    @Test
+    public void testSeekForGet() throws Exception {
+        InternalUserComparator comparator = new InternalUserComparator(new InternalKeyComparator(new BytewiseComparator()));
+        TableFileBuilder builder = TableFormats.newBuilder(new Options().tableFormat(TableFormat.PLAIN).blockSize(256), fileChannel, comparator,
+                IoPriority.LOW, null, null, 0);
+        for (int i = 0; i < 1000; i++) {
+            Slice userKey = userKey(i * 2);
+            // several versions of every third key
+            for (int sequence = i % 3 == 0 ? 3 : 1; sequence >= 1; sequence--) {
+                builder.add(new InternalKey(userKey, 100 * i + sequence, ValueType.VALUE), Slices.copiedBuffer("value" + i + "@" + sequence, ISO_8859_1));
+            }
+        }
+        builder.finish();
+
+        Table table = TableFormats.openTable(file.getAbsolutePath(), fileChannel, comparator, true, true);
+        assertTrue(table instanceof PlainTable);
+        assertEquals(table.getProperties().getNumEntries(), builder.getEntryCount());
+        for (int i = 0; i < 1000; i++) {
+            Slice userKey = userKey(i * 2);
+            int latest = i % 3 == 0 ? 3 : 1;
+            Entry<Slice, Slice> entry = table.seekForGet(new InternalKey(userKey, MAX_SEQUENCE_NUMBER, ValueType.VALUE).encode(), userKey);
+            assertEquals(entry.getValue().toString(ISO_8859_1), "value" + i + "@" + latest);
+            // values are views of the mapped file, keys are copied to the heap
+            assertTrue(entry.getKey().hasRawArray());
+            assertFalse(entry.getValue().hasRawArray());
+
+            // an older snapshot sees an older version
+            if (latest > 1) {
+                entry = table.seekForGet(new InternalKey(userKey, 100 * i + 2, ValueType.VALUE).encode(), userKey);
+                assertEquals(entry.getValue().toString(ISO_8859_1), "value" + i + "@2");
+            }
+
+            // keys that are not in the table are either rejected or found to be past the requested user key
+            Slice missing = userKey(i * 2 + 1);
+            entry = table.seekForGet(new InternalKey(missing, MAX_SEQUENCE_NUMBER, ValueType.VALUE).encode(), missing);
+            if (entry != null) {
+                assertTrue(new InternalKey(entry.getKey()).getUserKey().compareTo(missing) > 0);
+            }
+        }
+        table.release();
+    }
+
+    @Test
+    public void testOpenDetectsFormat() throws Exception {
+        TableBuilder builder = new TableBuilder(new Options(), fileChannel, new BytewiseComparator());
+        builder.add(BlockHelper.createBlockEntry("name", "dain sundstrom"));
+        builder.finish();
+
+        Table table = TableFormats.openTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, false);
+        assertTrue(table instanceof FileChannelTable);
+        BlockHelper.assertSequence(table.iterator(), Collections.singletonList(BlockHelper.createBlockEntry("name", "dain sundstrom")));
+    }
+
+    private void tableTest(int indexInterval, List<BlockEntry> entries) throws Exception {
+        reopenFile();
+        Options options = new Options().tableFormat(TableFormat.PLAIN).blockRestartInterval(indexInterval).blockSize(128);
+        TableFileBuilder builder = TableFormats.newBuilder(options, fileChannel, new BytewiseComparator(), IoPriority.LOW, null, null, 0);
+        for (BlockEntry entry : entries) {
+            builder.add(entry.getKey(), entry.getValue());
+        }
+        builder.finish();
+
+        Table table = TableFormats.openTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, true);
+        assertTrue(table instanceof PlainTable);
+
+        SeekingIterator<Slice, Slice> seekingIterator = table.iterator();
+        BlockHelper.assertSequence(seekingIterator, entries);
+
+        seekingIterator.seekToFirst();
+        BlockHelper.assertSequence(seekingIterator, entries);
+
+        long lastApproximateOffset = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            BlockEntry entry = entries.get(i);
+            List<BlockEntry> nextEntries = entries.subList(i, entries.size());
+            seekingIterator.seek(entry.getKey());
+            BlockHelper.assertSequence(seekingIterator, nextEntries);
+
+            seekingIterator.seek(BlockHelper.before(entry));
+            BlockHelper.assertSequence(seekingIterator, nextEntries);
+
+            seekingIterator.seek(BlockHelper.after(entry));
+            BlockHelper.assertSequence(seekingIterator, nextEntries.subList(1, nextEntries.size()));
+
+            long approximateOffset = table.getApproximateOffsetOf(entry.getKey());
+            assertTrue(approximateOffset >= lastApproximateOffset);
+            lastApproximateOffset = approximateOffset;
+        }
+
+        Slice endKey = Slices.wrappedBuffer(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        seekingIterator.seek(endKey);
+        BlockHelper.assertSequence(seekingIterator, Collections.<BlockEntry>emptyList());
+        assertTrue(table.getApproximateOffsetOf(endKey) >= lastApproximateOffset);
+        assertNull(table.getMetaBlock(TableBuilder.RANGE_DELETION_BLOCK));
+    }
+
+    private static Slice userKey(int i) {
+        return Slices.copiedBuffer(String.format("user%06d", i), ISO_8859_1);
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        reopenFile();
+    }
+
+    private void reopenFile() throws Exception {
+        tearDown();
+        file = File.createTempFile("table", ".db");
+        file.delete();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        fileChannel = randomAccessFile.getChannel();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        Closeables.closeQuietly(fileChannel);
+        Closeables.closeQuietly(randomAccessFile);
+        if (file != null) {
+            file.delete();
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package org.iq80.leveldb.table;
 
+import com.google.common.io.Files;
+import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.RateLimiter.IoPriority;
+import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.InternalKeyComparator;
+import org.iq80.leveldb.impl.InternalUserComparator;
 import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.impl.ValueType;
 import org.iq80.leveldb.slice.Slice;
 import org.iq80.leveldb.slice.Slices;
 import org.iq80.leveldb.util.Closeables;
@@ -13,12 +20,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 public abstract class TableTest {
@@ -26,7 +42,7 @@ public abstract class TableTest {
     private RandomAccessFile randomAccessFile;
     private FileChannel fileChannel;
 
-    protected abstract Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
+    protected abstract BlockBasedTable createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException;
 
     @Test(expectedExceptions = IllegalArgumentException.class)
@@ -77,13 +93,308 @@ public abstract class TableTest {
         tableTest(BlockHelper.estimateBlockSize(Integer.MAX_VALUE, entries) / 3, Integer.MAX_VALUE, entries);
     }
 
+    @Test
+    public void testPartitionedIndex() throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), "value" + i));
+        }
+        Options options = new Options().blockSize(64).indexPartitionSize(128);
+        tableTest(options, entries);
+
+        BlockBasedTable table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        TableProperties properties = table.getProperties();
+        assertTrue(properties.getIndexPartitions() > 1, "index partitions: " + properties.getIndexPartitions());
+
+        // the partitions point to the same data blocks as a single index block
+        File singleIndexFile = writeTable(new Options().blockSize(64), entries, null);
+        try (RandomAccessFile singleIndexTable = new RandomAccessFile(singleIndexFile, "r")) {
+            BlockBasedTable singleIndex = createTable(singleIndexFile.getAbsolutePath(), singleIndexTable.getChannel(), new BytewiseComparator(), true);
+            assertEquals(singleIndex.getProperties().getIndexPartitions(), 0);
+            assertEquals(properties.getDataSize(), singleIndex.getProperties().getDataSize());
+            for (BlockEntry entry : entries) {
+                assertEquals(table.getApproximateOffsetOf(entry.getKey()), singleIndex.getApproximateOffsetOf(entry.getKey()));
+            }
+            SeekingIterator<Slice, Slice> partitioned = table.indexIterator();
+            SeekingIterator<Slice, Slice> single = singleIndex.indexIterator();
+            while (single.hasNext()) {
+                assertTrue(partitioned.hasNext());
+                assertEquals(partitioned.next(), single.next());
+            }
+            assertFalse(partitioned.hasNext());
+        } finally {
+            singleIndexFile.delete();
+        }
+    }
+
+    @Test
+    public void testSmallIndexIsNotPartitioned() throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), "value" + i));
+        }
+        tableTest(new Options().blockSize(64).indexPartitionSize(4096), entries);
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        assertEquals(table.getProperties().getIndexPartitions(), 0);
+    }
+
+    @Test
+    public void testPipelinedBuilderMatchesSerial() throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            // half random, half repeated bytes so some blocks compress and some do not
+            byte[] value = new byte[100];
+            if (i % 2 == 0) {
+                random.nextBytes(value);
+            } else {
+                Arrays.fill(value, (byte) i);
+            }
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i), new String(value, ISO_8859_1)));
+        }
+        Options options = new Options().blockSize(1024);
+
+        File serialFile = writeTable(options, entries, null);
+        File pipelinedFile;
+        try (BlockPipeline pipeline = new BlockPipeline(4, 3)) {
+            pipelinedFile = writeTable(options, entries, pipeline);
+        }
+        // the builder creates its own workers
+        File parallelFile = writeTable(new Options().blockSize(1024).compressionThreads(3), entries, null);
+        try {
+            assertEquals(Files.toByteArray(pipelinedFile), Files.toByteArray(serialFile));
+            assertEquals(Files.toByteArray(parallelFile), Files.toByteArray(serialFile));
+            try (RandomAccessFile pipelinedTable = new RandomAccessFile(pipelinedFile, "r")) {
+                Table table = createTable(pipelinedFile.getAbsolutePath(), pipelinedTable.getChannel(), new BytewiseComparator(), true);
+                BlockHelper.assertSequence(table.iterator(), entries);
+            }
+        } finally {
+            serialFile.delete();
+            pipelinedFile.delete();
+            parallelFile.delete();
+        }
+    }
+
+    @Test(timeOut = 30_000)
+    public void testAbandonDropsBlocksStillCompressing() throws Exception {
+        final List<FutureTask<?>> compressions = new ArrayList<>();
+        // compressions are queued but never run, so waiting for one would block forever
+        BlockPipeline pipeline = new BlockPipeline(1, 100) {
+            @Override
+            <T> Future<T> compress(Callable<T> task) {
+                FutureTask<T> future = new FutureTask<>(task);
+                compressions.add(future);
+                return future;
+            }
+        };
+        File tableFile = File.createTempFile("table", ".db");
+        try (RandomAccessFile output = new RandomAccessFile(tableFile, "rw")) {
+            TableBuilder builder = new TableBuilder(new Options().blockSize(1024), output.getChannel(), new BytewiseComparator(), IoPriority.LOW, pipeline);
+            for (int i = 0; i < 200; i++) {
+                builder.add(BlockHelper.createBlockEntry(String.format("key%06d", i), "value" + i));
+            }
+            assertFalse(compressions.isEmpty());
+            builder.abandon();
+            for (FutureTask<?> compression : compressions) {
+                assertTrue(compression.isCancelled());
+            }
+            assertEquals(output.length(), 0);
+        } finally {
+            pipeline.close();
+            tableFile.delete();
+        }
+    }
+
+    @Test
+    public void testBlockAlign() throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            byte[] value = new byte[random.nextInt(200)];
+            random.nextBytes(value);
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i), new String(value, ISO_8859_1)));
+        }
+        Options options = new Options().blockSize(TableBuilder.BLOCK_ALIGNMENT).compressionType(CompressionType.NONE).blockAlign(true);
+
+        File alignedFile = writeTable(options, entries, null);
+        File pipelinedFile;
+        try (BlockPipeline pipeline = new BlockPipeline(2, 3)) {
+            pipelinedFile = writeTable(options, entries, pipeline);
+        }
+        try (RandomAccessFile alignedTable = new RandomAccessFile(alignedFile, "r")) {
+            assertEquals(Files.toByteArray(pipelinedFile), Files.toByteArray(alignedFile));
+
+            BlockBasedTable table = createTable(alignedFile.getAbsolutePath(), alignedTable.getChannel(), new BytewiseComparator(), true);
+            BlockHelper.assertSequence(table.iterator(), entries);
+            SeekingIterator<Slice, Slice> index = table.indexIterator();
+            int blocks = 0;
+            while (index.hasNext()) {
+                BlockHandle handle = BlockHandle.readBlockHandle(index.next().getValue().input());
+                assertEquals(handle.getOffset() % TableBuilder.BLOCK_ALIGNMENT, 0, "block " + blocks + " is not aligned");
+                assertTrue(handle.getFullBlockSize() <= TableBuilder.BLOCK_ALIGNMENT, "block " + blocks + " is larger than a page");
+                blocks++;
+            }
+            assertTrue(blocks > 10);
+            for (BlockEntry entry : entries) {
+                assertEquals(table.seekForGet(entry.getKey(), entry.getKey()).getValue(), entry.getValue());
+            }
+        } finally {
+            alignedFile.delete();
+            pipelinedFile.delete();
+        }
+    }
+
+    @Test
+    public void testCompressionTypes() throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i), String.format("value-%d-%s", i * 7, "xyz" + (i % 13))));
+        }
+
+        File uncompressedFile = writeCompressedTable(CompressionType.NONE, entries);
+        try {
+            for (CompressionType compressionType : asList(CompressionType.LZ4, CompressionType.ZSTD)) {
+                File compressedFile = writeCompressedTable(compressionType, entries);
+                try (RandomAccessFile compressedTable = new RandomAccessFile(compressedFile, "r")) {
+                    assertTrue(compressedFile.length() < uncompressedFile.length() * 7 / 8, compressionType + " did not compress");
+                    Table table = createTable(compressedFile.getAbsolutePath(), compressedTable.getChannel(), new BytewiseComparator(), true);
+                    BlockHelper.assertSequence(table.iterator(), entries);
+                } finally {
+                    compressedFile.delete();
+                }
+            }
+        } finally {
+            uncompressedFile.delete();
+        }
+    }
+
+    @Test
+    public void testTablePropertiesCountDeletions() throws Exception {
+        InternalUserComparator comparator = new InternalUserComparator(new InternalKeyComparator(new BytewiseComparator()));
+        TableBuilder builder = new TableBuilder(new Options(), fileChannel, comparator);
+        for (int i = 0; i < 10; i++) {
+            ValueType valueType = i % 3 == 0 ? ValueType.DELETION : ValueType.VALUE;
+            builder.add(new InternalKey(Slices.copiedBuffer("key" + i, ISO_8859_1), 1, valueType), Slices.copiedBuffer("value", ISO_8859_1));
+        }
+        builder.addRangeTombstone(new InternalKey(Slices.copiedBuffer("key5", ISO_8859_1), 2, ValueType.RANGE_DELETION).encode(),
+                Slices.copiedBuffer("key7", ISO_8859_1));
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, comparator, true);
+        TableProperties properties = table.getProperties();
+        assertEquals(properties.getNumEntries(), 10);
+        assertEquals(properties.getNumDeletions(), 4);
+        assertEquals(properties.getNumRangeDeletions(), 1);
+        assertEquals(properties.getTombstoneDensity(), 5.0 / 11);
+    }
+
+    @Test
+    public void testTablePropertiesStatistics() throws Exception {
+        InternalUserComparator comparator = new InternalUserComparator(new InternalKeyComparator(new BytewiseComparator()));
+        TableBuilder builder = new TableBuilder(new Options().blockSize(256).compressionType(CompressionType.LZ4), fileChannel, comparator);
+        long rawKeySize = 0;
+        long rawValueSize = 0;
+        for (int i = 0; i < 100; i++) {
+            InternalKey key = new InternalKey(Slices.copiedBuffer(String.format("key%03d", i), ISO_8859_1), 10 + i, ValueType.VALUE);
+            Slice value = Slices.copiedBuffer("value" + i, ISO_8859_1);
+            builder.add(key, value);
+            rawKeySize += key.encode().length();
+            rawValueSize += value.length();
+        }
+        builder.addRangeTombstone(new InternalKey(Slices.copiedBuffer("key050", ISO_8859_1), 5, ValueType.RANGE_DELETION).encode(),
+                Slices.copiedBuffer("key060", ISO_8859_1));
+        builder.setCreationTime(1477000000000L);
+        builder.finish();
+
+        BlockBasedTable table = createTable(file.getAbsolutePath(), fileChannel, comparator, true);
+        TableProperties properties = table.getProperties();
+        assertEquals(properties.toString(), builder.getProperties().toString());
+        assertEquals(properties.getNumEntries(), 100);
+        assertEquals(properties.getRawKeySize(), rawKeySize);
+        assertEquals(properties.getRawValueSize(), rawValueSize);
+        assertEquals(properties.getCompressionType(), CompressionType.LZ4);
+        assertEquals(properties.getSmallestSequence(), 5);
+        assertEquals(properties.getLargestSequence(), 109);
+        assertEquals(properties.getFilterSize(), 0);
+        assertEquals(properties.getCreationTime(), 1477000000000L);
+
+        // the data blocks are at the start of the file, followed by the meta blocks and the index
+        BlockHandle lastDataBlock = null;
+        for (BlockIterator iterator = table.indexBlock.iterator(); iterator.hasNext(); ) {
+            lastDataBlock = BlockHandle.readBlockHandle(iterator.next().getValue().input());
+        }
+        assertEquals(properties.getDataSize(), lastDataBlock.getOffset() + lastDataBlock.getDataSize() + BlockTrailer.ENCODED_LENGTH);
+        Slice footer = Slices.wrappedBuffer(Files.toByteArray(file));
+        BlockHandle indexHandle = Footer.readFooter(footer.slice(footer.length() - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH)).getIndexBlockHandle();
+        assertEquals(properties.getIndexSize(), indexHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH);
+    }
+
+    @Test
+    public void testAggregateTableProperties() {
+        TableProperties first = new TableProperties.Builder().numEntries(10).rawKeySize(100).dataSize(1000)
+                .compressionType(CompressionType.ZSTD).smallestSequence(5).largestSequence(20).creationTime(300).build();
+        TableProperties second = new TableProperties.Builder().numEntries(5).numDeletions(2).rawKeySize(50).dataSize(400)
+                .compressionType(CompressionType.ZSTD).smallestSequence(1).largestSequence(8).creationTime(200).build();
+
+        TableProperties aggregated = TableProperties.EMPTY.add(first).add(second);
+        assertEquals(aggregated.getNumEntries(), 15);
+        assertEquals(aggregated.getNumDeletions(), 2);
+        assertEquals(aggregated.getRawKeySize(), 150);
+        assertEquals(aggregated.getDataSize(), 1400);
+        assertEquals(aggregated.getCompressionType(), CompressionType.ZSTD);
+        assertEquals(aggregated.getSmallestSequence(), 1);
+        assertEquals(aggregated.getLargestSequence(), 20);
+        assertEquals(aggregated.getCreationTime(), 200);
+
+        TableProperties mixed = aggregated.add(new TableProperties.Builder().numEntries(1).compressionType(CompressionType.NONE).build());
+        assertEquals(mixed.getCompressionType(), null);
+    }
+
+    private static File writeCompressedTable(CompressionType compressionType, List<BlockEntry> entries) throws IOException {
+        File tableFile = File.createTempFile("table", ".db");
+        try (RandomAccessFile output = new RandomAccessFile(tableFile, "rw")) {
+            TableBuilder builder = new TableBuilder(new Options().compressionType(compressionType), output.getChannel(), new BytewiseComparator());
+            for (BlockEntry entry : entries) {
+                builder.add(entry);
+            }
+            builder.finish();
+        }
+        return tableFile;
+    }
+
+    private static File writeTable(Options options, List<BlockEntry> entries, BlockPipeline pipeline) throws IOException {
+        File tableFile = File.createTempFile("table", ".db");
+        try (RandomAccessFile output = new RandomAccessFile(tableFile, "rw")) {
+            TableBuilder builder = new TableBuilder(options, output.getChannel(), new BytewiseComparator(), IoPriority.LOW, pipeline);
+            long lastFileSize = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                builder.add(entries.get(i));
+                if (i % 50 != 0) {
+                    // let blocks queue up in the pipeline
+                    continue;
+                }
+                long fileSize = builder.getFileSize();
+                assertTrue(fileSize >= lastFileSize);
+                assertTrue(builder.isFileSizeAtLeast(fileSize));
+                assertFalse(builder.isFileSizeAtLeast(fileSize + 1));
+                lastFileSize = fileSize;
+            }
+            builder.finish();
+        }
+        return tableFile;
+    }
+
     private void tableTest(int blockSize, int blockRestartInterval, BlockEntry... entries) throws IOException {
         tableTest(blockSize, blockRestartInterval, asList(entries));
     }
 
     private void tableTest(int blockSize, int blockRestartInterval, List<BlockEntry> entries) throws IOException {
+        tableTest(new Options().blockSize(blockSize).blockRestartInterval(blockRestartInterval), entries);
+    }
+
+    private void tableTest(Options options, List<BlockEntry> entries) throws IOException {
         reopenFile();
-        Options options = new Options().blockSize(blockSize).blockRestartInterval(blockRestartInterval);
         TableBuilder builder = new TableBuilder(options, fileChannel, new BytewiseComparator());
 
         for (BlockEntry entry : entries) {
@@ -0,0 +1,194 @@
+package org.iq80.leveldb.util;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.Slices;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class CompressorsTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (CompressionType compressionType : Arrays.asList(CompressionType.LZ4, CompressionType.ZSTD)) {
+            Compressor compressor = Compressors.get(compressionType);
+            assertNotNull(compressor, compressionType.toString());
+            for (byte[] data : testData()) {
+                byte[] compressed = new byte[compressor.maxCompressedLength(data.length)];
+                int compressedLength = compressor.compress(data, 0, data.length, compressed, 0);
+                assertEquals(compressor.uncompressedLength(compressed, 0, compressedLength), data.length);
+
+                byte[] uncompressed = new byte[data.length];
+                assertEquals(compressor.uncompress(compressed, 0, compressedLength, uncompressed, 0), data.length);
+                assertEquals(uncompressed, data, compressionType + " round trip of " + data.length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    public void testCompressesRepetitiveData() throws IOException {
+        byte[] data = repeatedText(64 * 1024);
+        for (CompressionType compressionType : Arrays.asList(CompressionType.LZ4, CompressionType.ZSTD)) {
+            Compressor compressor = Compressors.get(compressionType);
+            byte[] compressed = new byte[compressor.maxCompressedLength(data.length)];
+            int compressedLength = compressor.compress(data, 0, data.length, compressed, 0);
+            assertTrue(compressedLength < data.length / 2, compressionType + " compressed to " + compressedLength);
+        }
+    }
+
+    @Test
+    public void testCorruptDataThrowsIOException() throws IOException {
+        byte[] data = repeatedText(10000);
+        Random random = new Random(7);
+        for (CompressionType compressionType : Arrays.asList(CompressionType.LZ4, CompressionType.ZSTD)) {
+            Compressor compressor = Compressors.get(compressionType);
+            byte[] compressed = new byte[compressor.maxCompressedLength(data.length)];
+            int compressedLength = compressor.compress(data, 0, data.length, compressed, 0);
+            for (int i = 0; i < 500; i++) {
+                byte[] corrupt = Arrays.copyOf(compressed, compressedLength);
+                corrupt[random.nextInt(corrupt.length)] ^= 1 << random.nextInt(8);
+                int length = i % 10 == 0 ? random.nextInt(corrupt.length) : corrupt.length;
+                try {
+                    int uncompressedLength = compressor.uncompressedLength(corrupt, 0, length);
+                    if (uncompressedLength <= 10 * data.length) {
+                        compressor.uncompress(corrupt, 0, length, new byte[uncompressedLength], 0);
+                    }
+                } catch (IOException expected) {
+                    // corruption must only ever surface as an IOException
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedZstdFrame() {
+        Compressor compressor = Compressors.get(CompressionType.ZSTD);
+        byte[] data = repeatedText(1000);
+        byte[] compressed = new byte[compressor.maxCompressedLength(data.length)];
+        try {
+            int compressedLength = compressor.compress(data, 0, data.length, compressed, 0);
+            compressor.uncompress(compressed, 0, compressedLength - 1, new byte[data.length], 0);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testZstdDictionary() throws IOException {
+        List<byte[]> blocks = recordBlocks(50);
+        List<Slice> samples = new ArrayList<>();
+        for (byte[] block : blocks.subList(0, 40)) {
+            samples.add(Slices.wrappedBuffer(block));
+        }
+        byte[] dictionary = DictionaryTrainer.train(samples, 4096);
+        assertNotNull(dictionary);
+        assertTrue(dictionary.length <= 4096);
+
+        Compressor plain = Compressors.get(CompressionType.ZSTD);
+        Compressor compressor = Compressors.withDictionary(CompressionType.ZSTD, dictionary);
+        assertNotNull(compressor);
+
+        // blocks that were not sampled compress much better with the dictionary
+        int plainSize = 0;
+        int dictionarySize = 0;
+        for (byte[] block : blocks.subList(40, 50)) {
+            byte[] compressed = new byte[compressor.maxCompressedLength(block.length)];
+            plainSize += plain.compress(block, 0, block.length, compressed, 0);
+            int compressedLength = compressor.compress(block, 0, block.length, compressed, 0);
+            dictionarySize += compressedLength;
+
+            byte[] uncompressed = new byte[block.length];
+            assertEquals(compressor.uncompress(compressed, 0, compressedLength, uncompressed, 0), block.length);
+            assertEquals(uncompressed, block);
+        }
+        assertTrue(dictionarySize < plainSize * 3 / 4, "dictionary " + dictionarySize + " plain " + plainSize);
+
+        for (byte[] data : testData()) {
+            byte[] compressed = new byte[compressor.maxCompressedLength(data.length)];
+            int compressedLength = compressor.compress(data, 0, data.length, compressed, 0);
+            byte[] uncompressed = new byte[data.length];
+            assertEquals(compressor.uncompress(compressed, 0, compressedLength, uncompressed, 0), data.length);
+            assertEquals(uncompressed, data, "dictionary round trip of " + data.length + " bytes");
+
+            // a frame that does not reference the dictionary decodes the same with it
+            compressedLength = plain.compress(data, 0, data.length, compressed, 0);
+            assertEquals(compressor.uncompress(compressed, 0, compressedLength, uncompressed, 0), data.length);
+            assertEquals(uncompressed, data);
+        }
+    }
+
+    @Test
+    public void testDictionaryTrainerWithoutSharedContent() {
+        Random random = new Random(42);
+        List<Slice> samples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] sample = new byte[1000];
+            random.nextBytes(sample);
+            samples.add(Slices.wrappedBuffer(sample));
+        }
+        assertNull(DictionaryTrainer.train(samples, 4096));
+        assertNull(DictionaryTrainer.train(new ArrayList<Slice>(), 4096));
+    }
+
+    /**
+     * 结构相同的小记录组成的4KB数据块, 块内重复少, 块之间相似
+     */
+    private static List<byte[]> recordBlocks(int count) {
+        Random random = new Random(7);
+        String[] cities = {"Beijing", "Shanghai", "Shenzhen", "Hangzhou", "Chengdu"};
+        String[] states = {"active", "inactive", "pending"};
+        List<byte[]> blocks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder block = new StringBuilder();
+            while (block.length() < 4000) {
+                block.append("{\"id\":").append(random.nextInt(1000000))
+                        .append(",\"city\":\"").append(cities[random.nextInt(cities.length)])
+                        .append("\",\"status\":\"").append(states[random.nextInt(states.length)])
+                        .append("\",\"email\":\"user").append(random.nextInt(1000)).append("@example.com\"")
+                        .append(",\"created\":\"2016-0").append(1 + random.nextInt(9)).append("-1").append(random.nextInt(10))
+                        .append("T12:00:00Z\",\"tags\":[\"leveldb\",\"storage\"]}");
+            }
+            blocks.add(block.toString().getBytes(UTF_8));
+        }
+        return blocks;
+    }
+
+    private static List<byte[]> testData() {
+        Random random = new Random(42);
+        List<byte[]> data = new ArrayList<>();
+        for (int length : new int[] {0, 1, 3, 4, 12, 13, 100, 255, 256, 1000, 4096, 200 * 1024}) {
+            byte[] randomBytes = new byte[length];
+            random.nextBytes(randomBytes);
+            data.add(randomBytes);
+            data.add(new byte[length]);
+            data.add(repeatedText(length));
+
+            // skewed bytes exercise the entropy coders
+            byte[] skewed = new byte[length];
+            for (int i = 0; i < length; i++) {
+                skewed[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : 'a' + random.nextInt(3));
+            }
+            data.add(skewed);
+        }
+        return data;
+    }
+
+    private static byte[] repeatedText(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < length; i++) {
+            text.append("key").append(i).append(" value ").append(i % 17).append(' ');
+        }
+        return Arrays.copyOf(text.toString().getBytes(UTF_8), length);
+    }
+}
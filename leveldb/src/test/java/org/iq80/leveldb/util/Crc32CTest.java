@@ -0,0 +1,57 @@
+package org.iq80.leveldb.util;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class Crc32CTest {
+    @Test
+    public void testMatchesPureJava() {
+        Random random = new Random(0);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = new byte[random.nextInt(4096)];
+            random.nextBytes(data);
+            int offset = data.length == 0 ? 0 : random.nextInt(data.length);
+            int type = random.nextInt(256);
+
+            PureJavaCrc32C expected = new PureJavaCrc32C();
+            expected.update(data, offset, data.length - offset);
+            expected.update(type);
+
+            Checksum actual = Crc32C.checksum();
+            actual.update(data, offset, data.length - offset);
+            actual.update(type);
+            assertEquals(Crc32C.getMaskedValue(actual), expected.getMaskedValue());
+            assertEquals(Crc32C.maskedValue(data, offset, data.length - offset), PureJavaCrc32C.mask(crc(data, offset)));
+        }
+    }
+
+    @Test
+    public void testThreadInstanceIsReset() {
+        Checksum first = Crc32C.checksum();
+        first.update("dirty".getBytes(US_ASCII), 0, 5);
+        Checksum second = Crc32C.checksum();
+        assertSame(second, first);
+        assertEquals(second.getValue(), new PureJavaCrc32C().getValue());
+    }
+
+    @Test
+    public void testExpectedImplementation() {
+        // set when the tests run against the multi-release jar
+        String expected = System.getProperty("leveldb.expectedCrc32C");
+        if (expected != null) {
+            assertEquals(Crc32C.implementation(), expected);
+        }
+    }
+
+    private static int crc(byte[] data, int offset) {
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(data, offset, data.length - offset);
+        return crc.getIntValue();
+    }
+}
@@ -0,0 +1,72 @@
+package org.iq80.leveldb.util;
+
+import org.iq80.leveldb.slice.Slice;
+import org.iq80.leveldb.slice.Slices;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DirectSliceTest {
+    @Test
+    public void testReadsMatchHeapSlice() {
+        Slice heap = Slices.allocate(64);
+        for (int i = 0; i < heap.length(); i++) {
+            heap.setByte(i, i * 7 + 3);
+        }
+        Slice direct = direct(heap);
+        assertFalse(direct.hasRawArray());
+        assertTrue(heap.hasRawArray());
+
+        for (int i = 0; i + 8 <= heap.length(); i++) {
+            assertEquals(direct.getByte(i), heap.getByte(i));
+            assertEquals(direct.getShort(i), heap.getShort(i));
+            assertEquals(direct.getInt(i), heap.getInt(i));
+            assertEquals(direct.getLong(i), heap.getLong(i));
+        }
+        assertEquals(direct.getBytes(), heap.getBytes());
+        assertEquals(direct.copySlice(5, 20), heap.copySlice(5, 20));
+        assertTrue(direct.copySlice(5, 20).hasRawArray());
+        assertEquals(direct.toByteBuffer(3, 10), heap.toByteBuffer(3, 10));
+
+        // a view of a view still reads the original memory
+        Slice view = direct.slice(10, 30).slice(5, 10);
+        assertFalse(view.hasRawArray());
+        assertEquals(view, heap.slice(15, 10));
+        assertEquals(view.hashCode(), heap.slice(15, 10).hashCode());
+        assertEquals(view.compareTo(heap.slice(15, 10)), 0);
+        assertTrue(view.compareTo(heap.slice(16, 10)) != 0);
+    }
+
+    @Test
+    public void testCopyIntoHeapSlice() {
+        Slice direct = direct(Slices.copiedBuffer("direct memory", UTF_8));
+        Slice target = Slices.allocate(direct.length());
+        target.setBytes(0, direct, 0, direct.length());
+        assertEquals(target.toString(UTF_8), "direct memory");
+        assertEquals(direct.toString(UTF_8), "direct memory");
+    }
+
+    @Test(expectedExceptions = ReadOnlyBufferException.class)
+    public void testDirectSliceIsReadOnly() {
+        direct(Slices.allocate(8)).setInt(0, 1);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testDirectSliceHasNoArray() {
+        direct(Slices.allocate(8)).getRawArray();
+    }
+
+    private static Slice direct(Slice heap) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(heap.length() + 4);
+        buffer.position(4);
+        buffer.put(heap.getBytes());
+        buffer.position(4);
+        return Slices.wrappedBuffer(buffer);
+    }
+}